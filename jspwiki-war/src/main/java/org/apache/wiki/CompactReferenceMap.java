@@ -0,0 +1,383 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *  A Map from page names to Sets of page names, which stores each Set as a
+ *  array of page ids from a {@link PageNameDictionary}, sorted by page name.  This is used
+ *  by the {@link ReferenceManager} when
+ *  <code>jspwiki.referenceManager.compact</code> is set, and takes a
+ *  fraction of the memory of a HashMap of TreeSets, since every page name
+ *  is stored only once and no per-element objects are created.
+ *  <p>
+ *  The values are encoded when they are put in the map, and the Sets
+ *  returned by {@link #get(Object)} are read-only views to the arrays.  The
+ *  arrays are never modified once stored, so readers do not lock; writers
+ *  synchronize on the map.  The Sets iterate in alphabetical order, like
+ *  the TreeSets the ReferenceManager uses otherwise.
+ *
+ *  @since 2.10
+ */
+class CompactReferenceMap
+    extends AbstractMap<String,Set<String>>
+{
+    private static final int[] EMPTY = new int[0];
+
+    /** Stored for the marker value; compared by identity. */
+    private static final int[] MARKER = new int[0];
+
+    private final PageNameDictionary m_dictionary;
+
+    /** A value which is stored as is, and returned by identity. */
+    private final Set<String>        m_marker;
+
+    private volatile AtomicReferenceArray<int[]> m_values = new AtomicReferenceArray<int[]>( 256 );
+
+    private volatile int m_size = 0;
+
+    /**
+     *  Creates a new map.
+     *
+     *  @param dictionary The dictionary for the page names.  May be shared
+     *                    between several maps.
+     *  @param marker A special value which is returned as the same object
+     *                it was put in, or null.
+     */
+    CompactReferenceMap( PageNameDictionary dictionary, Set<String> marker )
+    {
+        m_dictionary = dictionary;
+        m_marker     = marker;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public Set<String> get( Object key )
+    {
+        if( !(key instanceof String) ) return null;
+
+        int id = m_dictionary.lookup( (String)key );
+
+        if( id < 0 ) return null;
+
+        return toSet( value( id ) );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public boolean containsKey( Object key )
+    {
+        if( !(key instanceof String) ) return false;
+
+        int id = m_dictionary.lookup( (String)key );
+
+        return id >= 0 && value( id ) != null;
+    }
+
+    /**
+     *  Stores the value.  The previous value is not returned, as it is
+     *  never needed by the ReferenceManager.
+     *
+     *  @param key {@inheritDoc}
+     *  @param value {@inheritDoc}
+     *  @return null
+     */
+    public synchronized Set<String> put( String key, Set<String> value )
+    {
+        int id = m_dictionary.intern( key );
+
+        int[] ids;
+
+        if( value == null )
+        {
+            throw new NullPointerException( "Null values are not allowed" );
+        }
+        else if( value == m_marker )
+        {
+            ids = MARKER;
+        }
+        else if( value.isEmpty() )
+        {
+            ids = EMPTY;
+        }
+        else
+        {
+            String[] names = value.toArray( new String[value.size()] );
+
+            // A name never changes its id, so the order stays valid.
+            Arrays.sort( names );
+
+            ids = new int[names.length];
+
+            for( int i = 0; i < names.length; i++ )
+            {
+                ids[i] = m_dictionary.intern( names[i] );
+            }
+        }
+
+        AtomicReferenceArray<int[]> values = m_values;
+
+        if( id >= values.length() )
+        {
+            int length = values.length();
+            while( length <= id ) length *= 2;
+
+            AtomicReferenceArray<int[]> grown = new AtomicReferenceArray<int[]>( length );
+
+            for( int i = 0; i < values.length(); i++ )
+            {
+                grown.set( i, values.get( i ) );
+            }
+
+            m_values = values = grown;
+        }
+
+        if( values.getAndSet( id, ids ) == null ) m_size++;
+
+        return null;
+    }
+
+    /**
+     *  Removes the value.  The previous value is not returned.
+     *
+     *  @param key {@inheritDoc}
+     *  @return null
+     */
+    public synchronized Set<String> remove( Object key )
+    {
+        if( !(key instanceof String) ) return null;
+
+        int id = m_dictionary.lookup( (String)key );
+
+        if( id >= 0 && id < m_values.length() && m_values.getAndSet( id, null ) != null )
+        {
+            m_size--;
+        }
+
+        return null;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public synchronized void clear()
+    {
+        m_values = new AtomicReferenceArray<int[]>( 256 );
+        m_size = 0;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public Set<Map.Entry<String,Set<String>>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String,Set<String>>>()
+        {
+            public Iterator<Map.Entry<String,Set<String>>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            public int size()
+            {
+                return m_size;
+            }
+        };
+    }
+
+    /**
+     *  Returns an estimate of the heap used by the arrays in this map, in
+     *  bytes.  The dictionary is not included.
+     *
+     *  @return Estimated size in bytes.
+     */
+    long getHeapEstimate()
+    {
+        AtomicReferenceArray<int[]> values = m_values;
+
+        long size = 16L + 4L * values.length();
+
+        for( int i = 0; i < values.length(); i++ )
+        {
+            int[] ids = values.get( i );
+
+            if( ids != null && ids != EMPTY && ids != MARKER )
+            {
+                size += 16 + 4L * ids.length;
+            }
+        }
+
+        return size;
+    }
+
+    private int[] value( int id )
+    {
+        AtomicReferenceArray<int[]> values = m_values;
+
+        return id < values.length() ? values.get( id ) : null;
+    }
+
+    private Set<String> toSet( int[] ids )
+    {
+        if( ids == null ) return null;
+        if( ids == MARKER ) return m_marker;
+
+        return new IdSet( ids );
+    }
+
+    /**
+     *  Iterates over the non-null slots of the array which was current when
+     *  the iteration started.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String,Set<String>>>
+    {
+        private final AtomicReferenceArray<int[]> m_snapshot = m_values;
+        private int   m_next  = -1;
+        private int[] m_nextValue;
+
+        EntryIterator()
+        {
+            advance();
+        }
+
+        private void advance()
+        {
+            m_nextValue = null;
+
+            while( ++m_next < m_snapshot.length() )
+            {
+                m_nextValue = m_snapshot.get( m_next );
+
+                if( m_nextValue != null ) break;
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return m_nextValue != null;
+        }
+
+        public Map.Entry<String,Set<String>> next()
+        {
+            if( m_nextValue == null ) throw new NoSuchElementException();
+
+            Map.Entry<String,Set<String>> e =
+                new AbstractMap.SimpleImmutableEntry<String,Set<String>>( m_dictionary.name( m_next ),
+                                                                          toSet( m_nextValue ) );
+            advance();
+
+            return e;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     *  A read-only Set view to an array of ids.  When serialized, it is
+     *  replaced by a TreeSet, so the stored data does not depend on the
+     *  ids, which are different in every run.
+     */
+    private class IdSet extends AbstractSet<String> implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] m_ids;
+
+        IdSet( int[] ids )
+        {
+            m_ids = ids;
+        }
+
+        public boolean contains( Object o )
+        {
+            if( !(o instanceof String) ) return false;
+
+            String name = (String)o;
+            int low  = 0;
+            int high = m_ids.length - 1;
+
+            while( low <= high )
+            {
+                int mid = (low + high) >>> 1;
+                int cmp = m_dictionary.name( m_ids[mid] ).compareTo( name );
+
+                if( cmp < 0 )
+                    low = mid + 1;
+                else if( cmp > 0 )
+                    high = mid - 1;
+                else
+                    return true;
+            }
+
+            return false;
+        }
+
+        public int size()
+        {
+            return m_ids.length;
+        }
+
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+                private int m_pos = 0;
+
+                public boolean hasNext()
+                {
+                    return m_pos < m_ids.length;
+                }
+
+                public String next()
+                {
+                    if( m_pos >= m_ids.length ) throw new NoSuchElementException();
+
+                    return m_dictionary.name( m_ids[m_pos++] );
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private Object writeReplace() throws ObjectStreamException
+        {
+            return new TreeSet<String>( this );
+        }
+    }
+}
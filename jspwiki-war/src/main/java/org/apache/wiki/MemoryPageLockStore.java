@@ -0,0 +1,92 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ *  Keeps the page locks in a ConcurrentHashMap.  This is the default
+ *  {@link PageLockStore}; the locks are only seen by this wiki, and
+ *  are lost when it is restarted.
+ *
+ *  @since 2.10
+ */
+public class MemoryPageLockStore implements PageLockStore
+{
+    private final ConcurrentMap<String,PageLock> m_locks = new ConcurrentHashMap<String,PageLock>();
+
+    /**
+     *  {@inheritDoc}
+     */
+    public void initialize( WikiEngine engine, Properties properties )
+    {
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public String getProviderInfo()
+    {
+        return "In-memory page locks";
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public PageLock get( String page )
+    {
+        return m_locks.get( page );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public PageLock putIfAbsent( PageLock lock )
+    {
+        return m_locks.putIfAbsent( lock.getPage(), lock );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public boolean replace( PageLock expected, PageLock lock )
+    {
+        return m_locks.replace( lock.getPage(), expected, lock );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public boolean remove( PageLock lock )
+    {
+        return m_locks.remove( lock.getPage(), lock );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public Collection<PageLock> getAll()
+    {
+        return new ArrayList<PageLock>( m_locks.values() );
+    }
+}
@@ -52,7 +52,25 @@ public class PageLock
                      Date acquired,
                      Date expiry )
     {
-        m_page         = page.getName();
+        this( page.getName(), locker, acquired, expiry );
+    }
+
+    /**
+     *  Creates a new PageLock for a page name.  This is meant for
+     *  {@link PageLockStore}s which read the locks back from storage.
+     *  
+     *  @param page     Name of the page which is locked.
+     *  @param locker   The username who locked this page (for display purposes).
+     *  @param acquired The timestamp when the lock is acquired
+     *  @param expiry   The timestamp when the lock expires.
+     *  @since 2.10
+     */
+    public PageLock( String page, 
+                     String locker,
+                     Date acquired,
+                     Date expiry )
+    {
+        m_page         = page;
         m_locker       = locker;
         m_lockAcquired = (Date)acquired.clone();
         m_lockExpiry   = (Date)expiry.clone();
@@ -111,5 +129,43 @@ public class PageLock
         return (time / (1000L * 60)) + 1;
     }
     
-    // FIXME: Should really have a isExpired() method as well.
+    /**
+     *  Returns true, if the lock has expired.  An expired lock may still
+     *  be stored, until it is removed or replaced by a new one.
+     *  
+     *  @return True, if the expiry time has passed.
+     *  @since 2.10
+     */
+    public boolean isExpired()
+    {
+        return m_lockExpiry.getTime() <= System.currentTimeMillis();
+    }
+
+    /**
+     *  Two locks are equal, if they are on the same page, by the same locker,
+     *  and were acquired and expire at the same time.  A renewed lock is
+     *  therefore not equal to the lock it replaced.
+     *  
+     *  @param o The object to compare to.
+     *  @return True, if the locks are equal.
+     */
+    public boolean equals( Object o )
+    {
+        if( !( o instanceof PageLock ) ) return false;
+
+        PageLock lock = (PageLock) o;
+
+        return m_page.equals( lock.m_page )
+               && ( m_locker == null ? lock.m_locker == null : m_locker.equals( lock.m_locker ) )
+               && m_lockAcquired.equals( lock.m_lockAcquired )
+               && m_lockExpiry.equals( lock.m_lockExpiry );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public int hashCode()
+    {
+        return m_page.hashCode() ^ m_lockExpiry.hashCode();
+    }
 }
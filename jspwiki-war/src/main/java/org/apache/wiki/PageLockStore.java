@@ -0,0 +1,88 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ *  Stores the page locks of the {@link PageManager}.  Each operation must be
+ *  atomic, like the methods of the same name in
+ *  {@link java.util.concurrent.ConcurrentMap}, so that two editors can never
+ *  both acquire the lock of a page.  Locks are compared with
+ *  {@link PageLock#equals(Object)}, so a store may hand out copies of
+ *  the locks it holds.
+ *  <p>
+ *  The default store keeps the locks in memory.  A store which keeps them in
+ *  a shared file or database lets several wikis on the same repository see
+ *  each other's locks.  Set the store with the <code>jspwiki.lockStore</code>
+ *  property.
+ *  <p>
+ *  A store does not need to remove expired locks; the PageManager ignores
+ *  them, replaces them with new ones, and removes the ones it acquired.
+ *
+ *  @since 2.10
+ */
+public interface PageLockStore extends WikiProvider
+{
+    /**
+     *  Returns the lock of a page, whether it has expired or not.
+     *
+     *  @param page The page name.
+     *  @return The lock, or null, if the page has none.
+     *  @throws IOException If the store cannot be read.
+     */
+    PageLock get( String page ) throws IOException;
+
+    /**
+     *  Stores a lock, unless the page already has one.
+     *
+     *  @param lock The lock to store.
+     *  @return The lock the page already had, or null, if the given lock was stored.
+     *  @throws IOException If the store cannot be written.
+     */
+    PageLock putIfAbsent( PageLock lock ) throws IOException;
+
+    /**
+     *  Replaces the lock of a page, if it is still the expected one.
+     *
+     *  @param expected The lock the page should have.
+     *  @param lock The new lock.
+     *  @return True, if the lock was replaced.
+     *  @throws IOException If the store cannot be written.
+     */
+    boolean replace( PageLock expected, PageLock lock ) throws IOException;
+
+    /**
+     *  Removes a lock, if it is still the lock of its page.
+     *
+     *  @param lock The lock to remove.
+     *  @return True, if the lock was removed.
+     *  @throws IOException If the store cannot be written.
+     */
+    boolean remove( PageLock lock ) throws IOException;
+
+    /**
+     *  Returns all the stored locks, including expired ones.
+     *
+     *  @return The locks.
+     *  @throws IOException If the store cannot be read.
+     */
+    Collection<PageLock> getAll() throws IOException;
+}
@@ -22,6 +22,9 @@ import java.io.IOException;
 import java.security.Permission;
 import java.security.Principal;
 import java.util.*;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
@@ -73,6 +76,11 @@ public class PageManager extends ModuleManager implements WikiEventListener
      *  Value is {@value}.
      */
     public static final String PROP_LOCKEXPIRY   = "jspwiki.lockExpiryTime";
+
+    /** The property value for setting the {@link PageLockStore} which keeps the page locks.
+     *  Value is {@value}.
+     */
+    public static final String PROP_LOCKSTORE    = "jspwiki.lockStore";
     
     /** The message key for storing the text for the presave task.  Value is <tt>{@value}</tt>*/
     public static final String PRESAVE_TASK_MESSAGE_KEY = "task.preSaveWikiPage";
@@ -112,13 +120,17 @@ public class PageManager extends ModuleManager implements WikiEventListener
 
     private WikiPageProvider m_provider;
 
-    protected HashMap<String,PageLock> m_pageLocks = new HashMap<String,PageLock>();
+    /** Keeps the page locks. */
+    protected PageLockStore m_lockStore;
+
+    /** The locks acquired here, in the order in which they expire. */
+    private final DelayQueue<LockExpiry> m_lockExpiries = new DelayQueue<LockExpiry>();
 
     private WikiEngine m_engine;
 
     private int m_expiryTime = 60;
 
-    private LockReaper m_reaper = null;
+    private volatile LockReaper m_reaper = null;
 
     /**
      *  Creates a new PageManager.
@@ -191,6 +203,44 @@ public class PageManager extends ModuleManager implements WikiEventListener
             throw new WikiException( "Unable to start page provider: "+e.getMessage(), e );
         }
 
+        initializeLockStore( props );
+    }
+
+    /**
+     *  Creates the store for the page locks.
+     */
+    private void initializeLockStore( Properties props )
+        throws WikiException
+    {
+        String classname = TextUtil.getStringProperty( props, PROP_LOCKSTORE, MemoryPageLockStore.class.getName() );
+
+        try
+        {
+            Class storeclass = ClassUtil.findClass( "org.apache.wiki", classname );
+
+            m_lockStore = (PageLockStore)storeclass.newInstance();
+            m_lockStore.initialize( m_engine, props );
+        }
+        catch( ClassNotFoundException e )
+        {
+            log.error("Unable to locate lock store class '"+classname+"'",e);
+            throw new WikiException( "No lock store class.", e );
+        }
+        catch( InstantiationException e )
+        {
+            log.error("Unable to create lock store class '"+classname+"'",e);
+            throw new WikiException( "Faulty lock store class.", e );
+        }
+        catch( IllegalAccessException e )
+        {
+            log.error("Illegal access to lock store class '"+classname+"'",e);
+            throw new WikiException( "Illegal lock store class.", e );
+        }
+        catch( IOException e )
+        {
+            log.error("An I/O exception occurred while trying to create the lock store: "+classname, e );
+            throw new WikiException( "Unable to start lock store: "+e.getMessage(), e );
+        }
     }
 
 
@@ -308,7 +358,7 @@ public class PageManager extends ModuleManager implements WikiEventListener
     /**
      *  Locks page for editing.  Note, however, that the PageManager
      *  will in no way prevent you from actually editing this page;
-     *  the lock is just for information.
+     *  the lock is just for information.  An expired lock is replaced.
      *
      *  @param page WikiPage to lock
      *  @param user Username to use for locking
@@ -316,8 +366,6 @@ public class PageManager extends ModuleManager implements WikiEventListener
      */
     public PageLock lockPage( WikiPage page, String user )
     {
-        PageLock lock = null;
-
         if( m_reaper == null )
         {
             //
@@ -326,42 +374,92 @@ public class PageManager extends ModuleManager implements WikiEventListener
             //  is a bad idea when it comes to inheritance.  Besides,
             //  laziness is a virtue.
             //
-            m_reaper = new LockReaper( m_engine );
-            m_reaper.start();
+            synchronized( this )
+            {
+                if( m_reaper == null )
+                {
+                    m_reaper = new LockReaper( m_engine );
+                    m_reaper.start();
+                }
+            }
         }
 
-        synchronized( m_pageLocks )
-        {
-            fireEvent( WikiPageEvent.PAGE_LOCK, page.getName() ); // prior to or after actual lock?
+        fireEvent( WikiPageEvent.PAGE_LOCK, page.getName() ); // prior to or after actual lock?
 
-            lock = m_pageLocks.get( page.getName() );
+        Date d = new Date();
+        PageLock lock = new PageLock( page, user, d,
+                                      new Date( d.getTime() + m_expiryTime*60*1000L ) );
 
-            if( lock == null )
+        try
+        {
+            while( true )
             {
+                PageLock current = m_lockStore.putIfAbsent( lock );
+
+                if( current != null && !current.isExpired() )
+                {
+                    log.debug( "Page "+page.getName()+" already locked by "+current.getLocker() );
+                    return null; // Nothing to return
+                }
+
                 //
-                //  Lock is available, so make a lock.
+                //  Either the lock was available, or the old one has expired and
+                //  can be replaced, unless somebody else gets there first.
                 //
-                Date d = new Date();
-                lock = new PageLock( page, user, d,
-                                     new Date( d.getTime() + m_expiryTime*60*1000L ) );
-
-                m_pageLocks.put( page.getName(), lock );
+                if( current == null || m_lockStore.replace( current, lock ) )
+                {
+                    m_lockExpiries.add( new LockExpiry( lock ) );
 
-                log.debug( "Locked page "+page.getName()+" for "+user);
+                    log.debug( "Locked page "+page.getName()+" for "+user);
+                    return lock;
+                }
             }
-            else
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to lock page "+page.getName(), e );
+            return null;
+        }
+    }
+
+    /**
+     *  Extends the time a lock is held, as if it had been just acquired.
+     *  The lock returned replaces the old one, which should no longer be used.
+     *
+     *  @param lock A lock acquired in lockPage() or renewLock().
+     *  @return The renewed lock, or null, if the given lock is no longer held.
+     *  @since 2.10
+     */
+    public PageLock renewLock( PageLock lock )
+    {
+        if( lock == null ) return null;
+
+        Date d = new Date();
+        PageLock renewed = new PageLock( lock.getPage(), lock.getLocker(), lock.getAcquisitionTime(),
+                                         new Date( d.getTime() + m_expiryTime*60*1000L ) );
+
+        try
+        {
+            if( !lock.isExpired() && m_lockStore.replace( lock, renewed ) )
             {
-                log.debug( "Page "+page.getName()+" already locked by "+lock.getLocker() );
-                lock = null; // Nothing to return
+                m_lockExpiries.add( new LockExpiry( renewed ) );
+
+                log.debug( "Renewed lock on page "+lock.getPage()+" for "+lock.getLocker() );
+                return renewed;
             }
         }
+        catch( IOException e )
+        {
+            log.error( "Unable to renew lock on page "+lock.getPage(), e );
+        }
 
-        return lock;
+        return null;
     }
 
     /**
      *  Marks a page free to be written again.  If there has not been a lock,
-     *  will fail quietly.
+     *  will fail quietly.  A lock which has since been replaced by another one
+     *  is not removed.
      *
      *  @param lock A lock acquired in lockPage().  Safe to be null.
      */
@@ -369,11 +467,16 @@ public class PageManager extends ModuleManager implements WikiEventListener
     {
         if( lock == null ) return;
 
-        synchronized( m_pageLocks )
+        try
         {
-            m_pageLocks.remove( lock.getPage() );
-
-            log.debug( "Unlocked page "+lock.getPage() );
+            if( m_lockStore.remove( lock ) )
+            {
+                log.debug( "Unlocked page "+lock.getPage() );
+            }
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to unlock page "+lock.getPage(), e );
         }
 
         fireEvent( WikiPageEvent.PAGE_UNLOCK, lock.getPage() );
@@ -381,21 +484,24 @@ public class PageManager extends ModuleManager implements WikiEventListener
 
     /**
      *  Returns the current lock owner of a page.  If the page is not
-     *  locked, will return null.
+     *  locked, or the lock has expired, will return null.
      *
      *  @param page The page to check the lock for
      *  @return Current lock, or null, if there is no lock
      */
     public PageLock getCurrentLock( WikiPage page )
     {
-        PageLock lock = null;
+        try
+        {
+            PageLock lock = m_lockStore.get( page.getName() );
 
-        synchronized( m_pageLocks )
+            return ( lock != null && !lock.isExpired() ) ? lock : null;
+        }
+        catch( IOException e )
         {
-            lock = m_pageLocks.get( page.getName() );
+            log.error( "Unable to read the lock of page "+page.getName(), e );
+            return null;
         }
-
-        return lock;
     }
 
     /**
@@ -410,13 +516,20 @@ public class PageManager extends ModuleManager implements WikiEventListener
     {
         ArrayList<PageLock> result = new ArrayList<PageLock>();
 
-        synchronized( m_pageLocks )
+        try
         {
-            for( PageLock lock : m_pageLocks.values() )
+            for( PageLock lock : m_lockStore.getAll() )
             {
-                result.add( lock );
+                if( !lock.isExpired() )
+                {
+                    result.add( lock );
+                }
             }
         }
+        catch( IOException e )
+        {
+            log.error( "Unable to read the page locks", e );
+        }
 
         return result;
     }
@@ -622,32 +735,54 @@ public class PageManager extends ModuleManager implements WikiEventListener
             setName("JSPWiki Lock Reaper");
         }
 
+        /**
+         *  Removes the locks which have expired.  Only the expired locks are
+         *  taken from the queue.  A lock which has been renewed or released
+         *  is no longer in the store, and is skipped.
+         */
         public void backgroundTask() throws Exception
         {
-            synchronized( m_pageLocks )
-            {
-                Collection entries = m_pageLocks.values();
+            LockExpiry expiry;
 
-                Date now = new Date();
+            while( ( expiry = m_lockExpiries.poll() ) != null )
+            {
+                PageLock p = expiry.m_lock;
 
-                for( Iterator i = entries.iterator(); i.hasNext(); )
+                if( m_lockStore.remove( p ) )
                 {
-                    PageLock p = (PageLock) i.next();
-
-                    if( now.after( p.getExpiryTime() ) )
-                    {
-                        i.remove();
-
-                        log.debug( "Reaped lock: "+p.getPage()+
-                                   " by "+p.getLocker()+
-                                   ", acquired "+p.getAcquisitionTime()+
-                                   ", and expired "+p.getExpiryTime() );
-                    }
+                    log.debug( "Reaped lock: "+p.getPage()+
+                               " by "+p.getLocker()+
+                               ", acquired "+p.getAcquisitionTime()+
+                               ", and expired "+p.getExpiryTime() );
                 }
             }
         }
     }
 
+    /**
+     *  An entry in the queue of locks to reap, which becomes available
+     *  when the lock expires.
+     */
+    private static final class LockExpiry implements Delayed
+    {
+        private final PageLock m_lock;
+
+        private LockExpiry( PageLock lock )
+        {
+            m_lock = lock;
+        }
+
+        public long getDelay( TimeUnit unit )
+        {
+            return unit.convert( m_lock.getExpiryTime().getTime() - System.currentTimeMillis(), TimeUnit.MILLISECONDS );
+        }
+
+        public int compareTo( Delayed o )
+        {
+            return m_lock.getExpiryTime().compareTo( ((LockExpiry) o).m_lock.getExpiryTime() );
+        }
+    }
+
     // workflow task inner classes....................................................
 
     /**
@@ -746,11 +881,21 @@ public class PageManager extends ModuleManager implements WikiEventListener
             // Let the rest of the engine handle actual saving.
             engine.getPageManager().putPageText( page, proposedText );
 
-            // Refresh the context for post save filtering.
+            // Refresh the context for post save filtering.  The links are collected
+            // while rendering, so that the ReferenceManager need not look for them again.
             engine.getPage( page.getName() );
-            engine.textToHTML( context, proposedText );
+            LinkCollector links = new LinkCollector();
+            engine.textToHTML( context, proposedText, links, null, links );
             FilterManager fm = engine.getFilterManager();
-            fm.doPostSaveFiltering( context, proposedText );
+            context.setVariable( ReferenceManager.VAR_SAVED_LINKS, links.getLinks() );
+            try
+            {
+                fm.doPostSaveFiltering( context, proposedText );
+            }
+            finally
+            {
+                context.setVariable( ReferenceManager.VAR_SAVED_LINKS, null );
+            }
 
             return Outcome.STEP_COMPLETE;
         }
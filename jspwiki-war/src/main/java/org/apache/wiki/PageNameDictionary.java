@@ -0,0 +1,178 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ *  Maps page names to small integers and back, so that the reference lists
+ *  can be stored as arrays of ints instead of Sets of Strings.  Ids are
+ *  handed out in order starting from zero and are never reused, so the
+ *  dictionary only grows; it is rebuilt when the wiki is restarted.
+ *  <p>
+ *  The ids are found through an open-addressed hash table of ints, so that
+ *  no Integer or map entry is created per name.  Lookups do not lock.  New
+ *  names are added under the lock of this object.
+ *
+ *  @since 2.10
+ */
+class PageNameDictionary
+{
+    /**
+     *  The hash table.  A slot holds the id plus one, or zero if it is free.
+     *  Collisions are resolved by linear probing, and the table is kept at
+     *  most half full.
+     */
+    private volatile AtomicIntegerArray m_table = new AtomicIntegerArray( 512 );
+
+    private volatile String[] m_names = new String[256];
+
+    private int m_count = 0;
+
+    /**
+     *  Returns the id of a name, adding it to the dictionary if necessary.
+     *
+     *  @param name The page name.
+     *  @return The id.
+     */
+    synchronized int intern( String name )
+    {
+        int id = lookup( name );
+
+        if( id >= 0 ) return id;
+
+        String[] names = m_names;
+
+        if( m_count == names.length )
+        {
+            String[] grown = new String[names.length * 2];
+            System.arraycopy( names, 0, grown, 0, names.length );
+            names = grown;
+        }
+
+        names[m_count] = name;
+        m_names = names;
+
+        AtomicIntegerArray table = m_table;
+
+        if( 2 * (m_count + 1) > table.length() )
+        {
+            table = new AtomicIntegerArray( table.length() * 2 );
+
+            for( int i = 0; i < m_count; i++ )
+            {
+                insert( table, names[i], i );
+            }
+
+            m_table = table;
+        }
+
+        // Publishing the id must come last, so that a reader which finds it
+        // also sees the name.
+        insert( table, name, m_count );
+
+        return m_count++;
+    }
+
+    private static void insert( AtomicIntegerArray table, String name, int id )
+    {
+        int mask = table.length() - 1;
+
+        for( int i = spread( name.hashCode() ) & mask; ; i = (i + 1) & mask )
+        {
+            if( table.get( i ) == 0 )
+            {
+                table.set( i, id + 1 );
+                return;
+            }
+        }
+    }
+
+    private static int spread( int h )
+    {
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    /**
+     *  Returns the id of a name without adding it.
+     *
+     *  @param name The page name.
+     *  @return The id, or -1, if the name is not in the dictionary.
+     */
+    int lookup( String name )
+    {
+        AtomicIntegerArray table = m_table;
+        int mask = table.length() - 1;
+        int hash = name.hashCode();
+
+        for( int i = spread( hash ) & mask; ; i = (i + 1) & mask )
+        {
+            int slot = table.get( i );
+
+            if( slot == 0 ) return -1;
+
+            String candidate = m_names[slot - 1];
+
+            if( candidate.hashCode() == hash && candidate.equals( name ) ) return slot - 1;
+        }
+    }
+
+    /**
+     *  Returns the name for an id.
+     *
+     *  @param id An id returned by {@link #intern(String)}.
+     *  @return The page name.
+     */
+    String name( int id )
+    {
+        return m_names[id];
+    }
+
+    /**
+     *  Returns the number of names in the dictionary.
+     *
+     *  @return The number of names.
+     */
+    synchronized int size()
+    {
+        return m_count;
+    }
+
+    /**
+     *  Returns an estimate of the heap used by this dictionary, in bytes.
+     *
+     *  @return Estimated size in bytes.
+     */
+    synchronized long getHeapEstimate()
+    {
+        //
+        //  Per name: the String and its char[].  The names array and the
+        //  hash table are counted as a whole.
+        //
+        long size = 16L + 4L * m_names.length + 16L + 4L * m_table.length();
+
+        for( int i = 0; i < m_count; i++ )
+        {
+            size += 40 + 16 + 2L * m_names[i].length();
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.log4j.Logger;
+
+import org.apache.wiki.attachment.Attachment;
+import org.apache.wiki.attachment.AttachmentManager;
+import org.apache.wiki.event.WikiEvent;
+import org.apache.wiki.event.WikiEventListener;
+import org.apache.wiki.event.WikiEventUtils;
+import org.apache.wiki.event.WikiPageEvent;
+import org.apache.wiki.event.WikiPageRenameEvent;
+import org.apache.wiki.providers.ProviderException;
+
+/**
+ *  Keeps the latest version of every page and attachment in the order of their
+ *  last modification, most recent first.  The recent changes can then be read
+ *  from the head of the list, without loading and sorting all pages.
+ *  <p>
+ *  The index is filled from the page and attachment providers once, when the
+ *  WikiEngine starts.  After that, it is updated when pages are saved, deleted
+ *  or renamed.  The AttachmentManager reports stored and deleted attachments
+ *  directly through {@link #pageChanged(String)} and {@link #pageRemoved(String)}.
+ *
+ *  @since 2.10
+ */
+public class RecentChangesIndex implements WikiEventListener
+{
+    private static final Logger log = Logger.getLogger( RecentChangesIndex.class );
+
+    private final WikiEngine m_engine;
+
+    /** The latest change of each page, by page name. */
+    private final ConcurrentSkipListMap<String,Change> m_changes = new ConcurrentSkipListMap<String,Change>();
+
+    /** The same changes, most recent first. */
+    private final ConcurrentSkipListMap<Change,WikiPage> m_timeline = new ConcurrentSkipListMap<Change,WikiPage>();
+
+    /**
+     *  Creates an empty index.
+     *
+     *  @param engine The WikiEngine whose pages are indexed.
+     */
+    public RecentChangesIndex( WikiEngine engine )
+    {
+        m_engine = engine;
+    }
+
+    /**
+     *  Starts listening to page events and adds all existing pages and
+     *  attachments to the index.
+     *
+     *  @throws ProviderException If the pages cannot be listed.
+     */
+    @SuppressWarnings("unchecked")
+    public void initialize()
+        throws ProviderException
+    {
+        WikiEventUtils.addWikiEventListener( m_engine, WikiPageEvent.POST_SAVE_END, this );
+        WikiEventUtils.addWikiEventListener( m_engine.getPageManager(), WikiPageEvent.PAGE_DELETED, this );
+
+        // Renames are announced by the engine.
+        m_engine.addWikiEventListener( this );
+
+        // A page saved while we are loading is already newer than what we read.
+        for( WikiPage page : (Collection<WikiPage>) m_engine.getPageManager().getAllPages() )
+        {
+            update( page );
+        }
+
+        for( WikiPage att : (Collection<WikiPage>) m_engine.getAttachmentManager().getAllAttachments() )
+        {
+            update( att );
+        }
+
+        log.info( "Indexed the recent changes of " + m_changes.size() + " pages and attachments" );
+    }
+
+    /**
+     *  Returns the latest versions of the pages and attachments that have been
+     *  changed since the given date, most recent first.
+     *
+     *  @param since Only pages modified at or after this date are returned.  If null,
+     *               all pages are returned.
+     *  @param limit The maximum number of pages to return, or -1 for no limit.
+     *  @return A list of WikiPages and Attachments.
+     */
+    public List<WikiPage> getRecentChanges( Date since, int limit )
+    {
+        long from = since != null ? since.getTime() : Long.MIN_VALUE;
+        List<WikiPage> result = new ArrayList<WikiPage>();
+
+        for( Map.Entry<Change,WikiPage> e : m_timeline.entrySet() )
+        {
+            if( e.getKey().m_time < from || (limit >= 0 && result.size() >= limit) )
+            {
+                break;
+            }
+
+            result.add( e.getValue() );
+        }
+
+        return result;
+    }
+
+    /**
+     *  Returns the number of pages and attachments in the index.
+     *
+     *  @return The number of indexed pages.
+     */
+    public int size()
+    {
+        return m_changes.size();
+    }
+
+    /**
+     *  Reads the latest version of a page or an attachment and moves it to its
+     *  place in the index.  If the page no longer exists, it is removed.
+     *
+     *  @param name The name of the page or attachment.
+     */
+    public void pageChanged( String name )
+    {
+        WikiPage page = m_engine.getPage( name );
+
+        if( page != null )
+        {
+            update( page );
+        }
+        else
+        {
+            pageRemoved( name );
+        }
+    }
+
+    /**
+     *  Moves a page back to the time of its latest remaining version, after
+     *  a version of it has been deleted.
+     *
+     *  @param name The name of the page or attachment.
+     */
+    public void versionDeleted( String name )
+    {
+        synchronized( this )
+        {
+            remove( name );
+        }
+
+        pageChanged( name );
+    }
+
+    /**
+     *  Removes a page from the index.  If the page has attachments, they are
+     *  removed as well.
+     *
+     *  @param name The name of the page or attachment.
+     */
+    public synchronized void pageRemoved( String name )
+    {
+        remove( name );
+
+        String prefix = name + "/";
+        for( String att : new ArrayList<String>( m_changes.subMap( prefix, name + "0" ).keySet() ) )
+        {
+            remove( att );
+        }
+    }
+
+    /**
+     *  Keeps the index up to date: saved pages are moved to the top, deleted pages
+     *  are removed, and renamed pages are indexed under their new names.
+     *
+     *  @param event The event
+     */
+    public void actionPerformed( WikiEvent event )
+    {
+        if( event instanceof WikiPageRenameEvent )
+        {
+            WikiPageRenameEvent rename = (WikiPageRenameEvent) event;
+
+            pageRemoved( rename.getOldPageName() );
+
+            WikiPage page = m_engine.getPage( rename.getNewPageName() );
+            if( page == null ) return;
+
+            update( page );
+
+            AttachmentManager mgr = m_engine.getAttachmentManager();
+            if( !(page instanceof Attachment) && mgr.hasAttachments( page ) )
+            {
+                try
+                {
+                    for( Iterator i = mgr.listAttachments( page ).iterator(); i.hasNext(); )
+                    {
+                        update( (WikiPage) i.next() );
+                    }
+                }
+                catch( ProviderException e )
+                {
+                    log.error( "Unable to list the attachments of " + page.getName(), e );
+                }
+            }
+        }
+        else if( event instanceof WikiPageEvent )
+        {
+            String pageName = ((WikiPageEvent) event).getPageName();
+
+            if( pageName == null ) return;
+
+            if( event.getType() == WikiPageEvent.POST_SAVE_END )
+            {
+                pageChanged( pageName );
+            }
+            else if( event.getType() == WikiPageEvent.PAGE_DELETED )
+            {
+                pageRemoved( pageName );
+            }
+        }
+    }
+
+    /**
+     *  Puts a page into the index, unless a newer version of it is already there.
+     */
+    private synchronized void update( WikiPage page )
+    {
+        Change change = new Change( page );
+        Change old = m_changes.get( page.getName() );
+
+        if( old != null )
+        {
+            if( old.m_time > change.m_time )
+            {
+                return;
+            }
+            m_timeline.remove( old );
+        }
+
+        m_changes.put( page.getName(), change );
+        m_timeline.put( change, page );
+    }
+
+    private void remove( String name )
+    {
+        Change old = m_changes.remove( name );
+
+        if( old != null )
+        {
+            m_timeline.remove( old );
+        }
+    }
+
+    /**
+     *  The time of a change, together with the name of the page, sorted most
+     *  recent first.  The time is copied, because WikiPage objects may change.
+     */
+    private static final class Change implements Comparable<Change>
+    {
+        private final String m_name;
+        private final long   m_time;
+
+        Change( WikiPage page )
+        {
+            m_name = page.getName();
+            m_time = page.getLastModified() != null ? page.getLastModified().getTime() : 0L;
+        }
+
+        public int compareTo( Change o )
+        {
+            if( m_time != o.m_time )
+            {
+                return m_time > o.m_time ? -1 : 1;
+            }
+
+            return m_name.compareTo( o.m_name );
+        }
+
+        public boolean equals( Object o )
+        {
+            return o instanceof Change && compareTo( (Change) o ) == 0;
+        }
+
+        public int hashCode()
+        {
+            return m_name.hashCode() ^ (int) m_time;
+        }
+    }
+}
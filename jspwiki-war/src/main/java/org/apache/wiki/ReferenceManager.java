@@ -22,11 +22,13 @@ import java.io.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.time.StopWatch;
 import org.apache.log4j.Logger;
 import org.apache.wiki.api.filters.BasicPageFilter;
 import org.apache.wiki.attachment.Attachment;
+import org.apache.wiki.event.WikiEngineEvent;
 import org.apache.wiki.event.WikiEvent;
 import org.apache.wiki.event.WikiEventListener;
 import org.apache.wiki.event.WikiEventUtils;
@@ -34,6 +36,7 @@ import org.apache.wiki.event.WikiPageEvent;
 import org.apache.wiki.modules.InternalModule;
 import org.apache.wiki.providers.ProviderException;
 import org.apache.wiki.providers.WikiPageProvider;
+import org.apache.wiki.util.FileUtil;
 import org.apache.wiki.util.TextUtil;
 
 /*
@@ -72,6 +75,15 @@ import org.apache.wiki.util.TextUtil;
    syncing.
 
    ebu@memecry.net
+
+   Update: page renders call findReferrers() all the time, so readers must
+   not wait for a save (or for a slow findUnreferenced()) any more.  The
+   maps are now ConcurrentHashMaps whose values are never modified in place;
+   a writer builds a new Set and replaces the old one.  Writers still
+   synchronize on the manager, so there is only one of them at a time, but
+   the query methods do not lock at all.  A reader may see the references of
+   one page already updated and those of another not yet, but never a Set
+   that is being modified.
 */
 
 /**
@@ -84,12 +96,13 @@ import org.apache.wiki.util.TextUtil;
  *  This is a quick'n'dirty approach without any finesse in storage and
  *  searching algorithms; we trust java.util.*.
  *  <P>
- *  This class contains two HashMaps, m_refersTo and m_referredBy. The
+ *  This class contains two Maps, m_refersTo and m_referredBy. The
  *  first is indexed by WikiPage names and contains a Collection of all
  *  WikiPages the page refers to. (Multiple references are not counted,
  *  naturally.) The second is indexed by WikiPage names and contains
  *  a Set of all pages that refer to the indexing page. (Notice -
- *  the keys of both Maps should be kept in sync.)
+ *  the keys of both Maps should be kept in sync.)  The Sets in the maps
+ *  are never modified, only replaced, so they can be read without locking.
  *  <P>
  *  When a page is added or edited, its references are parsed, a Collection
  *  is received, and we crudely replace anything previous with this new
@@ -102,6 +115,14 @@ import org.apache.wiki.util.TextUtil;
  *  The owning class must take responsibility of filling in any pre-existing
  *  information, probably by loading each and every WikiPage and calling this
  *  class to update the references when created.
+ *  <P>
+ *  The reference lists are persisted in the work directory as a snapshot
+ *  and an append-only change log.  Each update or removal appends one small
+ *  record to the log, so saving a page costs the same regardless of the size
+ *  of the wiki.  Once <code>jspwiki.referenceManager.compactThreshold</code>
+ *  records have been written, the log is folded into a new snapshot in a
+ *  background thread.  On startup the snapshot is read and the log is
+ *  replayed on top of it.
  *
  *  @since 1.6.1
  */
@@ -118,15 +139,21 @@ public class ReferenceManager
      *  must contain Strings. The Collection may contain names of non-existing
      *  pages.
      */
-    private Map<String,Collection<String>> m_refersTo;
-    private Map<String,Collection<String>> m_unmutableRefersTo;
+    private final Map<String,Set<String>> m_refersTo;
+    private final Map<String,Set<String>> m_unmutableRefersTo;
 
     /** Maps page wikiname to a Set of referring pages. The Set must
      *  contain Strings. Non-existing pages (a reference exists, but not a file
      *  for the page contents) may have an empty Set in m_referredBy.
      */
-    private Map<String,Set<String>> m_referredBy;
-    private Map<String,Set<String>> m_unmutableReferredBy;
+    private final Map<String,Set<String>> m_referredBy;
+    private final Map<String,Set<String>> m_unmutableReferredBy;
+
+    /** ConcurrentHashMap does not allow null values, so this stands for a page
+     *  whose references have not been scanned yet.  Compared by identity. */
+    private static final Set<String> NOT_SCANNED = Collections.unmodifiableSet( new TreeSet<String>() );
+
+    private static final Set<String> NO_REFERRERS = Collections.unmodifiableSet( new TreeSet<String>() );
 
     /** The WikiEngine that owns this object. */
     private WikiEngine     m_engine;
@@ -137,6 +164,50 @@ public class ReferenceManager
 
     private static final String SERIALIZATION_FILE = "refmgr.ser";
     private static final String SERIALIZATION_DIR  = "refmgr-attr";
+    private static final String CHANGELOG_FILE     = "refmgr.log";
+
+    /** The change log is renamed to this while it is being compacted. */
+    private static final String OLD_CHANGELOG_FILE = "refmgr.log.old";
+
+    /** Property name for the number of change log records after which the log is compacted.
+     *  Value is {@value}. */
+    public static final String PROP_COMPACTTHRESHOLD = "jspwiki.referenceManager.compactThreshold";
+
+    private static final int   DEFAULT_COMPACTTHRESHOLD = 1000;
+
+    /** Property name for storing the reference lists as arrays of page ids instead of
+     *  Sets of page names.  Value is {@value}. */
+    public static final String PROP_COMPACT = "jspwiki.referenceManager.compact";
+
+    /**
+     *  Name of the WikiContext variable which holds the links of a page that is
+     *  being saved, as found while rendering it.  If it is set, {@link #postSave(WikiContext, String)}
+     *  uses them instead of scanning the page again.  Value is {@value}.
+     */
+    public static final String VAR_SAVED_LINKS = "_ReferenceManager.savedLinks";
+
+    /** The page name dictionary of the compact maps, or null. */
+    private final PageNameDictionary m_dictionary;
+
+    private static final byte  LOG_UPDATE = 1;
+    private static final byte  LOG_REMOVE = 2;
+    private static final byte  LOG_CLEAR  = 3;
+
+    /** Open stream to the change log, or null, if nothing has been written yet. */
+    private DataOutputStream m_changeLog;
+
+    /** Set if appending fails; no more records are written until the next snapshot. */
+    private boolean        m_changeLogBroken = false;
+
+    /** Number of changes which are not in the snapshot yet. */
+    private int            m_pendingChanges = 0;
+
+    private int            m_compactThreshold = DEFAULT_COMPACTTHRESHOLD;
+
+    private boolean        m_compacting = false;
+
+    /** Only one snapshot is written at a time.  Always taken before the lock on this object. */
+    private final Object   m_snapshotLock = new Object();
 
     /** We use this also a generic serialization id */
     private static final long serialVersionUID = 4L;
@@ -148,14 +219,29 @@ public class ReferenceManager
      */
     public ReferenceManager( WikiEngine engine )
     {
-        m_refersTo   = new HashMap<String,Collection<String>>();
-        m_referredBy = new HashMap<String,Set<String>>();
         m_engine = engine;
 
+        if( TextUtil.getBooleanProperty( engine.getWikiProperties(), PROP_COMPACT, false ) )
+        {
+            m_dictionary = new PageNameDictionary();
+            m_refersTo   = new CompactReferenceMap( m_dictionary, NOT_SCANNED );
+            m_referredBy = new CompactReferenceMap( m_dictionary, null );
+        }
+        else
+        {
+            m_dictionary = null;
+            m_refersTo   = new ConcurrentHashMap<String,Set<String>>();
+            m_referredBy = new ConcurrentHashMap<String,Set<String>>();
+        }
+
         m_matchEnglishPlurals = TextUtil.getBooleanProperty( engine.getWikiProperties(),
                                                              WikiEngine.PROP_MATCHPLURALS,
                                                              m_matchEnglishPlurals );
 
+        m_compactThreshold = Math.max( 1, TextUtil.getIntegerProperty( engine.getWikiProperties(),
+                                                                       PROP_COMPACTTHRESHOLD,
+                                                                       DEFAULT_COMPACTTHRESHOLD ) );
+
         //
         //  Create two maps that contain unmutable versions of the two basic maps.
         //
@@ -221,6 +307,18 @@ public class ReferenceManager
             //
             long saved = unserializeFromDisk();
 
+            boolean needsSnapshot = false;
+
+            //
+            //  Apply the changes made after the snapshot was written.  If the
+            //  log ends with a partial record, write a fresh snapshot so that
+            //  new records are not appended after the garbage.
+            //
+            long[] replayed = replayChangeLogs();
+
+            saved = Math.max( saved, replayed[0] );
+            needsSnapshot = replayed[1] != 0;
+
             for( Iterator it = pages.iterator(); it.hasNext(); )
             {
                 WikiPage page = (WikiPage) it.next();
@@ -257,10 +355,15 @@ public class ReferenceManager
                     else if( page.getLastModified().getTime() > saved )
                     {
                         updatePageReferences( page );
+                        needsSnapshot = true;
                     }
                 }
             }
 
+            if( needsSnapshot )
+            {
+                serializeToDisk();
+            }
         }
         catch( Exception e )
         {
@@ -295,6 +398,9 @@ public class ReferenceManager
 
         WikiEventUtils.addWikiEventListener(m_engine.getPageManager(),
                                             WikiPageEvent.PAGE_DELETED, this);
+
+        // For writing the final snapshot on shutdown
+        m_engine.addWikiEventListener( this );
     }
 
     /**
@@ -326,13 +432,24 @@ public class ReferenceManager
             }
 
             saved        = in.readLong();
-            m_refersTo   = (Map) in.readObject();
-            m_referredBy = (Map) in.readObject();
+
+            Map<String,Collection<String>> refersTo   = (Map) in.readObject();
+            Map<String,Set<String>>        referredBy = (Map) in.readObject();
 
             in.close();
 
-            m_unmutableReferredBy = Collections.unmodifiableMap( m_referredBy );
-            m_unmutableRefersTo   = Collections.unmodifiableMap( m_refersTo );
+            m_refersTo.clear();
+            m_referredBy.clear();
+
+            for( Map.Entry<String,Collection<String>> e : refersTo.entrySet() )
+            {
+                m_refersTo.put( e.getKey(), e.getValue() != null ? freeze( e.getValue() ) : NOT_SCANNED );
+            }
+
+            for( Map.Entry<String,Set<String>> e : referredBy.entrySet() )
+            {
+                m_referredBy.put( e.getKey(), e.getValue() != null ? freeze( e.getValue() ) : NO_REFERRERS );
+            }
 
             sw.stop();
             log.debug("Read serialized data successfully in "+sw);
@@ -346,41 +463,447 @@ public class ReferenceManager
     }
 
     /**
-     *  Serializes hashmaps to disk.  The format is private, don't touch it.
+     *  Serializes hashmaps to disk and empties the change log.  The format is
+     *  private, don't touch it.
      */
-    private synchronized void serializeToDisk()
+    private void serializeToDisk()
     {
-        ObjectOutputStream out = null;
+        synchronized( m_snapshotLock )
+        {
+            synchronized( this )
+            {
+                try
+                {
+                    writeSnapshot( copyRefersTo(), new HashMap<String,Set<String>>( m_referredBy ),
+                                   System.currentTimeMillis() );
+
+                    closeChangeLog();
+
+                    new File( m_engine.getWorkDir(), CHANGELOG_FILE ).delete();
+                    new File( m_engine.getWorkDir(), OLD_CHANGELOG_FILE ).delete();
+
+                    m_pendingChanges  = 0;
+                    m_changeLogBroken = false;
+                }
+                catch( IOException e )
+                {
+                    log.error("Unable to serialize!", e);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Writes the given maps as the new snapshot.  The data is first written
+     *  to a temporary file, which then replaces the old snapshot, so a crash
+     *  in the middle never leaves a half-written snapshot behind.
+     */
+    private void writeSnapshot( Map<String,Collection<String>> refersTo,
+                                Map<String,Set<String>> referredBy,
+                                long timestamp )
+        throws IOException
+    {
+        StopWatch sw = new StopWatch();
+        sw.start();
+
+        File f   = new File( m_engine.getWorkDir(), SERIALIZATION_FILE );
+        File tmp = new File( m_engine.getWorkDir(), SERIALIZATION_FILE+".tmp" );
+
+        ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream(new FileOutputStream(tmp)) );
 
         try
         {
-            StopWatch sw = new StopWatch();
-            sw.start();
+            out.writeLong( serialVersionUID );
+            out.writeLong( timestamp );
+            out.writeObject( refersTo );
+            out.writeObject( referredBy );
+        }
+        finally
+        {
+            out.close();
+        }
 
-            File f = new File( m_engine.getWorkDir(), SERIALIZATION_FILE );
+        //
+        //  Some platforms refuse to rename over an existing file.
+        //
+        if( !tmp.renameTo( f ) )
+        {
+            f.delete();
 
-            out = new ObjectOutputStream( new BufferedOutputStream(new FileOutputStream(f)) );
+            if( !tmp.renameTo( f ) )
+            {
+                throw new IOException( "Unable to rename "+tmp+" to "+f );
+            }
+        }
 
-            out.writeLong( serialVersionUID );
-            out.writeLong( System.currentTimeMillis() ); // Timestamp
-            out.writeObject( m_refersTo );
-            out.writeObject( m_referredBy );
+        sw.stop();
 
-            out.close();
+        log.debug("serialization done - took "+sw);
+    }
 
-            sw.stop();
+    /**
+     *  Appends one record to the change log, and starts a compaction if the
+     *  log has grown long enough.  Must be called while holding the lock on
+     *  this object.
+     *
+     *  @param op LOG_UPDATE, LOG_REMOVE or LOG_CLEAR.
+     *  @param page The page name.
+     *  @param refs The new references of the page, or null.
+     */
+    private void appendToChangeLog( byte op, String page, Collection<String> refs )
+    {
+        m_pendingChanges++;
 
-            log.debug("serialization done - took "+sw);
+        if( !m_changeLogBroken )
+        {
+            try
+            {
+                if( m_changeLog == null )
+                {
+                    File f = new File( m_engine.getWorkDir(), CHANGELOG_FILE );
+
+                    m_changeLog = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( f, true ) ) );
+                }
+
+                m_changeLog.writeByte( op );
+                m_changeLog.writeLong( System.currentTimeMillis() );
+                m_changeLog.writeUTF( page );
+
+                if( refs == null )
+                {
+                    m_changeLog.writeInt( 0 );
+                }
+                else
+                {
+                    m_changeLog.writeInt( refs.size() );
+
+                    for( String ref : refs )
+                    {
+                        m_changeLog.writeUTF( ref );
+                    }
+                }
+
+                m_changeLog.flush();
+            }
+            catch( IOException e )
+            {
+                log.error( "Unable to append to the reference change log, writing a full snapshot instead", e );
+
+                m_changeLogBroken = true;
+                closeChangeLog();
+            }
         }
-        catch( IOException e )
+
+        if( m_changeLogBroken || m_pendingChanges >= m_compactThreshold )
         {
-            log.error("Unable to serialize!");
+            startCompaction();
+        }
+    }
+
+    private void closeChangeLog()
+    {
+        if( m_changeLog != null )
+        {
+            try
+            {
+                m_changeLog.close();
+            }
+            catch( IOException e )
+            {
+                log.info( "Unable to close the reference change log", e );
+            }
+
+            m_changeLog = null;
+        }
+    }
+
+    /**
+     *  Replays the old change log (left over from an interrupted compaction)
+     *  and the current change log on top of the data read from the snapshot.
+     *  Replaying a record which is already in the snapshot is harmless, since
+     *  every record simply replaces the state of one page.
+     *
+     *  @return The timestamp of the last record, and a non-zero value if the
+     *          log ended with a partial record.
+     */
+    private synchronized long[] replayChangeLogs()
+        throws IOException
+    {
+        long[] result = new long[2];
+
+        StopWatch sw = new StopWatch();
+        sw.start();
+
+        String[] files = { OLD_CHANGELOG_FILE, CHANGELOG_FILE };
+
+        for( String name : files )
+        {
+            File f = new File( m_engine.getWorkDir(), name );
+
+            if( f.exists() && !replayChangeLog( f, result ) )
+            {
+                result[1] = 1;
+                break;
+            }
+        }
+
+        sw.stop();
+        log.debug( "Replayed "+m_pendingChanges+" reference changes in "+sw );
+
+        return result;
+    }
+
+    /**
+     *  Replays a single change log file.
+     *
+     *  @return False, if the file ended with a partial record.
+     */
+    private boolean replayChangeLog( File f, long[] result )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( f ) ) );
+
+        try
+        {
+            int op;
+
+            while( (op = in.read()) != -1 )
+            {
+                long   timestamp = in.readLong();
+                String page      = in.readUTF();
+                int    count     = in.readInt();
+
+                ArrayList<String> refs = new ArrayList<String>( count );
+
+                for( int i = 0; i < count; i++ )
+                {
+                    refs.add( in.readUTF() );
+                }
+
+                switch( op )
+                {
+                    case LOG_UPDATE:
+                        internalUpdateReferences( page, refs );
+                        break;
+                    case LOG_REMOVE:
+                        internalPageRemoved( page );
+                        break;
+                    case LOG_CLEAR:
+                        internalClearPageEntries( page );
+                        break;
+                    default:
+                        throw new IOException( "Unknown record type "+op+" in "+f );
+                }
+
+                result[0] = Math.max( result[0], timestamp );
+                m_pendingChanges++;
+            }
+        }
+        catch( EOFException e )
+        {
+            log.info( "Reference change log "+f+" ends with a partial record, ignoring it" );
+            return false;
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return true;
+    }
+
+    /**
+     *  Starts a background thread which compacts the change log, unless one
+     *  is already running.  Must be called while holding the lock on this object.
+     */
+    private void startCompaction()
+    {
+        if( m_compacting ) return;
+
+        m_compacting = true;
+
+        Thread t = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    compact();
+                }
+                finally
+                {
+                    synchronized( ReferenceManager.this )
+                    {
+                        m_compacting = false;
+                    }
+                }
+            }
+        }, "JSPWiki Reference Compactor" );
+
+        t.setDaemon( true );
+        t.start();
+    }
+
+    /**
+     *  Folds the change log into a new snapshot.  The lock on this object is
+     *  held only while the log is moved aside and the maps are copied; the
+     *  snapshot itself is written without blocking readers or page saves.
+     */
+    void compact()
+    {
+        synchronized( m_snapshotLock )
+        {
+            Map<String,Collection<String>> refersTo;
+            Map<String,Set<String>>        referredBy;
+            long                           timestamp;
+
+            synchronized( this )
+            {
+                if( m_pendingChanges == 0 ) return;
+
+                try
+                {
+                    rotateChangeLog();
+                }
+                catch( IOException e )
+                {
+                    log.error( "Unable to rotate the reference change log", e );
+                    return;
+                }
+
+                //
+                //  The Sets are never modified, so a shallow copy is enough.
+                //
+                refersTo   = copyRefersTo();
+                referredBy = new HashMap<String,Set<String>>( m_referredBy );
+
+                timestamp         = System.currentTimeMillis();
+                m_pendingChanges  = 0;
+                m_changeLogBroken = false;
+            }
 
             try
             {
+                writeSnapshot( refersTo, referredBy, timestamp );
+
+                new File( m_engine.getWorkDir(), OLD_CHANGELOG_FILE ).delete();
+            }
+            catch( IOException e )
+            {
+                //
+                //  The old log stays on disk and is replayed on startup; make
+                //  sure that we try again later.
+                //
+                log.error( "Unable to write the reference snapshot", e );
+
+                synchronized( this )
+                {
+                    m_pendingChanges++;
+                }
+            }
+        }
+    }
+
+    /**
+     *  Returns a copy of m_refersTo in the serialized format, where pages which
+     *  have not been scanned have a null value.
+     */
+    private Map<String,Collection<String>> copyRefersTo()
+    {
+        HashMap<String,Collection<String>> copy = new HashMap<String,Collection<String>>( m_refersTo.size() );
+
+        for( Map.Entry<String,Set<String>> e : m_refersTo.entrySet() )
+        {
+            copy.put( e.getKey(), e.getValue() != NOT_SCANNED ? e.getValue() : null );
+        }
+
+        return copy;
+    }
+
+    /**
+     *  Returns an unmodifiable, sorted copy of the given collection.
+     */
+    private static Set<String> freeze( Collection<String> c )
+    {
+        return Collections.unmodifiableSet( new TreeSet<String>( c ) );
+    }
+
+    /**
+     *  Stores the referrer Sets changed by a writer.  Each changed Set is
+     *  copied only once, and a null value means that the entry is removed.
+     */
+    private Set<String> getReferrersForUpdate( String page, Map<String,Set<String>> changes )
+    {
+        if( changes.containsKey( page ) )
+        {
+            return changes.get( page );
+        }
+
+        Set<String> refs = m_referredBy.get( page );
+
+        if( refs != null )
+        {
+            refs = new TreeSet<String>( refs );
+            changes.put( page, refs );
+        }
+
+        return refs;
+    }
+
+    /**
+     *  Publishes the Sets collected by getReferrersForUpdate().
+     */
+    private void publishReferrers( Map<String,Set<String>> changes )
+    {
+        for( Map.Entry<String,Set<String>> e : changes.entrySet() )
+        {
+            if( e.getValue() == null )
+            {
+                m_referredBy.remove( e.getKey() );
+            }
+            else
+            {
+                m_referredBy.put( e.getKey(), Collections.unmodifiableSet( e.getValue() ) );
+            }
+        }
+    }
+
+    /**
+     *  Moves the current change log aside so that new records go to a fresh file.
+     *  If an earlier compaction failed, the old log still exists, and the
+     *  current records are appended to it to keep them in order.
+     */
+    private void rotateChangeLog()
+        throws IOException
+    {
+        closeChangeLog();
+
+        File current = new File( m_engine.getWorkDir(), CHANGELOG_FILE );
+        File old     = new File( m_engine.getWorkDir(), OLD_CHANGELOG_FILE );
+
+        if( !current.exists() ) return;
+
+        if( old.exists() )
+        {
+            InputStream  in  = new FileInputStream( current );
+            OutputStream out = null;
+
+            try
+            {
+                out = new FileOutputStream( old, true );
+                FileUtil.copyContents( in, out );
+            }
+            finally
+            {
+                in.close();
                 if( out != null ) out.close();
             }
-            catch( IOException ex ) {}
+
+            current.delete();
+        }
+        else if( !current.renameTo( old ) )
+        {
+            throw new IOException( "Unable to rename "+current+" to "+old );
         }
     }
 
@@ -559,7 +1082,9 @@ public class ReferenceManager
     }
 
     /**
-     *  After the page has been saved, updates the reference lists.
+     *  After the page has been saved, updates the reference lists.  The links found
+     *  while the page was rendered during the save are used, if they are available
+     *  in {@link #VAR_SAVED_LINKS}; otherwise the page is scanned for links.
      *  
      *  @param context {@inheritDoc}
      *  @param content {@inheritDoc}
@@ -567,9 +1092,14 @@ public class ReferenceManager
     public void postSave( WikiContext context, String content )
     {
         WikiPage page = context.getPage();
+        Collection links = (Collection) context.getVariable( VAR_SAVED_LINKS );
+
+        if( links == null )
+        {
+            links = context.getEngine().scanWikiLinks( page, content );
+        }
 
-        updateReferences( page.getName(),
-                          context.getEngine().scanWikiLinks( page, content ) );
+        updateReferences( page.getName(), links );
 
         serializeAttrsToDisk( page );
     }
@@ -593,59 +1123,66 @@ public class ReferenceManager
         pageRemoved(pageName);
     }
 
-    private void pageRemoved(String pageName)
+    private synchronized void pageRemoved(String pageName)
     {
+        internalPageRemoved( pageName );
+
+        appendToChangeLog( LOG_REMOVE, pageName, null );
+
+        //
+        //  Remove any traces from the disk, too
+        //
+        try
+        {
+            File f = new File( m_engine.getWorkDir(), SERIALIZATION_DIR );
+
+            f = new File( f, getHashFileName(pageName) );
+
+            if( f.exists() ) f.delete();
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            log.error("What do you mean - no such algorithm?", e);
+        }
+    }
+
+    private void internalPageRemoved(String pageName)
+    {
+        Map<String,Set<String>> changes = new HashMap<String,Set<String>>();
         Collection<String> refTo = m_refersTo.get( pageName );
 
         if( refTo != null )
         {
-            Iterator itRefTo = refTo.iterator();
-            while( itRefTo.hasNext() )
+            for( String referredPageName : refTo )
             {
-                String referredPageName = (String)itRefTo.next();
-                Set<String> refBy = m_referredBy.get( referredPageName );
+                Set<String> refBy = getReferrersForUpdate( referredPageName, changes );
 
                 if( refBy == null )
                     throw new InternalWikiException("Refmgr out of sync: page "+pageName+" refers to "+referredPageName+", which has null referrers.");
 
                 refBy.remove(pageName);
 
-                m_referredBy.remove( referredPageName );
-
                 // We won't put it back again if it becomes empty and does not exist.  It will be added
                 // later on anyway, if it becomes referenced again.
-                if( !(refBy.isEmpty() && !m_engine.pageExists(referredPageName)) )
+                if( refBy.isEmpty() && !m_engine.pageExists(referredPageName) )
                 {
-                    m_referredBy.put( referredPageName, refBy );
+                    changes.put( referredPageName, null );
                 }
             }
-
-            log.debug("Removing from m_refersTo HashMap key:value "+pageName+":"+m_refersTo.get( pageName ));
-            m_refersTo.remove( pageName );
         }
 
-        Set<String> refBy = m_referredBy.get( pageName );
+        Set<String> refBy = getReferrersForUpdate( pageName, changes );
         if( refBy == null || refBy.isEmpty() )
         {
-            m_referredBy.remove( pageName );
+            changes.put( pageName, null );
         }
 
-        //
-        //  Remove any traces from the disk, too
-        //
-        serializeToDisk();
+        publishReferrers( changes );
 
-        try
-        {
-            File f = new File( m_engine.getWorkDir(), SERIALIZATION_DIR );
-
-            f = new File( f, getHashFileName(pageName) );
-
-            if( f.exists() ) f.delete();
-        }
-        catch( NoSuchAlgorithmException e )
+        if( refTo != null )
         {
-            log.error("What do you mean - no such algorithm?", e);
+            log.debug("Removing from m_refersTo key:value "+pageName+":"+refTo);
+            m_refersTo.remove( pageName );
         }
     }
 
@@ -663,9 +1200,9 @@ public class ReferenceManager
      */
     public synchronized void updateReferences( String page, Collection references )
     {
-        internalUpdateReferences(page, references);
+        page = internalUpdateReferences(page, references);
 
-        serializeToDisk();
+        appendToChangeLog( LOG_UPDATE, page, m_refersTo.get( page ) );
     }
 
     /**
@@ -677,17 +1214,17 @@ public class ReferenceManager
      *
      *  @param page Name of the page to update.
      *  @param references A Collection of Strings, each one pointing to a page this page references.
+     *  @return The final name of the page.
      */
 
-    private void internalUpdateReferences(String page, Collection references)
+    private String internalUpdateReferences(String page, Collection references)
     {
         page = getFinalPageName( page );
 
         //
         // Create a new entry in m_refersTo.
         //
-        Collection oldRefTo = m_refersTo.get( page );
-        m_refersTo.remove( page );
+        Collection<String> oldRefTo = m_refersTo.get( page );
 
         TreeSet<String> cleanedRefs = new TreeSet<String>();
         for( Iterator i = references.iterator(); i.hasNext(); )
@@ -699,7 +1236,9 @@ public class ReferenceManager
             cleanedRefs.add( ref );
         }
 
-        m_refersTo.put( page, cleanedRefs );
+        m_refersTo.put( page, Collections.unmodifiableSet( cleanedRefs ) );
+
+        Map<String,Set<String>> changes = new HashMap<String,Set<String>>();
 
         //
         //  We know the page exists, since it's making references somewhere.
@@ -708,7 +1247,7 @@ public class ReferenceManager
         //
         if( !m_referredBy.containsKey( page ) )
         {
-            m_referredBy.put( page, new TreeSet<String>() );
+            changes.put( page, new TreeSet<String>() );
         }
 
         //
@@ -716,17 +1255,19 @@ public class ReferenceManager
         //  remove that reference. (We don't want to try to figure out
         //  which particular references were removed...)
         //
-        cleanReferredBy( page, oldRefTo, cleanedRefs );
+        cleanReferredBy( page, oldRefTo != NOT_SCANNED ? oldRefTo : null, changes );
 
         //
         //  Notify all referred pages of their referinesshoodicity.
         //
-        Iterator<String> it = cleanedRefs.iterator();
-        while( it.hasNext() )
+        for( String referredPageName : cleanedRefs )
         {
-            String referredPageName = it.next();
-            updateReferredBy( getFinalPageName(referredPageName), page );
+            updateReferredBy( getFinalPageName(referredPageName), page, changes );
         }
+
+        publishReferrers( changes );
+
+        return page;
     }
 
     /**
@@ -736,7 +1277,7 @@ public class ReferenceManager
      */
     protected Map getRefersTo()
     {
-        return m_refersTo;
+        return m_unmutableRefersTo;
     }
 
     /**
@@ -746,7 +1287,7 @@ public class ReferenceManager
      */
     protected Map getReferredBy()
     {
-        return m_referredBy;
+        return m_unmutableReferredBy;
     }
 
     /**
@@ -754,8 +1295,8 @@ public class ReferenceManager
      * any other page. Called after 'referrer' is removed.
      */
     private void cleanReferredBy( String referrer,
-                                  Collection oldReferred,
-                                  Collection<String> newReferred )
+                                  Collection<String> oldReferred,
+                                  Map<String,Set<String>> changes )
     {
         // Two ways to go about this. One is to look up all pages previously
         // referred by referrer and remove referrer from their lists, and let
@@ -768,11 +1309,9 @@ public class ReferenceManager
         if( oldReferred == null )
             return;
 
-        Iterator it = oldReferred.iterator();
-        while( it.hasNext() )
+        for( String referredPage : oldReferred )
         {
-            String referredPage = (String)it.next();
-            Set oldRefBy = m_referredBy.get( referredPage );
+            Set<String> oldRefBy = getReferrersForUpdate( referredPage, changes );
             if( oldRefBy != null )
             {
                 oldRefBy.remove( referrer );
@@ -784,7 +1323,7 @@ public class ReferenceManager
             if( ( ( oldRefBy == null ) || ( oldRefBy.isEmpty() ) ) &&
                 ( m_engine.pageExists( referredPage ) == false ) )
             {
-                m_referredBy.remove( referredPage );
+                changes.put( referredPage, null );
             }
         }
 
@@ -817,9 +1356,9 @@ public class ReferenceManager
             {
                 WikiPage page = (WikiPage)it.next();
                 // We add a non-null entry to referredBy to indicate the referred page exists
-                m_referredBy.put( page.getName(), new TreeSet<String>() );
+                m_referredBy.put( page.getName(), NO_REFERRERS );
                 // Just add a key to refersTo; the keys need to be in sync with referredBy.
-                m_refersTo.put( page.getName(), null );
+                m_refersTo.put( page.getName(), NOT_SCANNED );
             }
         }
         catch( ClassCastException e )
@@ -836,8 +1375,9 @@ public class ReferenceManager
      * <P>
      * This method is NOT synchronized. It should only be referred to from
      * within a synchronized method, or it should be made synced if necessary.
+     * The changed Set is stored in the given map, see publishReferrers().
      */
-    private void updateReferredBy( String page, String referrer )
+    private void updateReferredBy( String page, String referrer, Map<String,Set<String>> changes )
     {
         // We're not really interested in first level self-references.
         /*
@@ -857,7 +1397,7 @@ public class ReferenceManager
             }
         }
 
-        Set<String> referrers = m_referredBy.get( page );
+        Set<String> referrers = getReferrersForUpdate( page, changes );
 
         // Even if 'page' has not been created yet, it can still be referenced.
         // This requires we don't use m_referredBy keys when looking up missing
@@ -865,7 +1405,7 @@ public class ReferenceManager
         if(referrers == null)
         {
             referrers = new TreeSet<String>();
-            m_referredBy.put( page, referrers );
+            changes.put( page, referrers );
         }
         referrers.add( referrer );
     }
@@ -880,26 +1420,35 @@ public class ReferenceManager
     {
         pagename = getFinalPageName(pagename);
 
+        internalClearPageEntries( pagename );
+
+        appendToChangeLog( LOG_CLEAR, pagename, null );
+    }
+
+    private void internalClearPageEntries( String pagename )
+    {
         //
         //  Remove this item from the referredBy list of any page
         //  which this item refers to.
         //
+        Map<String,Set<String>> changes = new HashMap<String,Set<String>>();
         Collection<String> c = m_refersTo.get( pagename );
 
         if( c != null )
         {
             for( String key : c )
             {
-                Collection<?> dref = m_referredBy.get( key );
+                Set<String> dref = getReferrersForUpdate( key, changes );
 
-                dref.remove( pagename );
+                if( dref != null ) dref.remove( pagename );
             }
         }
 
         //
         //  Finally, remove direct references.
         //
-        m_referredBy.remove( pagename );
+        changes.put( pagename, null );
+        publishReferrers( changes );
         m_refersTo.remove( pagename );
     }
 
@@ -910,7 +1459,7 @@ public class ReferenceManager
      *  
      *  @return The Collection of Strings
      */
-    public synchronized Collection findUnreferenced()
+    public Collection findUnreferenced()
     {
         ArrayList<String> unref = new ArrayList<String>();
 
@@ -940,16 +1489,16 @@ public class ReferenceManager
      * 
      * @return A Collection of Strings
      */
-    public synchronized Collection findUncreated()
+    public Collection findUncreated()
     {
         TreeSet<String> uncreated = new TreeSet<String>();
 
         // Go through m_refersTo values and check that m_refersTo has the corresponding keys.
         // We want to reread the code to make sure our HashMaps are in sync...
 
-        Collection<Collection<String>> allReferences = m_refersTo.values();
+        Collection<Set<String>> allReferences = m_refersTo.values();
 
-        for( Collection<String> refs : allReferences )
+        for( Set<String> refs : allReferences )
         {
             if( refs != null )
             {
@@ -995,12 +1544,20 @@ public class ReferenceManager
                 refs2 = coll.get( pagename+"s" );
             }
 
+            //
+            //  The Sets in the map must not be modified, so merge into a copy.
+            //
             if( refs2 != null )
             {
                 if( refs != null )
+                {
+                    refs = new TreeSet<T>( refs );
                     refs.addAll( refs2 );
+                }
                 else
+                {
                     refs = refs2;
+                }
             }
         }
         return refs;
@@ -1017,7 +1574,7 @@ public class ReferenceManager
      *         does not exist, or if it has no references.
      */
     // FIXME: Return a Set instead of a Collection.
-    public synchronized Collection findReferrers( String pagename )
+    public Collection findReferrers( String pagename )
     {
         Set<String> refs = getReferenceList( m_referredBy, pagename );
 
@@ -1032,13 +1589,12 @@ public class ReferenceManager
 
     /**
      *  Returns all pages that refer to this page.  Note that this method
-     *  returns an unmodifiable Map, which may be abruptly changed.  So any
-     *  access to any iterator may result in a ConcurrentModificationException.
+     *  returns an unmodifiable Set, which is not changed afterwards; a
+     *  new Set is created when the references change.
      *  <p>
      *  The advantages of using this method over findReferrers() is that
-     *  it is very fast, as it does not create a new object.  The disadvantages
-     *  are that it does not do any mapping between plural names, and you
-     *  may end up getting a ConcurrentModificationException.
+     *  it is very fast, as it does not create a new object.  The disadvantage
+     *  is that it does not do any mapping between plural names.
      *
      * @param pageName Page name to query.
      * @return A Set of Strings containing the names of all the pages that refer
@@ -1056,9 +1612,9 @@ public class ReferenceManager
      *  way of getting the links from a page, but note that it does not link any
      *  InterWiki, image, or external links.  It does contain attachments, though.
      *  <p>
-     *  The Collection returned is unmutable, so you cannot change it.  It does reflect
-     *  the current status and thus is a live object.  So, if you are using any
-     *  kind of an iterator on it, be prepared for ConcurrentModificationExceptions.
+     *  The Collection returned is unmutable, so you cannot change it.  It reflects
+     *  the status at the time of the call; a new Collection is created when the
+     *  references of the page change.
      *  <p>
      *  The returned value is a Collection, because a page may refer to another page
      *  multiple times.
@@ -1071,47 +1627,29 @@ public class ReferenceManager
      */
     public Collection findRefersTo( String pageName )
     {
-        return m_unmutableRefersTo.get( getFinalPageName(pageName) );
+        Collection<String> refs = m_refersTo.get( getFinalPageName(pageName) );
+
+        return refs != NOT_SCANNED ? refs : null;
     }
 
     /**
      * This 'deepHashCode' can be used to determine if there were any
      * modifications made to the underlying to and by maps of the
-     * ReferenceManager. The maps of the ReferenceManager are not
-     * synchronized, so someone could add/remove entries in them while the
-     * hashCode is being computed.
+     * ReferenceManager. The maps of the ReferenceManager are concurrent,
+     * so someone could add/remove entries in them while the hashCode is
+     * being computed.
      *
      * @return Sum of the hashCodes for the to and by maps of the
      *         ReferenceManager
      * @since 2.3.24
      */
     //
-    //   This method traps and retries if a concurrent
-    //   modifcaition occurs.
     //   TODO: It is unnecessary to calculate the hashcode; it should be calculated only
     //         when the hashmaps are changed.  This is slow.
     //
     public int deepHashCode()
     {
-        boolean failed = true;
-        int signature = 0;
-
-        while (failed)
-        {
-            signature = 0;
-            try
-            {
-                signature ^= m_referredBy.hashCode();
-                signature ^= m_refersTo.hashCode();
-                failed = false;
-            }
-            catch (ConcurrentModificationException e)
-            {
-                Thread.yield();
-            }
-        }
-
-        return signature;
+        return m_referredBy.hashCode() ^ m_refersTo.hashCode();
     }
 
     /**
@@ -1129,6 +1667,59 @@ public class ReferenceManager
         return new HashSet<String>( m_refersTo.keySet() );
     }
 
+    /**
+     *  Returns true, if the reference lists are stored as arrays of page ids.
+     *
+     *  @return True, if <code>jspwiki.referenceManager.compact</code> is set.
+     *  @since 2.10
+     */
+    public boolean isCompact()
+    {
+        return m_dictionary != null;
+    }
+
+    /**
+     *  Returns a rough estimate of the heap used by the reference lists.  The
+     *  estimate assumes a 64-bit JVM with compressed object pointers.
+     *
+     *  @return Estimated size in bytes.
+     *  @since 2.10
+     */
+    public long getHeapEstimate()
+    {
+        if( m_dictionary != null )
+        {
+            return m_dictionary.getHeapEstimate() +
+                   ((CompactReferenceMap)m_refersTo).getHeapEstimate() +
+                   ((CompactReferenceMap)m_referredBy).getHeapEstimate();
+        }
+
+        return estimateMap( m_refersTo ) + estimateMap( m_referredBy );
+    }
+
+    /**
+     *  Estimates a ConcurrentHashMap of unmodifiable TreeSets: the map entry,
+     *  the key String, the wrapper and the TreeSet per page, and a TreeMap
+     *  entry plus a String per reference.  Names are counted every time they
+     *  appear, since the Strings from the parser are not shared.
+     */
+    private static long estimateMap( Map<String,Set<String>> map )
+    {
+        long size = 0;
+
+        for( Map.Entry<String,Set<String>> e : map.entrySet() )
+        {
+            size += 32 + 56 + 2L * e.getKey().length() + 16 + 48;
+
+            for( String ref : e.getValue() )
+            {
+                size += 40 + 56 + 2L * ref.length();
+            }
+        }
+
+        return size;
+    }
+
     private String getFinalPageName( String orig )
     {
         try
@@ -1161,5 +1752,9 @@ public class ReferenceManager
                 pageRemoved( pageName );
             }
         }
+        else if( (event instanceof WikiEngineEvent) && (event.getType() == WikiEngineEvent.SHUTDOWN) )
+        {
+            compact();
+        }
     }
 }
@@ -75,7 +75,7 @@ public final class Release
      *  <p>
      *  If the build identifier is empty, it is not added.
      */
-    public static final String     BUILD         = "22";
+    public static final String     BUILD         = "47";
     
     /**
      *  This is the generic version string you should use
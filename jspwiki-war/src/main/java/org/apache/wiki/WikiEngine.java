@@ -25,6 +25,7 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.security.Principal;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -215,6 +216,9 @@ public class WikiEngine
     /** Stores the Search manager */
     private SearchManager    m_searchManager = null;
 
+    /** Keeps the pages in the order of their last change */
+    private RecentChangesIndex m_recentChanges = null;
+
     /** Facade for managing users */
     private UserManager      m_userManager = null;
 
@@ -536,6 +540,9 @@ public class WikiEngine
             m_urlConstructor = (URLConstructor) urlclass.newInstance();
             m_urlConstructor.initialize( this, props );
             
+            // The search provider may report the progress of reindexing right away.
+            m_progressManager   = new ProgressManager();
+
             m_pageManager       = (PageManager)ClassUtil.getMappedObject(PageManager.class.getName(), this, props );
             m_pluginManager     = (PluginManager)ClassUtil.getMappedObject(PluginManager.class.getName(), this, props );
             m_differenceManager = (DifferenceManager)ClassUtil.getMappedObject(DifferenceManager.class.getName(), this, props );
@@ -554,8 +561,6 @@ public class WikiEngine
             m_editorManager     = (EditorManager)ClassUtil.getMappedObject(EditorManager.class.getName(), this );
             m_editorManager.initialize( props );
 
-            m_progressManager   = new ProgressManager();
-
             // Initialize the authentication, authorization, user and acl managers
 
             m_authenticationManager.initialize( this, props );
@@ -603,6 +608,16 @@ public class WikiEngine
             //
             m_filterManager.addPageFilter(m_referenceManager, -1001 );
             m_filterManager.addPageFilter(m_searchManager, -1002 );
+
+            m_recentChanges = new RecentChangesIndex( this );
+            try
+            {
+                m_recentChanges.initialize();
+            }
+            catch( ProviderException e )
+            {
+                log.error( "Unable to index the recent changes: ", e );
+            }
         }
 
         catch( RuntimeException e )
@@ -1559,7 +1574,9 @@ public class WikiEngine
 
     /**
      *  Reads a WikiPageful of data from a String and returns all links
-     *  internal to this Wiki in a Collection.
+     *  internal to this Wiki in a Collection.  The page is only scanned
+     *  for links (see {@link MarkupParser#scanLinks()}); it is not rendered,
+     *  and no filters or plugins are run.
      *
      *  @param page The WikiPage to scan
      *  @param pagedata The page contents
@@ -1569,13 +1586,25 @@ public class WikiEngine
     {
         LinkCollector localCollector = new LinkCollector();
 
-        textToHTML( new WikiContext(this,page),
-                    pagedata,
-                    localCollector,
-                    null,
-                    localCollector,
-                    false,
-                    true );
+        if( pagedata == null )
+        {
+            log.error("NULL pagedata to scanWikiLinks()");
+            return localCollector.getLinks();
+        }
+
+        MarkupParser mp = m_renderingManager.getParser( new WikiContext(this,page), pagedata );
+        mp.addLocalLinkHook( localCollector );
+        mp.addAttachmentLinkHook( localCollector );
+        mp.disableAccessRules();
+
+        try
+        {
+            mp.scanLinks();
+        }
+        catch( IOException e )
+        {
+            log.error("Failed to scan page data: ", e);
+        }
 
         return localCollector.getLinks();
     }
@@ -1729,13 +1758,13 @@ public class WikiEngine
      *  PageFilters, such as the {@link org.apache.wiki.filters.SpamFilter} may also
      *  throw a {@link org.apache.wiki.api.exceptions.RedirectException}.
      */
-    public void saveText( WikiContext context, String text )
+    public void saveText( final WikiContext context, String text )
         throws WikiException
     {
         // Check if page data actually changed; bail if not
         WikiPage page = context.getPage();
-        String oldText = getPureText( page );
-        String proposedText = TextUtil.normalizePostData( text );
+        final String oldText = getPureText( page );
+        final String proposedText = TextUtil.normalizePostData( text );
         if ( oldText != null && oldText.equals( proposedText ) )
         {
             return;
@@ -1753,11 +1782,18 @@ public class WikiEngine
         // Create approval workflow for page save; add the diffed, proposed
         // and old text versions as Facts for the approver (if approval is required)
         // If submitter is authenticated, any reject messages will appear in his/her workflow inbox.
+        // The diff is only made if the workflow has a Decision which shows it.
         WorkflowBuilder builder = WorkflowBuilder.getBuilder( this );
         Principal submitter = context.getCurrentUser();
         Task prepTask = new PageManager.PreSaveWikiPageTask( context, proposedText );
         Task completionTask = new PageManager.SaveWikiPageTask();
-        String diffText = m_differenceManager.makeDiff( context, oldText, proposedText );
+        Callable<String> diffText = new Callable<String>()
+        {
+            public String call()
+            {
+                return m_differenceManager.makeDiff( context, oldText, proposedText );
+            }
+        };
         boolean isAuthenticated = context.getWikiSession().isAuthenticated();
         Fact[] facts = new Fact[5];
         facts[0] = new Fact( PageManager.FACT_PAGE_NAME, page.getName() );
@@ -1819,33 +1855,40 @@ public class WikiEngine
      *  order of last change (i.e. first object is the most
      *  recently changed).  This method also includes attachments.
      *
-     *  @return Collection of WikiPage objects.  In reality, the returned
-     *          collection is a Set, but due to API compatibility reasons,
-     *          we're not changing the signature soon...
+     *  @return Collection of WikiPage objects.
      */
-
-    // FIXME: Should really get a Date object and do proper comparisons.
-    //        This is terribly wasteful.
-    @SuppressWarnings("unchecked")
     public Collection getRecentChanges()
     {
-        try
-        {
-            Collection<WikiPage>   pages = m_pageManager.getAllPages();
-            Collection<Attachment>  atts = m_attachmentManager.getAllAttachments();
-
-            TreeSet<WikiPage> sortedPages = new TreeSet<WikiPage>( new PageTimeComparator() );
+        return getRecentChanges( null, -1 );
+    }
 
-            sortedPages.addAll( pages );
-            sortedPages.addAll( atts );
+    /**
+     *  Returns the pages and attachments that have been changed since the given
+     *  date, most recently changed first.  The pages are read from an index
+     *  which is kept in the order of change, so only the returned pages are
+     *  looked at.
+     *
+     *  @param since Only pages changed at or after this date are returned.  May be null,
+     *               in which case all pages are returned.
+     *  @param limit The maximum number of pages to return, or -1 for no limit.
+     *  @return A List of WikiPage and Attachment objects.
+     *  @since 2.10
+     */
+    public List<WikiPage> getRecentChanges( Date since, int limit )
+    {
+        return m_recentChanges.getRecentChanges( since, limit );
+    }
 
-            return sortedPages;
-        }
-        catch( ProviderException e )
-        {
-            log.error( "Unable to fetch all pages: ",e);
-            return null;
-        }
+    /**
+     *  Returns the index of recent changes.  Code which changes pages or attachments
+     *  without firing page events should report the changes to it.
+     *
+     *  @return The RecentChangesIndex of this engine.
+     *  @since 2.10
+     */
+    public RecentChangesIndex getRecentChangesIndex()
+    {
+        return m_recentChanges;
     }
 
     /**
@@ -1965,20 +2008,7 @@ public class WikiEngine
      */
     public String getDiff( WikiContext context, int version1, int version2 )
     {
-        String page = context.getPage().getName();
-        String page1 = getPureText( page, version1 );
-        String page2 = getPureText( page, version2 );
-
-        // Kludge to make diffs for new pages to work this way.
-
-        if( version1 == WikiPageProvider.LATEST_VERSION )
-        {
-            page1 = "";
-        }
-
-        String diff  = m_differenceManager.makeDiff( context, page1, page2 );
-
-        return diff;
+        return m_differenceManager.getDiff( context, version1, version2 );
     }
 
     /**
@@ -2224,6 +2254,9 @@ public class WikiEngine
         {
             m_pageManager.deleteVersion( page );
         }
+
+        m_recentChanges.versionDeleted( page.getName() );
+        m_differenceManager.pageChanged( page.getName() );
     }
 
     /**
@@ -437,6 +437,7 @@ public final class WikiSession implements WikiEventListener
     {
         if ( event instanceof WikiSecurityEvent )
         {
+            Principal userPrincipal = m_userPrincipal;
             WikiSecurityEvent e = (WikiSecurityEvent)event;
             if ( e.getTarget() != null )
             {
@@ -590,6 +591,20 @@ public final class WikiSession implements WikiEventListener
                         break;
                 }
             }
+            userPrincipalChanged( userPrincipal );
+        }
+    }
+
+    /**
+     * Lets the SessionMonitor know if the user Principal has changed,
+     * so that it can keep count of the sessions of each user.
+     * @param userPrincipal the user Principal before the change
+     */
+    private void userPrincipalChanged( Principal userPrincipal )
+    {
+        if ( m_userPrincipal != userPrincipal && m_engine != null )
+        {
+            SessionMonitor.getInstance( m_engine ).userPrincipalChanged( this );
         }
     }
 
@@ -599,12 +614,14 @@ public final class WikiSession implements WikiEventListener
      */
     public void invalidate()
     {
+        Principal userPrincipal = m_userPrincipal;
         m_subject.getPrincipals().clear();
         m_subject.getPrincipals().add( WikiPrincipal.GUEST );
         m_subject.getPrincipals().add( Role.ANONYMOUS );
         m_subject.getPrincipals().add( Role.ALL );
         m_userPrincipal = WikiPrincipal.GUEST;
         m_loginPrincipal = WikiPrincipal.GUEST;
+        userPrincipalChanged( userPrincipal );
     }
 
     /**
@@ -499,6 +499,8 @@ public class AttachmentManager
         m_engine.updateReferences( parent );
 
         m_engine.getSearchManager().reindexPage( att );
+
+        m_engine.getRecentChangesIndex().pageChanged( att.getName() );
     }
 
     /**
@@ -588,6 +590,7 @@ public class AttachmentManager
 
         m_engine.getReferenceManager().clearPageEntries( att.getName() );
 
+        m_engine.getRecentChangesIndex().pageRemoved( att.getName() );
     }
 
     /**
@@ -19,14 +19,19 @@
 package org.apache.wiki.attachment;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.Permission;
 import java.security.Principal;
 import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -60,6 +65,9 @@ import org.apache.wiki.util.TextUtil;
  *  both uploading new content and downloading old content.  It can handle
  *  most common cases, e.g. check for modifications and return 304's as necessary.
  *  <p>
+ *  Downloads carry an ETag, and byte ranges can be requested with the
+ *  <code>Range</code> header, so that interrupted downloads can be resumed.
+ *  <p>
  *  Authentication is done using JSPWiki's normal AAA framework.
  *  <p>
  *  This servlet is also capable of managing dynamically created attachments.
@@ -243,11 +251,15 @@ public class AttachmentServlet extends HttpServlet
                     return;
                 }
 
+                String etag = createETag( att );
+                long   size = att.getSize();
+
+                res.setHeader( "ETag", etag );
 
                 //
                 //  Check if the client already has a version of this attachment.
                 //
-                if( HttpUtil.checkFor304( req, att ) )
+                if( isNotModified( req, att, etag ) )
                 {
                     log.debug("Client has latest version already, sending 304...");
                     res.sendError( HttpServletResponse.SC_NOT_MODIFIED );
@@ -256,8 +268,6 @@ public class AttachmentServlet extends HttpServlet
 
                 String mimetype = getMimeType( context, att.getFileName() );
 
-                res.setContentType( mimetype );
-
                 //
                 //  We use 'inline' instead of 'attachment' so that user agents
                 //  can try to automatically open the file.
@@ -274,22 +284,68 @@ public class AttachmentServlet extends HttpServlet
                     res.addHeader( "Cache-control", "no-cache" );
                 }
 
-                // If a size is provided by the provider, report it.
-                if( att.getSize() >= 0 )
+                //
+                //  Ranges can only be served if the provider knows the size.
+                //
+                List<ByteRange> ranges = null;
+
+                if( size >= 0 )
+                {
+                    res.setHeader( "Accept-Ranges", "bytes" );
+
+                    if( isRangeValid( req, att, etag ) )
+                    {
+                        ranges = ByteRange.parse( req.getHeader( "Range" ), size );
+                    }
+                }
+                else
                 {
-                    // log.info("size:"+att.getSize());
-                    res.setContentLength( (int)att.getSize() );
+                    res.setHeader( "Accept-Ranges", "none" );
                 }
 
-                out = res.getOutputStream();
-                in  = mgr.getAttachmentStream( context, att );
+                if( ranges != null && ranges.isEmpty() )
+                {
+                    log.debug( "Unsatisfiable range "+req.getHeader( "Range" )+" for "+att.getName() );
+                    res.setHeader( "Content-Range", "bytes */" + size );
+                    res.sendError( HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE );
+                    return;
+                }
 
-                int read = 0;
-                byte[] buffer = new byte[BUFFER_SIZE];
+                if( ranges == null )
+                {
+                    res.setContentType( mimetype );
 
-                while( (read = in.read( buffer )) > -1 )
+                    // If a size is provided by the provider, report it.
+                    if( size >= 0 )
+                    {
+                        setContentLength( res, size );
+                    }
+
+                    out = res.getOutputStream();
+                    in  = mgr.getAttachmentStream( context, att );
+
+                    copy( in, out, 0, size );
+                }
+                else if( ranges.size() == 1 )
                 {
-                    out.write( buffer, 0, read );
+                    ByteRange range = ranges.get( 0 );
+
+                    res.setStatus( HttpServletResponse.SC_PARTIAL_CONTENT );
+                    res.setContentType( mimetype );
+                    res.setHeader( "Content-Range", range.getContentRange( size ) );
+                    setContentLength( res, range.getLength() );
+
+                    out = res.getOutputStream();
+                    in  = mgr.getAttachmentStream( context, att );
+
+                    copy( in, out, range.getStart(), range.getLength() );
+                }
+                else
+                {
+                    out = res.getOutputStream();
+
+                    sendRanges( context, att, res, out, mimetype, ranges );
+                    return;
                 }
 
                 if(log.isDebugEnabled())
@@ -389,6 +445,215 @@ public class AttachmentServlet extends HttpServlet
         }
     }
 
+    /**
+     *  Creates a strong ETag for an attachment.  It changes whenever a new
+     *  version of the attachment is stored.
+     *
+     *  @param att The attachment.
+     *  @return The ETag, including the quotes.
+     */
+    static String createETag( Attachment att )
+    {
+        long lastModified = att.getLastModified() != null ? att.getLastModified().getTime() : 0L;
+
+        return "\"" + Integer.toHexString( att.getName().hashCode() ) +
+               "-" + att.getVersion() +
+               "-" + Long.toHexString( att.getSize() ) +
+               "-" + Long.toHexString( lastModified ) + "\"";
+    }
+
+    /**
+     *  Checks the If-None-Match header against the ETag, or if there is no
+     *  such header, the If-Modified-Since header against the modification time.
+     */
+    private static boolean isNotModified( HttpServletRequest req, Attachment att, String etag )
+    {
+        String ifNoneMatch = req.getHeader( "If-None-Match" );
+
+        if( ifNoneMatch == null )
+        {
+            return HttpUtil.checkFor304( req, att );
+        }
+
+        if( "no-cache".equalsIgnoreCase( req.getHeader( "Pragma" ) )
+            || "no-cache".equalsIgnoreCase( req.getHeader( "Cache-Control" ) ) )
+        {
+            return false;
+        }
+
+        for( String tag : ifNoneMatch.split( "," ) )
+        {
+            tag = tag.trim();
+
+            // Weak comparison is fine here.
+            if( tag.startsWith( "W/" ) ) tag = tag.substring( 2 );
+
+            if( tag.equals( "*" ) || tag.equals( etag ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     *  Checks the If-Range header.  If it is present, the ranges are only
+     *  sent if the attachment has not changed; otherwise, the whole
+     *  attachment is sent.
+     */
+    private static boolean isRangeValid( HttpServletRequest req, Attachment att, String etag )
+    {
+        String ifRange = req.getHeader( "If-Range" );
+
+        if( ifRange == null )
+        {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+
+        if( ifRange.startsWith( "\"" ) || ifRange.startsWith( "W/" ) )
+        {
+            // Only a strong match will do.
+            return ifRange.equals( etag );
+        }
+
+        try
+        {
+            long date = req.getDateHeader( "If-Range" );
+
+            return att.getLastModified() != null && att.getLastModified().getTime() / 1000 <= date / 1000;
+        }
+        catch( IllegalArgumentException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     *  Sets the Content-Length header, which may not fit into an int.
+     */
+    private static void setContentLength( HttpServletResponse res, long length )
+    {
+        if( length <= Integer.MAX_VALUE )
+        {
+            res.setContentLength( (int) length );
+        }
+        else
+        {
+            res.setHeader( "Content-Length", Long.toString( length ) );
+        }
+    }
+
+    /**
+     *  Sends several ranges of an attachment as a multipart/byteranges response.
+     *  The attachment is opened again for each range, so the ranges can be in any order.
+     */
+    private void sendRanges( WikiContext context, Attachment att, HttpServletResponse res, OutputStream out,
+                             String mimetype, List<ByteRange> ranges )
+        throws IOException, ProviderException
+    {
+        String boundary = "JSPWIKI_" + UUID.randomUUID().toString().replace( "-", "" );
+        String end      = "\r\n--" + boundary + "--\r\n";
+
+        String[] headers = new String[ranges.size()];
+        long length = end.length();
+
+        for( int i = 0; i < ranges.size(); i++ )
+        {
+            headers[i] = "\r\n--" + boundary +
+                         "\r\nContent-Type: " + mimetype +
+                         "\r\nContent-Range: " + ranges.get( i ).getContentRange( att.getSize() ) +
+                         "\r\n\r\n";
+
+            length += headers[i].length() + ranges.get( i ).getLength();
+        }
+
+        res.setStatus( HttpServletResponse.SC_PARTIAL_CONTENT );
+        res.setContentType( "multipart/byteranges; boundary=" + boundary );
+        setContentLength( res, length );
+
+        for( int i = 0; i < ranges.size(); i++ )
+        {
+            out.write( headers[i].getBytes( "ISO-8859-1" ) );
+
+            InputStream in = m_engine.getAttachmentManager().getAttachmentStream( context, att );
+
+            try
+            {
+                copy( in, out, ranges.get( i ).getStart(), ranges.get( i ).getLength() );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        out.write( end.getBytes( "ISO-8859-1" ) );
+    }
+
+    /**
+     *  Copies a part of a stream.  If the stream reads a file, the file channel
+     *  is used, so the skipped bytes are not read, and the bytes to send do not
+     *  pass through a buffer of ours.
+     *
+     *  @param in The stream to copy from.
+     *  @param out Where to copy to.
+     *  @param start How many bytes to skip first.
+     *  @param length How many bytes to copy, or -1 to copy until the end.
+     */
+    private static void copy( InputStream in, OutputStream out, long start, long length )
+        throws IOException
+    {
+        if( in instanceof FileInputStream )
+        {
+            FileChannel channel = ((FileInputStream) in).getChannel();
+            WritableByteChannel target = Channels.newChannel( out );
+
+            long pos = start;
+            long end = length < 0 ? channel.size() : start + length;
+
+            while( pos < end )
+            {
+                long sent = channel.transferTo( pos, end - pos, target );
+
+                // The file has become shorter.
+                if( sent <= 0 ) break;
+
+                pos += sent;
+            }
+
+            return;
+        }
+
+        long skipped = 0;
+
+        while( skipped < start )
+        {
+            long n = in.skip( start - skipped );
+
+            if( n <= 0 )
+            {
+                // skip() may refuse to move, so read a byte to find out if we are at the end.
+                if( in.read() < 0 ) return;
+                n = 1;
+            }
+
+            skipped += n;
+        }
+
+        long remaining = length < 0 ? Long.MAX_VALUE : length;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+
+        while( remaining > 0 && (read = in.read( buffer, 0, (int) Math.min( buffer.length, remaining ) )) > -1 )
+        {
+            out.write( buffer, 0, read );
+            remaining -= read;
+        }
+    }
+
     /**
      *  Returns the mime type for this particular file.  Case does not matter.
      *
@@ -0,0 +1,249 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.attachment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *  A range of bytes requested with the HTTP <code>Range</code> header.
+ *
+ *  @since 2.10
+ */
+final class ByteRange
+{
+    /** More ranges than this in one request are ignored, and the whole content is sent. */
+    static final int MAX_RANGES = 20;
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private static final Comparator<ByteRange> BY_START = new Comparator<ByteRange>()
+    {
+        public int compare( ByteRange a, ByteRange b )
+        {
+            return a.m_start < b.m_start ? -1 : ( a.m_start == b.m_start ? 0 : 1 );
+        }
+    };
+
+    private final long m_start;
+    private final long m_end;
+
+    /**
+     *  Creates a range.
+     *
+     *  @param start The first byte.
+     *  @param end The last byte, inclusive.
+     */
+    ByteRange( long start, long end )
+    {
+        m_start = start;
+        m_end   = end;
+    }
+
+    /**
+     *  Returns the offset of the first byte.
+     *
+     *  @return The offset.
+     */
+    long getStart()
+    {
+        return m_start;
+    }
+
+    /**
+     *  Returns the offset of the last byte.
+     *
+     *  @return The offset.
+     */
+    long getEnd()
+    {
+        return m_end;
+    }
+
+    /**
+     *  Returns the number of bytes in the range.
+     *
+     *  @return The length.
+     */
+    long getLength()
+    {
+        return m_end - m_start + 1;
+    }
+
+    /**
+     *  Returns the value of the <code>Content-Range</code> header for this range.
+     *
+     *  @param size The size of the whole content.
+     *  @return The header value, for example "bytes 0-499/1234".
+     */
+    String getContentRange( long size )
+    {
+        return "bytes " + m_start + "-" + m_end + "/" + size;
+    }
+
+    /**
+     *  Parses the value of a <code>Range</code> header.  Ranges which start past the
+     *  end of the content are left out, and ranges which end past it are cut short.
+     *  If any of the ranges overlap or touch, they are merged, so that no byte is
+     *  sent twice.
+     *
+     *  @param header The header value; may be null.
+     *  @param size The size of the content.
+     *  @return The ranges in the order they were requested, or sorted by their start,
+     *          if some of them were merged.  If the list is empty, none of the ranges
+     *          can be satisfied.  Null, if the header is missing or invalid, or asks
+     *          for too many ranges; the whole content should then be sent.
+     */
+    static List<ByteRange> parse( String header, long size )
+    {
+        if( header == null || !header.regionMatches( true, 0, BYTES_UNIT, 0, BYTES_UNIT.length() ) )
+        {
+            return null;
+        }
+
+        String[] specs = header.substring( BYTES_UNIT.length() ).split( "," );
+
+        if( specs.length > MAX_RANGES )
+        {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<ByteRange>( specs.length );
+        boolean hasSpecs = false;
+
+        try
+        {
+            for( String spec : specs )
+            {
+                spec = spec.trim();
+
+                if( spec.length() == 0 ) continue;
+
+                hasSpecs = true;
+
+                int dash = spec.indexOf( '-' );
+
+                if( dash < 0 ) return null;
+
+                String first = spec.substring( 0, dash ).trim();
+                String last  = spec.substring( dash + 1 ).trim();
+
+                long start;
+                long end;
+
+                if( first.length() == 0 )
+                {
+                    //  "-500" means the last 500 bytes.
+                    long suffix = parseNumber( last );
+
+                    if( suffix == 0 ) continue;
+
+                    start = Math.max( 0L, size - suffix );
+                    end   = size - 1;
+                }
+                else
+                {
+                    start = parseNumber( first );
+                    end   = size - 1;
+
+                    if( last.length() > 0 )
+                    {
+                        long requestedEnd = parseNumber( last );
+
+                        if( requestedEnd < start ) return null;
+
+                        end = Math.min( requestedEnd, end );
+                    }
+                }
+
+                if( start < size )
+                {
+                    ranges.add( new ByteRange( start, end ) );
+                }
+            }
+        }
+        catch( NumberFormatException e )
+        {
+            return null;
+        }
+
+        //  An empty list of ranges is invalid, and is ignored.
+        if( !hasSpecs )
+        {
+            return null;
+        }
+
+        return merge( ranges );
+    }
+
+    /**
+     *  Merges ranges which overlap or touch.
+     *
+     *  @param ranges The ranges.
+     *  @return The same list, if no ranges were merged; otherwise the merged
+     *          ranges, sorted by their start.
+     */
+    private static List<ByteRange> merge( List<ByteRange> ranges )
+    {
+        if( ranges.size() < 2 )
+        {
+            return ranges;
+        }
+
+        List<ByteRange> sorted = new ArrayList<ByteRange>( ranges );
+        Collections.sort( sorted, BY_START );
+
+        List<ByteRange> merged = new ArrayList<ByteRange>( sorted.size() );
+        ByteRange current = sorted.get( 0 );
+
+        for( int i = 1; i < sorted.size(); i++ )
+        {
+            ByteRange next = sorted.get( i );
+
+            if( next.m_start <= current.m_end + 1 )
+            {
+                current = new ByteRange( current.m_start, Math.max( current.m_end, next.m_end ) );
+            }
+            else
+            {
+                merged.add( current );
+                current = next;
+            }
+        }
+
+        merged.add( current );
+
+        return merged.size() == ranges.size() ? ranges : merged;
+    }
+
+    private static long parseNumber( String s )
+    {
+        for( int i = 0; i < s.length(); i++ )
+        {
+            if( !Character.isDigit( s.charAt( i ) ) )
+            {
+                throw new NumberFormatException( s );
+            }
+        }
+
+        return Long.parseLong( s );
+    }
+}
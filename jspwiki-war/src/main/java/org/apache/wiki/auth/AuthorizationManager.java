@@ -25,16 +25,21 @@ import java.net.URL;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.apache.wiki.*;
 import org.apache.wiki.api.exceptions.WikiException;
+import org.apache.wiki.attachment.Attachment;
 import org.apache.wiki.auth.acl.Acl;
 import org.apache.wiki.auth.acl.AclEntry;
 import org.apache.wiki.auth.acl.UnresolvedPrincipal;
@@ -43,13 +48,20 @@ import org.apache.wiki.auth.permissions.AllPermission;
 import org.apache.wiki.auth.permissions.PagePermission;
 import org.apache.wiki.auth.user.UserDatabase;
 import org.apache.wiki.auth.user.UserProfile;
+import org.apache.wiki.event.WikiEngineEvent;
+import org.apache.wiki.event.WikiEvent;
 import org.apache.wiki.event.WikiEventListener;
 import org.apache.wiki.event.WikiEventManager;
+import org.apache.wiki.event.WikiEventUtils;
+import org.apache.wiki.event.WikiPageEvent;
 import org.apache.wiki.event.WikiSecurityEvent;
 import org.apache.wiki.i18n.InternationalizationManager;
 import org.apache.wiki.preferences.Preferences;
+import org.apache.wiki.providers.ProviderCache;
+import org.apache.wiki.providers.StripedLRUCache;
 import org.apache.wiki.tags.WikiTagBase;
 import org.apache.wiki.util.ClassUtil;
+import org.apache.wiki.util.TextUtil;
 import org.freshcookies.security.policy.LocalPolicy;
 import org.freshcookies.security.policy.PolicyException;
 
@@ -82,10 +94,15 @@ import org.freshcookies.security.policy.PolicyException;
  * <p>See the {@link #checkPermission(WikiSession, Permission)} and
  * {@link #hasRoleOrPrincipal(WikiSession, Principal)} methods for more information
  * on the authorization logic.</p>
+ * <p>Decisions are cached by the Principals of the session and the Permission,
+ * so that sessions with the same Principals share them. A cached decision about
+ * a PagePermission is only used while the page (or, for an attachment, its parent
+ * page) has the same version and modification date as when the decision was made.
+ * The cache is cleared when pages are saved, and when groups or user profiles change.</p>
  * @since 2.3
  * @see AuthenticationManager
  */
-public final class AuthorizationManager
+public final class AuthorizationManager implements WikiEventListener
 {
     private static final Logger log = Logger.getLogger( AuthorizationManager.class );
     /**
@@ -104,6 +121,18 @@ public final class AuthorizationManager
      */
     public static final String                PROP_AUTHORIZER   = "jspwiki.authorizer";
 
+    /**
+     * The property name in jspwiki.properties for the number of permission decisions
+     * which are cached.  Zero turns the cache off.  The default is {@value #DEFAULT_DECISION_CACHE_SIZE}.
+     * @since 2.10
+     */
+    public static final String                PROP_DECISION_CACHE_SIZE = "jspwiki.authorizer.decisionCacheSize";
+
+    private static final int                  DEFAULT_DECISION_CACHE_SIZE = 10000;
+
+    /** Version stamp of a page which does not exist. */
+    private static final int                  NO_PAGE           = Integer.MIN_VALUE;
+
     private Authorizer                        m_authorizer      = null;
 
     /** Cache for storing ProtectionDomains used to evaluate the local policy. */
@@ -115,6 +144,16 @@ public final class AuthorizationManager
 
     private boolean                           m_useJAAS         = true;
 
+    /** Cached permission decisions; null if caching is turned off. */
+    private ProviderCache<DecisionKey, Decision> m_decisions     = null;
+
+    /** Incremented whenever the cache is cleared, so that decisions made before are not stored. */
+    private final AtomicLong                  m_generation      = new AtomicLong();
+
+    private final AtomicLong                  m_checks          = new AtomicLong();
+
+    private final AtomicLong                  m_cacheHits       = new AtomicLong();
+
     /**
      * Constructs a new AuthorizationManager instance.
      */
@@ -188,14 +227,57 @@ public final class AuthorizationManager
             return false;
         }
 
-        Principal user = session.getLoginPrincipal();
+        m_checks.incrementAndGet();
+
+        boolean allowed;
+
+        if ( m_decisions == null )
+        {
+            allowed = decide( session, permission );
+        }
+        else
+        {
+            DecisionKey key = new DecisionKey( session, permission );
+            WikiPage page = ( permission instanceof PagePermission ) ? aclPage( ((PagePermission)permission).getPage() ) : null;
+            int version = ( page == null ) ? NO_PAGE : page.getVersion();
+            long lastModified = ( page == null || page.getLastModified() == null ) ? 0L : page.getLastModified().getTime();
+
+            ProviderCache.Entry<Decision> entry = m_decisions.getEntry( key );
+            Decision decision = ( entry == null ) ? null : entry.getValue();
+
+            if ( decision != null && decision.isCurrent( version, lastModified ) )
+            {
+                m_cacheHits.incrementAndGet();
+                allowed = decision.m_allowed;
+            }
+            else
+            {
+                long generation = m_generation.get();
+                allowed = decide( session, permission );
+
+                if ( generation == m_generation.get() )
+                {
+                    m_decisions.put( key, new Decision( allowed, version, lastModified ) );
+                }
+            }
+        }
+
+        fireEvent( allowed ? WikiSecurityEvent.ACCESS_ALLOWED : WikiSecurityEvent.ACCESS_DENIED,
+                   session.getLoginPrincipal(), permission );
+        return allowed;
+    }
 
+    /**
+     * Makes the decision for {@link #checkPermission(WikiSession, Permission)},
+     * without consulting the cache.
+     */
+    private boolean decide( WikiSession session, Permission permission )
+    {
         // Always allow the action if user has AllPermission
         Permission allPermission = new AllPermission( m_engine.getApplicationName() );
         boolean hasAllPermission = checkStaticPermission( session, allPermission );
         if ( hasAllPermission )
         {
-            fireEvent( WikiSecurityEvent.ACCESS_ALLOWED, user, permission );
             return true;
         }
 
@@ -204,14 +286,12 @@ public final class AuthorizationManager
         boolean hasPolicyPermission = checkStaticPermission( session, permission );
         if ( !hasPolicyPermission )
         {
-            fireEvent( WikiSecurityEvent.ACCESS_DENIED, user, permission );
             return false;
         }
 
         // If this isn't a PagePermission, it's allowed
         if ( ! ( permission instanceof PagePermission ) )
         {
-            fireEvent( WikiSecurityEvent.ACCESS_ALLOWED, user, permission );
             return true;
         }
 
@@ -223,7 +303,6 @@ public final class AuthorizationManager
         Acl acl = ( page == null) ? null : m_engine.getAclManager().getPermissions( page );
         if ( page == null ||  acl == null || acl.isEmpty() )
         {
-            fireEvent( WikiSecurityEvent.ACCESS_ALLOWED, user, permission );
             return true;
         }
 
@@ -255,14 +334,108 @@ public final class AuthorizationManager
 
             if ( hasRoleOrPrincipal( session, aclPrincipal ) )
             {
-                fireEvent( WikiSecurityEvent.ACCESS_ALLOWED, user, permission );
                 return true;
             }
         }
-        fireEvent( WikiSecurityEvent.ACCESS_DENIED, user, permission );
         return false;
     }
 
+    /**
+     * Returns the page whose ACL applies to the named page: the page itself,
+     * or the parent page of an attachment. Returns <code>null</code> if the
+     * page does not exist.
+     */
+    private WikiPage aclPage( String pageName )
+    {
+        WikiPage page = m_engine.getPage( pageName );
+
+        if ( page instanceof Attachment )
+        {
+            page = m_engine.getPage( ((Attachment)page).getParentName() );
+        }
+
+        return page;
+    }
+
+    /**
+     * Forgets all cached permission decisions.
+     * @since 2.10
+     */
+    public void clearDecisionCache()
+    {
+        m_generation.incrementAndGet();
+
+        if ( m_decisions != null )
+        {
+            m_decisions.clear();
+        }
+    }
+
+    /**
+     * Returns the number of permission checks made since the wiki was started.
+     * @return the number of checks
+     * @since 2.10
+     */
+    public long getPermissionChecks()
+    {
+        return m_checks.get();
+    }
+
+    /**
+     * Returns the number of permission checks which were answered from the cache.
+     * @return the number of cache hits
+     * @since 2.10
+     */
+    public long getDecisionCacheHits()
+    {
+        return m_cacheHits.get();
+    }
+
+    /**
+     * Returns the number of cached permission decisions.
+     * @return the number of decisions; zero if caching is turned off
+     * @since 2.10
+     */
+    public int getDecisionCacheSize()
+    {
+        return ( m_decisions == null ) ? 0 : m_decisions.size();
+    }
+
+    /**
+     * Clears the permission decision cache when a page is saved, and when groups
+     * or user profiles change, because the Principals named in ACLs may then
+     * resolve differently.
+     * @param event the event
+     * @since 2.10
+     */
+    public void actionPerformed( WikiEvent event )
+    {
+        if ( event instanceof WikiEngineEvent && event.getType() == WikiEngineEvent.INITIALIZED )
+        {
+            // The FilterManager, which fires the save events, is created after this class
+            WikiEventUtils.addWikiEventListener( m_engine, WikiPageEvent.POST_SAVE_END, this );
+        }
+        else if ( event instanceof WikiPageEvent && event.getType() == WikiPageEvent.POST_SAVE_END )
+        {
+            clearDecisionCache();
+        }
+        else if ( event instanceof WikiSecurityEvent )
+        {
+            switch ( event.getType() )
+            {
+                case WikiSecurityEvent.GROUP_ADD:
+                case WikiSecurityEvent.GROUP_REMOVE:
+                case WikiSecurityEvent.GROUP_CLEAR_GROUPS:
+                case WikiSecurityEvent.PROFILE_SAVE:
+                case WikiSecurityEvent.PROFILE_NAME_CHANGED:
+                    clearDecisionCache();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
     /**
      * <p>Determines if the Subject associated with a
      * supplied WikiSession contains a desired Role or GroupPrincipal.
@@ -477,6 +650,18 @@ public final class AuthorizationManager
         m_authorizer = getAuthorizerImplementation( properties );
         m_authorizer.initialize( engine, properties );
 
+        int cacheSize = TextUtil.getIntegerProperty( properties, PROP_DECISION_CACHE_SIZE, DEFAULT_DECISION_CACHE_SIZE );
+        if ( cacheSize > 0 )
+        {
+            StripedLRUCache<DecisionKey, Decision> cache = new StripedLRUCache<DecisionKey, Decision>();
+            cache.initialize( "permissionDecisions", cacheSize, 0, null );
+            m_decisions = cache;
+
+            WikiEventManager.addWikiEventListener( engine.getGroupManager(), this );
+            WikiEventManager.addWikiEventListener( engine.getUserManager(), this );
+            engine.addWikiEventListener( this );
+        }
+
         // Initialize local security policy
         try
         {
@@ -759,4 +944,70 @@ public final class AuthorizationManager
         }
     }
 
+
+    /**
+     * Identifies a cached decision: the Principals and status of a session, and a Permission.
+     */
+    private static final class DecisionKey
+    {
+        private final Set<Principal> m_principals;
+        private final String         m_status;
+        private final Permission     m_permission;
+        private final int            m_hash;
+
+        DecisionKey( WikiSession session, Permission permission )
+        {
+            m_principals = new HashSet<Principal>( Arrays.asList( session.getPrincipals() ) );
+            m_principals.addAll( Arrays.asList( session.getRoles() ) );
+            m_status     = session.getStatus();
+            m_permission = permission;
+
+            // Permission.hashCode() is not always spread well, e.g. PagePermission ignores the page name
+            int hash = m_principals.hashCode();
+            hash = 31 * hash + m_status.hashCode();
+            hash = 31 * hash + permission.getClass().hashCode();
+            hash = 31 * hash + ( permission.getName() == null ? 0 : permission.getName().hashCode() );
+            hash = 31 * hash + ( permission.getActions() == null ? 0 : permission.getActions().hashCode() );
+            m_hash = hash;
+        }
+
+        public boolean equals( Object obj )
+        {
+            if ( !( obj instanceof DecisionKey ) )
+            {
+                return false;
+            }
+            DecisionKey k = (DecisionKey)obj;
+            return m_hash == k.m_hash && m_status.equals( k.m_status )
+                   && m_permission.equals( k.m_permission ) && m_principals.equals( k.m_principals );
+        }
+
+        public int hashCode()
+        {
+            return m_hash;
+        }
+    }
+
+    /**
+     * A cached decision, and the version of the page whose ACL it was based on.
+     */
+    private static final class Decision
+    {
+        private final boolean m_allowed;
+        private final int     m_version;
+        private final long    m_lastModified;
+
+        Decision( boolean allowed, int version, long lastModified )
+        {
+            m_allowed      = allowed;
+            m_version      = version;
+            m_lastModified = lastModified;
+        }
+
+        boolean isCurrent( int version, long lastModified )
+        {
+            return m_version == version && m_lastModified == lastModified;
+        }
+    }
+
 }
@@ -18,8 +18,12 @@
  */
 package org.apache.wiki.auth;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.security.Principal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionEvent;
@@ -41,21 +45,53 @@ import org.apache.wiki.rpc.json.JSONRPCManager;
  *  This class must be configured as a session listener in the
  *  web.xml for the wiki web application.
  *  </p>
+ *  <p>Looking up a session does not lock.  The monitor also counts the
+ *  sessions of each user, so that the current users can be listed
+ *  without going through all the sessions.  WikiSessions tell the
+ *  monitor when their user Principal changes.  A session is removed when
+ *  the container destroys it, or when the container no longer holds on
+ *  to the HttpSession at all.</p>
  */
 public class SessionMonitor implements HttpSessionListener
 {
     private static Logger log = Logger.getLogger( SessionMonitor.class );
 
     /** Map with WikiEngines as keys, and SessionMonitors as values. */
-    private static Map<WikiEngine, SessionMonitor>          c_monitors   = new HashMap<WikiEngine, SessionMonitor>();
+    private static Map<WikiEngine, SessionMonitor>          c_monitors   = new ConcurrentHashMap<WikiEngine, SessionMonitor>();
 
-    /** Weak hashmap with HttpSessions as keys, and WikiSessions as values. */
-    private final Map<String, WikiSession>                 m_sessions   = new WeakHashMap<String, WikiSession>();
+    /** Map with HttpSession IDs as keys, and WikiSessions as values. */
+    private final ConcurrentMap<String, WikiSession>       m_sessions   = new ConcurrentHashMap<String, WikiSession>();
+
+    /** Weak references to the HttpSessions, by ID. */
+    private final ConcurrentMap<String, SessionReference>  m_references = new ConcurrentHashMap<String, SessionReference>();
+
+    /** Receives the references of HttpSessions which have been garbage collected. */
+    private final ReferenceQueue<HttpSession>              m_collected  = new ReferenceQueue<HttpSession>();
 
     private       WikiEngine          m_engine;
 
     private final PrincipalComparator m_comparator = new PrincipalComparator();
 
+    /** The number of sessions of each user Principal, sorted by name.  Also guards m_counted. */
+    private final Map<Principal, Integer> m_users   = new TreeMap<Principal, Integer>( m_comparator );
+
+    /** The user Principal under which each WikiSession is counted. */
+    private final Map<WikiSession, Principal> m_counted = new IdentityHashMap<WikiSession, Principal>();
+
+    /**
+     *  A weak reference to an HttpSession, which remembers the session ID.
+     */
+    private static final class SessionReference extends WeakReference<HttpSession>
+    {
+        private final String m_id;
+
+        private SessionReference( HttpSession session, String id, ReferenceQueue<HttpSession> queue )
+        {
+            super( session, queue );
+            m_id = id;
+        }
+    }
+
     /**
      * Returns the instance of the SessionMonitor for this wiki.
      * Only one SessionMonitor exists per WikiEngine.
@@ -68,16 +104,19 @@ public class SessionMonitor implements HttpSessionListener
         {
             throw new IllegalArgumentException( "Engine cannot be null." );
         }
-        SessionMonitor monitor;
+        SessionMonitor monitor = c_monitors.get(engine);
 
-        synchronized( c_monitors )
+        if( monitor == null )
         {
-            monitor = c_monitors.get(engine);
-            if( monitor == null )
+            synchronized( c_monitors )
             {
-                monitor = new SessionMonitor(engine);
+                monitor = c_monitors.get(engine);
+                if( monitor == null )
+                {
+                    monitor = new SessionMonitor(engine);
 
-                c_monitors.put( engine, monitor );
+                    c_monitors.put( engine, monitor );
+                }
             }
         }
         return monitor;
@@ -127,9 +166,8 @@ public class SessionMonitor implements HttpSessionListener
      * "guest session" as constructed by {@link WikiSession#guestSession(WikiEngine)}
      * if the HttpSession is not currently associated with a WikiSession.
      * This method is guaranteed to return a non-<code>null</code> WikiSession.</p>
-     * <p>Internally, the session is stored in a HashMap; keys are
-     * the HttpSession objects, while the values are
-     * {@link java.lang.ref.WeakReference}-wrapped WikiSessions.</p>
+     * <p>Internally, the session is stored in a ConcurrentHashMap; keys are
+     * the HttpSession IDs, while the values are the WikiSessions.</p>
      * @param session the HTTP session
      * @return the wiki session
      */
@@ -146,10 +184,23 @@ public class SessionMonitor implements HttpSessionListener
                 log.debug( "Looking up WikiSession for session ID=" + sid + "... not found. Creating guestSession()" );
             }
             wikiSession = WikiSession.guestSession( m_engine );
-            synchronized( m_sessions )
+            synchronized( m_users )
             {
-                m_sessions.put( sid, wikiSession );
+                // Another request in the same session may have got here first
+                WikiSession storedSession = m_sessions.putIfAbsent( sid, wikiSession );
+                if( storedSession != null )
+                {
+                    return storedSession;
+                }
+                if( session != null )
+                {
+                    m_references.put( sid, new SessionReference( session, sid, m_collected ) );
+                }
+                Principal principal = wikiSession.getUserPrincipal();
+                m_counted.put( wikiSession, principal );
+                count( principal, 1 );
             }
+            removeCollected();
         }
 
         return wikiSession;
@@ -166,9 +217,83 @@ public class SessionMonitor implements HttpSessionListener
         {
             throw new IllegalArgumentException( "Session cannot be null." );
         }
-        synchronized ( m_sessions )
+        removeSession( session.getId() );
+    }
+
+    /**
+     * Removes a wiki session and stops counting it.
+     * @param sid the HTTP session ID
+     * @return the removed session, or <code>null</code> if there was none
+     */
+    private WikiSession removeSession( String sid )
+    {
+        synchronized( m_users )
+        {
+            m_references.remove( sid );
+            WikiSession wikiSession = m_sessions.remove( sid );
+            if( wikiSession != null )
+            {
+                count( m_counted.remove( wikiSession ), -1 );
+            }
+            return wikiSession;
+        }
+    }
+
+    /**
+     * Removes the wiki sessions whose HttpSessions have been garbage collected,
+     * because the container did not tell that it destroyed them.
+     */
+    private void removeCollected()
+    {
+        SessionReference ref;
+        while( ( ref = (SessionReference) m_collected.poll() ) != null )
+        {
+            // The ID may since have been given to a new session
+            if( m_references.remove( ref.m_id, ref ) )
+            {
+                removeSession( ref.m_id );
+            }
+        }
+    }
+
+    /**
+     * Adds to the number of sessions of a user.  The caller must hold the lock on m_users.
+     * @param principal the user principal
+     * @param delta the number of sessions to add; may be negative
+     */
+    private void count( Principal principal, int delta )
+    {
+        Integer sessions = m_users.get( principal );
+        int n = ( sessions == null ? 0 : sessions.intValue() ) + delta;
+        if( n > 0 )
+        {
+            m_users.put( principal, n );
+        }
+        else
+        {
+            m_users.remove( principal );
+        }
+    }
+
+    /**
+     * Tells the monitor that the user Principal of a wiki session has changed,
+     * for example when the user logs in.  Sessions which are not stored in this
+     * monitor are ignored.
+     * @param session the wiki session
+     * @since 2.10
+     */
+    public final void userPrincipalChanged( WikiSession session )
+    {
+        synchronized( m_users )
         {
-            m_sessions.remove( session.getId() );
+            Principal counted = m_counted.get( session );
+            if( counted != null )
+            {
+                Principal principal = session.getUserPrincipal();
+                count( counted, -1 );
+                count( principal, 1 );
+                m_counted.put( session, principal );
+            }
         }
     }
 
@@ -178,7 +303,38 @@ public class SessionMonitor implements HttpSessionListener
      */
     public final int sessions()
     {
-        return userPrincipals().length;
+        removeCollected();
+        return m_sessions.size();
+    }
+
+    /**
+     * Returns the current number of different users.  Users are told apart
+     * by the name of their user Principal.
+     * @return the number of users
+     * @since 2.10
+     */
+    public final int users()
+    {
+        removeCollected();
+        synchronized( m_users )
+        {
+            return m_users.size();
+        }
+    }
+
+    /**
+     * Returns the current wiki users, each with the number of sessions they
+     * have.  The map is a copy, sorted by the names of the Principals.
+     * @return the user principals and their session counts
+     * @since 2.10
+     */
+    public final Map<Principal, Integer> userSessions()
+    {
+        removeCollected();
+        synchronized( m_users )
+        {
+            return new LinkedHashMap<Principal, Integer>( m_users );
+        }
     }
 
     /**
@@ -186,24 +342,22 @@ public class SessionMonitor implements HttpSessionListener
      * Principal objects. The principals are those returned by
      * each WikiSession's {@link WikiSession#getUserPrincipal()}'s
      * method.</p>
-     * <p>To obtain the list of current WikiSessions, we iterate
-     * through our session Map and obtain the list of values,
-     * which are WikiSessions wrapped in {@link java.lang.ref.WeakReference}
-     * objects. Those <code>WeakReference</code>s whose <code>get()</code>
-     * method returns non-<code>null</code> values are valid
-     * sessions.</p>
+     * <p>A Principal appears once for each session of the user.
+     * The array is built from the session counts kept for
+     * {@link #userSessions()}, which are already sorted.</p>
      * @return the array of user principals
      */
     public final Principal[] userPrincipals()
     {
         Collection<Principal> principals = new ArrayList<Principal>();
-        for ( WikiSession session : m_sessions.values() )
+        for ( Map.Entry<Principal, Integer> entry : userSessions().entrySet() )
         {
-            principals.add( session.getUserPrincipal() );
+            for ( int i = 0; i < entry.getValue(); i++ )
+            {
+                principals.add( entry.getKey() );
+            }
         }
-        Principal[] p = principals.toArray( new Principal[principals.size()] );
-        Arrays.sort( p, m_comparator );
-        return p;
+        return principals.toArray( new Principal[principals.size()] );
     }
 
     /**
@@ -266,9 +420,7 @@ public class SessionMonitor implements HttpSessionListener
         {
             SessionMonitor monitor = it.next();
 
-            WikiSession storedSession = monitor.findSession(session);
-
-            monitor.remove(session);
+            WikiSession storedSession = monitor.removeSession( session.getId() );
 
             log.debug("Removed session "+session.getId()+".");
 
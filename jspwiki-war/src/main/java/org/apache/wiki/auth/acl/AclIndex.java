@@ -0,0 +1,324 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.auth.acl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *  Remembers the access rules of each page, so that the ACL of a page can be
+ *  found without rendering it.  Each entry records the version and the last
+ *  modification time of the page it was read from, and is only used while
+ *  they still match; a stale entry is simply read again.
+ *  <p>
+ *  The rules are kept as the text found in the page, for example
+ *  "ALLOW edit Charlie, Herman", because principals are resolved only
+ *  when the ACL is built.
+ *
+ *  @since 2.10
+ */
+class AclIndex
+{
+    /** Identifies the file format. */
+    private static final long FORMAT_VERSION = 1L;
+
+    private static final String[] NO_RULES = new String[0];
+
+    private final Map<String,Entry> m_entries = new ConcurrentHashMap<String,Entry>();
+
+    /**
+     *  The access rules of one page version.
+     */
+    static final class Entry implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int      m_version;
+        private final long     m_lastModified;
+        private final String[] m_rules;
+
+        Entry( int version, long lastModified, String[] rules )
+        {
+            m_version      = version;
+            m_lastModified = lastModified;
+            m_rules        = rules.length > 0 ? rules : NO_RULES;
+        }
+
+        /**
+         *  Returns true, if this entry was read from the given page version.
+         *
+         *  @param version The page version.
+         *  @param lastModified The time the page was last modified.
+         *  @return True, if the entry is still valid.
+         */
+        boolean isCurrent( int version, long lastModified )
+        {
+            return m_version == version && m_lastModified == lastModified;
+        }
+
+        /**
+         *  Returns the access rules; empty if the page has none.
+         *
+         *  @return The rules, without the surrounding braces.
+         */
+        String[] getRules()
+        {
+            return m_rules;
+        }
+    }
+
+    /**
+     *  Returns the entry of a page.
+     *
+     *  @param name The page name.
+     *  @return The entry, or null if the page has not been indexed.
+     */
+    Entry get( String name )
+    {
+        return m_entries.get( name );
+    }
+
+    /**
+     *  Stores the entry of a page, replacing any earlier one.
+     *
+     *  @param name The page name.
+     *  @param entry The entry.
+     */
+    void put( String name, Entry entry )
+    {
+        m_entries.put( name, entry );
+    }
+
+    /**
+     *  Forgets a page.
+     *
+     *  @param name The page name.
+     */
+    void remove( String name )
+    {
+        m_entries.remove( name );
+    }
+
+    /**
+     *  Returns the number of indexed pages.
+     *
+     *  @return The number of pages.
+     */
+    int size()
+    {
+        return m_entries.size();
+    }
+
+    /**
+     *  Reads the index written by {@link #save(File)}, adding its entries to this one.
+     *
+     *  @param file The file to read.
+     *  @throws IOException If the file cannot be read, or is in an unknown format.
+     */
+    @SuppressWarnings("unchecked")
+    void load( File file ) throws IOException
+    {
+        ObjectInputStream in = new ObjectInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+        try
+        {
+            if( in.readLong() != FORMAT_VERSION )
+            {
+                throw new IOException( "File format has changed." );
+            }
+
+            m_entries.putAll( (Map<String,Entry>) in.readObject() );
+        }
+        catch( ClassNotFoundException e )
+        {
+            throw new IOException( "Unable to read " + file + ": " + e.getMessage() );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     *  Writes the index to a file.  The data is first written to a temporary
+     *  file, which then replaces the old one.
+     *
+     *  @param file The file to write.
+     *  @throws IOException If the file cannot be written.
+     */
+    void save( File file ) throws IOException
+    {
+        File tmp = new File( file.getPath() + ".tmp" );
+
+        ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+
+        try
+        {
+            out.writeLong( FORMAT_VERSION );
+            out.writeObject( new HashMap<String,Entry>( m_entries ) );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        //
+        //  Some platforms refuse to rename over an existing file.
+        //
+        if( !tmp.renameTo( file ) )
+        {
+            file.delete();
+
+            if( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to rename " + tmp + " to " + file );
+            }
+        }
+    }
+
+    /**
+     *  Finds the access rules in wiki markup, the same way as the markup parser
+     *  does: escaped brackets, preformatted blocks, and the bodies of plugins are
+     *  skipped.
+     *
+     *  @param text The wiki markup.
+     *  @return The rules in the order they appear, such as "ALLOW view Alice, Bob".
+     */
+    static String[] findRules( String text )
+    {
+        List<String> rules = new ArrayList<String>();
+        int length = text.length();
+        int i = 0;
+
+        while( i < length )
+        {
+            char ch = text.charAt( i );
+
+            if( ch == '~' )
+            {
+                i += 2;
+            }
+            else if( text.startsWith( "{{{", i ) )
+            {
+                i = skipPreformatted( text, i + 3 );
+
+                if( i < 0 ) break;
+            }
+            else if( text.startsWith( "[[", i ) )
+            {
+                while( i < length && text.charAt( i ) == '[' ) i++;
+            }
+            else if( ch == '[' )
+            {
+                int end = findLinkEnd( text, i + 1 );
+
+                if( end < 0 ) break;
+
+                String link = text.substring( i + 1, end );
+
+                if( link.startsWith( "{ALLOW" ) || link.startsWith( "{DENY" ) )
+                {
+                    rules.add( link.substring( 1, link.endsWith( "}" ) ? link.length() - 1 : link.length() ) );
+                }
+
+                i = end + 1;
+            }
+            else
+            {
+                i++;
+            }
+        }
+
+        return rules.toArray( new String[rules.size()] );
+    }
+
+    /**
+     *  Returns the position after the braces which close a preformatted block, or -1.
+     *  Like the markup parser, treats ~}}} as an escaped end of the block.
+     */
+    private static int skipPreformatted( String text, int start )
+    {
+        int length = text.length();
+
+        for( int i = start; i < length; i++ )
+        {
+            if( text.charAt( i ) == '~' )
+            {
+                if( text.startsWith( "}}}", i + 1 ) ) i += 3;
+            }
+            else if( text.startsWith( "}}}", i ) )
+            {
+                return i + 3;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     *  Returns the position of the bracket which closes a link or a plugin, or -1.
+     *  Plugins may contain other plugins, and end only at a matching "}]".
+     */
+    private static int findLinkEnd( String text, int start )
+    {
+        int length = text.length();
+        boolean isPlugin = start < length && text.charAt( start ) == '{';
+        int nesting = 1;
+
+        for( int i = start; i < length; i++ )
+        {
+            char ch  = text.charAt( i );
+            char ch2 = i + 1 < length ? text.charAt( i + 1 ) : 0;
+
+            if( isPlugin )
+            {
+                if( ch == '[' && ch2 == '{' )
+                {
+                    nesting++;
+                }
+                else if( nesting == 0 && ch == ']' && text.charAt( i - 1 ) == '}' )
+                {
+                    return i;
+                }
+                else if( ch == '}' && ch2 == ']' )
+                {
+                    nesting--;
+                }
+            }
+            else if( ch == ']' )
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -18,6 +18,8 @@
  */
 package org.apache.wiki.auth.acl;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.Permission;
 import java.security.Principal;
 import java.util.*;
@@ -33,19 +35,32 @@ import org.apache.wiki.auth.PrincipalComparator;
 import org.apache.wiki.auth.WikiSecurityException;
 import org.apache.wiki.auth.permissions.PagePermission;
 import org.apache.wiki.auth.permissions.PermissionFactory;
+import org.apache.wiki.event.WikiEngineEvent;
+import org.apache.wiki.event.WikiEvent;
+import org.apache.wiki.event.WikiEventListener;
+import org.apache.wiki.event.WikiEventUtils;
+import org.apache.wiki.event.WikiPageEvent;
 import org.apache.wiki.providers.ProviderException;
-import org.apache.wiki.render.RenderingManager;
 
 /**
  * Default implementation that parses Acls from wiki page markup.
+ * <p>
+ * The access rules of each page are kept in an index, which is updated
+ * when a page is saved and written to the work directory on shutdown.
+ * The ACL of a page is built from the index, so pages never need to be
+ * rendered just to find out who may read them.
  * @since 2.3
  */
-public class DefaultAclManager implements AclManager
+public class DefaultAclManager implements AclManager, WikiEventListener
 {
     static Logger                log    = Logger.getLogger( DefaultAclManager.class );
 
+    /** The file in the work directory where the access rule index is kept. */
+    private static final String  INDEX_FILE = "aclindex.ser";
+
     private AuthorizationManager m_auth = null;
     private WikiEngine           m_engine = null;
+    private final AclIndex       m_index = new AclIndex();
     private static final String PERM_REGEX = "(" +
         PagePermission.COMMENT_ACTION + "|" +
         PagePermission.DELETE_ACTION  + "|" +
@@ -74,6 +89,24 @@ public class DefaultAclManager implements AclManager
     {
         m_auth = engine.getAuthorizationManager();
         m_engine = engine;
+
+        File indexFile = new File( engine.getWorkDir(), INDEX_FILE );
+
+        if( indexFile.exists() )
+        {
+            try
+            {
+                m_index.load( indexFile );
+                log.info( "Read access rules of " + m_index.size() + " pages from " + indexFile );
+            }
+            catch( IOException e )
+            {
+                log.info( "Unable to read the access rule index, rules will be read from the pages: " + e.getMessage() );
+            }
+        }
+
+        // The FilterManager does not exist yet, so listen for saves once the engine is up.
+        engine.addWikiEventListener( this );
     }
 
     /**
@@ -175,15 +208,20 @@ public class DefaultAclManager implements AclManager
             else
             {
                 //
-                //  Or, try parsing the page
+                //  Or, build it from the access rules of the page
                 //
-                WikiContext ctx = new WikiContext( m_engine, page );
-
-                ctx.setVariable( RenderingManager.VAR_EXECUTE_PLUGINS, Boolean.FALSE );
-
-                m_engine.getHTML( ctx, page );
+                for( String rule : getAccessRules( page ) )
+                {
+                    try
+                    {
+                        parseAcl( page, rule );
+                    }
+                    catch( WikiSecurityException e )
+                    {
+                        log.warn( "Ignoring access rule on page " + page.getName() + ": " + e.getMessage() );
+                    }
+                }
 
-                page = m_engine.getPage( page.getName(), page.getVersion() );
                 acl = page.getAcl();
 
                 if( acl == null )
@@ -197,6 +235,63 @@ public class DefaultAclManager implements AclManager
         return acl;
     }
 
+    /**
+     * Returns the access rules of a page.  The rules of the latest version
+     * come from the index, and are read from the page text only if the page
+     * has changed since it was indexed.  The rules of older versions are always
+     * read from the text.
+     * @param page the page
+     * @return the rules, without the surrounding braces; empty if there are none
+     */
+    private String[] getAccessRules( WikiPage page )
+    {
+        if( m_engine.getUserManager().getUserDatabase() == null )
+        {
+            // Same as the markup parser, which ignores access rules in this case
+            return new String[0];
+        }
+
+        WikiPage latest = m_engine.getPage( page.getName() );
+
+        if( latest == null )
+        {
+            return new String[0];
+        }
+
+        if( page.getVersion() != WikiProvider.LATEST_VERSION && page.getVersion() != latest.getVersion() )
+        {
+            return AclIndex.findRules( m_engine.getPureText( page ) );
+        }
+
+        AclIndex.Entry entry = m_index.get( latest.getName() );
+
+        if( entry == null || !entry.isCurrent( latest.getVersion(), lastModified( latest ) ) )
+        {
+            entry = index( latest );
+        }
+
+        return entry.getRules();
+    }
+
+    /**
+     * Reads the access rules of the latest version of a page, and stores them in the index.
+     */
+    private AclIndex.Entry index( WikiPage latest )
+    {
+        String text = m_engine.getPureText( latest.getName(), WikiProvider.LATEST_VERSION );
+        AclIndex.Entry entry = new AclIndex.Entry( latest.getVersion(),
+                                                   lastModified( latest ),
+                                                   AclIndex.findRules( text ) );
+        m_index.put( latest.getName(), entry );
+
+        return entry;
+    }
+
+    private static long lastModified( WikiPage page )
+    {
+        return page.getLastModified() != null ? page.getLastModified().getTime() : 0L;
+    }
+
     /**
      * Sets the access control list for the page and persists it by prepending
      * it to the wiki page markup and saving the page. When this method is
@@ -232,6 +327,60 @@ public class DefaultAclManager implements AclManager
         {
             throw new WikiSecurityException( "Could not set Acl. Reason: ProviderExcpetion " + e.getMessage(), e );
         }
+        finally
+        {
+            m_index.remove( page.getName() );
+        }
+    }
+
+    /**
+     * Keeps the access rule index up to date: pages are indexed after they have
+     * been saved and removed when they are deleted, and the index is written
+     * to the work directory when the engine shuts down.
+     * @param event the event
+     * @since 2.10
+     */
+    public void actionPerformed( WikiEvent event )
+    {
+        if( event instanceof WikiEngineEvent )
+        {
+            if( event.getType() == WikiEngineEvent.INITIALIZED )
+            {
+                WikiEventUtils.addWikiEventListener( m_engine, WikiPageEvent.POST_SAVE_END, this );
+                WikiEventUtils.addWikiEventListener( m_engine.getPageManager(), WikiPageEvent.PAGE_DELETED, this );
+            }
+            else if( event.getType() == WikiEngineEvent.SHUTDOWN )
+            {
+                try
+                {
+                    m_index.save( new File( m_engine.getWorkDir(), INDEX_FILE ) );
+                }
+                catch( IOException e )
+                {
+                    log.error( "Unable to save the access rule index", e );
+                }
+            }
+        }
+        else if( event instanceof WikiPageEvent )
+        {
+            String pageName = ((WikiPageEvent) event).getPageName();
+
+            if( pageName == null ) return;
+
+            if( event.getType() == WikiPageEvent.POST_SAVE_END )
+            {
+                WikiPage page = m_engine.getPage( pageName );
+
+                if( page != null )
+                {
+                    index( page );
+                }
+            }
+            else if( event.getType() == WikiPageEvent.PAGE_DELETED )
+            {
+                m_index.remove( pageName );
+            }
+        }
     }
 
     /**
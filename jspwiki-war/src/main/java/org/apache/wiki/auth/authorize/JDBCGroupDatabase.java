@@ -35,6 +35,13 @@ import org.apache.wiki.WikiEngine;
 import org.apache.wiki.auth.NoSuchPrincipalException;
 import org.apache.wiki.auth.WikiPrincipal;
 import org.apache.wiki.auth.WikiSecurityException;
+import org.apache.wiki.event.WikiEngineEvent;
+import org.apache.wiki.event.WikiEvent;
+import org.apache.wiki.event.WikiEventListener;
+import org.apache.wiki.providers.ProviderCache;
+import org.apache.wiki.providers.StripedLRUCache;
+import org.apache.wiki.util.PooledDataSource;
+import org.apache.wiki.util.TextUtil;
 
 /**
  * <p>
@@ -98,6 +105,26 @@ import org.apache.wiki.auth.WikiSecurityException;
  * <td><code>modifier</code></td>
  * <td>The column containing the name of the user who last modified the group</td>
  * </tr>
+ * <tr>
+ * <td><code>jspwiki.groupdatabase.jdbc.url</code></td>
+ * <td>(none)</td>
+ * <td>The JDBC URL of the database, used only if the JNDI DataSource cannot be
+ * found. JSPWiki then keeps its own pool of connections, configured with the
+ * other <code>jspwiki.groupdatabase.jdbc.*</code> properties; see
+ * {@link org.apache.wiki.util.PooledDataSource#fromProperties(Properties, String)}.</td>
+ * </tr>
+ * <tr>
+ * <td><code>jspwiki.groupdatabase.cacheSize</code></td>
+ * <td><code>1000</code></td>
+ * <td>The number of group lookups whose results are cached. Zero turns the
+ * cache off.</td>
+ * </tr>
+ * <tr>
+ * <td><code>jspwiki.groupdatabase.cacheExpiry</code></td>
+ * <td><code>60</code></td>
+ * <td>The number of seconds a cached group is used before it is read
+ * from the database again.</td>
+ * </tr>
  * </table>
  * <p>
  * This class is typically used in conjunction with a web container's JNDI
@@ -133,7 +160,7 @@ import org.apache.wiki.auth.WikiSecurityException;
  * 
  * @since 2.3
  */
-public class JDBCGroupDatabase implements GroupDatabase
+public class JDBCGroupDatabase implements GroupDatabase, WikiEventListener
 {
     /** Default column name that stores the JNDI name of the DataSource. */
     public static final String DEFAULT_GROUPDB_DATASOURCE = "jdbc/GroupDatabase";
@@ -162,6 +189,12 @@ public class JDBCGroupDatabase implements GroupDatabase
     /** Default column name that stores names of users who last modified groups. */
     public static final String DEFAULT_GROUPDB_MODIFIER = "modifier";
 
+    /** Default number of group lookups whose results are cached. */
+    public static final int DEFAULT_GROUPDB_CACHE_SIZE = 1000;
+
+    /** Default number of seconds a cached group is used. */
+    public static final int DEFAULT_GROUPDB_CACHE_EXPIRY = 60;
+
     /** The JNDI name of the DataSource. */
     public static final String PROP_GROUPDB_DATASOURCE = "jspwiki.groupdatabase.datasource";
 
@@ -189,10 +222,30 @@ public class JDBCGroupDatabase implements GroupDatabase
     /** The column containing the name of the user who last modified the group. */
     public static final String PROP_GROUPDB_MODIFIER = "jspwiki.groupdatabase.modifier";
 
+    /** Prefix of the properties for the connection pool which is used if there is no JNDI DataSource. */
+    public static final String PROP_GROUPDB_JDBC = "jspwiki.groupdatabase.jdbc.";
+
+    /** The number of group lookups whose results are cached; zero turns the cache off. */
+    public static final String PROP_GROUPDB_CACHE_SIZE = "jspwiki.groupdatabase.cacheSize";
+
+    /** How many seconds a cached group may be used before it is read again. */
+    public static final String PROP_GROUPDB_CACHE_EXPIRY = "jspwiki.groupdatabase.cacheExpiry";
+
     protected static final Logger log = Logger.getLogger( JDBCGroupDatabase.class );
 
     private DataSource m_ds = null;
 
+    /** Groups by name; null if caching is off. */
+    private ProviderCache<String,Group> m_groups = null;
+
+    /** Milliseconds, as {@link ProviderCache.Entry#isExpired(long)} wants it. */
+    private long m_cacheExpiry = DEFAULT_GROUPDB_CACHE_EXPIRY * 1000L;
+
+    /** Changed whenever the cache is cleared, so that lookups which were under way do not fill it with stale data. */
+    private volatile long m_generation = 0;
+
+    private final Object m_cacheLock = new Object();
+
     private String m_created = null;
 
     private String m_creator = null;
@@ -211,6 +264,8 @@ public class JDBCGroupDatabase implements GroupDatabase
 
     private String m_findMembers = null;
 
+    private String m_findAllMembers = null;
+
     private String m_insertGroup = null;
 
     private String m_insertGroupMembers = null;
@@ -291,6 +346,7 @@ public class JDBCGroupDatabase implements GroupDatabase
         }
         finally
         {
+            clearCache();
             try
             {
                 if( conn != null ) conn.close();
@@ -321,9 +377,30 @@ public class JDBCGroupDatabase implements GroupDatabase
             // Open the database connection
             conn = m_ds.getConnection();
 
-            PreparedStatement ps = conn.prepareStatement( m_findAll );
+            // Read all members at once, rather than with a query for each group
+            Map<String,List<String>> members = new HashMap<String,List<String>>();
+            PreparedStatement ps = conn.prepareStatement( m_findAllMembers );
             ResultSet rs = ps.executeQuery();
             while ( rs.next() )
+            {
+                String groupName = rs.getString( m_name );
+                String memberName = rs.getString( m_member );
+                if( groupName != null && memberName != null )
+                {
+                    List<String> names = members.get( groupName );
+                    if( names == null )
+                    {
+                        names = new ArrayList<String>();
+                        members.put( groupName, names );
+                    }
+                    names.add( memberName );
+                }
+            }
+            ps.close();
+
+            ps = conn.prepareStatement( m_findAll );
+            rs = ps.executeQuery();
+            while ( rs.next() )
             {
                 String groupName = rs.getString( m_name );
                 if( groupName == null )
@@ -337,7 +414,14 @@ public class JDBCGroupDatabase implements GroupDatabase
                     group.setCreator( rs.getString( m_creator ) );
                     group.setLastModified( rs.getTimestamp( m_modified ) );
                     group.setModifier( rs.getString( m_modifier ) );
-                    populateGroup( group );
+                    List<String> names = members.get( groupName );
+                    if( names != null )
+                    {
+                        for( String memberName : names )
+                        {
+                            group.add( new WikiPrincipal( memberName, WikiPrincipal.UNSPECIFIED ) );
+                        }
+                    }
                     groups.add( group );
                 }
             }
@@ -458,6 +542,7 @@ public class JDBCGroupDatabase implements GroupDatabase
         }
         finally
         {
+            clearCache();
             try
             {
                 if( conn != null ) conn.close();
@@ -487,9 +572,7 @@ public class JDBCGroupDatabase implements GroupDatabase
         String jndiName = props.getProperty( PROP_GROUPDB_DATASOURCE, DEFAULT_GROUPDB_DATASOURCE );
         try
         {
-            Context initCtx = new InitialContext();
-            Context ctx = (Context) initCtx.lookup( "java:comp/env" );
-            m_ds = (DataSource) ctx.lookup( jndiName );
+            m_ds = findDataSource( jndiName, props );
 
             // Prepare the SQL selectors
             table = props.getProperty( PROP_GROUPDB_TABLE, DEFAULT_GROUPDB_TABLE );
@@ -504,6 +587,7 @@ public class JDBCGroupDatabase implements GroupDatabase
             m_findAll = "SELECT DISTINCT * FROM " + table;
             m_findGroup = "SELECT DISTINCT * FROM " + table + " WHERE " + m_name + "=?";
             m_findMembers = "SELECT * FROM " + memberTable + " WHERE " + m_name + "=?";
+            m_findAllMembers = "SELECT * FROM " + memberTable;
 
             // Prepare the group insert/update SQL
             m_insertGroup = "INSERT INTO " + table + " (" + m_name + "," + m_modified + "," + m_modifier + "," + m_created + ","
@@ -523,6 +607,17 @@ public class JDBCGroupDatabase implements GroupDatabase
             throw new NoRequiredPropertyException( PROP_GROUPDB_DATASOURCE, "JDBCGroupDatabase initialization error: " + e);
         }
 
+        int cacheSize = TextUtil.getIntegerProperty( props, PROP_GROUPDB_CACHE_SIZE, DEFAULT_GROUPDB_CACHE_SIZE );
+        if( cacheSize > 0 )
+        {
+            StripedLRUCache<String,Group> cache = new StripedLRUCache<String,Group>();
+            cache.initialize( "groups", cacheSize, 0, null );
+            m_groups = cache;
+            m_cacheExpiry = TextUtil.getIntegerProperty( props, PROP_GROUPDB_CACHE_EXPIRY, DEFAULT_GROUPDB_CACHE_EXPIRY ) * 1000L;
+        }
+
+        engine.addWikiEventListener( this );
+
         // Test connection by doing a quickie select
         Connection conn = null;
         try
@@ -547,7 +642,7 @@ public class JDBCGroupDatabase implements GroupDatabase
             {
             }
         }
-        log.info( "JDBCGroupDatabase initialized from JNDI DataSource: " + jndiName );
+        log.info( "JDBCGroupDatabase initialized from " + ( m_ds instanceof PooledDataSource ? "connection pool: " + props.getProperty( PROP_GROUPDB_JDBC + PooledDataSource.PROP_URL ) : "JNDI DataSource: " + jndiName ) );
 
         // Determine if the datasource supports commits
         try
@@ -589,7 +684,7 @@ public class JDBCGroupDatabase implements GroupDatabase
         String index = group.getName();
         try
         {
-            findGroup( index );
+            findCachedGroup( index );
             return true;
         }
         catch( NoSuchPrincipalException e )
@@ -598,6 +693,107 @@ public class JDBCGroupDatabase implements GroupDatabase
         }
     }
 
+    /**
+     * Looks up the DataSource from JNDI.  If it is not there, but a connection
+     * pool has been configured, returns a new pool.
+     * 
+     * @param jndiName the JNDI name of the DataSource
+     * @param props the properties which configure the pool
+     * @return the DataSource
+     * @throws NamingException if the DataSource is not found, and there is no pool
+     * @throws NoRequiredPropertyException if the JDBC driver of the pool cannot be loaded
+     */
+    private DataSource findDataSource( String jndiName, Properties props ) throws NamingException, NoRequiredPropertyException
+    {
+        try
+        {
+            Context initCtx = new InitialContext();
+            Context ctx = (Context) initCtx.lookup( "java:comp/env" );
+            return (DataSource) ctx.lookup( jndiName );
+        }
+        catch( NamingException e )
+        {
+            PooledDataSource pool;
+            try
+            {
+                pool = PooledDataSource.fromProperties( props, PROP_GROUPDB_JDBC );
+            }
+            catch( SQLException ex )
+            {
+                log.error( "JDBCGroupDatabase initialization error: " + ex );
+                throw new NoRequiredPropertyException( PROP_GROUPDB_JDBC + PooledDataSource.PROP_DRIVER, "JDBCGroupDatabase initialization error: " + ex );
+            }
+            if( pool == null )
+            {
+                throw e;
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Closes the connection pool, if there is one, when the wiki is shut down.
+     * 
+     * @param event the event
+     */
+    public void actionPerformed( WikiEvent event )
+    {
+        if( event instanceof WikiEngineEvent && event.getType() == WikiEngineEvent.SHUTDOWN && m_ds instanceof PooledDataSource )
+        {
+            ((PooledDataSource) m_ds).close();
+        }
+    }
+
+    /**
+     * Forgets all cached groups.  Called after every change to the database,
+     * whether it succeeded or not.
+     */
+    private void clearCache()
+    {
+        if( m_groups != null )
+        {
+            synchronized( m_cacheLock )
+            {
+                m_generation++;
+                m_groups.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns a Group matching a supplied name, from the cache if possible.
+     * The cached Group itself is returned, so the result is for internal use
+     * only; it must not be changed or handed out to callers, who may change it.
+     * 
+     * @param index the name of the Group to find
+     * @return the populated Group
+     * @throws NoSuchPrincipalException if the Group cannot be found
+     */
+    private Group findCachedGroup( String index ) throws NoSuchPrincipalException
+    {
+        if( m_groups == null )
+        {
+            return findGroup( index );
+        }
+
+        ProviderCache.Entry<Group> entry = m_groups.getEntry( index );
+        if( entry != null && !entry.isExpired( m_cacheExpiry ) )
+        {
+            return entry.getValue();
+        }
+
+        long generation = m_generation;
+        Group group = findGroup( index );
+        synchronized( m_cacheLock )
+        {
+            if( generation == m_generation )
+            {
+                m_groups.put( index, group );
+            }
+        }
+        return group;
+    }
+
     /**
      * Loads and returns a Group from the back-end database matching a supplied
      * name.
@@ -633,7 +829,7 @@ public class JDBCGroupDatabase implements GroupDatabase
                 group.setCreator( rs.getString( m_creator ) );
                 group.setLastModified( rs.getTimestamp( m_modified ) );
                 group.setModifier( rs.getString( m_modifier ) );
-                populateGroup( group );
+                populateGroup( conn, group );
                 found = true;
             }
             ps.close();
@@ -665,19 +861,17 @@ public class JDBCGroupDatabase implements GroupDatabase
     }
 
     /**
-     * Fills a Group with members.
+     * Fills a Group with members.  Uses the caller's connection, so that a
+     * bounded connection pool cannot run out while the caller holds one.
      * 
+     * @param conn the open database connection
      * @param group the group to populate
      * @return the populated Group
      */
-    private Group populateGroup( Group group )
+    private Group populateGroup( Connection conn, Group group )
     {
-        Connection conn = null;
         try
         {
-            // Open the database connection
-            conn = m_ds.getConnection();
-
             PreparedStatement ps = conn.prepareStatement( m_findMembers );
             ps.setString( 1, group.getName() );
             ResultSet rs = ps.executeQuery();
@@ -696,16 +890,6 @@ public class JDBCGroupDatabase implements GroupDatabase
         {
             // I guess that means there aren't any principals...
         }
-        finally
-        {
-            try
-            {
-                if( conn != null ) conn.close();
-            }
-            catch( Exception e )
-            {
-            }
-        }
         return group;
     }
 
@@ -76,6 +76,17 @@ public final class DefaultUserProfile implements UserProfile
         return profile;
     }
 
+    /**
+     * Static factory method that creates a new DefaultUserProfile without
+     * a unique identifier.  Used for profiles which are read from a
+     * UserDatabase, and get their uid from there.
+     * @return the new profile
+     */
+    static UserProfile newProfile()
+    {
+        return new DefaultUserProfile();
+    }
+
     /**
      * {@inheritDoc}
      */
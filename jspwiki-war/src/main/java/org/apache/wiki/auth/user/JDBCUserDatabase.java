@@ -34,7 +34,14 @@ import org.apache.wiki.WikiEngine;
 import org.apache.wiki.auth.NoSuchPrincipalException;
 import org.apache.wiki.auth.WikiPrincipal;
 import org.apache.wiki.auth.WikiSecurityException;
+import org.apache.wiki.event.WikiEngineEvent;
+import org.apache.wiki.event.WikiEvent;
+import org.apache.wiki.event.WikiEventListener;
+import org.apache.wiki.providers.ProviderCache;
+import org.apache.wiki.providers.StripedLRUCache;
+import org.apache.wiki.util.PooledDataSource;
 import org.apache.wiki.util.Serializer;
+import org.apache.wiki.util.TextUtil;
 
 /**
  * <p>
@@ -130,6 +137,26 @@ import org.apache.wiki.util.Serializer;
  * this column again; it is provided strictly for the convenience of
  * container-managed authentication services.</td>
  * </tr>
+ * <tr>
+ * <td><code>jspwiki.userdatabase.jdbc.url</code></td>
+ * <td>(none)</td>
+ * <td>The JDBC URL of the database, used only if the JNDI DataSource cannot be
+ * found. JSPWiki then keeps its own pool of connections, configured with the
+ * other <code>jspwiki.userdatabase.jdbc.*</code> properties; see
+ * {@link org.apache.wiki.util.PooledDataSource#fromProperties(Properties, String)}.</td>
+ * </tr>
+ * <tr>
+ * <td><code>jspwiki.userdatabase.cacheSize</code></td>
+ * <td><code>1000</code></td>
+ * <td>The number of profile lookups whose results are cached. Zero turns the
+ * cache off.</td>
+ * </tr>
+ * <tr>
+ * <td><code>jspwiki.userdatabase.cacheExpiry</code></td>
+ * <td><code>60</code></td>
+ * <td>The number of seconds a cached profile is used before it is read
+ * from the database again.</td>
+ * </tr>
  * </table>
  * <p>
  * This class hashes passwords using SHA-1. All of the underying SQL commands
@@ -180,16 +207,27 @@ import org.apache.wiki.util.Serializer;
  * call the {@linkplain #commit()} method after saving a profile to guarantee
  * that changes are applied.
  * </p>
+ * <p>
+ * Profiles which have been looked up are cached, so that authenticating a user
+ * or showing a profile does not query the database each time. The cache is
+ * cleared whenever a profile is saved, renamed or deleted through this class;
+ * changes made to the database by other means are seen once the cached
+ * profiles expire.
+ * </p>
  * 
  * @since 2.3
  */
-public class JDBCUserDatabase extends AbstractUserDatabase
+public class JDBCUserDatabase extends AbstractUserDatabase implements WikiEventListener
 {
 
     private static final String NOTHING = "";
 
     public static final String DEFAULT_DB_ATTRIBUTES = "attributes";
 
+    public static final int DEFAULT_DB_CACHE_EXPIRY = 60;
+
+    public static final int DEFAULT_DB_CACHE_SIZE = 1000;
+
     public static final String DEFAULT_DB_CREATED = "created";
 
     public static final String DEFAULT_DB_EMAIL = "email";
@@ -218,12 +256,21 @@ public class JDBCUserDatabase extends AbstractUserDatabase
 
     public static final String PROP_DB_ATTRIBUTES = "jspwiki.userdatabase.attributes";
 
+    /** How many seconds a cached profile may be used before it is read again. */
+    public static final String PROP_DB_CACHE_EXPIRY = "jspwiki.userdatabase.cacheExpiry";
+
+    /** The number of lookups whose results are cached; zero turns the cache off. */
+    public static final String PROP_DB_CACHE_SIZE = "jspwiki.userdatabase.cacheSize";
+
     public static final String PROP_DB_CREATED = "jspwiki.userdatabase.created";
 
     public static final String PROP_DB_EMAIL = "jspwiki.userdatabase.email";
 
     public static final String PROP_DB_FULL_NAME = "jspwiki.userdatabase.fullName";
 
+    /** Prefix of the properties for the connection pool which is used if there is no JNDI DataSource. */
+    public static final String PROP_DB_JDBC = "jspwiki.userdatabase.jdbc.";
+
     public static final String PROP_DB_DATASOURCE = "jspwiki.userdatabase.datasource";
 
     public static final String PROP_DB_LOCK_EXPIRY = "jspwiki.userdatabase.lockExpiry";
@@ -246,6 +293,19 @@ public class JDBCUserDatabase extends AbstractUserDatabase
 
     private DataSource m_ds = null;
 
+    /** Profiles by the column and value they were looked up with; null if caching is off. */
+    private ProviderCache<String,UserProfile> m_profiles = null;
+
+    private volatile ProviderCache.Entry<Principal[]> m_wikiNames = null;
+
+    /** Milliseconds, as {@link ProviderCache.Entry#isExpired(long)} wants it. */
+    private long m_cacheExpiry = DEFAULT_DB_CACHE_EXPIRY * 1000L;
+
+    /** Changed whenever the cache is cleared, so that lookups which were under way do not fill it with stale data. */
+    private volatile long m_generation = 0;
+
+    private final Object m_cacheLock = new Object();
+
     private String m_deleteUserByLoginName = null;
 
     private String m_deleteRoleByLoginName = null;
@@ -268,6 +328,8 @@ public class JDBCUserDatabase extends AbstractUserDatabase
 
     private String m_findAll = null;
 
+    private String m_findWikiNames = null;
+
     private String m_findRoles = null;
 
     private String m_insertProfile = null;
@@ -347,6 +409,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
         }
         finally
         {
+            clearCache();
             try
             {
                 if( conn != null ) conn.close();
@@ -362,7 +425,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
      */
     public UserProfile findByEmail( String index ) throws NoSuchPrincipalException
     {
-        return findByPreparedStatement( m_findByEmail, index );
+        return findCached( m_email, m_findByEmail, index );
     }
 
     /**
@@ -370,7 +433,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
      */
     public UserProfile findByFullName( String index ) throws NoSuchPrincipalException
     {
-        return findByPreparedStatement( m_findByFullName, index );
+        return findCached( m_fullName, m_findByFullName, index );
     }
 
     /**
@@ -378,7 +441,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
      */
     public UserProfile findByLoginName( String index ) throws NoSuchPrincipalException
     {
-        return findByPreparedStatement( m_findByLoginName, index );
+        return findCached( m_loginName, m_findByLoginName, index );
     }
 
     /**
@@ -386,7 +449,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
      */
     public UserProfile findByUid( String uid ) throws NoSuchPrincipalException
     {
-        return findByPreparedStatement( m_findByUid, uid );
+        return findCached( m_uid, m_findByUid, uid );
     }
 
     /**
@@ -394,7 +457,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
      */
     public UserProfile findByWikiName( String index ) throws NoSuchPrincipalException
     {
-        return findByPreparedStatement( m_findByWikiName, index );
+        return findCached( m_wikiName, m_findByWikiName, index );
     }
 
     /**
@@ -406,12 +469,19 @@ public class JDBCUserDatabase extends AbstractUserDatabase
      */
     public Principal[] getWikiNames() throws WikiSecurityException
     {
+        ProviderCache.Entry<Principal[]> entry = m_wikiNames;
+        if( entry != null && !entry.isExpired( m_cacheExpiry ) )
+        {
+            return entry.getValue().clone();
+        }
+
+        long generation = m_generation;
         Set<Principal> principals = new HashSet<Principal>();
         Connection conn = null;
         try
         {
             conn = m_ds.getConnection();
-            PreparedStatement ps = conn.prepareStatement( m_findAll );
+            PreparedStatement ps = conn.prepareStatement( m_findWikiNames );
             ResultSet rs = ps.executeQuery();
             while ( rs.next() )
             {
@@ -443,7 +513,18 @@ public class JDBCUserDatabase extends AbstractUserDatabase
             }
         }
 
-        return principals.toArray( new Principal[principals.size()] );
+        Principal[] wikiNames = principals.toArray( new Principal[principals.size()] );
+        if( m_profiles != null )
+        {
+            synchronized( m_cacheLock )
+            {
+                if( generation == m_generation )
+                {
+                    m_wikiNames = new ProviderCache.Entry<Principal[]>( wikiNames.clone(), 1 );
+                }
+            }
+        }
+        return wikiNames;
     }
 
     /**
@@ -459,9 +540,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
         String jndiName = props.getProperty( PROP_DB_DATASOURCE, DEFAULT_DB_JNDI_NAME );
         try
         {
-            Context initCtx = new InitialContext();
-            Context ctx = (Context) initCtx.lookup( "java:comp/env" );
-            m_ds = (DataSource) ctx.lookup( jndiName );
+            m_ds = findDataSource( jndiName, props );
 
             // Prepare the SQL selectors
             userTable = props.getProperty( PROP_DB_TABLE, DEFAULT_DB_TABLE );
@@ -477,6 +556,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
             m_attributes = props.getProperty( PROP_DB_ATTRIBUTES, DEFAULT_DB_ATTRIBUTES );
 
             m_findAll = "SELECT * FROM " + userTable;
+            m_findWikiNames = "SELECT " + m_wikiName + " FROM " + userTable;
             m_findByEmail = "SELECT * FROM " + userTable + " WHERE " + m_email + "=?";
             m_findByFullName = "SELECT * FROM " + userTable + " WHERE " + m_fullName + "=?";
             m_findByLoginName = "SELECT * FROM " + userTable + " WHERE " + m_loginName + "=?";
@@ -532,6 +612,20 @@ public class JDBCUserDatabase extends AbstractUserDatabase
             throw new NoRequiredPropertyException( PROP_DB_DATASOURCE, "JDBCUserDatabase initialization error: " + e.getMessage() );
         }
 
+        int cacheSize = TextUtil.getIntegerProperty( props, PROP_DB_CACHE_SIZE, DEFAULT_DB_CACHE_SIZE );
+        if( cacheSize > 0 )
+        {
+            StripedLRUCache<String,UserProfile> cache = new StripedLRUCache<String,UserProfile>();
+            cache.initialize( "userProfiles", cacheSize, 0, null );
+            m_profiles = cache;
+            m_cacheExpiry = TextUtil.getIntegerProperty( props, PROP_DB_CACHE_EXPIRY, DEFAULT_DB_CACHE_EXPIRY ) * 1000L;
+        }
+
+        if( engine != null )
+        {
+            engine.addWikiEventListener( this );
+        }
+
         // Test connection by doing a quickie select
         Connection conn = null;
         try
@@ -555,7 +649,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
             {
             }
         }
-        log.info( "JDBCUserDatabase initialized from JNDI DataSource: " + jndiName );
+        log.info( "JDBCUserDatabase initialized from " + ( m_ds instanceof PooledDataSource ? "connection pool: " + props.getProperty( PROP_DB_JDBC + PooledDataSource.PROP_URL ) : "JNDI DataSource: " + jndiName ) );
 
         // Determine if the datasource supports commits
         try
@@ -655,6 +749,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
         }
         finally
         {
+            clearCache();
             try
             {
                 if( conn != null ) conn.close();
@@ -706,6 +801,12 @@ public class JDBCUserDatabase extends AbstractUserDatabase
             password = getHash( password );
         }
 
+        // Profiles read from rows without a uid get one now
+        if( profile.getUid() == null )
+        {
+            profile.setUid( generateUid( this ) );
+        }
+
         Connection conn = null;
         try
         {
@@ -803,6 +904,7 @@ public class JDBCUserDatabase extends AbstractUserDatabase
         }
         finally
         {
+            clearCache();
             try
             {
                 if( conn != null ) conn.close();
@@ -813,9 +915,129 @@ public class JDBCUserDatabase extends AbstractUserDatabase
         }
     }
 
+    /**
+     * Looks up the DataSource from JNDI.  If it is not there, but a connection
+     * pool has been configured, returns a new pool.
+     * 
+     * @param jndiName the JNDI name of the DataSource
+     * @param props the properties which configure the pool
+     * @return the DataSource
+     * @throws NamingException if the DataSource is not found, and there is no pool
+     * @throws NoRequiredPropertyException if the JDBC driver of the pool cannot be loaded
+     */
+    private DataSource findDataSource( String jndiName, Properties props ) throws NamingException, NoRequiredPropertyException
+    {
+        try
+        {
+            Context initCtx = new InitialContext();
+            Context ctx = (Context) initCtx.lookup( "java:comp/env" );
+            return (DataSource) ctx.lookup( jndiName );
+        }
+        catch( NamingException e )
+        {
+            PooledDataSource pool;
+            try
+            {
+                pool = PooledDataSource.fromProperties( props, PROP_DB_JDBC );
+            }
+            catch( SQLException ex )
+            {
+                log.error( "JDBCUserDatabase initialization error: " + ex.getMessage() );
+                throw new NoRequiredPropertyException( PROP_DB_JDBC + PooledDataSource.PROP_DRIVER, "JDBCUserDatabase initialization error: " + ex.getMessage() );
+            }
+            if( pool == null )
+            {
+                throw e;
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Closes the connection pool, if there is one, when the wiki is shut down.
+     * 
+     * @param event the event
+     */
+    public void actionPerformed( WikiEvent event )
+    {
+        if( event instanceof WikiEngineEvent && event.getType() == WikiEngineEvent.SHUTDOWN && m_ds instanceof PooledDataSource )
+        {
+            ((PooledDataSource) m_ds).close();
+        }
+    }
+
+    /**
+     * Forgets all cached profiles.  Called after every change to the database,
+     * whether it succeeded or not.
+     */
+    private void clearCache()
+    {
+        if( m_profiles != null )
+        {
+            synchronized( m_cacheLock )
+            {
+                m_generation++;
+                m_profiles.clear();
+                m_wikiNames = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the profile matching a column's value, from the cache if possible.
+     * The cache holds copies of the profiles, because callers are free to
+     * change the profiles they get.
+     * 
+     * @param column the column to match
+     * @param sql the SQL statement which finds the profile
+     * @param index the value to match
+     * @return the resolved UserProfile
+     * @throws NoSuchPrincipalException if there is no single matching profile
+     */
+    private UserProfile findCached( String column, String sql, String index ) throws NoSuchPrincipalException
+    {
+        if( m_profiles == null || index == null )
+        {
+            return findByPreparedStatement( sql, index );
+        }
+
+        String key = column + "=" + index;
+        ProviderCache.Entry<UserProfile> entry = m_profiles.getEntry( key );
+        if( entry != null && !entry.isExpired( m_cacheExpiry ) )
+        {
+            return copyOf( entry.getValue() );
+        }
+
+        long generation = m_generation;
+        UserProfile profile = findByPreparedStatement( sql, index );
+        synchronized( m_cacheLock )
+        {
+            if( generation == m_generation )
+            {
+                m_profiles.put( key, copyOf( profile ) );
+            }
+        }
+        return profile;
+    }
+
+    private UserProfile copyOf( UserProfile profile )
+    {
+        UserProfile copy = DefaultUserProfile.newProfile();
+        copy.setUid( profile.getUid() );
+        copy.setCreated( profile.getCreated() );
+        copy.setEmail( profile.getEmail() );
+        copy.setFullname( profile.getFullname() );
+        copy.setLastModified( profile.getLastModified() );
+        copy.setLockExpiry( profile.getLockExpiry() );
+        copy.setLoginName( profile.getLoginName() );
+        copy.setPassword( profile.getPassword() );
+        copy.getAttributes().putAll( profile.getAttributes() );
+        return copy;
+    }
+
     /**
      * Private method that returns the first {@link UserProfile} matching a
-     * named column's value. This method will also set the UID if it has not yet been set.     
+     * named column's value.
      * @param sql the SQL statement that should be prepared; it must have one parameter
      * to set (either a String or a Long)
      * @param index the value to match
@@ -824,7 +1046,17 @@ public class JDBCUserDatabase extends AbstractUserDatabase
      */
     private UserProfile findByPreparedStatement( String sql, Object index ) throws NoSuchPrincipalException
     {
-        UserProfile profile = null;
+        // The row is copied out and the profile built only after the connection
+        // has been returned
+        String uid = null;
+        Timestamp created = null;
+        String email = null;
+        String fullName = null;
+        Timestamp modified = null;
+        Date lockExpiry = null;
+        String loginName = null;
+        String password = null;
+        String rawAttributes = null;
         boolean found = false;
         boolean unique = true;
         Connection conn = null;
@@ -857,42 +1089,26 @@ public class JDBCUserDatabase extends AbstractUserDatabase
             ResultSet rs = ps.executeQuery();
             while ( rs.next() )
             {
-                if( profile != null )
+                if( found )
                 {
                     unique = false;
                     break;
                 }
-                profile = newProfile();
                 
                 // Fetch the basic user attributes
-                profile.setUid( rs.getString( m_uid ) );
-                if ( profile.getUid() == null )
+                uid = rs.getString( m_uid );
+                created = rs.getTimestamp( m_created );
+                email = rs.getString( m_email );
+                fullName = rs.getString( m_fullName );
+                modified = rs.getTimestamp( m_modified );
+                lockExpiry = rs.getDate( m_lockExpiry );
+                if ( rs.wasNull() )
                 {
-                    profile.setUid( generateUid( this ) );
-                }
-                profile.setCreated( rs.getTimestamp( m_created ) );
-                profile.setEmail( rs.getString( m_email ) );
-                profile.setFullname( rs.getString( m_fullName ) );
-                profile.setLastModified( rs.getTimestamp( m_modified ) );
-                Date lockExpiry = rs.getDate( m_lockExpiry );
-                profile.setLockExpiry( rs.wasNull() ? null : lockExpiry );
-                profile.setLoginName( rs.getString( m_loginName ) );
-                profile.setPassword( rs.getString( m_password ) );
-                
-                // Fetch the user attributes
-                String rawAttributes = rs.getString( m_attributes );
-                if ( rawAttributes != null )
-                {
-                    try
-                    {
-                        Map<String,? extends Serializable> attributes = Serializer.deserializeFromBase64( rawAttributes );
-                        profile.getAttributes().putAll( attributes );
-                    }
-                    catch ( IOException e )
-                    {
-                        log.error( "Could not parse user profile attributes!", e );
-                    }
+                    lockExpiry = null;
                 }
+                loginName = rs.getString( m_loginName );
+                password = rs.getString( m_password );
+                rawAttributes = rs.getString( m_attributes );
                 found = true;
             }
             ps.close();
@@ -920,6 +1136,31 @@ public class JDBCUserDatabase extends AbstractUserDatabase
         {
             throw new NoSuchPrincipalException( "More than one profile in database!" );
         }
+
+        // The uid is generated when the profile is saved, if the row has none
+        UserProfile profile = DefaultUserProfile.newProfile();
+        profile.setUid( uid );
+        profile.setCreated( created );
+        profile.setEmail( email );
+        profile.setFullname( fullName );
+        profile.setLastModified( modified );
+        profile.setLockExpiry( lockExpiry );
+        profile.setLoginName( loginName );
+        profile.setPassword( password );
+
+        // Fetch the user attributes
+        if ( rawAttributes != null )
+        {
+            try
+            {
+                Map<String,? extends Serializable> attributes = Serializer.deserializeFromBase64( rawAttributes );
+                profile.getAttributes().putAll( attributes );
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not parse user profile attributes!", e );
+            }
+        }
         return profile;
 
     }
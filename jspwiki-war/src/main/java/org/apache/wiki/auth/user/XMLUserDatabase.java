@@ -24,6 +24,7 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -51,6 +52,9 @@ import org.apache.wiki.util.Serializer;
  * &lt;/users&gt;
  * </code></blockquote> 
  * <p>In this example, the un-hashed password is <code>myP@5sw0rd</code>. Passwords are hashed without salt.</p>
+ * <p>The users are indexed by uid, login name, wiki name, e-mail address and full name,
+ * so lookups do not depend on the number of users. Changes are written to a temporary
+ * file which then replaces the database file; lookups can go on while the file is written.</p>
  * @since 2.3
  */
 
@@ -89,6 +93,10 @@ public class XMLUserDatabase extends AbstractUserDatabase
 
     private static final String WIKI_NAME         = "wikiName";
 
+    private static final String DEFER_NODE_EXPANSION = "http://apache.org/xml/features/dom/defer-node-expansion";
+
+    private static final String[] INDEXED_ATTRIBUTES = { UID, LOGIN_NAME, WIKI_NAME, EMAIL, FULL_NAME };
+
     private Document            c_dom             = null;
 
     private DateFormat          c_defaultFormat   = DateFormat.getDateTimeInstance();
@@ -97,6 +105,21 @@ public class XMLUserDatabase extends AbstractUserDatabase
     
     private File                c_file            = null;
 
+    /** Attribute name -> attribute value -> the users having that value, in the order they were indexed. */
+    private final Map<String,Map<String,List<Element>>> c_indexes = new HashMap<String,Map<String,List<Element>>>();
+
+    /** Guards the DOM and the indexes.  Writing the database file does not need it. */
+    private final ReentrantReadWriteLock c_lock = new ReentrantReadWriteLock();
+
+    /** Guards the database file. */
+    private final Object        c_fileLock        = new Object();
+
+    /** The number of the latest snapshot of the DOM. */
+    private long                c_snapshots       = 0;
+
+    /** The number of the snapshot which was last written to the file. */
+    private long                c_written         = 0;
+
     /**
      * Looks up and deletes the first {@link UserProfile} in the user database
      * that matches a profile having a given login name. If the user database
@@ -104,27 +127,42 @@ public class XMLUserDatabase extends AbstractUserDatabase
      * {@link NoSuchPrincipalException}.
      * @param loginName the login name of the user profile that shall be deleted
      */
-    public synchronized void deleteByLoginName( String loginName ) throws NoSuchPrincipalException, WikiSecurityException
+    public void deleteByLoginName( String loginName ) throws NoSuchPrincipalException, WikiSecurityException
     {
         if ( c_dom == null )
         {
             throw new WikiSecurityException( "FATAL: database does not exist" );
         }
-            
-        NodeList users = c_dom.getDocumentElement().getElementsByTagName( USER_TAG );
-        for( int i = 0; i < users.getLength(); i++ )
+
+        Snapshot snapshot;
+        c_lock.writeLock().lock();
+        try
         {
-            Element user = (Element) users.item( i );
-            if ( user.getAttribute( LOGIN_NAME ).equals( loginName ) )
+            Element user = lookup( LOGIN_NAME, loginName );
+            if ( user == null )
             {
-                c_dom.getDocumentElement().removeChild(user);
-                
-                // Commit to disk
-                saveDOM();
-                return;
+                throw new NoSuchPrincipalException( "Not in database: " + loginName );
             }
+            unindex( user );
+            c_dom.getDocumentElement().removeChild(user);
+            // Downgrade, so that lookups can go on while the DOM is serialized
+            c_lock.readLock().lock();
+        }
+        finally
+        {
+            c_lock.writeLock().unlock();
         }
-        throw new NoSuchPrincipalException( "Not in database: " + loginName );
+        try
+        {
+            snapshot = takeSnapshot();
+        }
+        finally
+        {
+            c_lock.readLock().unlock();
+        }
+
+        // Commit to disk
+        saveDOM( snapshot );
     }        
 
     /**
@@ -231,21 +269,19 @@ public class XMLUserDatabase extends AbstractUserDatabase
             throw new IllegalStateException( "FATAL: database does not exist" );
         }
         SortedSet<Principal> principals = new TreeSet<Principal>();
-        NodeList users = c_dom.getElementsByTagName( USER_TAG );
-        for( int i = 0; i < users.getLength(); i++ )
+        c_lock.readLock().lock();
+        try
         {
-            Element user = (Element) users.item( i );
-            String wikiName = user.getAttribute( WIKI_NAME );
-            if ( wikiName == null )
-            {
-                log.warn( "Detected null wiki name in XMLUserDataBase. Check your user database." );
-            }
-            else
+            for( String wikiName : c_indexes.get( WIKI_NAME ).keySet() )
             {
                 Principal principal = new WikiPrincipal( wikiName, WikiPrincipal.WIKI_NAME );
                 principals.add( principal );
             }
         }
+        finally
+        {
+            c_lock.readLock().unlock();
+        }
         return principals.toArray( new Principal[principals.size()] );
     }
     
@@ -284,8 +320,16 @@ public class XMLUserDatabase extends AbstractUserDatabase
 
         log.info("XML user database at "+c_file.getAbsolutePath());
         
-        buildDOM();
-        sanitizeDOM();
+        c_lock.writeLock().lock();
+        try
+        {
+            buildDOM();
+            sanitizeDOM();
+        }
+        finally
+        {
+            c_lock.writeLock().unlock();
+        }
     }
     
     private void buildDOM()
@@ -297,6 +341,15 @@ public class XMLUserDatabase extends AbstractUserDatabase
         factory.setIgnoringComments( true );
         factory.setNamespaceAware( false );
         try
+        {
+            // The DOM is read by several threads at once, so it must be fully built up front
+            factory.setFeature( DEFER_NODE_EXPANSION, false );
+        }
+        catch( ParserConfigurationException e )
+        {
+            log.debug( "XML parser does not support " + DEFER_NODE_EXPANSION );
+        }
+        try
         {
             c_dom = factory.newDocumentBuilder().parse( c_file );
             log.debug( "Database successfully initialized" );
@@ -334,108 +387,248 @@ public class XMLUserDatabase extends AbstractUserDatabase
                 log.fatal( "Could not create in-memory DOM" );
             }
         }
+
+        buildIndexes();
     }
-    
-    private void saveDOM() throws WikiSecurityException
+
+    /**
+     * Indexes all users in the DOM.
+     */
+    private void buildIndexes()
     {
+        c_indexes.clear();
+        for ( String attribute : INDEXED_ATTRIBUTES )
+        {
+            c_indexes.put( attribute, new HashMap<String,List<Element>>() );
+        }
+
         if ( c_dom == null )
         {
-            log.fatal( "User database doesn't exist in memory." );
+            return;
         }
 
-        File newFile = new File( c_file.getAbsolutePath() + ".new" );
-        try
+        NodeList users = c_dom.getElementsByTagName( USER_TAG );
+        for( int i = 0; i < users.getLength(); i++ )
         {
-            BufferedWriter io = new BufferedWriter( new OutputStreamWriter ( 
-                    new FileOutputStream( newFile ), "UTF-8" ) );
-            
-            // Write the file header and document root
-            io.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            io.write("<users>\n");
-            
-            // Write each profile as a <user> node
-            Element root = c_dom.getDocumentElement();
-            NodeList nodes = root.getElementsByTagName( USER_TAG );  
-            for( int i = 0; i < nodes.getLength(); i++ )
+            index( (Element) users.item( i ) );
+        }
+    }
+
+    /**
+     * Adds a user to the indexes, under its current attribute values.
+     * @param user the user element
+     */
+    private void index( Element user )
+    {
+        for ( String attribute : INDEXED_ATTRIBUTES )
+        {
+            Map<String,List<Element>> index = c_indexes.get( attribute );
+            String value = user.getAttribute( attribute );
+            List<Element> users = index.get( value );
+            if ( users == null )
             {
-                Element user = (Element)nodes.item( i );
-                io.write( "    <" + USER_TAG + " ");
-                io.write( UID );
-                io.write( "=\"" + user.getAttribute( UID ) + "\" " );
-                io.write( LOGIN_NAME );
-                io.write( "=\"" + user.getAttribute( LOGIN_NAME ) + "\" " );
-                io.write( WIKI_NAME );
-                io.write( "=\"" + user.getAttribute( WIKI_NAME ) + "\" " );
-                io.write( FULL_NAME );
-                io.write( "=\"" + user.getAttribute( FULL_NAME ) + "\" " );
-                io.write( EMAIL );
-                io.write( "=\"" + user.getAttribute( EMAIL ) + "\" " );
-                io.write( PASSWORD );
-                io.write( "=\"" + user.getAttribute( PASSWORD ) + "\" " );
-                io.write( CREATED );
-                io.write( "=\"" + user.getAttribute( CREATED ) + "\" " );
-                io.write( LAST_MODIFIED );
-                io.write( "=\"" + user.getAttribute( LAST_MODIFIED ) + "\" " );
-                io.write( LOCK_EXPIRY );
-                io.write( "=\"" + user.getAttribute( LOCK_EXPIRY ) + "\" " );
-                io.write( ">" );
-                NodeList attributes = user.getElementsByTagName( ATTRIBUTES_TAG );
-                for ( int j = 0; j < attributes.getLength(); j++ )
+                // Almost always only one user has the value
+                users = new ArrayList<Element>( 1 );
+                index.put( value, users );
+            }
+            users.add( user );
+        }
+    }
+
+    /**
+     * Removes a user from the indexes.  Must be called before the
+     * indexed attributes are changed.
+     * @param user the user element
+     */
+    private void unindex( Element user )
+    {
+        for ( String attribute : INDEXED_ATTRIBUTES )
+        {
+            Map<String,List<Element>> index = c_indexes.get( attribute );
+            String value = user.getAttribute( attribute );
+            List<Element> users = index.get( value );
+            if ( users != null )
+            {
+                users.remove( user );
+                if ( users.isEmpty() )
                 {
-                    Element attribute = (Element)attributes.item( j );
-                    String value = extractText( attribute );
-                    io.write( "\n        <" + ATTRIBUTES_TAG + ">" );
-                    io.write( value );
-                    io.write( "</" + ATTRIBUTES_TAG + ">" );
+                    index.remove( value );
                 }
-                io.write("\n    </" +USER_TAG + ">\n");
             }
-            io.write("</users>");
-            io.close();
         }
-        catch ( IOException e )
+    }
+
+    /**
+     * Returns the first user whose attribute has the given value.
+     * @param attribute the indexed attribute
+     * @param value the value
+     * @return the user element, or <code>null</code> if there is none
+     */
+    private Element lookup( String attribute, String value )
+    {
+        List<Element> users = c_indexes.get( attribute ).get( value );
+        return ( users == null ) ? null : users.get( 0 );
+    }
+    
+    /**
+     * Serializes the DOM.  Must be called while holding the read lock, which
+     * was downgraded from the write lock of the change.  Writers are kept out
+     * until the snapshot is taken, so that the snapshots are numbered in the
+     * order the changes were made.
+     * @return the snapshot
+     */
+    private Snapshot takeSnapshot()
+    {
+        if ( c_dom == null )
         {
-            throw new WikiSecurityException( e.getLocalizedMessage(), e );
+            log.fatal( "User database doesn't exist in memory." );
         }
 
-        // Copy new file over old version
-        File backup = new File( c_file.getAbsolutePath() + ".old" );
-        if ( backup.exists() )
+        StringWriter io = new StringWriter();
+
+        // Write the file header and document root
+        io.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        io.write("<users>\n");
+        
+        // Write each profile as a <user> node
+        Element root = c_dom.getDocumentElement();
+        NodeList nodes = root.getElementsByTagName( USER_TAG );  
+        for( int i = 0; i < nodes.getLength(); i++ )
         {
-            if ( !backup.delete() )
+            Element user = (Element)nodes.item( i );
+            io.write( "    <" + USER_TAG + " ");
+            io.write( UID );
+            io.write( "=\"" + user.getAttribute( UID ) + "\" " );
+            io.write( LOGIN_NAME );
+            io.write( "=\"" + user.getAttribute( LOGIN_NAME ) + "\" " );
+            io.write( WIKI_NAME );
+            io.write( "=\"" + user.getAttribute( WIKI_NAME ) + "\" " );
+            io.write( FULL_NAME );
+            io.write( "=\"" + user.getAttribute( FULL_NAME ) + "\" " );
+            io.write( EMAIL );
+            io.write( "=\"" + user.getAttribute( EMAIL ) + "\" " );
+            io.write( PASSWORD );
+            io.write( "=\"" + user.getAttribute( PASSWORD ) + "\" " );
+            io.write( CREATED );
+            io.write( "=\"" + user.getAttribute( CREATED ) + "\" " );
+            io.write( LAST_MODIFIED );
+            io.write( "=\"" + user.getAttribute( LAST_MODIFIED ) + "\" " );
+            io.write( LOCK_EXPIRY );
+            io.write( "=\"" + user.getAttribute( LOCK_EXPIRY ) + "\" " );
+            io.write( ">" );
+            NodeList attributes = user.getElementsByTagName( ATTRIBUTES_TAG );
+            for ( int j = 0; j < attributes.getLength(); j++ )
             {
-                log.error( "Could not delete old user database backup: " + backup );
+                Element attribute = (Element)attributes.item( j );
+                String value = extractText( attribute );
+                io.write( "\n        <" + ATTRIBUTES_TAG + ">" );
+                io.write( value );
+                io.write( "</" + ATTRIBUTES_TAG + ">" );
             }
+            io.write("\n    </" +USER_TAG + ">\n");
         }
-        if ( !c_file.renameTo( backup ) )
-        {
-            log.error( "Could not create user database backup: " + backup );
-        }
-        if ( !newFile.renameTo( c_file ) )
+        io.write("</users>");
+
+        return new Snapshot( io.toString(), ++c_snapshots );
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, which then replaces the database
+     * file.  If a newer snapshot has already been written, does nothing.
+     * @param snapshot the snapshot to write
+     */
+    private void saveDOM( Snapshot snapshot ) throws WikiSecurityException
+    {
+        synchronized( c_fileLock )
         {
-            log.error( "Could not save database: " + backup + " restoring backup." );
-            if ( !backup.renameTo( c_file ) )
+            if ( snapshot.m_number <= c_written )
             {
-                log.error( "Restore failed. Check the file permissions." );
+                return;
             }
-            log.error( "Could not save database: " + c_file + ". Check the file permissions" );
+
+            File newFile = new File( c_file.getAbsolutePath() + ".new" );
+            try
+            {
+                Writer io = new BufferedWriter( new OutputStreamWriter ( 
+                        new FileOutputStream( newFile ), "UTF-8" ) );
+                try
+                {
+                    io.write( snapshot.m_xml );
+                }
+                finally
+                {
+                    io.close();
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new WikiSecurityException( e.getLocalizedMessage(), e );
+            }
+
+            // Our own changes must not cause the DOM to be read again
+            c_lastModified = newFile.lastModified();
+
+            // On most platforms the rename replaces the old file at once.  If it
+            // cannot, move the old version out of the way first.
+            if ( !newFile.renameTo( c_file ) )
+            {
+                File backup = new File( c_file.getAbsolutePath() + ".old" );
+                if ( backup.exists() )
+                {
+                    if ( !backup.delete() )
+                    {
+                        log.error( "Could not delete old user database backup: " + backup );
+                    }
+                }
+                if ( !c_file.renameTo( backup ) )
+                {
+                    log.error( "Could not create user database backup: " + backup );
+                }
+                if ( !newFile.renameTo( c_file ) )
+                {
+                    log.error( "Could not save database: " + backup + " restoring backup." );
+                    if ( !backup.renameTo( c_file ) )
+                    {
+                        log.error( "Restore failed. Check the file permissions." );
+                    }
+                    log.error( "Could not save database: " + c_file + ". Check the file permissions" );
+                    return;
+                }
+            }
+
+            c_written = snapshot.m_number;
         }
     }
     
-    private long c_lastCheck    = 0;
-    private long c_lastModified = 0;
+    private volatile long c_lastCheck    = 0;
+    private volatile long c_lastModified = 0;
     
     private void checkForRefresh()
     {
+        // A thread which already holds a lock is in the middle of an operation
+        if( c_lock.isWriteLockedByCurrentThread() || c_lock.getReadHoldCount() > 0 )
+        {
+            return;
+        }
+
         long time = System.currentTimeMillis();
         
         if( time - c_lastCheck > 60*1000L )
         {
+            c_lastCheck = time;
             long lastModified = c_file.lastModified();
             
             if( lastModified > c_lastModified )
             {
-                buildDOM();
+                c_lock.writeLock().lock();
+                try
+                {
+                    buildDOM();
+                }
+                finally
+                {
+                    c_lock.writeLock().unlock();
+                }
             }
         }
     }
@@ -443,7 +636,7 @@ public class XMLUserDatabase extends AbstractUserDatabase
     /**
      * @see org.apache.wiki.auth.user.UserDatabase#rename(String, String)
      */
-    public synchronized void rename(String loginName, String newName) throws NoSuchPrincipalException, DuplicateUserException, WikiSecurityException
+    public void rename(String loginName, String newName) throws NoSuchPrincipalException, DuplicateUserException, WikiSecurityException
     {
         if ( c_dom == null )
         {
@@ -452,41 +645,47 @@ public class XMLUserDatabase extends AbstractUserDatabase
         }
         checkForRefresh();
         
-        // Get the existing user; if not found, throws NoSuchPrincipalException
-        UserProfile profile = findByLoginName( loginName );
-        
-        // Get user with the proposed name; if found, it's a collision
-        try 
+        Snapshot snapshot;
+        c_lock.writeLock().lock();
+        try
         {
-            UserProfile otherProfile = findByLoginName( newName );
-            if ( otherProfile != null )
+            // Get the existing user; if not found, throws NoSuchPrincipalException
+            UserProfile profile = findByLoginName( loginName );
+        
+            // Get user with the proposed name; if found, it's a collision
+            if ( lookup( LOGIN_NAME, newName ) != null )
             {
                 throw new DuplicateUserException( "security.error.cannot.rename", newName );
             }
+        
+            // Find the user with the old login id attribute, and change it
+            Element user = lookup( LOGIN_NAME, loginName );
+            Date modDate = new Date( System.currentTimeMillis() );
+            unindex( user );
+            setAttribute( user, LOGIN_NAME, newName );
+            setAttribute( user, LAST_MODIFIED, formatDate( modDate ) );
+            index( user );
+            profile.setLoginName( newName );
+            profile.setLastModified( modDate );
+
+            // Downgrade, so that lookups can go on while the DOM is serialized
+            c_lock.readLock().lock();
         }
-        catch ( NoSuchPrincipalException e )
+        finally
         {
-            // Good! That means it's safe to save using the new name
+            c_lock.writeLock().unlock();
         }
-        
-        // Find the user with the old login id attribute, and change it
-        NodeList users = c_dom.getElementsByTagName( USER_TAG );
-        for( int i = 0; i < users.getLength(); i++ )
+        try
         {
-            Element user = (Element) users.item( i );
-            if ( user.getAttribute( LOGIN_NAME ).equals( loginName ) )
-            {
-                Date modDate = new Date( System.currentTimeMillis() );
-                setAttribute( user, LOGIN_NAME, newName );
-                setAttribute( user, LAST_MODIFIED, c_format.format( modDate ) );
-                profile.setLoginName( newName );
-                profile.setLastModified( modDate );
-                break;
-            }
+            snapshot = takeSnapshot();
+        }
+        finally
+        {
+            c_lock.readLock().unlock();
         }
         
         // Commit to disk
-        saveDOM();
+        saveDOM( snapshot );
     }
     
     /**
@@ -497,7 +696,7 @@ public class XMLUserDatabase extends AbstractUserDatabase
      * @param profile the user profile to save
      * @throws WikiSecurityException if the profile cannot be saved
      */
-    public synchronized void save( UserProfile profile ) throws WikiSecurityException
+    public void save( UserProfile profile ) throws WikiSecurityException
     {
         if ( c_dom == null )
         {
@@ -507,19 +706,42 @@ public class XMLUserDatabase extends AbstractUserDatabase
         
         checkForRefresh();
         
-        String index = profile.getLoginName();
-        NodeList users = c_dom.getElementsByTagName( USER_TAG );
-        Element user = null;
-        for( int i = 0; i < users.getLength(); i++ )
+        Snapshot snapshot;
+        c_lock.writeLock().lock();
+        try
         {
-            Element currentUser = (Element) users.item( i );
-            if ( currentUser.getAttribute( LOGIN_NAME ).equals( index ) )
-            {
-                user = currentUser;
-                break;
-            }
+            saveProfile( profile );
+            // Downgrade, so that lookups can go on while the DOM is serialized
+            c_lock.readLock().lock();
+        }
+        finally
+        {
+            c_lock.writeLock().unlock();
+        }
+        try
+        {
+            snapshot = takeSnapshot();
+        }
+        finally
+        {
+            c_lock.readLock().unlock();
         }
         
+        // Commit to disk
+        saveDOM( snapshot );
+    }
+
+    /**
+     * Stores a profile in the DOM and updates the indexes.  Must be called
+     * while holding the write lock.
+     * @param profile the user profile to save
+     * @throws WikiSecurityException if the profile attributes cannot be serialized
+     */
+    private void saveProfile( UserProfile profile ) throws WikiSecurityException
+    {
+        String index = profile.getLoginName();
+        Element user = lookup( LOGIN_NAME, index );
+        
         boolean isNew = false;
         
         Date modDate = new Date( System.currentTimeMillis() );
@@ -530,11 +752,13 @@ public class XMLUserDatabase extends AbstractUserDatabase
             log.info( "Creating new user " + index );
             user = c_dom.createElement( USER_TAG );
             c_dom.getDocumentElement().appendChild( user );
-            setAttribute( user, CREATED, c_format.format( profile.getCreated() ) );
+            setAttribute( user, CREATED, formatDate( profile.getCreated() ) );
             isNew = true;
         }
         else
         {
+            unindex( user );
+
             // To update existing user node, delete old attributes first...
             NodeList attributes = user.getElementsByTagName( ATTRIBUTES_TAG );
             for ( int i = 0; i < attributes.getLength(); i++ )
@@ -544,13 +768,14 @@ public class XMLUserDatabase extends AbstractUserDatabase
         }
         
         setAttribute( user, UID, profile.getUid() );
-        setAttribute( user, LAST_MODIFIED, c_format.format( modDate ) );
+        setAttribute( user, LAST_MODIFIED, formatDate( modDate ) );
         setAttribute( user, LOGIN_NAME, profile.getLoginName() );
         setAttribute( user, FULL_NAME, profile.getFullname() );
         setAttribute( user, WIKI_NAME, profile.getWikiName() );
         setAttribute( user, EMAIL, profile.getEmail() );
+        index( user );
         Date lockExpiry = profile.getLockExpiry();
-        setAttribute( user, LOCK_EXPIRY, lockExpiry == null ? "" : c_format.format( lockExpiry ) );
+        setAttribute( user, LOCK_EXPIRY, lockExpiry == null ? "" : formatDate( lockExpiry ) );
 
         // Hash and save the new password if it's different from old one
         String newPassword = profile.getPassword();
@@ -586,9 +811,6 @@ public class XMLUserDatabase extends AbstractUserDatabase
             profile.setCreated( modDate );
         }
         profile.setLastModified( modDate );
-        
-        // Commit to disk
-        saveDOM();
     }
 
     /**
@@ -608,14 +830,11 @@ public class XMLUserDatabase extends AbstractUserDatabase
         
         checkForRefresh();
         
-        NodeList users = c_dom.getElementsByTagName( USER_TAG );
-        
-        if( users == null ) return null;
-        
-        for( int i = 0; i < users.getLength(); i++ )
+        c_lock.readLock().lock();
+        try
         {
-            Element user = (Element) users.item( i );
-            if ( user.getAttribute( matchAttribute ).equals( index ) )
+            Element user = lookup( matchAttribute, index );
+            if ( user != null )
             {
                 UserProfile profile = newProfile();
                 
@@ -667,6 +886,10 @@ public class XMLUserDatabase extends AbstractUserDatabase
                 return profile;
             }
         }
+        finally
+        {
+            c_lock.readLock().unlock();
+        }
         return null;
     }
 
@@ -678,16 +901,12 @@ public class XMLUserDatabase extends AbstractUserDatabase
     private String extractText( Element element )
     {
         String text = "";
-        if ( element.getChildNodes().getLength() > 0 )
+        // Walk the siblings rather than NodeList.item(), which caches its position in the node
+        for ( Node child = element.getFirstChild(); child != null; child = child.getNextSibling() )
         {
-            NodeList children = element.getChildNodes();
-            for ( int k = 0; k < children.getLength(); k++ )
+            if ( child.getNodeType() == Node.TEXT_NODE )
             {
-                Node child = children.item( k );
-                if ( child.getNodeType() == Node.TEXT_NODE )
-                {
-                    text = text + ((Text)child).getData();
-                }
+                text = text + ((Text)child).getData();
             }
         }
         return text;
@@ -702,6 +921,15 @@ public class XMLUserDatabase extends AbstractUserDatabase
      *  @return A parsed date, or null, if both parse attempts fail.
      */
     private Date parseDate( UserProfile profile, String date )
+    {
+        // Several threads may be reading profiles at once, and the formats are not thread-safe
+        synchronized( c_format )
+        {
+            return parseDateFormats( profile, date );
+        }
+    }
+
+    private Date parseDateFormats( UserProfile profile, String date )
     {
         try
         {
@@ -745,7 +973,9 @@ public class XMLUserDatabase extends AbstractUserDatabase
             if ( uid == null || uid.length() == 0 || "-1".equals( uid ) )
             {
                 uid = String.valueOf( generateUid( this ) );
+                unindex( user );
                 user.setAttribute( UID, uid );
+                index( user );
             }
             
             // Sanitize dates
@@ -792,4 +1022,27 @@ public class XMLUserDatabase extends AbstractUserDatabase
             element.setAttribute( attribute, value );
         }
     }
+
+    private String formatDate( Date date )
+    {
+        synchronized( c_format )
+        {
+            return c_format.format( date );
+        }
+    }
+
+    /**
+     * The serialized user database at one point in time.
+     */
+    private static final class Snapshot
+    {
+        private final String m_xml;
+        private final long   m_number;
+
+        Snapshot( String xml, long number )
+        {
+            m_xml    = xml;
+            m_number = number;
+        }
+    }
 }
\ No newline at end of file
@@ -41,6 +41,10 @@ import org.suigeneris.jrcs.diff.myers.MyersDiff;
 /**
  * A seriously better diff provider, which highlights changes word-by-word using
  * CSS.
+ * <p>
+ * Diffs may be made by several threads at once; all the state of a diff is kept
+ * in the ChangeMerger of the call.  The public markup fields must therefore be
+ * set before the provider is used.
  *
  * Suggested by John Volkar.
  *
@@ -137,7 +141,7 @@ public class ContextualDiffProvider implements DiffProvider
      * 
      * {@inheritDoc}
      */
-    public synchronized String makeDiffHtml( WikiContext ctx, String wikiOld, String wikiNew )
+    public String makeDiffHtml( WikiContext ctx, String wikiOld, String wikiNew )
     {
         //
         // Sequencing handles lineterminator to <br /> and every-other consequtive space to a &nbsp;
@@ -148,7 +152,7 @@ public class ContextualDiffProvider implements DiffProvider
         Revision rev = null;
         try
         {
-            rev = Diff.diff( alpha, beta, new MyersDiff() );
+            rev = diff( alpha, beta );
         }
         catch( DifferentiationFailedException dfe )
         {
@@ -177,6 +181,22 @@ public class ContextualDiffProvider implements DiffProvider
         return sb.toString();
     }
 
+    /**
+     * Compares the old and new text, which have been split into words and spaces.
+     * Each line of the text ends with the {@link #m_lineBreakHtml} string.
+     *
+     * @param alpha The words of the old text
+     * @param beta The words of the new text
+     * @return The changes between the texts
+     * @throws DifferentiationFailedException If the texts cannot be compared
+     * @since 2.10
+     */
+    protected Revision diff( String[] alpha, String[] beta )
+        throws DifferentiationFailedException
+    {
+        return Diff.diff( alpha, beta, new MyersDiff() );
+    }
+
     /**
      * Take the string and create an array from it, split it first on newlines, making
      * sure to preserve the newlines in the elements, split each resulting element on
@@ -20,6 +20,7 @@
 package org.apache.wiki.diff;
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
@@ -27,15 +28,29 @@ import org.apache.log4j.Logger;
 import org.apache.wiki.NoRequiredPropertyException;
 import org.apache.wiki.WikiContext;
 import org.apache.wiki.WikiEngine;
+import org.apache.wiki.WikiPage;
+import org.apache.wiki.event.WikiEvent;
+import org.apache.wiki.event.WikiEventListener;
+import org.apache.wiki.event.WikiEventUtils;
+import org.apache.wiki.event.WikiPageEvent;
+import org.apache.wiki.event.WikiPageRenameEvent;
+import org.apache.wiki.preferences.Preferences;
+import org.apache.wiki.providers.ProviderCache;
+import org.apache.wiki.providers.ProviderCacheFactory;
+import org.apache.wiki.providers.WikiPageProvider;
 import org.apache.wiki.util.ClassUtil;
+import org.apache.wiki.util.TextUtil;
 
 
 
 /**
  * Load, initialize and delegate to the DiffProvider that will actually do the work.
- *
+ * <p>
+ * Diffs between two stored versions of a page are kept in a bounded LRU cache.
+ * Stored versions do not change, so a cached diff stays valid until a version
+ * of the page is deleted, or the page is deleted or renamed.
  */
-public class DifferenceManager
+public class DifferenceManager implements WikiEventListener
 {
     private static final Logger log = Logger.getLogger(DifferenceManager.class);
 
@@ -43,8 +58,39 @@ public class DifferenceManager
     public static final String PROP_DIFF_PROVIDER = "jspwiki.diffProvider";
 
 
+    /**
+     *  The number of diffs kept in the cache.  Zero turns the cache off.
+     *  The value is {@value}.
+     *  @since 2.10
+     */
+    public static final String PROP_CACHECAPACITY = "jspwiki.differenceManager.capacity";
+
+    /**
+     *  The maximum amount of diff HTML kept in the cache, in kilobytes.  Zero means
+     *  that only the number of diffs is limited.  The value is {@value}.
+     *  @since 2.10
+     */
+    public static final String PROP_CACHEMAXSIZE = "jspwiki.differenceManager.maxSize";
+
+    private static final int DEFAULT_CACHECAPACITY = 100;
+
+    private static final int DEFAULT_CACHEMAXSIZE = 4096;
+
+    private static final ProviderCache.Weigher<String> DIFF_WEIGHER = new ProviderCache.Weigher<String>()
+    {
+        public long weigh( String diff )
+        {
+            return 2L * diff.length();
+        }
+    };
+
     private DiffProvider m_provider;
 
+    private WikiEngine m_engine;
+
+    /** Rendered diffs between stored versions.  Null, if caching is off. */
+    private ProviderCache<DiffKey,String> m_diffCache;
+
     /**
      *  Creates a new DifferenceManager for the given engine.
      *  
@@ -53,11 +99,27 @@ public class DifferenceManager
      */
     public DifferenceManager(WikiEngine engine, Properties props)
     {
+        m_engine = engine;
+
         loadProvider(props);
 
         initializeProvider(engine, props);
 
         log.info("Using difference provider: " + m_provider.getProviderInfo());
+
+        int capacity = TextUtil.getIntegerProperty( props, PROP_CACHECAPACITY, DEFAULT_CACHECAPACITY );
+
+        if( capacity > 0 )
+        {
+            long maxSize = 1024L * TextUtil.getIntegerProperty( props, PROP_CACHEMAXSIZE, DEFAULT_CACHEMAXSIZE );
+
+            m_diffCache = ProviderCacheFactory.createCache( props, "diffCache", capacity, maxSize, DIFF_WEIGHER );
+
+            WikiEventUtils.addWikiEventListener( engine.getPageManager(), WikiPageEvent.PAGE_DELETED, this );
+
+            // Renames are announced by the engine.
+            engine.addWikiEventListener( this );
+        }
     }
 
     private void loadProvider(Properties props)
@@ -133,5 +195,140 @@ public class DifferenceManager
         }
         return diff;
     }
+
+    /**
+     *  Returns a diff of two versions of the page of the given context.  Diffs
+     *  between stored versions are cached.
+     *
+     *  @param context The WikiContext of the page
+     *  @param version1 Version number of the old page.  If WikiPageProvider.LATEST_VERSION (-1),
+     *                  the diff is made against an empty page.
+     *  @param version2 Version number of the new page.  If WikiPageProvider.LATEST_VERSION (-1),
+     *                  then uses current page.
+     *  @return XHTML, or empty string, if no difference detected.
+     *  @since 2.10
+     */
+    public String getDiff( WikiContext context, int version1, int version2 )
+    {
+        String page = context.getPage().getName();
+
+        //
+        //  The latest version changes when the page is saved, so we need its number
+        //  for the key.  Providers which do not keep versions have no numbers,
+        //  and their diffs are not cached.
+        //
+        if( version2 == WikiPageProvider.LATEST_VERSION && m_diffCache != null )
+        {
+            WikiPage latest = m_engine.getPage( page );
+
+            if( latest != null && latest.getVersion() > 0 )
+            {
+                version2 = latest.getVersion();
+            }
+        }
+
+        DiffKey key = null;
+
+        if( m_diffCache != null && version2 > 0 )
+        {
+            key = new DiffKey( page, version1, version2, Preferences.getLocale( context ) );
+
+            ProviderCache.Entry<String> entry = m_diffCache.getEntry( key );
+
+            if( entry != null && entry.getValue() != null )
+            {
+                return entry.getValue();
+            }
+        }
+
+        // Kludge to make diffs for new pages to work this way.
+        String page1 = version1 == WikiPageProvider.LATEST_VERSION ? "" : m_engine.getPureText( page, version1 );
+        String page2 = m_engine.getPureText( page, version2 );
+
+        String diff = makeDiff( context, page1, page2 );
+
+        if( key != null )
+        {
+            m_diffCache.put( key, diff );
+        }
+
+        return diff;
+    }
+
+    /**
+     *  Removes the cached diffs of a page.  This must be called when a version
+     *  of the page has been deleted.
+     *
+     *  @param page The name of the page.
+     *  @since 2.10
+     */
+    public void pageChanged( String page )
+    {
+        if( m_diffCache == null ) return;
+
+        for( DiffKey key : m_diffCache.keys() )
+        {
+            if( key.m_page.equals( page ) )
+            {
+                m_diffCache.remove( key );
+            }
+        }
+    }
+
+    /**
+     *  Removes the cached diffs of deleted and renamed pages.
+     *
+     *  @param event The event
+     *  @since 2.10
+     */
+    public void actionPerformed( WikiEvent event )
+    {
+        if( event instanceof WikiPageRenameEvent )
+        {
+            pageChanged( ((WikiPageRenameEvent) event).getOldPageName() );
+            pageChanged( ((WikiPageRenameEvent) event).getNewPageName() );
+        }
+        else if( event instanceof WikiPageEvent && event.getType() == WikiPageEvent.PAGE_DELETED )
+        {
+            String page = ((WikiPageEvent) event).getPageName();
+
+            if( page != null ) pageChanged( page );
+        }
+    }
+
+    /**
+     *  Identifies a diff between two versions of a page.  The locale is part of
+     *  the key, since some providers translate their output.
+     */
+    private static final class DiffKey
+    {
+        private final String m_page;
+        private final int    m_version1;
+        private final int    m_version2;
+        private final Locale m_locale;
+
+        private DiffKey( String page, int version1, int version2, Locale locale )
+        {
+            m_page     = page;
+            m_version1 = version1;
+            m_version2 = version2;
+            m_locale   = locale;
+        }
+
+        public boolean equals( Object o )
+        {
+            if( !(o instanceof DiffKey) ) return false;
+
+            DiffKey k = (DiffKey) o;
+
+            return m_page.equals( k.m_page ) && m_version1 == k.m_version1 && m_version2 == k.m_version2
+                   && (m_locale == null ? k.m_locale == null : m_locale.equals( k.m_locale ));
+        }
+
+        public int hashCode()
+        {
+            return m_page.hashCode() * 31 + m_version1 * 17 + m_version2;
+        }
+    }
 }
 
@@ -0,0 +1,412 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.suigeneris.jrcs.diff.DiffAlgorithm;
+import org.suigeneris.jrcs.diff.Revision;
+import org.suigeneris.jrcs.diff.delta.Chunk;
+import org.suigeneris.jrcs.diff.delta.Delta;
+
+/**
+ *  A diff algorithm which needs memory only in proportion to the length of the
+ *  sequences.  It is the divide and conquer variant of Myers' O(ND) algorithm:
+ *  the middle snake of the edit path is found by searching from both ends at
+ *  once, and the parts before and after it are compared recursively.
+ *  <p>
+ *  The elements are mapped to integers before they are compared, and common
+ *  heads and tails are skipped before each search, which makes the usual case
+ *  of a few changes in a long page cheap.
+ *  <p>
+ *  An instance may be given a time limit.  When it runs out, the parts which
+ *  have not been compared yet are reported as changed as a whole, so the result
+ *  is still a correct, if not minimal, diff.  Instances are not thread safe;
+ *  create one for each diff.
+ *
+ *  @since 2.10
+ */
+public class LinearDiff implements DiffAlgorithm
+{
+    private final long m_deadline;
+
+    private boolean m_timedOut = false;
+
+    /** Search buffers, shared by the recursive calls. */
+    private int[] m_forward;
+    private int[] m_reverse;
+
+    /**
+     *  Creates an instance without a time limit.
+     */
+    public LinearDiff()
+    {
+        this( 0 );
+    }
+
+    /**
+     *  Creates an instance which gives up looking for a minimal diff after
+     *  the given time.
+     *
+     *  @param timeLimit The number of milliseconds this instance may spend
+     *                   comparing, in total.  Zero or less means no limit.
+     */
+    public LinearDiff( long timeLimit )
+    {
+        m_deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : 0;
+    }
+
+    /**
+     *  Returns true, if the time limit has run out and some of the differences
+     *  have been reported coarsely.
+     *
+     *  @return True, if the time limit has run out.
+     */
+    public boolean isTimedOut()
+    {
+        return m_timedOut;
+    }
+
+    /**
+     *  Compares two sequences of objects, using their equals() methods.
+     *
+     *  @param orig The original sequence.
+     *  @param rev The revised sequence.
+     *  @return The deltas which turn the original into the revised sequence.
+     */
+    public Revision diff( Object[] orig, Object[] rev )
+    {
+        Map<Object,Integer> ids = new HashMap<Object,Integer>();
+
+        int[] a = intern( orig, 0, orig.length, ids );
+        int[] b = intern( rev, 0, rev.length, ids );
+
+        Revision revision = new Revision();
+
+        for( int[] edit : compare( a, 0, a.length, b, 0, b.length ) )
+        {
+            revision.addDelta( Delta.newDelta( new Chunk( orig, edit[0], edit[1] - edit[0] ),
+                                               new Chunk( rev, edit[2], edit[3] - edit[2] ) ) );
+        }
+
+        return revision;
+    }
+
+    /**
+     *  Maps a range of objects to integers, so that equal objects get the same
+     *  number.
+     *
+     *  @param seq The objects.
+     *  @param from The first object to map.
+     *  @param to The end of the range, exclusive.
+     *  @param ids The numbers given so far.  New objects are added to it.
+     *  @return The numbers of the objects in the range.
+     */
+    public static int[] intern( Object[] seq, int from, int to, Map<Object,Integer> ids )
+    {
+        int[] result = new int[to - from];
+
+        for( int i = from; i < to; i++ )
+        {
+            Integer id = ids.get( seq[i] );
+
+            if( id == null )
+            {
+                id = ids.size();
+                ids.put( seq[i], id );
+            }
+
+            result[i - from] = id;
+        }
+
+        return result;
+    }
+
+    /**
+     *  Compares ranges of two integer sequences.  The changes are returned in
+     *  order as arrays of four indices: the start and end of the changed part of
+     *  the original, and the start and end of the part replacing it.  The ends
+     *  are exclusive.
+     *
+     *  @param a The original sequence.
+     *  @param aFrom The start of the range in the original.
+     *  @param aTo The end of the range in the original, exclusive.
+     *  @param b The revised sequence.
+     *  @param bFrom The start of the range in the revised sequence.
+     *  @param bTo The end of the range in the revised sequence, exclusive.
+     *  @return The changed ranges.  Empty, if the ranges are equal.
+     */
+    public List<int[]> compare( int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo )
+    {
+        int size = aTo - aFrom + bTo - bFrom + 3;
+
+        if( m_forward == null || m_forward.length < size )
+        {
+            m_forward = new int[size];
+            m_reverse = new int[size];
+        }
+
+        List<int[]> edits = new ArrayList<int[]>();
+
+        compare( a, aFrom, aTo, b, bFrom, bTo, edits );
+
+        return slide( a, aTo, b, bTo, edits );
+    }
+
+    /**
+     *  Moves pure additions and deletions as far down as they go.  Both "A |-B -|C"
+     *  and "A| -B|-C" are minimal, but the first one is easier to read, and it is
+     *  the one the MyersDiff would give.  Changes which come to touch are joined.
+     */
+    private static List<int[]> slide( int[] a, int aTo, int[] b, int bTo, List<int[]> edits )
+    {
+        List<int[]> result = new ArrayList<int[]>( edits.size() );
+
+        for( int i = 0; i < edits.size(); i++ )
+        {
+            int[] e = edits.get( i );
+            int aLimit = i + 1 < edits.size() ? edits.get( i + 1 )[0] : aTo;
+            int bLimit = i + 1 < edits.size() ? edits.get( i + 1 )[2] : bTo;
+
+            if( e[2] == e[3] )
+            {
+                while( e[1] < aLimit && a[e[0]] == a[e[1]] )
+                {
+                    e[0]++; e[1]++; e[2]++; e[3]++;
+                }
+            }
+            else if( e[0] == e[1] )
+            {
+                while( e[3] < bLimit && b[e[2]] == b[e[3]] )
+                {
+                    e[0]++; e[1]++; e[2]++; e[3]++;
+                }
+            }
+
+            addEdit( result, e[0], e[1], e[2], e[3] );
+        }
+
+        return result;
+    }
+
+    private void compare( int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo, List<int[]> edits )
+    {
+        while( aFrom < aTo && bFrom < bTo && a[aFrom] == b[bFrom] )
+        {
+            aFrom++;
+            bFrom++;
+        }
+
+        while( aFrom < aTo && bFrom < bTo && a[aTo - 1] == b[bTo - 1] )
+        {
+            aTo--;
+            bTo--;
+        }
+
+        if( aFrom == aTo || bFrom == bTo )
+        {
+            addEdit( edits, aFrom, aTo, bFrom, bTo );
+            return;
+        }
+
+        int[] split = bisect( a, aFrom, aTo, b, bFrom, bTo );
+
+        if( split == null )
+        {
+            addEdit( edits, aFrom, aTo, bFrom, bTo );
+            return;
+        }
+
+        compare( a, aFrom, split[0], b, bFrom, split[1], edits );
+        compare( a, split[0], aTo, b, split[1], bTo, edits );
+    }
+
+    /**
+     *  Finds the middle snake of the edit path, searching from both ends until
+     *  the paths meet.  The ranges must not be empty, and their first and last
+     *  elements must differ.
+     *
+     *  @return The point where the ranges are split, or null if the time ran out.
+     */
+    private int[] bisect( int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo )
+    {
+        int n = aTo - aFrom;
+        int m = bTo - bFrom;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+
+        int[] v1 = m_forward;
+        int[] v2 = m_reverse;
+
+        Arrays.fill( v1, 0, length, -1 );
+        Arrays.fill( v2, 0, length, -1 );
+        v1[offset + 1] = 0;
+        v2[offset + 1] = 0;
+
+        int delta = n - m;
+
+        // If the difference in lengths is odd, the forward search finds the overlap.
+        boolean front = (delta % 2 != 0);
+
+        // Diagonals which have run off the edges are not searched again.
+        int k1start = 0;
+        int k1end   = 0;
+        int k2start = 0;
+        int k2end   = 0;
+
+        for( int d = 0; d < maxD; d++ )
+        {
+            if( m_deadline > 0 && System.currentTimeMillis() > m_deadline )
+            {
+                m_timedOut = true;
+                return null;
+            }
+
+            for( int k1 = -d + k1start; k1 <= d - k1end; k1 += 2 )
+            {
+                int k1Offset = offset + k1;
+                int x1;
+
+                if( k1 == -d || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1]) )
+                {
+                    x1 = v1[k1Offset + 1];
+                }
+                else
+                {
+                    x1 = v1[k1Offset - 1] + 1;
+                }
+
+                int y1 = x1 - k1;
+
+                while( x1 < n && y1 < m && a[aFrom + x1] == b[bFrom + y1] )
+                {
+                    x1++;
+                    y1++;
+                }
+
+                v1[k1Offset] = x1;
+
+                if( x1 > n )
+                {
+                    k1end += 2;
+                }
+                else if( y1 > m )
+                {
+                    k1start += 2;
+                }
+                else if( front )
+                {
+                    int k2Offset = offset + delta - k1;
+
+                    if( k2Offset >= 0 && k2Offset < length && v2[k2Offset] != -1 )
+                    {
+                        int x2 = n - v2[k2Offset];
+
+                        if( x1 >= x2 )
+                        {
+                            return new int[] { aFrom + x1, bFrom + y1 };
+                        }
+                    }
+                }
+            }
+
+            for( int k2 = -d + k2start; k2 <= d - k2end; k2 += 2 )
+            {
+                int k2Offset = offset + k2;
+                int x2;
+
+                if( k2 == -d || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1]) )
+                {
+                    x2 = v2[k2Offset + 1];
+                }
+                else
+                {
+                    x2 = v2[k2Offset - 1] + 1;
+                }
+
+                int y2 = x2 - k2;
+
+                while( x2 < n && y2 < m && a[aTo - x2 - 1] == b[bTo - y2 - 1] )
+                {
+                    x2++;
+                    y2++;
+                }
+
+                v2[k2Offset] = x2;
+
+                if( x2 > n )
+                {
+                    k2end += 2;
+                }
+                else if( y2 > m )
+                {
+                    k2start += 2;
+                }
+                else if( !front )
+                {
+                    int k1Offset = offset + delta - k2;
+
+                    if( k1Offset >= 0 && k1Offset < length && v1[k1Offset] != -1 )
+                    {
+                        int x1 = v1[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+
+                        if( x1 >= n - x2 )
+                        {
+                            return new int[] { aFrom + x1, bFrom + y1 };
+                        }
+                    }
+                }
+            }
+        }
+
+        // The paths did not meet, so nothing is common.
+        return null;
+    }
+
+    /**
+     *  Adds a change, joining it to the previous one if they touch.
+     */
+    private static void addEdit( List<int[]> edits, int aFrom, int aTo, int bFrom, int bTo )
+    {
+        if( aFrom == aTo && bFrom == bTo )
+        {
+            return;
+        }
+
+        if( !edits.isEmpty() )
+        {
+            int[] last = edits.get( edits.size() - 1 );
+
+            if( last[1] == aFrom && last[3] == bFrom )
+            {
+                last[1] = aTo;
+                last[3] = bTo;
+                return;
+            }
+        }
+
+        edits.add( new int[] { aFrom, aTo, bFrom, bTo } );
+    }
+}
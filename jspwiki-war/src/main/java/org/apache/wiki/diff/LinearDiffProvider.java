@@ -0,0 +1,199 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.diff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.apache.wiki.NoRequiredPropertyException;
+import org.apache.wiki.WikiEngine;
+import org.apache.wiki.util.TextUtil;
+import org.suigeneris.jrcs.diff.Revision;
+import org.suigeneris.jrcs.diff.delta.Chunk;
+import org.suigeneris.jrcs.diff.delta.Delta;
+
+/**
+ * A word-by-word diff provider for large pages.  The output is the same kind as
+ * that of the {@link ContextualDiffProvider}, but the texts are first compared
+ * line by line, and only the lines which have changed are compared word by word.
+ * Both comparisons use the {@link LinearDiff}, which needs little memory.
+ * <p>
+ * If a diff takes longer than <tt>jspwiki.linearDiffProvider.timeLimit</tt>
+ * milliseconds, the rest of the changes are shown as whole changed lines.
+ *
+ * @since 2.10
+ */
+public class LinearDiffProvider extends ContextualDiffProvider
+{
+    private static final Logger log = Logger.getLogger( LinearDiffProvider.class );
+
+    /**
+     *  A jspwiki.properties value to define how many milliseconds a diff may take
+     *  before the rest of it is done line by line.  Zero means no limit.
+     *  The current value is <tt>{@value}</tt>.
+     */
+    public static final String PROP_TIMELIMIT = "jspwiki.linearDiffProvider.timeLimit";
+
+    private static final int DEFAULT_TIMELIMIT = 2000;
+
+    private long m_timeLimit = DEFAULT_TIMELIMIT;
+
+    /**
+     *  Constructs this provider.
+     */
+    public LinearDiffProvider()
+    {}
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getProviderInfo()
+    {
+        return "LinearDiffProvider";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void initialize( WikiEngine engine, Properties properties )
+        throws NoRequiredPropertyException, IOException
+    {
+        super.initialize( engine, properties );
+
+        m_timeLimit = TextUtil.getIntegerProperty( properties, PROP_TIMELIMIT, DEFAULT_TIMELIMIT );
+    }
+
+    /**
+     * Compares the lines of the texts first, and then the words of the lines which
+     * differ.
+     *
+     * {@inheritDoc}
+     */
+    protected Revision diff( String[] alpha, String[] beta )
+    {
+        LinearDiff diff = new LinearDiff( m_timeLimit );
+
+        int[] alphaLines = lineStarts( alpha );
+        int[] betaLines  = lineStarts( beta );
+
+        Map<Object,Integer> ids = new HashMap<Object,Integer>();
+        String[] alphaText = lines( alpha, alphaLines );
+        String[] betaText  = lines( beta, betaLines );
+        int[] a = LinearDiff.intern( alphaText, 0, alphaText.length, ids );
+        int[] b = LinearDiff.intern( betaText, 0, betaText.length, ids );
+
+        Revision rev = new Revision();
+
+        for( int[] block : diff.compare( a, 0, a.length, b, 0, b.length ) )
+        {
+            int aFrom = alphaLines[block[0]];
+            int aTo   = alphaLines[block[1]];
+            int bFrom = betaLines[block[2]];
+            int bTo   = betaLines[block[3]];
+
+            if( diff.isTimedOut() )
+            {
+                addDelta( rev, alpha, aFrom, aTo, beta, bFrom, bTo );
+                continue;
+            }
+
+            Map<Object,Integer> words = new HashMap<Object,Integer>();
+            int[] x = LinearDiff.intern( alpha, aFrom, aTo, words );
+            int[] y = LinearDiff.intern( beta, bFrom, bTo, words );
+
+            for( int[] edit : diff.compare( x, 0, x.length, y, 0, y.length ) )
+            {
+                addDelta( rev, alpha, aFrom + edit[0], aFrom + edit[1], beta, bFrom + edit[2], bFrom + edit[3] );
+            }
+        }
+
+        if( diff.isTimedOut() )
+        {
+            log.info( "Diff of " + alpha.length + " and " + beta.length + " words took over " + m_timeLimit
+                      + " ms, the rest was compared line by line" );
+        }
+
+        return rev;
+    }
+
+    private static void addDelta( Revision rev, String[] alpha, int aFrom, int aTo, String[] beta, int bFrom, int bTo )
+    {
+        rev.addDelta( Delta.newDelta( new Chunk( alpha, aFrom, aTo - aFrom ), new Chunk( beta, bFrom, bTo - bFrom ) ) );
+    }
+
+    /**
+     * Finds where each line starts.  The sequencing adds the very same line break
+     * string after each line, so it is found by identity; a word never is.  The
+     * last element is the length of the sequence.
+     */
+    private int[] lineStarts( String[] words )
+    {
+        List<Integer> starts = new ArrayList<Integer>();
+        starts.add( 0 );
+
+        for( int i = 0; i < words.length; i++ )
+        {
+            if( words[i] == m_lineBreakHtml )
+            {
+                starts.add( i + 1 );
+            }
+        }
+
+        if( starts.get( starts.size() - 1 ) != words.length )
+        {
+            starts.add( words.length );
+        }
+
+        int[] result = new int[starts.size()];
+
+        for( int i = 0; i < result.length; i++ )
+        {
+            result[i] = starts.get( i );
+        }
+
+        return result;
+    }
+
+    /**
+     * Joins the words of each line, so that lines can be compared.
+     */
+    private static String[] lines( String[] words, int[] starts )
+    {
+        String[] result = new String[starts.length - 1];
+
+        for( int i = 0; i < result.length; i++ )
+        {
+            StringBuilder sb = new StringBuilder();
+
+            for( int j = starts[i]; j < starts[i + 1]; j++ )
+            {
+                sb.append( words[j] );
+            }
+
+            result[i] = sb.toString();
+        }
+
+        return result;
+    }
+}
@@ -187,7 +187,7 @@ public abstract class SimpleMBean
      *  Gets an attribute using reflection from the MBean.
      *  
      *  @param name Name of the attribute to find.
-     *  @return The value returned by the corresponding getXXX() call
+     *  @return The value returned by the corresponding getXXX() or isXXX() call
      *  @throws AttributeNotFoundException If there is not such attribute
      *  @throws MBeanException 
      *  @throws ReflectionException
@@ -202,6 +202,8 @@ public abstract class SimpleMBean
             String mname = "get"+StringUtils.capitalize( name );
             m = findGetterSetter( getClass(), mname, null );
 
+            if( m == null ) m = findGetterSetter( getClass(), "is"+StringUtils.capitalize( name ), null );
+
             if( m == null ) throw new AttributeNotFoundException( name );
             res = m.invoke( this, (Object[])null );
         }
@@ -2927,6 +2927,378 @@ public class JSPWikiMarkupParser
         return d;
     }
 
+    /**
+     *  Scans the page for links in a single pass, calling the link hooks the same
+     *  way {@link #parse()} does.  No document is built, plugins are not executed,
+     *  and access rules and metadata are ignored; only the markup which can hide
+     *  or contain links (preformatted blocks, escapes, styles and brackets) is
+     *  looked at.
+     *
+     *  @throws IOException If the page cannot be read.
+     *  @since 2.10
+     */
+    @Override
+    public void scanLinks()
+        throws IOException
+    {
+        StringBuilder text = new StringBuilder( 80 );
+        int ch;
+
+        while( (ch = nextToken()) != -1 )
+        {
+            switch( ch )
+            {
+              case '{':
+                int ch2 = nextToken();
+                int ch3 = nextToken();
+
+                if( ch2 == '{' && ch3 == '{' )
+                {
+                    scanPlainText( text, false );
+                    skipPreformatted();
+                    continue;
+                }
+
+                pushBack( ch3 );
+                pushBack( ch2 );
+
+                if( ch2 == '{' )
+                {
+                    scanPlainText( text, false );
+                }
+                break;
+
+              case '_':
+              case '\'':
+              case '\\':
+              case '}':
+                //  Doubled markup starts a new element, and therefore a new run of plain text.
+                ch2 = nextToken();
+                pushBack( ch2 );
+
+                if( ch2 == ch )
+                {
+                    scanPlainText( text, false );
+                }
+                break;
+
+              case '~':
+                ch2 = nextToken();
+
+                if( ch2 == ' ' )
+                {
+                    continue;
+                }
+
+                if( ch2 == '|' || ch2 == '~' || ch2 == '\\' || ch2 == '*' || ch2 == '#' ||
+                    ch2 == '-' || ch2 == '!' || ch2 == '\'' || ch2 == '_' || ch2 == '[' ||
+                    ch2 == '{' || ch2 == ']' || ch2 == '}' || ch2 == '%' )
+                {
+                    text.append( (char)ch2 );
+                    text.append( readWhile( ""+(char)ch2 ) );
+                    continue;
+                }
+
+                pushBack( ch2 );
+                break;
+
+              case '%':
+                ch2 = nextToken();
+
+                if( ch2 == '%' )
+                {
+                    //  Style and class names cannot contain links.
+                    scanPlainText( text, false );
+
+                    ch3 = nextToken();
+
+                    if( ch3 == '(' )
+                    {
+                        readBraceContent( '(', ')' );
+                    }
+                    else
+                    {
+                        pushBack( ch3 );
+
+                        if( Character.isLetter( (char) ch3 ) )
+                        {
+                            readUntil( " \t\n\r" );
+                        }
+                    }
+                    continue;
+                }
+
+                pushBack( ch2 );
+                break;
+
+              case '[':
+                scanBracket( text );
+                continue;
+
+              default:
+                break;
+            }
+
+            text.append( (char) ch );
+        }
+
+        scanPlainText( text, false );
+    }
+
+    /**
+     *  Skips a preformatted block up to its closing braces.
+     */
+    private void skipPreformatted()
+        throws IOException
+    {
+        int ch;
+
+        while( (ch = nextToken()) != -1 )
+        {
+            if( ch == '~' )
+            {
+                String braces = readWhile( "}" );
+
+                //  ~}}} is an escaped end of the block.
+                pushBack( braces.length() >= 3 ? braces.substring( 3 ) : braces );
+            }
+            else if( ch == '}' )
+            {
+                String braces = readWhile( "}" );
+
+                if( braces.length() >= 2 )
+                {
+                    pushBack( braces.substring( 2 ) );
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     *  Reads the contents of a bracketed link, and calls the hooks for it.  Like
+     *  {@link #handleOpenbracket()}, the preceding plain text is only scanned after
+     *  the link, so that the hooks are called in the same order.
+     */
+    private void scanBracket( StringBuilder text )
+        throws IOException
+    {
+        StringBuilder sb = new StringBuilder( 40 );
+        int ch = nextToken();
+
+        if( ch == '[' )
+        {
+            //  [[ is an escaped bracket.
+            sb.append( (char)ch );
+
+            while( (ch = nextToken()) == '[' )
+            {
+                sb.append( (char)ch );
+            }
+
+            pushBack( ch );
+            text.append( sb );
+            return;
+        }
+
+        boolean isPlugin = ch == '{';
+        int nesting = 1;
+
+        while( ch != -1 )
+        {
+            int ch2 = nextToken(); pushBack( ch2 );
+
+            if( isPlugin )
+            {
+                if( ch == '[' && ch2 == '{' )
+                {
+                    nesting++;
+                }
+                else if( nesting == 0 && ch == ']' && sb.charAt( sb.length()-1 ) == '}' )
+                {
+                    break;
+                }
+                else if( ch == '}' && ch2 == ']' )
+                {
+                    nesting--;
+                }
+            }
+            else if( ch == ']' )
+            {
+                break;
+            }
+
+            sb.append( (char) ch );
+
+            ch = nextToken();
+        }
+
+        if( ch == -1 )
+        {
+            //  Unterminated link; the rest of the page is shown as it is.
+            text.append( sb );
+            scanPlainText( text, true );
+            return;
+        }
+
+        String linktext = sb.toString();
+
+        scanHyperlink( linktext );
+
+        if( !isAccessRule( linktext ) && !isMetadata( linktext ) )
+        {
+            scanPlainText( text, false );
+        }
+    }
+
+    /**
+     *  The link only counterpart of {@link #handleHyperlinks(String, int)}.
+     */
+    private void scanHyperlink( String linktext )
+    {
+        if( isAccessRule( linktext ) || isMetadata( linktext ) || isPluginLink( linktext ) )
+        {
+            return;
+        }
+
+        try
+        {
+            LinkParser.Link link = m_linkParser.parse( linktext );
+            linktext       = link.getText();
+            String linkref = link.getReference();
+
+            if( VariableManager.isVariableLink( linktext ) )
+            {
+                return;
+            }
+
+            if( isExternalLink( linkref ) )
+            {
+                callMutatorChain( m_externalLinkMutatorChain, linkref );
+
+                if( isImageLink( linkref ) )
+                {
+                    scanImageLink( linktext, link.hasReference() );
+                }
+            }
+            else if( link.isInterwikiLink() )
+            {
+                String urlReference = m_engine.getInterWikiURL( link.getExternalWiki() );
+
+                if( urlReference != null && !m_wysiwygEditorMode )
+                {
+                    urlReference = TextUtil.replaceString( urlReference, "%s", link.getExternalWikiPage() );
+                    urlReference = callMutatorChain( m_externalLinkMutatorChain, urlReference );
+
+                    if( isImageLink( urlReference ) )
+                    {
+                        scanImageLink( linktext, link.hasReference() );
+                    }
+                }
+            }
+            else if( !linkref.startsWith("#") && !TextUtil.isNumber( linkref ) )
+            {
+                String attachment = findAttachment( linkref );
+
+                if( attachment != null )
+                {
+                    callMutatorChain( m_attachmentLinkMutatorChain, attachment );
+
+                    if( isImageLink( linkref ) )
+                    {
+                        scanImageLink( linktext, link.hasReference() );
+                    }
+                }
+                else
+                {
+                    int hashMark = linkref.indexOf('#');
+
+                    if( hashMark != -1 )
+                    {
+                        linkref = linkref.substring( 0, hashMark );
+                    }
+
+                    callMutatorChain( m_localLinkMutatorChain, MarkupParser.cleanLink( linkref ) );
+                }
+            }
+        }
+        catch( ParseException e )
+        {
+            log.debug( "Parser failure while scanning for links: ", e );
+        }
+    }
+
+    /**
+     *  The link only counterpart of {@link #handleImageLink(String, String, boolean)}:
+     *  the link text of an image is a link, if it names an existing page.
+     */
+    private void scanImageLink( String link, boolean hasLinkText )
+    {
+        if( hasLinkText && !isExternalLink( link ) )
+        {
+            String possiblePage = MarkupParser.cleanLink( link );
+
+            if( linkExists( possiblePage ) != null )
+            {
+                callMutatorChain( m_localLinkMutatorChain, possiblePage );
+            }
+        }
+    }
+
+    /**
+     *  The link only counterpart of {@link #flushPlainText()}: calls the hooks for
+     *  the CamelCase words and bare URLs in the buffered text, and empties the buffer.
+     */
+    private void scanPlainText( StringBuilder text, boolean escaping )
+    {
+        String buf = m_allowHTML ? text.toString() : escapeHTMLEntities( text.toString() );
+
+        text.setLength( 0 );
+
+        if( !m_camelCaseLinks || escaping || buf.length() <= 3 )
+        {
+            return;
+        }
+
+        while( m_camelCaseMatcher.contains( buf, m_camelCasePattern ) )
+        {
+            MatchResult result = m_camelCaseMatcher.getMatch();
+
+            String prefix = result.group(1);
+            String camelCase = result.group(2);
+            String protocol  = result.group(3);
+            String uri       = protocol+result.group(4);
+            buf              = buf.substring( result.endOffset(0) );
+
+            if( prefix != null && (prefix.endsWith("~") || prefix.indexOf('[') != -1) )
+            {
+                continue;
+            }
+
+            if( protocol != null )
+            {
+                char c = uri.charAt( uri.length()-1 );
+                if( c == '.' || c == ',' )
+                {
+                    uri = uri.substring( 0, uri.length()-1 );
+                    buf = c + buf;
+                }
+
+                //  Same as makeDirectURILink()
+                if( uri.endsWith(",") || uri.endsWith(".") )
+                {
+                    uri = uri.substring( 0, uri.length()-1 );
+                }
+
+                callMutatorChain( m_externalLinkMutatorChain, uri );
+            }
+            else
+            {
+                callMutatorChain( m_localLinkMutatorChain, camelCase );
+            }
+        }
+    }
+
     /**
      *  Checks out that the first paragraph is correctly installed.
      *
@@ -202,6 +202,21 @@ public abstract class MarkupParser
     public abstract WikiDocument parse()
          throws IOException;
 
+    /**
+     *  Scans the document for links only.  The link hooks are called just like
+     *  {@link #parse()} would call them, but no document needs to be built.
+     *  This default implementation simply parses the document; subclasses which
+     *  can find the links more cheaply should override it.
+     *
+     *  @throws IOException If something goes wrong.
+     *  @since 2.10
+     */
+    public void scanLinks()
+         throws IOException
+    {
+        parse();
+    }
+
     /**
      *  Return the current position in the reader stream.
      *  The value will be -1 prior to reading.
@@ -50,6 +50,25 @@ public class VariableContent extends Text
         m_varName = varName;
     }
     
+    /**
+     *  Returns the name of the variable, without the surrounding braces
+     *  and the dollar sign.
+     *
+     *  @return The name of the variable.
+     *  @since 2.10
+     */
+    public String getVariableName()
+    {
+        String name = m_varName;
+
+        if( name.startsWith("{$") && name.endsWith("}") )
+        {
+            name = name.substring( 2, name.length()-1 );
+        }
+
+        return name.trim();
+    }
+
     /**
      *   Evaluates the variable and returns the contents. 
      *   
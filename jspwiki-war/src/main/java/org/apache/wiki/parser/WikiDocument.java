@@ -40,7 +40,8 @@ public class WikiDocument extends Document
     private static final long serialVersionUID = 1L;
     
     private WikiPage                   m_page;
-    private String                     m_wikiText;
+    private WeakReference<String>      m_wikiText;
+    private byte[]                     m_wikiTextDigest;
 
     private WeakReference<WikiContext> m_context;
     
@@ -55,25 +56,57 @@ public class WikiDocument extends Document
     }
     
     /**
-     *  Set the WikiMarkup for this document.
+     *  Set the WikiMarkup for this document.  Only a weak reference to it is
+     *  kept, so that a cached document does not keep the page text in memory
+     *  by itself.
      *  
      *  @param data The WikiMarkup
      */
     public void setPageData( String data )
     {
-        m_wikiText = data;
+        m_wikiText = data != null ? new WeakReference<String>( data ) : null;
     }
     
     /**
-     *  Returns the wikimarkup used to render this document.
+     *  Returns the wikimarkup used to render this document, if something else
+     *  still holds it in memory.  Use {@link #getPageDataDigest()} to check
+     *  whether some text is the one this document was rendered from.
      *  
-     *  @return The WikiMarkup
+     *  @return The WikiMarkup, or null, if it has not been set or is no longer
+     *          in memory.
      */
     public String getPageData()
     {
-        return m_wikiText;
+        WeakReference<String> ref = m_wikiText;
+
+        return ref != null ? ref.get() : null;
     }
     
+    /**
+     *  Sets a digest of the WikiMarkup used to render this document.  The
+     *  RenderingManager stores only the digest instead of the whole WikiMarkup,
+     *  so that cached documents do not keep a second copy of the page text.
+     *
+     *  @param digest The digest of the WikiMarkup.
+     *  @since 2.10
+     */
+    public void setPageDataDigest( byte[] digest )
+    {
+        m_wikiTextDigest = digest;
+    }
+
+    /**
+     *  Returns the digest of the WikiMarkup used to render this document,
+     *  as set by {@link #setPageDataDigest(byte[])}.
+     *
+     *  @return The digest, or null, if it has not been set.
+     *  @since 2.10
+     */
+    public byte[] getPageDataDigest()
+    {
+        return m_wikiTextDigest;
+    }
+
     /**
      *  Return the WikiPage for whom this WikiDocument exists.
      *  
@@ -155,6 +155,21 @@ public class PageViewPlugin extends AbstractReferralPlugin implements WikiPlugin
         return result;
     }
 
+    /**
+     *  Returns how many times a page has been viewed, as counted by this plugin.
+     *
+     *  @param pageName The page name.
+     *  @return The count, or zero, if the page has not been counted or the
+     *          plugin is not in use.
+     *  @since 2.10
+     */
+    public static int getPageViews( String pageName )
+    {
+        PageViewManager manager = c_singleton;
+
+        return manager != null ? manager.getPageViews( pageName ) : 0;
+    }
+
     /**
      * Page view manager, handling all storage.
      */
@@ -582,6 +597,19 @@ public class PageViewPlugin extends AbstractReferralPlugin implements WikiPlugin
             return m_counters.get( key ).getValue();
         }
 
+        /**
+         * Retrieve a page count, if the page has been counted.
+         *
+         * @param pageName the page name
+         * @return the count, or zero
+         */
+        private synchronized int getPageViews( String pageName )
+        {
+            Counter counter = m_counters != null ? m_counters.get( pageName ) : null;
+
+            return counter != null ? counter.getValue() : 0;
+        }
+
         /**
          * Load the page view counters from file.
          */
@@ -102,8 +102,7 @@ public class RecentChangesPlugin extends AbstractReferralPlugin implements WikiP
 
         log.debug("Calculating recent changes from "+sincedate.getTime());
 
-        // FIXME: Should really have a since date on the getRecentChanges method.
-        Collection   changes = engine.getRecentChanges();
+        Collection   changes = engine.getRecentChanges( sincedate.getTime(), -1 );
         super.initialize( context, params );
         changes = super.filterCollection( changes );
         
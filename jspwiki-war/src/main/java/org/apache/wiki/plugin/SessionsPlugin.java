@@ -19,8 +19,6 @@
 package org.apache.wiki.plugin;
 
 import java.security.Principal;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.apache.wiki.WikiContext;
@@ -28,6 +26,7 @@ import org.apache.wiki.WikiEngine;
 import org.apache.wiki.WikiSession;
 import org.apache.wiki.api.exceptions.PluginException;
 import org.apache.wiki.api.plugin.WikiPlugin;
+import org.apache.wiki.auth.SessionMonitor;
 
 /**
  *  <p>Displays information about active wiki sessions. The parameter
@@ -78,38 +77,14 @@ public class SessionsPlugin
         // number of sessions for each user)
         if ("distinctUsers".equals(prop))
         {
-            Principal[] principals = WikiSession.userPrincipals(engine);
-            // we do not assume that the principals are sorted, so first count
-            // them :
-            HashMap<String,Integer> distinctPrincipals = new HashMap<String,Integer>();
-            for (int i = 0; i < principals.length; i++)
-            {
-                String principalName = principals[i].getName();
-
-                if (distinctPrincipals.containsKey(principalName))
-                {
-                    // we already have an entry, increase the counter:
-                    int numSessions = distinctPrincipals.get(principalName).intValue();
-                    // store the new value:
-                    distinctPrincipals.put(principalName, ++numSessions);
-                }
-                else
-                {
-                    // first time we see this entry, add entry to HashMap with value 1
-                    distinctPrincipals.put(principalName, 1);
-                }
-            }
-            //
-            //
+            Map<Principal,Integer> distinctPrincipals = SessionMonitor.getInstance( engine ).userSessions();
             StringBuffer s = new StringBuffer();
-            Iterator entries = distinctPrincipals.entrySet().iterator();
-            while (entries.hasNext())
+            for ( Map.Entry<Principal,Integer> entry : distinctPrincipals.entrySet() )
             {
-                Map.Entry entry = (Map.Entry)entries.next();
-                s.append( entry.getKey().toString() + "(" + entry.getValue().toString() + "), " );
+                s.append( entry.getKey().getName() + "(" + entry.getValue() + "), " );
             }
             // remove the last comma and blank :
-            return s.substring(0, s.length() - 2);
+            return s.substring(0, s.length() - (s.length() > 2 ? 2 : 0) );
         }
 
         return String.valueOf( WikiSession.sessions( engine ) );
@@ -60,10 +60,20 @@ public abstract class AbstractFileProvider
      */
     public static final String FILE_EXT = ".txt";
 
+    /**
+     *  The name of the file in the page directory where the changes to the pages
+     *  are recorded.
+     *  @since 2.10
+     */
+    public static final String JOURNAL_FILE = "pages.journal";
+
     /** The default encoding. */
     public static final String DEFAULT_ENCODING = "ISO-8859-1";
 
     private boolean m_windowsHackNeeded = false;
+
+    /** Records the changed pages.  Null, if the journal could not be opened. */
+    private ChangeJournal m_journal;
     
     /**
      *  {@inheritDoc}
@@ -112,6 +122,15 @@ public abstract class AbstractFileProvider
             m_windowsHackNeeded = true;
         }
         
+        try
+        {
+            m_journal = new ChangeJournal( new File( f, JOURNAL_FILE ) );
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to open the change journal, recent changes are found by listing all pages", e );
+        }
+
         log.info( "Wikipages are read from '" + m_pageDirectory + "'" );
     }
 
@@ -297,6 +316,40 @@ public abstract class AbstractFileProvider
         {
             if( out != null ) out.close();
         }
+
+        journalChange( page.getName() );
+    }
+
+    /**
+     *  Records the current state of a page in the change journal: its modification
+     *  time if the page exists, or its removal if not.  Subclasses must call this
+     *  after they have stored, deleted or moved a page without calling the methods
+     *  of this class.
+     *
+     *  @param page The name of the page.
+     *  @since 2.10
+     */
+    protected void journalChange( String page )
+    {
+        if( m_journal == null ) return;
+
+        try
+        {
+            File file = findPage( page );
+
+            if( file.exists() )
+            {
+                m_journal.changed( page, file.lastModified() );
+            }
+            else
+            {
+                m_journal.removed( page );
+            }
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to write the change journal", e );
+        }
     }
 
     /**
@@ -341,14 +394,59 @@ public abstract class AbstractFileProvider
     }
 
     /**
-     *  Does not work.
-     *  
+     *  Returns the pages changed since the given date, most recent first.  The
+     *  pages are looked up in the change journal.  Changes made before the journal
+     *  was started are found by listing all pages.
+     *
      *  @param date {@inheritDoc}
      *  @return {@inheritDoc}
      */
     public Collection getAllChangedSince( Date date )
     {
-        return new ArrayList(); // FIXME
+        ArrayList<WikiPage> result = new ArrayList<WikiPage>();
+
+        try
+        {
+            List<String> changed = m_journal != null ? m_journal.getChangedSince( date ) : null;
+
+            if( changed != null )
+            {
+                for( String name : changed )
+                {
+                    WikiPage page = getPageInfo( name, WikiPageProvider.LATEST_VERSION );
+
+                    // Files deleted outside the wiki are still in the journal.
+                    if( page != null )
+                    {
+                        result.add( page );
+                    }
+                }
+
+                return result;
+            }
+
+            for( Iterator i = getAllPages().iterator(); i.hasNext(); )
+            {
+                WikiPage page = (WikiPage) i.next();
+
+                if( !page.getLastModified().before( date ) )
+                {
+                    result.add( page );
+                }
+            }
+
+            Collections.sort( result, new PageTimeComparator() );
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to read the change journal", e );
+        }
+        catch( ProviderException e )
+        {
+            log.error( "Unable to list the changed pages", e );
+        }
+
+        return result;
     }
 
     /**
@@ -478,6 +576,8 @@ public abstract class AbstractFileProvider
             File f = findPage( pageName );
 
             f.delete();
+
+            journalChange( pageName );
         }
     }
 
@@ -490,6 +590,8 @@ public abstract class AbstractFileProvider
         File f = findPage( pageName );
 
         f.delete();
+
+        journalChange( pageName );
     }
 
     /**
@@ -85,9 +85,15 @@ public class BasicAttachmentProvider
     
     /** The default extension for the attachment directory. */
     public static final String ATTDIR_EXTENSION = "-dir";
+
+    /** The name of the file in the storage directory where the changes to the attachments are recorded. */
+    public static final String JOURNAL_FILE = "attachments.journal";
     
     static final Logger log = Logger.getLogger( BasicAttachmentProvider.class );
 
+    /** Records the changed attachments.  Null, if the journal could not be opened. */
+    private ChangeJournal m_journal;
+
     /**
      *  {@inheritDoc}
      */
@@ -126,6 +132,51 @@ public class BasicAttachmentProvider
         
         if( !f.isDirectory() )
             throw new IOException("Your attachment storage points to a file, not a directory: '"+m_storageDir+"'");
+
+        try
+        {
+            m_journal = new ChangeJournal( new File( f, JOURNAL_FILE ) );
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to open the change journal, changed attachments are found by listing all attachments", e );
+        }
+    }
+
+    /**
+     *  Records the current state of an attachment in the change journal.
+     *
+     *  @param name The full name of the attachment.
+     */
+    private void journalChange( String name )
+    {
+        if( m_journal == null ) return;
+
+        int cutpt = name.lastIndexOf( '/' );
+
+        try
+        {
+            Attachment att = getAttachmentInfo( new WikiPage( m_engine, name.substring( 0, cutpt ) ),
+                                                name.substring( cutpt+1 ),
+                                                WikiProvider.LATEST_VERSION );
+
+            if( att != null )
+            {
+                m_journal.changed( name, att.getLastModified().getTime() );
+            }
+            else
+            {
+                m_journal.removed( name );
+            }
+        }
+        catch( ProviderException e )
+        {
+            log.error( "Unable to read attachment " + name + " for the change journal", e );
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to write the change journal", e );
+        }
     }
 
     /**
@@ -369,6 +420,8 @@ public class BasicAttachmentProvider
         {
             if( out != null ) out.close();
         }
+
+        journalChange( att.getName() );
     }
 
     /**
@@ -516,13 +569,59 @@ public class BasicAttachmentProvider
         return null;
     }
 
+    /**
+     *  Returns the latest versions of the named attachments.  Attachments which
+     *  no longer exist are skipped.
+     */
+    private List<Attachment> getAttachments( List<String> names )
+        throws ProviderException
+    {
+        ArrayList<Attachment> list = new ArrayList<Attachment>();
+
+        for( String name : names )
+        {
+            int cutpt = name.lastIndexOf( '/' );
+            Attachment att = getAttachmentInfo( new WikiPage( m_engine, name.substring( 0, cutpt ) ),
+                                                name.substring( cutpt+1 ),
+                                                WikiProvider.LATEST_VERSION );
+
+            // Attachments deleted outside the wiki are still in the journal.
+            if( att != null )
+            {
+                list.add( att );
+            }
+        }
+
+        return list;
+    }
+
     /**
      *  {@inheritDoc}
+     *  <p>
+     *  The attachments are looked up in the change journal.  Changes made before
+     *  the journal was started, as with <code>Date(0L)</code>, are found by listing
+     *  all attachments.
      */
-    // FIXME: Very unoptimized.
     public List listAllChanged( Date timestamp )
         throws ProviderException
     {
+        if( m_journal != null )
+        {
+            try
+            {
+                List<String> changed = m_journal.getChangedSince( timestamp );
+
+                if( changed != null )
+                {
+                    return getAttachments( changed );
+                }
+            }
+            catch( IOException e )
+            {
+                log.error( "Unable to read the change journal, listing all attachments", e );
+            }
+        }
+
         File attDir = new File( m_storageDir );
 
         if( !attDir.exists() )
@@ -678,6 +777,8 @@ public class BasicAttachmentProvider
             file.delete();
         }
         dir.delete();
+
+        journalChange( att.getName() );
     }
 
 
@@ -731,8 +832,19 @@ public class BasicAttachmentProvider
         }
         else
         {
+            Collection moved = m_journal != null ? listAttachments( new WikiPage( m_engine, oldParent ) )
+                                                 : new ArrayList();
+
             //destDir.getParentFile().mkdir();
             srcDir.renameTo(destDir);
+
+            for( Iterator i = moved.iterator(); i.hasNext(); )
+            {
+                Attachment att = (Attachment) i.next();
+
+                journalChange( att.getName() );
+                journalChange( newParent + "/" + att.getFileName() );
+            }
         }
     }
 }
@@ -29,11 +29,6 @@ import org.apache.wiki.attachment.AttachmentManager;
 import org.apache.wiki.util.ClassUtil;
 import org.apache.wiki.util.TextUtil;
 
-import com.opensymphony.oscache.base.Cache;
-import com.opensymphony.oscache.base.CacheEntry;
-import com.opensymphony.oscache.base.NeedsRefreshException;
-import com.opensymphony.oscache.base.events.*;
-
 /**
  *  Provides a caching attachment provider.  This class rests on top of a
  *  real provider class and provides a cache to speed things up.  Only the
@@ -43,10 +38,8 @@ import com.opensymphony.oscache.base.events.*;
  *  @since 2.1.64.
  */
 
-// FIXME: Do we need to clear the cache entry if we get an NRE and the attachment is not there?
 // FIXME: We probably clear the cache a bit too aggressively in places.
-// FIXME: Does not yet react well to external cache changes.  Should really use custom
-//        EntryRefreshPolicy for that.
+// FIXME: Does not yet react well to external cache changes.
 public class CachingAttachmentProvider
     implements WikiAttachmentProvider
 {
@@ -58,16 +51,13 @@ public class CachingAttachmentProvider
      *  The cache contains Collection objects which contain Attachment objects.
      *  The key is the parent wiki page name (String).
      */
-    private Cache m_cache;
-
-    private long m_cacheMisses = 0;
-    private long m_cacheHits = 0;
+    private ProviderCache<String,Collection<Attachment>> m_cache;
 
     /**
      * This cache contains Attachment objects and is keyed by attachment name.
      * This provides for quickly giving recently changed attachments (for the RecentChanges plugin)
      */
-    private Cache m_attCache;
+    private ProviderCache<String,Attachment> m_attCache;
 
     /** The extension to append to directory names to denote an attachment directory. */
     public static final String DIR_EXTENSION   = "-att";
@@ -78,8 +68,7 @@ public class CachingAttachmentProvider
     // FIXME: Make settable.
     private int  m_refreshPeriod = 60*10; // 10 minutes at the moment
     
-    private boolean m_gotall = false;
-    private CachedAttachmentCollector m_allCollector = new CachedAttachmentCollector();
+    private volatile boolean m_gotall = false;
 
     /**
      * {@inheritDoc}
@@ -93,14 +82,13 @@ public class CachingAttachmentProvider
         //
         // Construct an unlimited cache of Collection objects
         //
-        m_cache = new Cache( true, false, true );
+        m_cache = ProviderCacheFactory.createCache( properties, "attachmentListCache", 0, 0, null );
 
         //
         // Construct an unlimited cache for the individual Attachment objects. 
         // Attachment name is key, the Attachment object is the cached object
         //
-        m_attCache = new Cache(true, false, true);
-        m_attCache.addCacheEventListener(m_allCollector,CacheEntryEventListener.class);
+        m_attCache = ProviderCacheFactory.createCache( properties, "attachmentCache", 0, 0, null );
 
         //
         //  Find and initialize real provider.
@@ -144,9 +132,9 @@ public class CachingAttachmentProvider
     {
         m_provider.putAttachmentData( att, data );
 
-        m_cache.removeEntry( att.getParentName() );
+        m_cache.remove( att.getParentName() );
         att.setLastModified(new Date());
-        m_attCache.putInCache(att.getName(), att);
+        m_attCache.put( att.getName(), att );
     }
 
     /**
@@ -162,47 +150,81 @@ public class CachingAttachmentProvider
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     public Collection listAttachments( WikiPage page )
         throws ProviderException
     {
         log.debug("Listing attachments for "+page);
-        try
+
+        Collection<Attachment> c = getFromCache( page );
+
+        if( c != null )
         {
-            Collection<Attachment> c = (Collection<Attachment>)m_cache.getFromCache( page.getName(), m_refreshPeriod );
+            log.debug("LIST from cache, "+page.getName()+", size="+c.size());
+            return cloneCollection(c);
+        }
+
+        return new ArrayList();
+    }
 
-            if( c != null )
+    /**
+     *  Returns the attachment list of a page from the cache, refreshing it
+     *  from the real provider if it has expired.  If the provider fails, with
+     *  a ProviderException or a RuntimeException, the stale content is
+     *  returned instead.
+     */
+    private Collection<Attachment> getFromCache( final WikiPage page )
+        throws ProviderException
+    {
+        try
+        {
+            //
+            //  Concurrent refreshes of the same page share one call to the
+            //  real provider.
+            //
+            return m_cache.get( page.getName(), m_refreshPeriod * 1000L,
+                                new ProviderCache.Loader<String,Collection<Attachment>>()
             {
-                log.debug("LIST from cache, "+page.getName()+", size="+c.size());
-                m_cacheHits++;
-                return cloneCollection(c);
-            }
+                @SuppressWarnings("unchecked")
+                public Collection<Attachment> load( String pageName ) throws ProviderException
+                {
+                    log.debug("list NOT in cache or needs refresh, "+pageName);
+                    return m_provider.listAttachments( page );
+                }
+            } );
+        }
+        catch( ProviderException ex )
+        {
+            Collection<Attachment> c = getStale( page, ex );
 
-            log.debug("list NOT in cache, "+page.getName());
+            if( c == null ) throw ex;
 
-            refresh( page );
+            return c;
         }
-        catch( NeedsRefreshException nre )
+        catch( RuntimeException ex )
         {
-            try
-            {
-                Collection<Attachment> c = refresh( page );
+            Collection<Attachment> c = getStale( page, ex );
 
-                return cloneCollection(c);
-            }
-            catch( Exception ex )
-            {
-                // Is a catch-all, because cache will get confused if
-                // we let this one go.
-                log.warn("Provider failed, returning cached content",ex);
+            if( c == null ) throw ex;
 
-                m_cache.cancelUpdate(page.getName());
-                
-                return (Collection)nre.getCacheContent();
-            }
+            return c;
         }
+    }
 
-        return new ArrayList();
+    /**
+     *  Returns the attachment list of a page which was last read from the
+     *  cache, after the real provider failed to refresh it.
+     *
+     *  @return The list, or null, if there is none.
+     */
+    private Collection<Attachment> getStale( WikiPage page, Exception ex )
+    {
+        ProviderCache.Entry<Collection<Attachment>> e = m_cache.getEntry( page.getName() );
+
+        if( e == null || e.getValue() == null ) return null;
+
+        log.warn("Provider failed, returning cached content",ex);
+
+        return e.getValue();
     }
 
     private <T> Collection<T> cloneCollection( Collection<T> c )
@@ -242,14 +264,14 @@ public class CachingAttachmentProvider
                 for (Iterator i = all.iterator(); i.hasNext();)
                 {
                     Attachment att = (Attachment) i.next();
-                    m_attCache.putInCache(att.getName(), att);
+                    m_attCache.put(att.getName(), att);
                 }
                 m_gotall = true;
             }
         }
         else
         {
-            all = m_allCollector.getAllItems();
+            all = new LinkedList<Attachment>( m_attCache.values() );
         }
 
         return all;
@@ -276,22 +298,6 @@ public class CachingAttachmentProvider
         return null;
     }
 
-    /**
-     *  Refreshes the cache content and updates counters.
-     *
-     *  @return The newly fetched object from the provider.
-     */
-    @SuppressWarnings("unchecked")
-    private Collection<Attachment> refresh( WikiPage page )
-        throws ProviderException
-    {
-        m_cacheMisses++;
-        Collection<Attachment> c = m_provider.listAttachments( page );
-        m_cache.putInCache( page.getName(), c );
-
-        return c;
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -312,50 +318,11 @@ public class CachingAttachmentProvider
             return m_provider.getAttachmentInfo( page, name, version );
         }
 
-        try
-        {
-            Collection c = (Collection)m_cache.getFromCache( page.getName(), m_refreshPeriod );
-            
-            if( c == null )
-            {
-                log.debug("...wasn't in the cache");
-                c = refresh( page );
-
-                if( c == null ) return null; // No such attachment
-            }
-            else
-            {
-                log.debug("...FOUND in the cache");
-                m_cacheHits++;
-            }
-
-            return findAttachmentFromCollection( c, name );
-
-        }
-        catch( NeedsRefreshException nre )
-        {
-            log.debug("...needs refresh");
-            Collection c = null;
-
-            try
-            {
-                c = refresh( page );
-            }
-            catch( Exception ex )
-            {
-                log.warn("Provider failed, returning cached content",ex);
-
-                m_cache.cancelUpdate( page.getName() );
-                c = (Collection)nre.getCacheContent();
-            }
+        Collection<Attachment> c = getFromCache( page );
 
-            if( c != null )
-            {
-                return findAttachmentFromCollection( c, name );
-            }
-        }
+        if( c == null ) return null; // No such attachment
 
-        return null;
+        return findAttachmentFromCollection( c, name );
     }
 
     /**
@@ -373,7 +340,7 @@ public class CachingAttachmentProvider
         throws ProviderException
     {
         // This isn't strictly speaking correct, but it does not really matter
-        m_cache.removeEntry( att.getParentName() );
+        m_cache.remove( att.getParentName() );
         m_provider.deleteVersion( att );
     }
 
@@ -383,19 +350,19 @@ public class CachingAttachmentProvider
     public void deleteAttachment( Attachment att )
         throws ProviderException
     {
-        m_cache.removeEntry( att.getParentName() );
-        m_attCache.removeEntry( att.getName() );
+        m_cache.remove( att.getParentName() );
+        m_attCache.remove( att.getName() );
         m_provider.deleteAttachment( att );
     }
 
     /**
      * {@inheritDoc}
      */
-    public synchronized String getProviderInfo()
+    public String getProviderInfo()
     {              
         return "Real provider: "+m_provider.getClass().getName()+
-               ".  Cache misses: "+m_cacheMisses+
-               ".  Cache hits: "+m_cacheHits;
+               ".  Cache misses: "+m_cache.getMisses()+
+               ".  Cache hits: "+m_cache.getHits();
     }
 
     /**
@@ -415,8 +382,8 @@ public class CachingAttachmentProvider
         throws ProviderException
     {
         m_provider.moveAttachmentsForPage(oldParent, newParent);
-        m_cache.removeEntry( newParent ); 
-        m_cache.removeEntry( oldParent );
+        m_cache.remove( newParent ); 
+        m_cache.remove( oldParent );
         
         //
         //  This is a kludge to make sure that the pages are removed
@@ -424,108 +391,12 @@ public class CachingAttachmentProvider
         //
         String checkName = oldParent + "/";
         
-        Collection<String> names = cloneCollection( m_allCollector.m_allItems.keySet() );
-        for( String name : names )
+        for( String name : m_attCache.keys() )
         {
             if( name.startsWith( checkName ) )
             {
-                m_attCache.removeEntry( name );
-            }
-        }
-    }
-
-    /**
-     * Keep a list of all Attachments in the OSCache (OSCache does not provide
-     * something like that) Idea copied from CacheItemCollector The cache is used to
-     * speed up the getRecentChanges function
-     * 
-     * @since 2.5
-     */
-    private static class CachedAttachmentCollector implements CacheEntryEventListener
-    {
-        private static final Logger log = Logger.getLogger( CachedAttachmentCollector.class );
-
-        private Map<String, Attachment> m_allItems = new HashMap<String, Attachment>();
-
-        /**
-         * Returns a clone of the set - you cannot manipulate this.
-         * 
-         * @return A list of all items.
-         */
-        public List<Attachment> getAllItems()
-        {
-            List<Attachment> ret = new LinkedList<Attachment>();
-            ret.addAll( m_allItems.values() );
-            log.info( "returning " + ret.size() + " attachments" );
-            return ret;
-        }
-
-        public void cacheEntryRemoved( CacheEntryEvent aEvent )
-        {
-            if( aEvent != null )
-            {
-                if( log.isDebugEnabled() )
-                {
-                    log.debug( "attachment cache entry removed: " + aEvent.getKey() );
-                }
-                
-                CacheEntry e = aEvent.getEntry();
-                
-                if( e != null )
-                {
-                    Attachment item = (Attachment) e.getContent();
-
-                    if( item != null )
-                    {
-                        m_allItems.remove( item.getName() );
-                    }
-                }
-            }
-        }
-
-        public void cacheEntryUpdated( CacheEntryEvent aEvent )
-        {
-            if( log.isDebugEnabled() )
-            {
-                log.debug( "attachment cache entry updated: " + aEvent.getKey() );
-            }
-
-            Attachment item = (Attachment) aEvent.getEntry().getContent();
-
-            if( item != null )
-            {
-                // Item added or replaced.
-                m_allItems.put( item.getName(), item );
+                m_attCache.remove( name );
             }
-            else
-            {
-                m_allItems.remove( aEvent.getKey() );
-            }
-        }
-
-        public void cacheEntryAdded( CacheEntryEvent aEvent )
-        {
-            cacheEntryUpdated( aEvent );
-        }
-
-        public void cachePatternFlushed( CachePatternEvent aEvent )
-        {
-            // do nothing
-        }
-
-        public void cacheGroupFlushed( CacheGroupEvent aEvent )
-        {
-            // do nothing
-        }
-
-        public void cacheFlushed( CachewideEvent aEvent )
-        {
-            // do nothing
-        }
-
-        public void cacheEntryFlushed( CacheEntryEvent aEvent )
-        {
-            cacheEntryRemoved( aEvent );
         }
     }
 
@@ -28,10 +28,6 @@ import org.apache.wiki.render.RenderingManager;
 import org.apache.wiki.util.ClassUtil;
 import org.apache.wiki.util.TextUtil;
 
-import com.opensymphony.oscache.base.Cache;
-import com.opensymphony.oscache.base.NeedsRefreshException;
-import com.opensymphony.oscache.base.events.*;
-
 /**
  *  Provides a caching page provider.  This class rests on top of a
  *  real provider class and provides a cache to speed things up.  Only
@@ -44,7 +40,9 @@ import com.opensymphony.oscache.base.events.*;
  *  <p>
  *  Heavily based on ideas by Chris Brooking.
  *  <p>
- *  Since 2.1.52 uses the OSCache library from OpenSymphony.
+ *  Since 2.1.52 used the OSCache library from OpenSymphony; since 2.10
+ *  uses a {@link ProviderCache}, which can be changed with the
+ *  <code>jspwiki.cachingProvider.cacheClass</code> property.
  *
  *  @since 1.6.4
  *  @see RepositoryModifiedException
@@ -62,17 +60,11 @@ public class CachingProvider
     // FIXME: Find another way to the search engine to use instead of from WikiEngine?
     private WikiEngine       m_engine;
 
-    private Cache            m_cache;
-    private Cache            m_negCache; // Cache for holding non-existing pages
-
-    private Cache            m_textCache;
-    private Cache            m_historyCache;
-
-    private long             m_cacheMisses = 0;
-    private long             m_cacheHits   = 0;
+    private ProviderCache<String,WikiPage> m_cache;
+    private ProviderCache<String,Boolean>  m_negCache; // Cache for holding non-existing pages
 
-    private long             m_historyCacheMisses = 0;
-    private long             m_historyCacheHits   = 0;
+    private ProviderCache<String,String>   m_textCache;
+    private ProviderCache<String,List>     m_historyCache;
 
     private int              m_expiryPeriod = 30;
 
@@ -84,9 +76,35 @@ public class CachingProvider
 
     // FIXME: This MUST be cached somehow.
 
-    private boolean          m_gotall = false;
+    private volatile boolean m_gotall = false;
+
+    private final ProviderCache.Loader<String,String> m_textLoader = new ProviderCache.Loader<String,String>()
+    {
+        public String load( String pageName ) throws ProviderException
+        {
+            return m_provider.getPageText( pageName, WikiPageProvider.LATEST_VERSION );
+        }
+    };
+
+    private final ProviderCache.Loader<String,List> m_historyLoader = new ProviderCache.Loader<String,List>()
+    {
+        public List load( String pageName ) throws ProviderException
+        {
+            log.debug("History cache miss for page "+pageName);
+            return m_provider.getVersionHistory( pageName );
+        }
+    };
 
-    private CacheItemCollector m_allCollector = new CacheItemCollector();
+    /**
+     *  Weighs page texts by the number of bytes they take in memory.
+     */
+    private static final ProviderCache.Weigher<String> TEXT_WEIGHER = new ProviderCache.Weigher<String>()
+    {
+        public long weigh( String text )
+        {
+            return 2L * text.length();
+        }
+    };
 
     /**
      *  Defines, in seconds, the amount of time a text will live in the cache
@@ -102,7 +120,17 @@ public class CachingProvider
 
     private static final int   DEFAULT_CACHECAPACITY   = 1000; // Good most wikis
 
-    private static final String OSCACHE_ALGORITHM      = "com.opensymphony.oscache.base.algorithm.LRUCache";
+    /**
+     *  The maximum amount of page text kept in the cache, in kilobytes.  Zero
+     *  (the default) means that only the number of pages is limited.
+     */
+    public static final String PROP_CACHEMAXTEXTSIZE   = "jspwiki.cachingProvider.maxTextSize";
+
+    /**
+     *  The capacity of the cache of non-existing pages.  This protects us from
+     *  someone who bombards the wiki with page names that do not exist.
+     */
+    private static final int   NEGCACHE_CAPACITY       = 10000;
 
     /**
      *  {@inheritDoc}
@@ -134,32 +162,25 @@ public class CachingProvider
 
         log.debug("Cache capacity "+capacity+" pages.");
 
-        m_cache = new Cache( true, false, false );
+        long maxTextSize = 1024L * TextUtil.getIntegerProperty( properties,
+                                                                PROP_CACHEMAXTEXTSIZE,
+                                                                0 );
 
         //
-        //  OSCache documentation sucks big time.  The clazz-parameter is completely
-        //  undefined; I had to read the source code to figure out that you need
-        //  to declare what type of a listener you are adding by sending the type
-        //  of the interface.
+        //  The page info cache is not bounded, since we use it to
+        //  know all the pages once getAllPages() has been called.
         //
-        m_cache.addCacheEventListener( m_allCollector, CacheEntryEventListener.class );
+        m_cache = ProviderCacheFactory.createCache( properties, "pageCache", 0, 0, null );
 
         //
-        //  FIXME: There's an interesting issue here... It would probably be
-        //  possible to DOS a JSPWiki instance by bombarding it with names that
-        //  do not exist, as they would fill the negcache.  Will need to
-        //  think about this some more...
+        //  The negative cache is bounded, so that nobody can fill the
+        //  memory by requesting pages that do not exist.
         //
-        m_negCache = new Cache( true, false, false );
+        m_negCache = ProviderCacheFactory.createCache( properties, "negativePageCache", NEGCACHE_CAPACITY, 0, null );
 
-        m_textCache = new Cache( true, false, false,
-                                 false,
-                                 OSCACHE_ALGORITHM,
-                                 capacity );
+        m_textCache = ProviderCacheFactory.createCache( properties, "pageTextCache", capacity, maxTextSize, TEXT_WEIGHER );
 
-        m_historyCache = new Cache( true, false, false, false,
-                                    OSCACHE_ALGORITHM,
-                                    capacity );
+        m_historyCache = ProviderCacheFactory.createCache( properties, "pageHistoryCache", capacity, 0, null );
 
         //
         //  Find and initialize real provider.
@@ -200,115 +221,100 @@ public class CachingProvider
     private WikiPage getPageInfoFromCache( String name )
         throws ProviderException
     {
-        boolean wasUpdated = false;
         // Sanity check; seems to occur sometimes
         if( name == null ) return null;
 
-        try
-        {
-            WikiPage item = (WikiPage)m_cache.getFromCache( name, m_expiryPeriod );
-
-            wasUpdated = true;
+        ProviderCache.Entry<WikiPage> entry = m_cache.getEntry( name );
 
-            if( item != null )
-                return item;
-
-            return null;
-        }
-        catch( NeedsRefreshException e )
+        if( entry != null && !entry.isExpired( m_expiryPeriod * 1000L ) )
         {
-            WikiPage cached = (WikiPage)e.getCacheContent();
+            return entry.getValue();
+        }
 
-            // int version = (cached != null) ? cached.getVersion() : WikiPageProvider.LATEST_VERSION;
+        WikiPage cached = (entry != null) ? entry.getValue() : null;
 
-            WikiPage refreshed;
+        // int version = (cached != null) ? cached.getVersion() : WikiPageProvider.LATEST_VERSION;
 
-            //
-            //  Just be careful that we don't accidentally leave the cache in a
-            //  hung state
-            //
+        WikiPage refreshed = m_provider.getPageInfo( name, WikiPageProvider.LATEST_VERSION );
 
-            refreshed = m_provider.getPageInfo( name, WikiPageProvider.LATEST_VERSION );
+        if( refreshed == null && cached != null )
+        {
+            //  Page has been removed evilly by a goon from outer space
 
-            if( refreshed == null && cached != null )
-            {
-                //  Page has been removed evilly by a goon from outer space
+            log.debug("Page "+name+" has been removed externally.");
 
-                log.debug("Page "+name+" has been removed externally.");
+            m_cache.put( name, null );
+            m_textCache.remove( name );
+            m_historyCache.remove( name );
+            // We cache a page miss
+            m_negCache.put( name, Boolean.TRUE );
 
-                m_cache.putInCache( name, null );
-                m_textCache.putInCache( name, null );
-                m_historyCache.putInCache( name, null );
-                // We cache a page miss
-                m_negCache.putInCache( name, name );
-                wasUpdated = true;
+            throw new RepositoryModifiedException( "Removed: "+name, name );
+        }
+        else if( cached == null )
+        {
+            // The page did not exist in the first place
 
-                throw new RepositoryModifiedException( "Removed: "+name, name );
-            }
-            else if( cached == null )
+            if( refreshed != null )
             {
-                // The page did not exist in the first place
-
-                if( refreshed != null )
-                {
-                    // We must now add it
-                    m_cache.putInCache( name, refreshed );
-                    // Requests for this page are now no longer denied
-                    m_negCache.putInCache( name, null );
-                    wasUpdated = true;
-
-                    throw new RepositoryModifiedException( "Added: "+name, name );
-                }
+                // We must now add it
+                m_cache.put( name, refreshed );
+                // Requests for this page are now no longer denied
+                m_negCache.remove( name );
 
-                // Cache page miss
-                m_negCache.putInCache( name, name );
+                throw new RepositoryModifiedException( "Added: "+name, name );
             }
-            else if( refreshed != null && cached.getVersion() != refreshed.getVersion() )
-            {
-                //  The newest version has been deleted, but older versions still remain
-                log.debug("Page "+cached.getName()+" newest version deleted, reloading...");
 
-                m_cache.putInCache( name, refreshed );
-                // Requests for this page are now no longer denied
-                m_negCache.removeEntry( name );
+            // Cache page miss
+            m_negCache.put( name, Boolean.TRUE );
+        }
+        else if( cached.getVersion() != refreshed.getVersion() )
+        {
+            //  The newest version has been deleted, but older versions still remain
+            log.debug("Page "+cached.getName()+" newest version deleted, reloading...");
 
-                m_textCache.removeEntry( name );
-                m_historyCache.removeEntry( name );
-                wasUpdated = true;
+            m_cache.put( name, refreshed );
+            // Requests for this page are now no longer denied
+            m_negCache.remove( name );
 
-                return refreshed;
-            }
-            else if( refreshed != null && Math.abs(refreshed.getLastModified().getTime()-cached.getLastModified().getTime()) > 1000L )
-            {
-                //  Yes, the page has been modified externally and nobody told us
+            m_textCache.remove( name );
+            m_historyCache.remove( name );
 
-                log.info("Page "+cached.getName()+" changed, reloading...");
+            return refreshed;
+        }
+        else if( Math.abs(refreshed.getLastModified().getTime()-cached.getLastModified().getTime()) > 1000L )
+        {
+            //  Yes, the page has been modified externally and nobody told us
 
-                m_cache.putInCache( name, refreshed );
-                // Requests for this page are now no longer denied
-                m_negCache.removeEntry( name );
-                m_textCache.removeEntry( name );
-                m_historyCache.removeEntry( name );
-                wasUpdated = true;
+            log.info("Page "+cached.getName()+" changed, reloading...");
 
-                throw new RepositoryModifiedException( "Modified: "+name, name );
-            }
-            else
-            {
-                // Refresh the cache by putting the same object back
-                m_cache.putInCache( name, cached );
-                // Requests for this page are now no longer denied
-                m_negCache.putInCache( name, null );
-                wasUpdated = true;
-            }
+            m_cache.put( name, refreshed );
+            // Requests for this page are now no longer denied
+            m_negCache.remove( name );
+            m_textCache.remove( name );
+            m_historyCache.remove( name );
 
-            return cached;
+            throw new RepositoryModifiedException( "Modified: "+name, name );
         }
-        finally
+        else
         {
-            if( !wasUpdated )
-                m_cache.cancelUpdate(name);
+            // Refresh the cache by putting the same object back
+            m_cache.put( name, cached );
+            // Requests for this page are now no longer denied
+            m_negCache.remove( name );
         }
+
+        return cached;
+    }
+
+    /**
+     *  Checks the negative cache for a page which we recently found not to exist.
+     */
+    private boolean isKnownNonExistent( String pageName )
+    {
+        ProviderCache.Entry<Boolean> e = m_negCache.getEntry( pageName );
+
+        return e != null && e.getValue() != null && !e.isExpired( m_expiryPeriod * 1000L );
     }
 
     /**
@@ -321,16 +327,7 @@ public class CachingProvider
         //
         //  First, check the negative cache if we've seen it before
         //
-        try
-        {
-            String isNonExistant = (String) m_negCache.getFromCache( pageName, m_expiryPeriod );
-
-            if( isNonExistant != null ) return false; // No such page
-        }
-        catch( NeedsRefreshException e )
-        {
-            m_negCache.cancelUpdate(pageName);
-        }
+        if( isKnownNonExistent( pageName ) ) return false; // No such page
 
         WikiPage p = null;
 
@@ -394,16 +391,7 @@ public class CachingProvider
         //
         //  First, check the negative cache if we've seen it before
         //
-        try
-        {
-            String isNonExistant = (String) m_negCache.getFromCache( pageName, m_expiryPeriod );
-
-            if( isNonExistant != null ) return false; // No such page
-        }
-        catch( NeedsRefreshException e )
-        {
-            m_negCache.cancelUpdate(pageName);
-        }
+        if( isKnownNonExistent( pageName ) ) return false; // No such page
 
         WikiPage p = null;
 
@@ -510,64 +498,16 @@ public class CachingProvider
     private String getTextFromCache( String pageName )
         throws ProviderException
     {
-        String text;
-        boolean wasUpdated = false;
-
         if( pageName == null ) return null;
 
         WikiPage page = getPageInfoFromCache( pageName );
 
-        try
-        {
-            text = (String)m_textCache.getFromCache( pageName,
-                                                     m_pageContentExpiryPeriod );
-            wasUpdated = true;
-
-            if( text == null )
-            {
-                if( page != null )
-                {
-                    text = m_provider.getPageText( pageName, WikiPageProvider.LATEST_VERSION );
-
-                    m_textCache.putInCache( pageName, text );
-
-                    m_cacheMisses++;
-                }
-                else
-                {
-                    return null;
-                }
-            }
-            else
-            {
-                m_cacheHits++;
-            }
-        }
-        catch( NeedsRefreshException e )
+        if( page == null )
         {
-            if( pageExists(pageName) )
-            {
-                text = m_provider.getPageText( pageName, WikiPageProvider.LATEST_VERSION );
-
-                m_textCache.putInCache( pageName, text );
-                wasUpdated = true;
-
-                m_cacheMisses++;
-            }
-            else
-            {
-                m_textCache.putInCache( pageName, null );
-                wasUpdated = true;
-                return null; // No page exists
-            }
-        }
-        finally
-        {
-            if( !wasUpdated )
-                m_textCache.cancelUpdate(pageName);
+            return null; // No page exists
         }
 
-        return text;
+        return m_textCache.get( pageName, m_pageContentExpiryPeriod * 1000L, m_textLoader );
     }
 
     /**
@@ -584,10 +524,10 @@ public class CachingProvider
 
             // Refresh caches properly
 
-            m_cache.removeEntry( page.getName() );
-            m_textCache.removeEntry( page.getName() );
-            m_historyCache.removeEntry( page.getName() );
-            m_negCache.removeEntry( page.getName() );
+            m_cache.remove( page.getName() );
+            m_textCache.remove( page.getName() );
+            m_historyCache.remove( page.getName() );
+            m_negCache.remove( page.getName() );
 
             // Refresh caches
             try
@@ -618,9 +558,9 @@ public class CachingProvider
                 {
                     WikiPage p = (WikiPage) i.next();
 
-                    m_cache.putInCache( p.getName(), p );
+                    m_cache.put( p.getName(), p );
                     // Requests for this page are now no longer denied
-                    m_negCache.putInCache( p.getName(), null );
+                    m_negCache.remove( p.getName() );
                 }
 
                 m_gotall = true;
@@ -628,7 +568,7 @@ public class CachingProvider
         }
         else
         {
-            all = m_allCollector.getAllItems();
+            all = new TreeSet<WikiPage>( m_cache.values() );
         }
 
         return all;
@@ -712,9 +652,9 @@ public class CachingProvider
 
                 if( data != null )
                 {
-                    m_cache.putInCache( pageName, data );
+                    m_cache.put( pageName, data );
                     // Requests for this page are now no longer denied
-                    m_negCache.putInCache( pageName, null );
+                    m_negCache.remove( pageName );
                 }
                 page = data;
             }
@@ -741,47 +681,22 @@ public class CachingProvider
     public List getVersionHistory( String pageName )
         throws ProviderException
     {
-        List history = null;
-        boolean wasUpdated = false;
-
         if( pageName == null ) return null;
-        try
-        {
-            history = (List)m_historyCache.getFromCache( pageName,
-                                                         m_expiryPeriod );
-
-            log.debug("History cache hit for page "+pageName);
-            m_historyCacheHits++;
-            wasUpdated = true;
-        }
-        catch( NeedsRefreshException e )
-        {
-            history = m_provider.getVersionHistory( pageName );
-
-            m_historyCache.putInCache( pageName, history );
 
-            log.debug("History cache miss for page "+pageName);
-            m_historyCacheMisses++;
-            wasUpdated = true;
-        }
-        finally
-        {
-            if( !wasUpdated ) m_historyCache.cancelUpdate( pageName );
-        }
-
-        return history;
+        return m_historyCache.get( pageName, m_expiryPeriod * 1000L, m_historyLoader );
     }
 
     /**
      *  {@inheritDoc}
      */
-    public synchronized String getProviderInfo()
+    public String getProviderInfo()
     {
         return "Real provider: "+m_provider.getClass().getName()+
-               ". Cache misses: "+m_cacheMisses+
-               ". Cache hits: "+m_cacheHits+
-               ". History cache hits: "+m_historyCacheHits+
-               ". History cache misses: "+m_historyCacheMisses+
+               ". Cache misses: "+m_textCache.getMisses()+
+               ". Cache hits: "+m_textCache.getHits()+
+               ". Cache evictions: "+m_textCache.getEvictions()+
+               ". History cache hits: "+m_historyCache.getHits()+
+               ". History cache misses: "+m_historyCache.getMisses()+
                ". Cache consistency checks: "+m_expiryPeriod+"s";
     }
 
@@ -807,12 +722,12 @@ public class CachingProvider
             if( version == WikiPageProvider.LATEST_VERSION ||
                 version == latestcached )
             {
-                m_cache.removeEntry( pageName );
-                m_textCache.removeEntry( pageName );
+                m_cache.remove( pageName );
+                m_textCache.remove( pageName );
             }
 
             m_provider.deleteVersion( pageName, version );
-            m_historyCache.removeEntry( pageName );
+            m_historyCache.remove( pageName );
         }
     }
 
@@ -827,10 +742,10 @@ public class CachingProvider
         //
         synchronized(this)
         {
-            m_cache.putInCache( pageName, null );
-            m_textCache.putInCache( pageName, null );
-            m_historyCache.putInCache( pageName, null );
-            m_negCache.putInCache( pageName, pageName );
+            m_cache.put( pageName, null );
+            m_textCache.remove( pageName );
+            m_historyCache.remove( pageName );
+            m_negCache.put( pageName, Boolean.TRUE );
             m_provider.deletePage( pageName );
         }
     }
@@ -848,20 +763,20 @@ public class CachingProvider
         {
             // Clear any cached version of the old page
             log.debug("Removing from page "+from+" from cache");
-//            m_cache.removeEntry( from );
-            m_cache.putInCache( from, null );
-            m_textCache.putInCache( from, null );
-            m_historyCache.putInCache( from, null );
-            m_negCache.putInCache( from, from );
+//            m_cache.remove( from );
+            m_cache.put( from, null );
+            m_textCache.remove( from );
+            m_historyCache.remove( from );
+            m_negCache.put( from, Boolean.TRUE );
             // Clear the cache for the to page, if that page already exists
             //if ( m_cache.get( to ) != null )
             //{
                 log.debug("Removing to page "+to+" from cache");
-//                m_cache.removeEntry( to );
-                m_cache.putInCache( to, null );
-                m_textCache.putInCache( to, null );
-                m_historyCache.putInCache( to, null );
-                m_negCache.putInCache( to, to );
+//                m_cache.remove( to );
+                m_cache.put( to, null );
+                m_textCache.remove( to );
+                m_historyCache.remove( to );
+                m_negCache.put( to, Boolean.TRUE );
             //}
         }
     }
@@ -875,85 +790,4 @@ public class CachingProvider
     {
         return m_provider;
     }
-
-    /**
-     *  This is a simple class that keeps a list of all WikiPages that
-     *  we have in memory.  Because the OSCache cannot give us a list
-     *  of all pages currently in cache, we'll have to check this
-     *  ourselves.
-     *
-     *
-     *  @since 2.4
-     */
-    private static class CacheItemCollector
-        implements CacheEntryEventListener
-    {
-        private Map<String, WikiPage> m_allItems = new Hashtable<String, WikiPage>();
-
-        /**
-         * Returns a clone of the set - you cannot manipulate this.
-         *
-         * @return A Set of WikiPage objects.
-         */
-        public Set getAllItems()
-        {
-            Set<WikiPage> ret = new TreeSet<WikiPage>();
-            ret.addAll(m_allItems.values());
-
-            return ret;
-        }
-
-        public void cacheEntryAdded( CacheEntryEvent arg0 )
-        {
-            cacheEntryUpdated( arg0 );
-        }
-
-        public void cachePatternFlushed( CachePatternEvent ev )
-        {
-        }
-
-        public void cacheGroupFlushed( CacheGroupEvent ev )
-        {
-        }
-
-        public void cacheFlushed( CachewideEvent ev )
-        {
-        }
-
-        public void cacheEntryFlushed( CacheEntryEvent arg0 )
-        {
-            cacheEntryRemoved( arg0 );
-        }
-
-        public void cacheEntryRemoved( CacheEntryEvent arg0 )
-        {
-            if( arg0.getEntry() != null )
-            {
-                WikiPage item = (WikiPage) arg0.getEntry().getContent();
-
-                if( item != null )
-                {
-                    m_allItems.remove( item.getName() );
-                }
-            }
-        }
-
-        public void cacheEntryUpdated( CacheEntryEvent arg0 )
-        {
-            WikiPage item = (WikiPage) arg0.getEntry().getContent();
-
-            if( item != null )
-            {
-                // Item added or replaced.
-                m_allItems.put( item.getName(), item );
-            }
-            else
-            {
-                // Removed item
-                // FIXME: If the page system is changed during this time, we'll just fail gracefully
-
-                m_allItems.remove( arg0.getKey() );
-            }
-        }
-    }
 }
@@ -0,0 +1,349 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.apache.wiki.util.TextUtil;
+
+/**
+ *  An append-only log of the pages that have been changed in a file based
+ *  repository.  The file providers add a line to it whenever they store, delete
+ *  or move a page, so that the pages changed since a given date can be found
+ *  without looking at every file in the repository.
+ *  <p>
+ *  The journal only knows about the changes made since it was started, so
+ *  {@link #getChangedSince(Date)} cannot answer queries about earlier dates.
+ *  If the journal file is removed, a new one is started.  Files that are
+ *  changed behind the back of the provider are not noticed.
+ *  <p>
+ *  Each line holds either the modification time and the URL-encoded name of
+ *  a changed page, or a dash and the name of a removed page.  The first line
+ *  records when the journal was started.  The latest state of each page is
+ *  also kept in memory; when the file grows well beyond the number of pages
+ *  in it, it is rewritten with one line per page.  Lines appended by other
+ *  instances using the same file are picked up on the next query.
+ *
+ *  @since 2.10
+ */
+public class ChangeJournal
+{
+    private static final Logger log = Logger.getLogger( ChangeJournal.class );
+
+    private static final String HEADER = "# JSPWiki change journal ";
+
+    private static final String REMOVED = "-";
+
+    /** The file is rewritten when it has this many more lines than pages. */
+    private static final int COMPACT_SLACK = 1000;
+
+    private final File m_file;
+
+    /** The header of the file we have read, which changes when the file is rewritten. */
+    private String m_header;
+
+    /** The time the journal was started. */
+    private long m_start;
+
+    /** The number of bytes read from the file. */
+    private long m_offset;
+
+    /** The number of change lines read from the file. */
+    private int m_lines;
+
+    /** The latest change of each page. */
+    private final Map<String,Change> m_changes = new HashMap<String,Change>();
+
+    /** The same changes, most recent first. */
+    private final TreeSet<Change> m_timeline = new TreeSet<Change>();
+
+    /**
+     *  Opens a journal, or starts a new one if the file does not exist.
+     *
+     *  @param file The journal file.
+     *  @throws IOException If the journal cannot be read or created.
+     */
+    public ChangeJournal( File file )
+        throws IOException
+    {
+        m_file = file;
+
+        refresh();
+    }
+
+    /**
+     *  Records that a page has been stored.
+     *
+     *  @param name The name of the page.
+     *  @param time The new modification time of the page.
+     *  @throws IOException If the journal cannot be written.
+     */
+    public synchronized void changed( String name, long time )
+        throws IOException
+    {
+        append( time + " " + TextUtil.urlEncodeUTF8( name ) );
+    }
+
+    /**
+     *  Records that a page has been removed.
+     *
+     *  @param name The name of the page.
+     *  @throws IOException If the journal cannot be written.
+     */
+    public synchronized void removed( String name )
+        throws IOException
+    {
+        append( REMOVED + " " + TextUtil.urlEncodeUTF8( name ) );
+    }
+
+    /**
+     *  Returns the names of the pages which have been changed at or after the given
+     *  date and not removed since, most recently changed first.
+     *
+     *  @param since The date.
+     *  @return A list of page names, or null if the journal was started after the
+     *          given date.
+     *  @throws IOException If the journal cannot be read.
+     */
+    public synchronized List<String> getChangedSince( Date since )
+        throws IOException
+    {
+        refresh();
+
+        if( since.getTime() < m_start )
+        {
+            return null;
+        }
+
+        List<String> result = new ArrayList<String>();
+
+        for( Change c : m_timeline )
+        {
+            if( c.m_time < since.getTime() )
+            {
+                break;
+            }
+
+            result.add( c.m_name );
+        }
+
+        return result;
+    }
+
+    private void append( String line )
+        throws IOException
+    {
+        if( !m_file.exists() )
+        {
+            refresh();
+        }
+
+        OutputStream out = new FileOutputStream( m_file, true );
+
+        try
+        {
+            out.write( (line + "\n").getBytes( "ISO-8859-1" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        refresh();
+
+        if( m_lines > 2 * m_changes.size() + COMPACT_SLACK )
+        {
+            write( m_start, new ArrayList<Change>( m_timeline ) );
+            refresh();
+        }
+    }
+
+    /**
+     *  Reads the lines added to the file since the last call.  If the file
+     *  has been rewritten, it is read again from the start.
+     */
+    private void refresh()
+        throws IOException
+    {
+        if( !m_file.exists() )
+        {
+            write( System.currentTimeMillis(), new ArrayList<Change>() );
+            log.info( "Started a change journal in " + m_file.getAbsolutePath() );
+        }
+
+        RandomAccessFile in = new RandomAccessFile( m_file, "r" );
+
+        try
+        {
+            String header = in.readLine();
+
+            if( header == null || !header.startsWith( HEADER ) )
+            {
+                log.warn( "Not a change journal, starting a new one: " + m_file.getAbsolutePath() );
+                in.close();
+                write( System.currentTimeMillis(), new ArrayList<Change>() );
+                in = new RandomAccessFile( m_file, "r" );
+                header = in.readLine();
+            }
+
+            if( !header.equals( m_header ) )
+            {
+                m_header = header;
+                m_start  = Long.parseLong( header.substring( HEADER.length() ).split( " " )[0] );
+                m_offset = in.getFilePointer();
+                m_lines  = 0;
+                m_changes.clear();
+                m_timeline.clear();
+            }
+
+            int length = (int) (in.length() - m_offset);
+
+            if( length <= 0 )
+            {
+                return;
+            }
+
+            byte[] buf = new byte[length];
+            in.seek( m_offset );
+            in.readFully( buf );
+
+            // A line which is still being written is read the next time.
+            int end = length;
+            while( end > 0 && buf[end - 1] != '\n' )
+            {
+                end--;
+            }
+
+            m_offset += end;
+
+            BufferedReader lines = new BufferedReader( new StringReader( new String( buf, 0, end, "ISO-8859-1" ) ) );
+            String line;
+
+            while( (line = lines.readLine()) != null )
+            {
+                apply( line );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private void apply( String line )
+    {
+        int space = line.indexOf( ' ' );
+
+        if( space < 0 )
+        {
+            log.warn( "Skipping a broken line in " + m_file.getAbsolutePath() + ": " + line );
+            return;
+        }
+
+        m_lines++;
+
+        String name = TextUtil.urlDecodeUTF8( line.substring( space + 1 ) );
+        Change old = m_changes.remove( name );
+
+        if( old != null )
+        {
+            m_timeline.remove( old );
+        }
+
+        if( !line.startsWith( REMOVED ) )
+        {
+            Change c = new Change( name, Long.parseLong( line.substring( 0, space ) ) );
+            m_changes.put( name, c );
+            m_timeline.add( c );
+        }
+    }
+
+    /**
+     *  Writes a new journal file with one line per change, and replaces the old one.
+     */
+    private void write( long start, List<Change> changes )
+        throws IOException
+    {
+        File tmp = new File( m_file.getParentFile(), m_file.getName() + ".tmp" );
+        Writer out = new OutputStreamWriter( new FileOutputStream( tmp ), "ISO-8859-1" );
+
+        try
+        {
+            out.write( HEADER + start + " " + System.currentTimeMillis() + "\n" );
+
+            // Oldest first, so that the file reads like it was written.
+            for( int i = changes.size() - 1; i >= 0; i-- )
+            {
+                Change c = changes.get( i );
+                out.write( c.m_time + " " + TextUtil.urlEncodeUTF8( c.m_name ) + "\n" );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if( !tmp.renameTo( m_file ) )
+        {
+            m_file.delete();
+
+            if( !tmp.renameTo( m_file ) )
+            {
+                throw new IOException( "Unable to replace " + m_file.getAbsolutePath() );
+            }
+        }
+    }
+
+    /**
+     *  The latest change of a page, sorted most recent first.
+     */
+    private static final class Change implements Comparable<Change>
+    {
+        private final String m_name;
+        private final long   m_time;
+
+        Change( String name, long time )
+        {
+            m_name = name;
+            m_time = time;
+        }
+
+        public int compareTo( Change o )
+        {
+            if( m_time != o.m_time )
+            {
+                return m_time > o.m_time ? -1 : 1;
+            }
+
+            return m_name.compareTo( o.m_name );
+        }
+
+        public boolean equals( Object o )
+        {
+            return o instanceof Change && compareTo( (Change) o ) == 0;
+        }
+
+        public int hashCode()
+        {
+            return m_name.hashCode() ^ (int) m_time;
+        }
+    }
+}
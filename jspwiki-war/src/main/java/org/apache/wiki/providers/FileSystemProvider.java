@@ -178,5 +178,8 @@ public class FileSystemProvider
         File toPage = findPage( to );
         
         fromPage.renameTo( toPage );
+
+        journalChange( from );
+        journalChange( to );
     }
 }
@@ -0,0 +1,585 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.apache.wiki.*;
+import org.apache.wiki.util.FileUtil;
+import org.apache.wiki.util.TextUtil;
+
+/**
+ *  A page provider which keeps the versions of the pages in RCS archives, like
+ *  the {@link RCSFileProvider}, but reads and writes the archives itself instead
+ *  of running the RCS programs.  It uses the same files, so it can serve an
+ *  existing RCS repository, and the RCS tools keep working on the archives.
+ *  <p>
+ *  The current text of a page is kept in the page directory, and its archive in
+ *  the <tt>RCS</tt> subdirectory.  The revision information of the archives is
+ *  cached; an archive is read again when its size or modification time changes.
+ *  The texts of old versions are read from the archive when they are needed.
+ *
+ *  @since 2.10
+ */
+public class JavaRCSFileProvider
+    extends AbstractFileProvider
+    implements VersioningProvider
+{
+    private static final Logger log = Logger.getLogger( JavaRCSFileProvider.class );
+
+    /**
+     *  The number of archives whose revision information is cached.  The value
+     *  is {@value}.
+     */
+    public static final String PROP_CACHECAPACITY = "jspwiki.javaRCSFileProvider.cacheCapacity";
+
+    private static final int DEFAULT_CACHECAPACITY = 1000;
+
+    /** The name of the directory for the archives. */
+    private static final String RCS_DIR = "RCS";
+
+    private static final String RCS_EXT = ",v";
+
+    private ProviderCache<String,CachedArchive> m_archives;
+
+    /** The login name written to new revisions. */
+    private String m_login;
+
+    /**
+     *  {@inheritDoc}
+     */
+    public void initialize( WikiEngine engine, Properties props )
+        throws NoRequiredPropertyException,
+               IOException
+    {
+        super.initialize( engine, props );
+
+        File rcsdir = new File( getPageDirectory(), RCS_DIR );
+
+        if( !rcsdir.exists() )
+        {
+            rcsdir.mkdirs();
+        }
+
+        int capacity = TextUtil.getIntegerProperty( props, PROP_CACHECAPACITY, DEFAULT_CACHECAPACITY );
+
+        m_archives = ProviderCacheFactory.createCache( props, "rcsArchiveCache", capacity, 0, null );
+
+        // RCS identifiers cannot contain white space or punctuation.
+        m_login = System.getProperty( "user.name", "" ).replaceAll( "[\\s;:@$,]", "_" );
+
+        if( m_login.length() == 0 )
+        {
+            m_login = "jspwiki";
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public String getProviderInfo()
+    {
+        return "JavaRCSFileProvider";
+    }
+
+    private File findArchive( String page )
+    {
+        return new File( new File( getPageDirectory(), RCS_DIR ), mangleName( page ) + FILE_EXT + RCS_EXT );
+    }
+
+    /**
+     *  Returns the revision information of a page, from the cache if the archive
+     *  has not changed.
+     *
+     *  @return The archive without texts, or null if the page has no archive.
+     */
+    private RCSArchive getArchive( String page )
+        throws ProviderException
+    {
+        File file = findArchive( page );
+
+        if( !file.exists() )
+        {
+            m_archives.remove( page );
+            return null;
+        }
+
+        long modified = file.lastModified();
+        long length   = file.length();
+
+        ProviderCache.Entry<CachedArchive> entry = m_archives.getEntry( page );
+
+        if( entry != null && entry.getValue() != null
+            && entry.getValue().m_modified == modified && entry.getValue().m_length == length )
+        {
+            return entry.getValue().m_archive;
+        }
+
+        RCSArchive archive = readArchive( file, false );
+
+        m_archives.put( page, new CachedArchive( archive, modified, length ) );
+
+        return archive;
+    }
+
+    private RCSArchive readArchive( File file, boolean withTexts )
+        throws ProviderException
+    {
+        try
+        {
+            return RCSArchive.read( file, withTexts );
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to read RCS archive " + file.getAbsolutePath(), e );
+            throw new ProviderException( "Unable to read RCS archive: " + e.getMessage() );
+        }
+    }
+
+    private void writeArchive( String page, RCSArchive archive )
+        throws ProviderException
+    {
+        m_archives.remove( page );
+
+        try
+        {
+            archive.write( findArchive( page ) );
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to write RCS archive for " + page, e );
+            throw new ProviderException( "Unable to write RCS archive: " + e.getMessage() );
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public WikiPage getPageInfo( String page, int version )
+        throws ProviderException
+    {
+        WikiPage info = super.getPageInfo( page, version );
+
+        if( info == null )
+        {
+            return null;
+        }
+
+        RCSArchive archive = getArchive( page );
+
+        if( archive == null || archive.getHead() == null )
+        {
+            // Pages which have not been saved since moving from the FileSystemProvider.
+            if( version == WikiPageProvider.LATEST_VERSION || version == 1 )
+            {
+                info.setVersion( 1 );
+                return info;
+            }
+
+            return null;
+        }
+
+        RCSArchive.Revision rev = version == WikiPageProvider.LATEST_VERSION ? archive.getHead()
+                                                                              : archive.getRevision( version );
+
+        if( rev == null )
+        {
+            return null;
+        }
+
+        setInfo( info, rev, rev == archive.getHead() );
+
+        return info;
+    }
+
+    /**
+     *  Copies the revision information to a page.  The modification time of the
+     *  latest version is that of the page file, which is more precise.
+     */
+    private void setInfo( WikiPage info, RCSArchive.Revision rev, boolean head )
+    {
+        info.setVersion( rev.getVersion() );
+
+        if( !head && rev.getDate() != null )
+        {
+            info.setLastModified( rev.getDate() );
+        }
+
+        if( rev.getSize() >= 0 )
+        {
+            info.setSize( rev.getSize() );
+        }
+
+        String author = getLogValue( rev.getLog(), "author" );
+        if( author != null )
+        {
+            info.setAuthor( author );
+        }
+
+        String changenote = getLogValue( rev.getLog(), "changenote" );
+        if( changenote != null && changenote.length() > 0 )
+        {
+            info.setAttribute( WikiPage.CHANGENOTE, changenote );
+        }
+    }
+
+    /**
+     *  Finds a value in a log message of the form "author=...;changenote=...".
+     *  Archives made by the RCSFileProvider may have quotes around the message.
+     */
+    private static String getLogValue( String logMessage, String key )
+    {
+        if( logMessage == null )
+        {
+            return null;
+        }
+
+        for( String part : logMessage.trim().split( ";" ) )
+        {
+            part = part.trim();
+
+            if( part.startsWith( "\"" ) ) part = part.substring( 1 );
+            if( part.endsWith( "\"" ) )   part = part.substring( 0, part.length() - 1 );
+
+            if( part.startsWith( key + "=" ) )
+            {
+                return TextUtil.urlDecodeUTF8( part.substring( key.length() + 1 ) );
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public boolean pageExists( String page, int version )
+    {
+        try
+        {
+            return getPageInfo( page, version ) != null;
+        }
+        catch( ProviderException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public String getPageText( String page, int version )
+        throws ProviderException
+    {
+        // The page file has the latest text.
+        if( version == WikiPageProvider.LATEST_VERSION )
+        {
+            return super.getPageText( page, version );
+        }
+
+        File file = findArchive( page );
+
+        if( !file.exists() )
+        {
+            if( version == 1 )
+            {
+                return super.getPageText( page, WikiPageProvider.LATEST_VERSION );
+            }
+
+            throw new NoSuchVersionException( "Page: " + page + ", version=" + version );
+        }
+
+        String text = readArchive( file, true ).getText( version );
+
+        if( text == null )
+        {
+            throw new NoSuchVersionException( "Page: " + page + ", version=" + version );
+        }
+
+        return decode( text );
+    }
+
+    private String decode( String bytes )
+        throws ProviderException
+    {
+        try
+        {
+            return FileUtil.readContents( new ByteArrayInputStream( bytes.getBytes( "ISO-8859-1" ) ), m_encoding );
+        }
+        catch( IOException e )
+        {
+            throw new ProviderException( "Unable to decode page text: " + e.getMessage() );
+        }
+    }
+
+    private String encode( String text )
+        throws ProviderException
+    {
+        try
+        {
+            return new String( text.getBytes( m_encoding ), "ISO-8859-1" );
+        }
+        catch( UnsupportedEncodingException e )
+        {
+            throw new ProviderException( "Unable to encode page text: " + e.getMessage() );
+        }
+    }
+
+    /**
+     *  Writes the page into the page directory, and adds it as a new revision
+     *  to its archive.
+     *
+     *  @param page {@inheritDoc}
+     *  @param text {@inheritDoc}
+     *  @throws {@inheritDoc}
+     */
+    public synchronized void putPageText( WikiPage page, String text )
+        throws ProviderException
+    {
+        String pagename = page.getName();
+
+        super.putPageText( page, text );
+
+        File file = findArchive( pagename );
+        RCSArchive archive = file.exists() ? readArchive( file, true ) : new RCSArchive();
+
+        String author = page.getAuthor();
+        if( author == null ) author = "unknown"; // Should be localized but cannot due to missing WikiContext
+
+        String changenote = (String)page.getAttribute( WikiPage.CHANGENOTE );
+        if( changenote == null ) changenote = "";
+
+        archive.addRevision( encode( text ),
+                             new Date( findPage( pagename ).lastModified() ),
+                             m_login,
+                             "author=" + TextUtil.urlEncodeUTF8( author ) + ";changenote=" + TextUtil.urlEncodeUTF8( changenote ) );
+
+        writeArchive( pagename, archive );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public List getVersionHistory( String page )
+        throws ProviderException
+    {
+        RCSArchive archive = getArchive( page );
+
+        if( archive == null || archive.getHead() == null )
+        {
+            return super.getVersionHistory( page );
+        }
+
+        ArrayList<WikiPage> list = new ArrayList<WikiPage>();
+
+        File pageFile = findPage( page );
+
+        for( RCSArchive.Revision rev : archive.getRevisions() )
+        {
+            WikiPage info = new WikiPage( m_engine, page );
+            boolean head = rev == archive.getHead() && pageFile.exists();
+
+            if( head )
+            {
+                info.setLastModified( new Date( pageFile.lastModified() ) );
+            }
+
+            setInfo( info, rev, head );
+
+            list.add( info );
+        }
+
+        return list;
+    }
+
+    /**
+     *  Removes the page file and the archive from the repository.
+     *
+     *  @param page {@inheritDoc}
+     *  @throws {@inheritDoc}
+     */
+    public synchronized void deletePage( String page )
+        throws ProviderException
+    {
+        super.deletePage( page );
+
+        File file = findArchive( page );
+
+        if( file.exists() && !file.delete() )
+        {
+            log.warn( "Deletion of RCS file " + file.getAbsolutePath() + " failed!" );
+        }
+
+        m_archives.remove( page );
+    }
+
+    /**
+     *  Removes a version from the archive.  If it is the latest version, the
+     *  page file gets the text of the previous one.
+     *
+     *  @param page {@inheritDoc}
+     *  @param version {@inheritDoc}
+     *  @throws {@inheritDoc}
+     */
+    public synchronized void deleteVersion( String page, int version )
+        throws ProviderException
+    {
+        File file = findArchive( page );
+
+        if( !file.exists() )
+        {
+            if( version == WikiPageProvider.LATEST_VERSION || version == 1 )
+            {
+                super.deleteVersion( page, WikiPageProvider.LATEST_VERSION );
+                return;
+            }
+
+            throw new NoSuchVersionException( "Page " + page + ", version=" + version );
+        }
+
+        RCSArchive archive = readArchive( file, true );
+        RCSArchive.Revision head = archive.getHead();
+
+        if( head == null )
+        {
+            throw new NoSuchVersionException( "Page " + page + ", version=" + version );
+        }
+
+        if( version == WikiPageProvider.LATEST_VERSION )
+        {
+            version = head.getVersion();
+        }
+
+        try
+        {
+            if( !archive.removeRevision( version ) )
+            {
+                throw new NoSuchVersionException( "Page " + page + ", version=" + version );
+            }
+        }
+        catch( IOException e )
+        {
+            throw new ProviderException( e.getMessage() );
+        }
+
+        RCSArchive.Revision newHead = archive.getHead();
+
+        if( newHead == null )
+        {
+            // That was the only version.
+            deletePage( page );
+            return;
+        }
+
+        writeArchive( page, archive );
+
+        if( newHead != head )
+        {
+            writePageFile( page, archive.getText( newHead.getVersion() ), newHead.getDate() );
+        }
+    }
+
+    /**
+     *  Replaces the page file with the given text, and gives it the date of the
+     *  revision, since the date of the file is the date of the page.
+     */
+    private void writePageFile( String page, String bytes, Date date )
+        throws ProviderException
+    {
+        File file = findPage( page );
+        OutputStream out = null;
+
+        try
+        {
+            out = new FileOutputStream( file );
+            out.write( bytes.getBytes( "ISO-8859-1" ) );
+        }
+        catch( IOException e )
+        {
+            log.fatal( "Something wrong with the page directory - you may have just lost data!", e );
+            throw new ProviderException( "Unable to write the page: " + e.getMessage() );
+        }
+        finally
+        {
+            try
+            {
+                if( out != null ) out.close();
+            }
+            catch( IOException e )
+            {
+                log.error( "Closing failed", e );
+            }
+        }
+
+        if( date != null )
+        {
+            file.setLastModified( date.getTime() );
+        }
+
+        journalChange( page );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public synchronized void movePage( String from, String to )
+        throws ProviderException
+    {
+        File fromFile = findPage( from );
+        File toFile = findPage( to );
+
+        if( !fromFile.renameTo( toFile ) )
+        {
+            throw new ProviderException( "Unable to move " + from + " to " + to );
+        }
+
+        File fromArchive = findArchive( from );
+
+        if( fromArchive.exists() && !fromArchive.renameTo( findArchive( to ) ) )
+        {
+            log.error( "Unable to move the RCS archive of " + from + " to " + to );
+        }
+
+        m_archives.remove( from );
+        m_archives.remove( to );
+
+        journalChange( from );
+        journalChange( to );
+    }
+
+    /**
+     *  The revision information of an archive, and the state of the file it was
+     *  read from.
+     */
+    private static final class CachedArchive
+    {
+        private final RCSArchive m_archive;
+        private final long       m_modified;
+        private final long       m_length;
+
+        private CachedArchive( RCSArchive archive, long modified, long length )
+        {
+            m_archive  = archive;
+            m_modified = modified;
+            m_length   = length;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.util.Collection;
+
+/**
+ *  A simple cache used by the caching providers to keep page and attachment
+ *  data in memory.  Implementations must be thread safe, and must allow
+ *  <code>null</code> values to be stored; a cached <code>null</code> means
+ *  "we asked the real provider and it did not have anything".
+ *  <p>
+ *  Unlike OSCache, which was used earlier, a cache miss is not signalled
+ *  with an exception.  Instead, {@link #getEntry(Object)} returns the
+ *  cached entry along with its age, and {@link #get(Object, long, Loader)}
+ *  makes sure that only one thread at a time loads the value for a given key.
+ *  <p>
+ *  Implementations must have a public no-arg constructor, and are
+ *  initialized by calling {@link #initialize(String, int, long, Weigher)}
+ *  before any other method.
+ *
+ *  @param <K> The type of the keys (usually page names).
+ *  @param <V> The type of the cached values.
+ *  @since 2.10
+ *  @see ProviderCacheFactory
+ */
+public interface ProviderCache<K,V>
+{
+    /**
+     *  Initializes the cache.
+     *
+     *  @param name A name for the cache, used for logging.
+     *  @param capacity Maximum number of entries.  Zero or less means unlimited.
+     *  @param maxWeight Maximum total weight of the entries as computed by the
+     *                   weigher.  Zero or less means unlimited.
+     *  @param weigher Computes the weight of a value.  May be null, in which
+     *                 case the weight is not tracked.
+     */
+    void initialize( String name, int capacity, long maxWeight, Weigher<? super V> weigher );
+
+    /**
+     *  Returns the cached entry for the key without loading anything.
+     *
+     *  @param key The key to look for.
+     *  @return The entry, or null, if there is nothing in the cache for this key.
+     */
+    Entry<V> getEntry( K key );
+
+    /**
+     *  Returns the cached value if it is younger than the given age; otherwise
+     *  loads it using the given loader and puts it in the cache.  If several
+     *  threads ask for the same key at the same time, only one of them calls
+     *  the loader and the rest wait for its result.
+     *
+     *  @param key The key to look for.
+     *  @param maxAge Maximum age of the cached value in milliseconds.  A negative
+     *                value means that the cached value never expires.
+     *  @param loader Used to fetch the value if it is not in the cache.
+     *  @return The cached or loaded value.  May be null.
+     *  @throws ProviderException If the loader fails.
+     */
+    V get( K key, long maxAge, Loader<K,V> loader ) throws ProviderException;
+
+    /**
+     *  Puts a value in the cache, replacing any previous value.  A load of
+     *  the same key which is still running must not overwrite it.
+     *
+     *  @param key The key.
+     *  @param value The value.  May be null.
+     */
+    void put( K key, V value );
+
+    /**
+     *  Removes an entry from the cache.  A load of the same key which is
+     *  still running must not put its value in the cache afterwards, since
+     *  it may have read the data from before the change.
+     *
+     *  @param key The key to remove.
+     */
+    void remove( K key );
+
+    /**
+     *  Removes all entries from the cache.
+     */
+    void clear();
+
+    /**
+     *  Returns the number of entries in the cache.
+     *
+     *  @return The number of entries.
+     */
+    int size();
+
+    /**
+     *  Returns a snapshot of all non-null values currently in the cache.
+     *  Changing the returned collection does not affect the cache.
+     *
+     *  @return A new collection of the values.
+     */
+    Collection<V> values();
+
+    /**
+     *  Returns a snapshot of all keys currently in the cache.
+     *
+     *  @return A new collection of the keys.
+     */
+    Collection<K> keys();
+
+    /**
+     *  Returns the number of lookups which found an entry in the cache.
+     *
+     *  @return Number of cache hits.
+     */
+    long getHits();
+
+    /**
+     *  Returns the number of lookups which did not find a usable entry.
+     *
+     *  @return Number of cache misses.
+     */
+    long getMisses();
+
+    /**
+     *  Returns the number of entries which were dropped because the cache was full.
+     *
+     *  @return Number of evictions.
+     */
+    long getEvictions();
+
+    /**
+     *  Loads a value which was not in the cache.
+     *
+     *  @param <K> Key type.
+     *  @param <V> Value type.
+     */
+    public interface Loader<K,V>
+    {
+        /**
+         *  Loads the value for the given key.
+         *
+         *  @param key The key.
+         *  @return The value.  May be null.
+         *  @throws ProviderException If the value could not be loaded.
+         */
+        V load( K key ) throws ProviderException;
+    }
+
+    /**
+     *  Computes the weight of a cached value.
+     *
+     *  @param <V> Value type.
+     */
+    public interface Weigher<V>
+    {
+        /**
+         *  Returns the weight of the given value.
+         *
+         *  @param value The value.  Never null.
+         *  @return The weight, zero or greater.
+         */
+        long weigh( V value );
+    }
+
+    /**
+     *  A cached value along with the time it was put in the cache.
+     *
+     *  @param <V> Value type.
+     */
+    public static final class Entry<V>
+    {
+        private final V    m_value;
+        private final long m_created;
+        private final long m_weight;
+
+        /**
+         *  Creates a new entry, timestamped with the current time.
+         *
+         *  @param value The value.  May be null.
+         *  @param weight The weight of the value.
+         */
+        public Entry( V value, long weight )
+        {
+            m_value   = value;
+            m_weight  = weight;
+            m_created = System.currentTimeMillis();
+        }
+
+        /**
+         *  Returns the cached value.
+         *
+         *  @return The value.  May be null.
+         */
+        public V getValue()
+        {
+            return m_value;
+        }
+
+        /**
+         *  Returns the weight of the value.
+         *
+         *  @return The weight.
+         */
+        public long getWeight()
+        {
+            return m_weight;
+        }
+
+        /**
+         *  Returns the time when this entry was put in the cache.
+         *
+         *  @return Milliseconds since the epoch.
+         */
+        public long getCreated()
+        {
+            return m_created;
+        }
+
+        /**
+         *  Returns true, if this entry is older than the given age.
+         *
+         *  @param maxAge Age in milliseconds.  A negative value means never.
+         *  @return True, if the entry has expired.
+         */
+        public boolean isExpired( long maxAge )
+        {
+            return maxAge >= 0 && System.currentTimeMillis() - m_created >= maxAge;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.apache.wiki.util.ClassUtil;
+import org.apache.wiki.util.TextUtil;
+
+/**
+ *  Creates the {@link ProviderCache} instances used by {@link CachingProvider}
+ *  and {@link CachingAttachmentProvider}.  The implementation class can be
+ *  changed with the <code>jspwiki.cachingProvider.cacheClass</code> property;
+ *  by default {@link StripedLRUCache} is used.
+ *
+ *  @since 2.10
+ */
+public final class ProviderCacheFactory
+{
+    private static final Logger log = Logger.getLogger( ProviderCacheFactory.class );
+
+    /** Property name for the ProviderCache implementation class. */
+    public static final String PROP_CACHECLASS = "jspwiki.cachingProvider.cacheClass";
+
+    private static final String DEFAULT_CACHECLASS = StripedLRUCache.class.getName();
+
+    /**
+     *  Private constructor to prevent direct instantiation.
+     */
+    private ProviderCacheFactory()
+    {}
+
+    /**
+     *  Creates and initializes a new cache.
+     *
+     *  @param <K> Key type.
+     *  @param <V> Value type.
+     *  @param properties The engine properties.
+     *  @param name The name of the cache, for logging.
+     *  @param capacity Maximum number of entries; zero or less means unlimited.
+     *  @param maxWeight Maximum total weight; zero or less means unlimited.
+     *  @param weigher Weigher for the values, or null.
+     *  @return A ready-to-use cache.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K,V> ProviderCache<K,V> createCache( Properties properties,
+                                                       String name,
+                                                       int capacity,
+                                                       long maxWeight,
+                                                       ProviderCache.Weigher<? super V> weigher )
+    {
+        String classname = TextUtil.getStringProperty( properties, PROP_CACHECLASS, DEFAULT_CACHECLASS );
+
+        ProviderCache<K,V> cache;
+
+        try
+        {
+            Class cacheclass = ClassUtil.findClass( "org.apache.wiki.providers", classname );
+
+            cache = (ProviderCache<K,V>)cacheclass.newInstance();
+        }
+        catch( ClassNotFoundException e )
+        {
+            log.error("Unable to locate cache class "+classname,e);
+            throw new IllegalArgumentException("no cache class");
+        }
+        catch( InstantiationException e )
+        {
+            log.error("Unable to create cache class "+classname,e);
+            throw new IllegalArgumentException("faulty cache class");
+        }
+        catch( IllegalAccessException e )
+        {
+            log.error("Illegal access to cache class "+classname,e);
+            throw new IllegalArgumentException("illegal cache class");
+        }
+
+        cache.initialize( name, capacity, maxWeight, weigher );
+
+        return cache;
+    }
+}
@@ -0,0 +1,1030 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.io.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+import org.apache.wiki.diff.LinearDiff;
+import org.apache.wiki.util.FileUtil;
+
+/**
+ *  Reads and writes RCS archive files (the <tt>,v</tt> files made by <tt>ci</tt>),
+ *  without running the RCS programs.
+ *  <p>
+ *  An archive keeps the full text of the latest revision, and for each older
+ *  revision the edit script which turns the next newer text into it.  Only the
+ *  trunk (revisions 1.1, 1.2, ...) is read and written; branches are kept in the
+ *  file as they are.  The number after the dot is the version of the page.
+ *  <p>
+ *  Texts are handled as bytes: each char of the strings read from and given to
+ *  this class holds one byte of the file, so the caller must encode and decode
+ *  the page text.  Instances are not thread safe.
+ *
+ *  @since 2.10
+ */
+public class RCSArchive
+{
+    private static final String ENCODING = "ISO-8859-1";
+
+    private static final String DATE_FORMAT = "yyyy.MM.dd.HH.mm.ss";
+
+    private String m_head;
+
+    private String m_branch;
+
+    private List<String> m_access = new ArrayList<String>();
+
+    private List<String> m_symbols = new ArrayList<String>();
+
+    private List<String> m_locks = new ArrayList<String>();
+
+    private boolean m_strict = false;
+
+    private String m_comment = "# ";
+
+    private String m_expand;
+
+    private String m_desc = "";
+
+    /** All revisions, in the order of the delta section. */
+    private List<Revision> m_revisions = new ArrayList<Revision>();
+
+    /** The same revisions, in the order of the deltatext section. */
+    private List<Revision> m_textOrder = new ArrayList<Revision>();
+
+    private Map<String,Revision> m_byNumber = new HashMap<String,Revision>();
+
+    /**
+     *  Creates an empty archive.
+     */
+    public RCSArchive()
+    {}
+
+    /**
+     *  Reads an archive file.
+     *
+     *  @param file The file.
+     *  @param withTexts If false, the texts of the revisions are not kept, and
+     *                   {@link #getText(int)} cannot be used.
+     *  @return The archive.
+     *  @throws IOException If the file cannot be read or is not an RCS file.
+     */
+    public static RCSArchive read( File file, boolean withTexts )
+        throws IOException
+    {
+        InputStream in = new FileInputStream( file );
+
+        try
+        {
+            RCSArchive archive = new RCSArchive();
+            archive.parse( new Lexer( FileUtil.readContents( in, ENCODING ) ), withTexts );
+            return archive;
+        }
+        catch( ParseException e )
+        {
+            throw new IOException( "Not a valid RCS file: " + file.getAbsolutePath() + ": " + e.getMessage() );
+        }
+        catch( RuntimeException e )
+        {
+            // Broken strings, numbers and edit scripts.
+            throw new IOException( "Not a valid RCS file: " + file.getAbsolutePath() + ": " + e.getMessage() );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     *  Writes the archive to a file.  The file is written under a temporary name
+     *  first, so that readers never see a partial file.
+     *
+     *  @param file The file.
+     *  @throws IOException If the file cannot be written.
+     */
+    public void write( File file )
+        throws IOException
+    {
+        File tmp = new File( file.getParentFile(), file.getName() + ".tmp" );
+        Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( tmp ), ENCODING ) );
+
+        try
+        {
+            writeTo( out );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if( !tmp.renameTo( file ) )
+        {
+            file.delete();
+
+            if( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to replace " + file.getAbsolutePath() );
+            }
+        }
+    }
+
+    /**
+     *  Returns the latest revision on the trunk.
+     *
+     *  @return The head revision, or null if the archive is empty.
+     */
+    public Revision getHead()
+    {
+        return m_head != null ? m_byNumber.get( m_head ) : null;
+    }
+
+    /**
+     *  Returns the revision with the given version on the trunk.
+     *
+     *  @param version The number after the dot.
+     *  @return The revision, or null if there is no such revision.
+     */
+    public Revision getRevision( int version )
+    {
+        for( Revision r = getHead(); r != null; r = next( r ) )
+        {
+            if( r.getVersion() == version )
+            {
+                return r;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *  Returns the revisions on the trunk.
+     *
+     *  @return The revisions, latest first.
+     */
+    public List<Revision> getRevisions()
+    {
+        List<Revision> result = new ArrayList<Revision>();
+
+        for( Revision r = getHead(); r != null; r = next( r ) )
+        {
+            result.add( r );
+        }
+
+        return result;
+    }
+
+    /**
+     *  Returns the text of a revision on the trunk.  The archive must have been
+     *  read with its texts.
+     *
+     *  @param version The number after the dot.
+     *  @return The text, or null if there is no such revision.
+     */
+    public String getText( int version )
+    {
+        List<String> lines = null;
+
+        for( Revision r = getHead(); r != null; r = next( r ) )
+        {
+            if( r.m_text == null )
+            {
+                throw new IllegalStateException( "The texts of the archive have not been read" );
+            }
+
+            lines = lines == null ? splitLines( r.m_text ) : applyDelta( lines, r.m_text );
+
+            if( r.getVersion() == version )
+            {
+                return join( lines );
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *  Adds a new revision to the trunk.  The archive must have been read with
+     *  its texts.
+     *
+     *  @param text The text of the new revision.
+     *  @param date The date of the revision.
+     *  @param author The login name of the user; must not contain white space.
+     *  @param log The log message.
+     *  @return The new revision.
+     */
+    public Revision addRevision( String text, Date date, String author, String log )
+    {
+        Revision head = getHead();
+        String num = "1.1";
+
+        if( head != null )
+        {
+            num = head.m_num.substring( 0, head.m_num.lastIndexOf( '.' ) + 1 ) + (head.getVersion() + 1);
+        }
+
+        Revision rev = new Revision( num );
+
+        rev.m_date   = date;
+        rev.m_author = author;
+        rev.m_log    = log;
+        rev.m_text   = text;
+        rev.m_size   = text.length();
+
+        if( head != null )
+        {
+            if( head.m_text == null )
+            {
+                throw new IllegalStateException( "The texts of the archive have not been read" );
+            }
+
+            rev.m_next  = head.m_num;
+            head.m_text = makeDelta( splitLines( text ), splitLines( head.m_text ) );
+
+            // Like "ci -l", move the lock of the old head to the new one.
+            for( int i = 0; i < m_locks.size(); i++ )
+            {
+                String lock = m_locks.get( i );
+
+                if( lock.endsWith( ":" + head.m_num ) )
+                {
+                    m_locks.set( i, lock.substring( 0, lock.length() - head.m_num.length() ) + rev.m_num );
+                }
+            }
+        }
+
+        m_head = rev.m_num;
+        m_revisions.add( 0, rev );
+        m_textOrder.add( 0, rev );
+        m_byNumber.put( rev.m_num, rev );
+
+        return rev;
+    }
+
+    /**
+     *  Removes a revision from the trunk, like <tt>rcs -o</tt>.  The archive must
+     *  have been read with its texts.
+     *
+     *  @param version The number after the dot.
+     *  @return False, if there is no such revision.
+     *  @throws IOException If the revision has branches, which would be lost.
+     */
+    public boolean removeRevision( int version )
+        throws IOException
+    {
+        Revision rev = getRevision( version );
+
+        if( rev == null )
+        {
+            return false;
+        }
+
+        if( !rev.m_branches.isEmpty() )
+        {
+            throw new IOException( "Revision " + rev.m_num + " has branches, and cannot be removed" );
+        }
+
+        Revision newer = null;
+        for( Revision r = getHead(); r != rev; r = next( r ) )
+        {
+            newer = r;
+        }
+
+        Revision older = next( rev );
+
+        if( older != null )
+        {
+            //
+            //  The older revision is stored relative to the removed one, so it is
+            //  stored again relative to the newer one, or as the full text.
+            //
+            String text = getText( older.getVersion() );
+
+            if( newer != null )
+            {
+                older.m_text = makeDelta( splitLines( getText( newer.getVersion() ) ), splitLines( text ) );
+            }
+            else
+            {
+                older.m_text = text;
+            }
+        }
+
+        if( newer != null )
+        {
+            newer.m_next = rev.m_next;
+        }
+        else
+        {
+            m_head = rev.m_next;
+        }
+
+        for( int i = 0; i < m_locks.size(); i++ )
+        {
+            if( m_locks.get( i ).endsWith( ":" + rev.m_num ) )
+            {
+                m_locks.remove( i-- );
+            }
+        }
+
+        m_revisions.remove( rev );
+        m_textOrder.remove( rev );
+        m_byNumber.remove( rev.m_num );
+
+        return true;
+    }
+
+    private Revision next( Revision r )
+    {
+        return r.m_next != null ? m_byNumber.get( r.m_next ) : null;
+    }
+
+    //
+    //  Edit scripts.  A script has commands "dL N", which delete N lines starting
+    //  at line L, and "aL N" followed by N lines, which add the lines after line L.
+    //  The line numbers refer to the text the script is applied to.
+    //
+
+    /**
+     *  Splits a text into lines which keep their line feeds.  Only the last line
+     *  may lack one.
+     */
+    static List<String> splitLines( String text )
+    {
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+
+        while( start < text.length() )
+        {
+            int end = text.indexOf( '\n', start );
+            end = end < 0 ? text.length() : end + 1;
+
+            lines.add( text.substring( start, end ) );
+            start = end;
+        }
+
+        return lines;
+    }
+
+    private static String join( List<String> lines )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for( String line : lines )
+        {
+            sb.append( line );
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     *  Applies an edit script to the lines of a text.
+     */
+    static List<String> applyDelta( List<String> source, String script )
+    {
+        List<String> scriptLines = splitLines( script );
+        List<String> result = new ArrayList<String>( source.size() );
+        int pos = 0;
+
+        for( int i = 0; i < scriptLines.size(); i++ )
+        {
+            String cmd = scriptLines.get( i ).trim();
+
+            if( cmd.length() == 0 )
+            {
+                continue;
+            }
+
+            int space = cmd.indexOf( ' ' );
+            int line;
+            int count;
+
+            try
+            {
+                line  = Integer.parseInt( cmd.substring( 1, space ) );
+                count = Integer.parseInt( cmd.substring( space + 1 ) );
+            }
+            catch( RuntimeException e )
+            {
+                throw new IllegalArgumentException( "Bad edit command: " + cmd );
+            }
+
+            if( cmd.charAt( 0 ) == 'd' )
+            {
+                while( pos < line - 1 )
+                {
+                    result.add( source.get( pos++ ) );
+                }
+
+                pos += count;
+            }
+            else if( cmd.charAt( 0 ) == 'a' )
+            {
+                while( pos < line )
+                {
+                    result.add( source.get( pos++ ) );
+                }
+
+                for( int j = 0; j < count; j++ )
+                {
+                    result.add( scriptLines.get( ++i ) );
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException( "Bad edit command: " + cmd );
+            }
+        }
+
+        while( pos < source.size() )
+        {
+            result.add( source.get( pos++ ) );
+        }
+
+        return result;
+    }
+
+    /**
+     *  Makes an edit script which turns the source lines into the target lines.
+     */
+    static String makeDelta( List<String> source, List<String> target )
+    {
+        Map<Object,Integer> ids = new HashMap<Object,Integer>();
+        int[] a = LinearDiff.intern( source.toArray(), 0, source.size(), ids );
+        int[] b = LinearDiff.intern( target.toArray(), 0, target.size(), ids );
+
+        StringBuilder sb = new StringBuilder();
+
+        for( int[] edit : new LinearDiff().compare( a, 0, a.length, b, 0, b.length ) )
+        {
+            if( edit[1] > edit[0] )
+            {
+                sb.append( 'd' ).append( edit[0] + 1 ).append( ' ' ).append( edit[1] - edit[0] ).append( '\n' );
+            }
+
+            if( edit[3] > edit[2] )
+            {
+                sb.append( 'a' ).append( edit[1] ).append( ' ' ).append( edit[3] - edit[2] ).append( '\n' );
+
+                for( int i = edit[2]; i < edit[3]; i++ )
+                {
+                    sb.append( target.get( i ) );
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
+    //
+    //  Parsing and writing the file.
+    //
+
+    private void parse( Lexer in, boolean withTexts )
+        throws ParseException
+    {
+        // Admin section
+        while( true )
+        {
+            String keyword = in.peekWord();
+
+            if( keyword == null || isNumber( keyword ) || keyword.equals( "desc" ) )
+            {
+                break;
+            }
+
+            in.next();
+            List<String> values = in.readPhrase();
+
+            if( keyword.equals( "head" ) )
+            {
+                m_head = values.isEmpty() ? null : values.get( 0 );
+            }
+            else if( keyword.equals( "branch" ) )
+            {
+                m_branch = values.isEmpty() ? null : values.get( 0 );
+            }
+            else if( keyword.equals( "access" ) )
+            {
+                m_access = values;
+            }
+            else if( keyword.equals( "symbols" ) )
+            {
+                m_symbols = joinPairs( values );
+            }
+            else if( keyword.equals( "locks" ) )
+            {
+                m_locks = joinPairs( values );
+
+                if( "strict".equals( in.peekWord() ) )
+                {
+                    in.next();
+                    in.readPhrase();
+                    m_strict = true;
+                }
+            }
+            else if( keyword.equals( "comment" ) )
+            {
+                m_comment = values.isEmpty() ? null : values.get( 0 );
+            }
+            else if( keyword.equals( "expand" ) )
+            {
+                m_expand = values.isEmpty() ? null : values.get( 0 );
+            }
+            // Other phrases are not needed.
+        }
+
+        // Delta section
+        while( in.peekWord() != null && isNumber( in.peekWord() ) )
+        {
+            Revision rev = new Revision( in.next() );
+
+            while( in.peekWord() != null && !isNumber( in.peekWord() ) && !in.peekWord().equals( "desc" ) )
+            {
+                String keyword = in.next();
+                List<String> values = in.readPhrase();
+                String value = values.isEmpty() ? null : values.get( 0 );
+
+                if( keyword.equals( "date" ) )
+                {
+                    rev.m_date = parseDate( value );
+                }
+                else if( keyword.equals( "author" ) )
+                {
+                    rev.m_author = value;
+                }
+                else if( keyword.equals( "state" ) )
+                {
+                    rev.m_state = value;
+                }
+                else if( keyword.equals( "branches" ) )
+                {
+                    rev.m_branches = values;
+                }
+                else if( keyword.equals( "next" ) )
+                {
+                    rev.m_next = value;
+                }
+            }
+
+            m_revisions.add( rev );
+            m_byNumber.put( rev.m_num, rev );
+        }
+
+        if( !"desc".equals( in.next() ) )
+        {
+            throw new ParseException( "desc expected", in.m_pos );
+        }
+
+        m_desc = in.readString();
+
+        // Deltatext section
+        while( in.peekWord() != null )
+        {
+            Revision rev = m_byNumber.get( in.next() );
+
+            if( rev == null )
+            {
+                throw new ParseException( "Text for an unknown revision", in.m_pos );
+            }
+
+            while( in.peekWord() != null && !isNumber( in.peekWord() ) )
+            {
+                String keyword = in.next();
+
+                if( keyword.equals( "log" ) )
+                {
+                    rev.m_log = in.readString();
+                }
+                else if( keyword.equals( "text" ) )
+                {
+                    rev.m_text = in.readString();
+                    break;
+                }
+                else
+                {
+                    in.readPhrase();
+                }
+            }
+
+            m_textOrder.add( rev );
+        }
+
+        computeSizes();
+
+        if( !withTexts )
+        {
+            for( Revision r : m_revisions )
+            {
+                r.m_text = null;
+            }
+        }
+    }
+
+    /**
+     *  Finds the size of each revision on the trunk by following the edit scripts.
+     */
+    private void computeSizes()
+    {
+        List<String> lines = null;
+
+        for( Revision r = getHead(); r != null; r = next( r ) )
+        {
+            lines = lines == null ? splitLines( r.m_text ) : applyDelta( lines, r.m_text );
+
+            long size = 0;
+            for( String line : lines )
+            {
+                size += line.length();
+            }
+
+            r.m_size = size;
+        }
+    }
+
+    private void writeTo( Writer out )
+        throws IOException
+    {
+        out.write( "head\t" + (m_head != null ? m_head : "") + ";\n" );
+
+        if( m_branch != null )
+        {
+            out.write( "branch\t" + m_branch + ";\n" );
+        }
+
+        out.write( "access" + list( m_access ) + ";\n" );
+        out.write( "symbols" + list( m_symbols ) + ";\n" );
+        out.write( "locks" + list( m_locks ) + ";" + (m_strict ? " strict;" : "") + "\n" );
+
+        if( m_comment != null )
+        {
+            out.write( "comment\t" + quote( m_comment ) + ";\n" );
+        }
+
+        if( m_expand != null )
+        {
+            out.write( "expand\t" + quote( m_expand ) + ";\n" );
+        }
+
+        out.write( "\n" );
+
+        SimpleDateFormat fmt = dateFormat();
+
+        for( Revision r : m_revisions )
+        {
+            out.write( "\n" + r.m_num + "\n" );
+            out.write( "date\t" + fmt.format( r.m_date != null ? r.m_date : new Date() ) + ";\t" );
+            out.write( "author " + r.m_author + ";\t" );
+            out.write( "state " + (r.m_state != null ? r.m_state : "Exp") + ";\n" );
+            out.write( "branches" + list( r.m_branches ) + ";\n" );
+            out.write( "next\t" + (r.m_next != null ? r.m_next : "") + ";\n" );
+        }
+
+        out.write( "\n\ndesc\n" + quote( m_desc ) + "\n" );
+
+        for( Revision r : m_textOrder )
+        {
+            if( r.m_text == null )
+            {
+                throw new IllegalStateException( "The texts of the archive have not been read" );
+            }
+
+            out.write( "\n\n" + r.m_num + "\n" );
+            out.write( "log\n" + quote( r.m_log != null ? r.m_log : "" ) + "\n" );
+            out.write( "text\n" + quote( r.m_text ) + "\n" );
+        }
+    }
+
+    private static String list( List<String> values )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for( String v : values )
+        {
+            sb.append( sb.length() == 0 ? "\n\t" : " " ).append( v );
+        }
+
+        return sb.toString();
+    }
+
+    private static String quote( String s )
+    {
+        return "@" + s.replace( "@", "@@" ) + "@";
+    }
+
+    /**
+     *  Joins the "name", ":", "rev" tokens of symbols and locks.
+     */
+    private static List<String> joinPairs( List<String> values )
+    {
+        List<String> result = new ArrayList<String>();
+
+        for( int i = 0; i < values.size(); i++ )
+        {
+            if( i + 2 < values.size() && values.get( i + 1 ).equals( ":" ) )
+            {
+                result.add( values.get( i ) + ":" + values.get( i + 2 ) );
+                i += 2;
+            }
+            else
+            {
+                result.add( values.get( i ) );
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isNumber( String word )
+    {
+        if( word.length() == 0 ) return false;
+
+        for( int i = 0; i < word.length(); i++ )
+        {
+            char c = word.charAt( i );
+            if( c != '.' && (c < '0' || c > '9') ) return false;
+        }
+
+        return true;
+    }
+
+    private static SimpleDateFormat dateFormat()
+    {
+        SimpleDateFormat fmt = new SimpleDateFormat( DATE_FORMAT );
+        fmt.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        return fmt;
+    }
+
+    /**
+     *  Parses an RCS date.  Years before 2000 have two digits.
+     */
+    private static Date parseDate( String value )
+        throws ParseException
+    {
+        if( value == null )
+        {
+            return null;
+        }
+
+        if( value.indexOf( '.' ) == 2 )
+        {
+            value = "19" + value;
+        }
+
+        return dateFormat().parse( value );
+    }
+
+    /**
+     *  A revision of the archive.
+     */
+    public static final class Revision
+    {
+        private final String m_num;
+        private Date         m_date;
+        private String       m_author;
+        private String       m_state;
+        private List<String> m_branches = new ArrayList<String>();
+        private String       m_next;
+        private String       m_log;
+        private String       m_text;
+        private long         m_size = -1;
+
+        private Revision( String num )
+        {
+            m_num = num;
+        }
+
+        /**
+         *  Returns the revision number, such as "1.3".
+         *
+         *  @return The revision number.
+         */
+        public String getNumber()
+        {
+            return m_num;
+        }
+
+        /**
+         *  Returns the number after the last dot of the revision number.
+         *
+         *  @return The version.
+         */
+        public int getVersion()
+        {
+            return Integer.parseInt( m_num.substring( m_num.lastIndexOf( '.' ) + 1 ) );
+        }
+
+        /**
+         *  Returns the date of the revision.
+         *
+         *  @return The date.
+         */
+        public Date getDate()
+        {
+            return m_date;
+        }
+
+        /**
+         *  Returns the login name of the user who made the revision.
+         *
+         *  @return The author.
+         */
+        public String getAuthor()
+        {
+            return m_author;
+        }
+
+        /**
+         *  Returns the log message of the revision.
+         *
+         *  @return The log message, or null if there is none.
+         */
+        public String getLog()
+        {
+            return m_log;
+        }
+
+        /**
+         *  Returns the length of the text of the revision in bytes.
+         *
+         *  @return The size, or -1 if it is not known.
+         */
+        public long getSize()
+        {
+            return m_size;
+        }
+    }
+
+    /**
+     *  Splits the contents of an RCS file into words, strings and the
+     *  punctuation ";" and ":".
+     */
+    private static final class Lexer
+    {
+        private final String m_data;
+        private int m_pos = 0;
+
+        private Lexer( String data )
+        {
+            m_data = data;
+        }
+
+        private void skipSpace()
+        {
+            while( m_pos < m_data.length() && isSpace( m_data.charAt( m_pos ) ) )
+            {
+                m_pos++;
+            }
+        }
+
+        private static boolean isSpace( char c )
+        {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000b' || c == '\b';
+        }
+
+        /**
+         *  Returns the next word without reading it, or null if the next token
+         *  is not a word.
+         */
+        private String peekWord()
+        {
+            int pos = m_pos;
+            String word = next();
+            m_pos = pos;
+
+            return word != null && word.length() > 0 && word.charAt( 0 ) != '@' && !word.equals( ";" )
+                   && !word.equals( ":" ) ? word : null;
+        }
+
+        /**
+         *  Reads the next word or punctuation.  Strings are returned with their
+         *  leading "@", so that they can be told apart.
+         *
+         *  @return The token, or null at the end.
+         */
+        private String next()
+        {
+            skipSpace();
+
+            if( m_pos >= m_data.length() )
+            {
+                return null;
+            }
+
+            char c = m_data.charAt( m_pos );
+
+            if( c == ';' || c == ':' )
+            {
+                m_pos++;
+                return String.valueOf( c );
+            }
+
+            if( c == '@' )
+            {
+                return "@" + readString();
+            }
+
+            int start = m_pos;
+
+            while( m_pos < m_data.length() )
+            {
+                c = m_data.charAt( m_pos );
+
+                if( isSpace( c ) || c == ';' || c == ':' || c == '@' )
+                {
+                    break;
+                }
+
+                m_pos++;
+            }
+
+            return m_data.substring( start, m_pos );
+        }
+
+        /**
+         *  Reads an @-quoted string.
+         */
+        private String readString()
+        {
+            skipSpace();
+
+            if( m_pos >= m_data.length() || m_data.charAt( m_pos ) != '@' )
+            {
+                throw new IllegalArgumentException( "String expected at " + m_pos );
+            }
+
+            StringBuilder sb = new StringBuilder();
+            int start = ++m_pos;
+
+            while( true )
+            {
+                int at = m_data.indexOf( '@', m_pos );
+
+                if( at < 0 )
+                {
+                    throw new IllegalArgumentException( "Unterminated string at " + start );
+                }
+
+                sb.append( m_data, m_pos, at );
+
+                if( at + 1 < m_data.length() && m_data.charAt( at + 1 ) == '@' )
+                {
+                    sb.append( '@' );
+                    m_pos = at + 2;
+                }
+                else
+                {
+                    m_pos = at + 1;
+                    return sb.toString();
+                }
+            }
+        }
+
+        /**
+         *  Reads the values of a phrase up to and including the ";".  Strings
+         *  are returned without their quotes.
+         */
+        private List<String> readPhrase()
+            throws ParseException
+        {
+            List<String> values = new ArrayList<String>();
+
+            while( true )
+            {
+                String token = next();
+
+                if( token == null )
+                {
+                    throw new ParseException( "Unexpected end of file", m_pos );
+                }
+
+                if( token.equals( ";" ) )
+                {
+                    return values;
+                }
+
+                values.add( token.startsWith( "@" ) ? token.substring( 1 ) : token );
+            }
+        }
+    }
+}
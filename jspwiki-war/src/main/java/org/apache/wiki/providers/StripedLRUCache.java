@@ -0,0 +1,472 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ *  The default {@link ProviderCache}.  The keys are spread over a number of
+ *  segments, each of which is an access-ordered LRU map with its own lock, so
+ *  that readers of different pages do not contend with each other.  The
+ *  capacity and the maximum weight are split evenly between the segments,
+ *  and the least recently used entries of a segment are evicted whenever
+ *  either limit is exceeded.
+ *  <p>
+ *  Loads through {@link #get(Object, long, ProviderCache.Loader)} are done
+ *  only once per key at a time; concurrent callers for the same key wait
+ *  for the first one to finish and share its result.  A {@link #put(Object, Object)},
+ *  {@link #remove(Object)} or {@link #clear()} of the key while the load is
+ *  running makes it stale: its result is not cached, and later callers start
+ *  a new load instead of waiting for it.
+ *
+ *  @param <K> Key type.
+ *  @param <V> Value type.
+ *  @since 2.10
+ */
+public class StripedLRUCache<K,V>
+    implements ProviderCache<K,V>
+{
+    private static final Logger log = Logger.getLogger( StripedLRUCache.class );
+
+    /** The maximum number of segments. */
+    private static final int MAX_SEGMENTS = 16;
+
+    private String                        m_name = "cache";
+    private Segment<K,V>[]                m_segments;
+    private Weigher<? super V>            m_weigher;
+
+    private final ConcurrentMap<K,Load<V>> m_loading = new ConcurrentHashMap<K,Load<V>>();
+
+    private final AtomicLong m_hits      = new AtomicLong();
+    private final AtomicLong m_misses    = new AtomicLong();
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     *  {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void initialize( String name, int capacity, long maxWeight, Weigher<? super V> weigher )
+    {
+        m_name    = name;
+        m_weigher = weigher;
+
+        //
+        //  Small caches get fewer segments, so that the LRU order still
+        //  means something.
+        //
+        int segments = 1;
+        while( segments < MAX_SEGMENTS && (capacity <= 0 || segments * 2 * 4 <= capacity) )
+        {
+            segments *= 2;
+        }
+
+        int  segmentCapacity = capacity  > 0 ? (capacity + segments - 1) / segments : 0;
+        long segmentWeight   = maxWeight > 0 ? (maxWeight + segments - 1) / segments : 0;
+
+        m_segments = new Segment[segments];
+
+        for( int i = 0; i < segments; i++ )
+        {
+            m_segments[i] = new Segment<K,V>( segmentCapacity, segmentWeight );
+        }
+
+        log.debug( "Cache "+name+" initialized with "+segments+" segments, capacity "+capacity+
+                   ", max weight "+maxWeight );
+    }
+
+    private Segment<K,V> segmentFor( K key )
+    {
+        int h = key.hashCode();
+
+        // Spread the bits so that similar page names land in different segments
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+
+        return m_segments[h & (m_segments.length - 1)];
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public Entry<V> getEntry( K key )
+    {
+        Entry<V> e = segmentFor( key ).get( key );
+
+        if( e != null )
+            m_hits.incrementAndGet();
+        else
+            m_misses.incrementAndGet();
+
+        return e;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public V get( K key, long maxAge, Loader<K,V> loader )
+        throws ProviderException
+    {
+        Entry<V> e = segmentFor( key ).get( key );
+
+        if( e != null && !e.isExpired( maxAge ) )
+        {
+            m_hits.incrementAndGet();
+            return e.getValue();
+        }
+
+        m_misses.incrementAndGet();
+
+        Load<V> load = new Load<V>();
+        Load<V> running = m_loading.putIfAbsent( key, load );
+
+        if( running != null )
+        {
+            return running.await( key );
+        }
+
+        try
+        {
+            V value = loader.load( key );
+            Entry<V> entry = newEntry( value );
+            Segment<K,V> segment = segmentFor( key );
+
+            //
+            //  The value may have been read before the page was changed,
+            //  so it is only cached if nobody has touched the key since.
+            //
+            synchronized( segment )
+            {
+                if( m_loading.get( key ) == load )
+                {
+                    m_evictions.addAndGet( segment.put( key, entry ) );
+                }
+            }
+
+            load.done( value, null );
+
+            return value;
+        }
+        catch( ProviderException ex )
+        {
+            load.done( null, ex );
+            throw ex;
+        }
+        catch( RuntimeException ex )
+        {
+            load.done( null, ex );
+            throw ex;
+        }
+        finally
+        {
+            m_loading.remove( key, load );
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public void put( K key, V value )
+    {
+        Entry<V> entry = newEntry( value );
+        Segment<K,V> segment = segmentFor( key );
+
+        synchronized( segment )
+        {
+            m_loading.remove( key );
+            m_evictions.addAndGet( segment.put( key, entry ) );
+        }
+    }
+
+    private Entry<V> newEntry( V value )
+    {
+        long weight = (value != null && m_weigher != null) ? m_weigher.weigh( value ) : 0;
+
+        return new Entry<V>( value, weight );
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public void remove( K key )
+    {
+        Segment<K,V> segment = segmentFor( key );
+
+        synchronized( segment )
+        {
+            m_loading.remove( key );
+            segment.remove( key );
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public void clear()
+    {
+        for( Segment<K,V> s : m_segments )
+        {
+            synchronized( s )
+            {
+                for( K key : m_loading.keySet() )
+                {
+                    if( segmentFor( key ) == s ) m_loading.remove( key );
+                }
+
+                s.clear();
+            }
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for( Segment<K,V> s : m_segments )
+        {
+            size += s.size();
+        }
+
+        return size;
+    }
+
+    /**
+     *  Returns the total weight of the entries currently in the cache.
+     *
+     *  @return The total weight.
+     */
+    public long getWeight()
+    {
+        long weight = 0;
+
+        for( Segment<K,V> s : m_segments )
+        {
+            weight += s.weight();
+        }
+
+        return weight;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public Collection<V> values()
+    {
+        ArrayList<V> result = new ArrayList<V>();
+
+        for( Segment<K,V> s : m_segments )
+        {
+            s.collectValues( result );
+        }
+
+        return result;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public Collection<K> keys()
+    {
+        ArrayList<K> result = new ArrayList<K>();
+
+        for( Segment<K,V> s : m_segments )
+        {
+            s.collectKeys( result );
+        }
+
+        return result;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public long getHits()
+    {
+        return m_hits.get();
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public long getMisses()
+    {
+        return m_misses.get();
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public long getEvictions()
+    {
+        return m_evictions.get();
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public String toString()
+    {
+        return m_name+": size="+size()+", hits="+getHits()+", misses="+getMisses()+", evictions="+getEvictions();
+    }
+
+    /**
+     *  One lock stripe: an access-ordered map guarded by its own monitor.
+     */
+    private static final class Segment<K,V>
+    {
+        private final LinkedHashMap<K,Entry<V>> m_map = new LinkedHashMap<K,Entry<V>>( 16, 0.75f, true );
+        private final int  m_capacity;
+        private final long m_maxWeight;
+        private long       m_weight = 0;
+
+        Segment( int capacity, long maxWeight )
+        {
+            m_capacity  = capacity;
+            m_maxWeight = maxWeight;
+        }
+
+        synchronized Entry<V> get( K key )
+        {
+            return m_map.get( key );
+        }
+
+        /**
+         *  Puts the entry in and evicts old ones if necessary.
+         *
+         *  @return The number of evicted entries.
+         */
+        synchronized int put( K key, Entry<V> entry )
+        {
+            Entry<V> old = m_map.put( key, entry );
+
+            if( old != null ) m_weight -= old.getWeight();
+            m_weight += entry.getWeight();
+
+            int evicted = 0;
+
+            Iterator<Map.Entry<K,Entry<V>>> i = m_map.entrySet().iterator();
+
+            //
+            //  Never evict the entry we just added, even if it alone
+            //  is heavier than the segment is allowed to be.
+            //
+            while( m_map.size() > 1 &&
+                   ((m_capacity > 0 && m_map.size() > m_capacity) ||
+                    (m_maxWeight > 0 && m_weight > m_maxWeight)) )
+            {
+                Map.Entry<K,Entry<V>> eldest = i.next();
+
+                m_weight -= eldest.getValue().getWeight();
+                i.remove();
+                evicted++;
+            }
+
+            return evicted;
+        }
+
+        synchronized void remove( K key )
+        {
+            Entry<V> old = m_map.remove( key );
+
+            if( old != null ) m_weight -= old.getWeight();
+        }
+
+        synchronized void clear()
+        {
+            m_map.clear();
+            m_weight = 0;
+        }
+
+        synchronized int size()
+        {
+            return m_map.size();
+        }
+
+        synchronized long weight()
+        {
+            return m_weight;
+        }
+
+        synchronized void collectValues( Collection<V> result )
+        {
+            for( Entry<V> e : m_map.values() )
+            {
+                if( e.getValue() != null ) result.add( e.getValue() );
+            }
+        }
+
+        synchronized void collectKeys( Collection<K> result )
+        {
+            result.addAll( m_map.keySet() );
+        }
+    }
+
+    /**
+     *  A load in progress.  Other threads asking for the same key wait on this.
+     */
+    private static final class Load<V>
+    {
+        private final CountDownLatch m_latch = new CountDownLatch( 1 );
+        private V                    m_value;
+        private Exception            m_error;
+
+        void done( V value, Exception error )
+        {
+            m_value = value;
+            m_error = error;
+            m_latch.countDown();
+        }
+
+        V await( Object key ) throws ProviderException
+        {
+            try
+            {
+                m_latch.await();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new ProviderException( "Interrupted while waiting for "+key+" to load" );
+            }
+
+            if( m_error instanceof ProviderException )
+            {
+                throw (ProviderException) m_error;
+            }
+            else if( m_error != null )
+            {
+                throw (RuntimeException) m_error;
+            }
+
+            return m_value;
+        }
+    }
+}
@@ -743,7 +743,9 @@ public class VersioningFileProvider
                     log.error("Closing failed",ex);
                 }
             }
-            
+
+            journalChange( page );
+
             return;
         }
 
@@ -809,6 +811,9 @@ public class VersioningFileProvider
         File toOldDir = findOldPageDir( to );
         
         fromOldDir.renameTo( toOldDir );
+
+        journalChange( from );
+        journalChange( to );
     }
     
     private static class CachedProperties
@@ -20,13 +20,21 @@ package org.apache.wiki.render;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.jdom2.Content;
 
+import org.apache.wiki.InternalWikiException;
 import org.apache.wiki.WikiContext;
 import org.apache.wiki.WikiEngine;
 import org.apache.wiki.api.exceptions.WikiException;
@@ -37,6 +45,8 @@ import org.apache.wiki.event.WikiPageEvent;
 import org.apache.wiki.modules.InternalModule;
 import org.apache.wiki.parser.JSPWikiMarkupParser;
 import org.apache.wiki.parser.MarkupParser;
+import org.apache.wiki.parser.PluginContent;
+import org.apache.wiki.parser.VariableContent;
 import org.apache.wiki.parser.WikiDocument;
 import org.apache.wiki.providers.CachingProvider;
 import org.apache.wiki.util.TextUtil;
@@ -56,6 +66,13 @@ import com.opensymphony.oscache.base.NeedsRefreshException;
  *  the same size as the page cache), but you may control them separately.
  *  <p>
  *  You can turn caching completely off by stating a cacheSize of zero.
+ *  <p>
+ *  In addition to the parsed documents, the final HTML of a page is cached as well,
+ *  so that unchanged pages do not need to be serialized again on every view.  The
+ *  HTML cache is the same size as the document cache, and can be turned off
+ *  separately by setting "jspwiki.renderingManager.htmlCache" to false.  Pages
+ *  which contain plugins, or variables whose value may depend on the user or the
+ *  request, are never put in the HTML cache.
  *
  *  @since  2.4
  */
@@ -75,15 +92,36 @@ public class RenderingManager implements WikiEventListener, InternalModule
     private static final String VERSION_DELIMITER = "::";
     private static final String OSCACHE_ALGORITHM = "com.opensymphony.oscache.base.algorithm.LRUCache";
     private static final String PROP_RENDERER     = "jspwiki.renderingManager.renderer";
+    private static final int    DIGEST_BUFFERSIZE = 4096;
     
     /** The name of the default renderer. */
     public  static final String DEFAULT_RENDERER  = XHTMLRenderer.class.getName();
 
+    /**
+     *  Parameter value for turning the HTML cache on or off.
+     */
+    public  static final String PROP_HTMLCACHE    = "jspwiki.renderingManager.htmlCache";
+
+    /**
+     *  The variables whose value does not depend on the user or the request,
+     *  and which therefore do not prevent the HTML of a page from being cached.
+     */
+    private static final Set<String> CACHEABLE_VARIABLES =
+        new HashSet<String>( Arrays.asList( "applicationname", "jspwikiversion", "encoding",
+                                            "pagename", "pageprovider", "attachmentprovider",
+                                            "baseurl", "interwikilinks", "inlinedimages",
+                                            "pluginpath" ) );
+
     /**
      *  Stores the WikiDocuments that have been cached.
      */
     private              Cache  m_documentCache;
 
+    /**
+     *  Stores the rendered HTML of the WikiDocuments that can be cached.
+     */
+    private              Cache  m_htmlCache;
+
     /**
      *
      */
@@ -129,6 +167,13 @@ public class RenderingManager implements WikiEventListener, InternalModule
             m_documentCache = new Cache(true,false,false,false,
                                         OSCACHE_ALGORITHM,
                                         cacheSize);
+
+            if( TextUtil.getBooleanProperty( properties, PROP_HTMLCACHE, true ) )
+            {
+                m_htmlCache = new Cache(true,false,false,false,
+                                        OSCACHE_ALGORITHM,
+                                        cacheSize);
+            }
         }
         else
         {
@@ -197,6 +242,7 @@ public class RenderingManager implements WikiEventListener, InternalModule
         String pageid = context.getRealPage().getName()+VERSION_DELIMITER+context.getRealPage().getVersion();
 
         boolean wasUpdated = false;
+        byte[]  digest     = null;
 
         if( m_documentCache != null )
         {
@@ -209,11 +255,23 @@ public class RenderingManager implements WikiEventListener, InternalModule
 
                 //
                 //  This check is needed in case the different filters have actually
-                //  changed the page data.
-                //  FIXME: Figure out a faster method
-                if( pagedata.equals(doc.getPageData()) )
+                //  changed the page data.  Usually the page data is the very same
+                //  String the document was rendered from, as it comes from the page
+                //  cache and the filters leave it alone.  Otherwise it is compared
+                //  by a digest, so that we do not need to store the page text twice.
+                //
+                if( pagedata == doc.getPageData() )
+                {
+                    if( log.isDebugEnabled() ) log.debug("Using cached HTML for page "+pageid );
+                    return doc;
+                }
+
+                digest = digest( pagedata );
+
+                if( MessageDigest.isEqual( digest, doc.getPageDataDigest() ) )
                 {
                     if( log.isDebugEnabled() ) log.debug("Using cached HTML for page "+pageid );
+                    doc.setPageData( pagedata );
                     return doc;
                 }
             }
@@ -230,9 +288,10 @@ public class RenderingManager implements WikiEventListener, InternalModule
         {
             MarkupParser parser = getParser( context, pagedata );
             WikiDocument doc = parser.parse();
-            doc.setPageData( pagedata );
             if( m_documentCache != null )
             {
+                doc.setPageData( pagedata );
+                doc.setPageDataDigest( digest != null ? digest : digest( pagedata ) );
                 m_documentCache.putInCache( pageid, doc );
                 wasUpdated = true;
             }
@@ -250,6 +309,42 @@ public class RenderingManager implements WikiEventListener, InternalModule
         return null;
     }
 
+    /**
+     *  Computes a 128-bit digest of the page data.  The characters are fed to the
+     *  digest in small chunks, so that no byte array copy of the whole page is made.
+     */
+    private static byte[] digest( String pagedata )
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance( "MD5" );
+
+            char[] chars = new char[ Math.min( pagedata.length(), DIGEST_BUFFERSIZE ) ];
+            byte[] bytes = new byte[ chars.length * 2 ];
+
+            for( int start = 0; start < pagedata.length(); start += chars.length )
+            {
+                int len = Math.min( chars.length, pagedata.length() - start );
+
+                pagedata.getChars( start, start + len, chars, 0 );
+
+                for( int i = 0; i < len; i++ )
+                {
+                    bytes[2*i]   = (byte)(chars[i] >> 8);
+                    bytes[2*i+1] = (byte)chars[i];
+                }
+
+                md.update( bytes, 0, 2*len );
+            }
+
+            return md.digest();
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new InternalWikiException( "MD5 is not available: "+e.getMessage() );
+        }
+    }
+
     /**
      *  Simply renders a WikiDocument to a String.  This version does not get the document
      *  from the cache - in fact, it does not cache the document at all.  This is
@@ -312,7 +407,12 @@ public class RenderingManager implements WikiEventListener, InternalModule
         {
             WikiDocument doc = getRenderedDocument( context, pagedata );
 
-            return getHTML( context, doc );
+            if( m_htmlCache == null || doc == null )
+            {
+                return getHTML( context, doc );
+            }
+
+            return getCachedHTML( context, doc );
         }
         catch( IOException e )
         {
@@ -323,7 +423,110 @@ public class RenderingManager implements WikiEventListener, InternalModule
     }
 
     /**
-     * Flushes the document cache in response to a POST_SAVE_BEGIN event.
+     *  Returns the HTML of the document from the HTML cache, or renders and
+     *  caches it, if the document does not depend on the user or the request.
+     *  The cached HTML is valid only as long as the cached document it was
+     *  rendered from is still the same object; if the document has been
+     *  parsed again, the HTML is rendered again as well.
+     */
+    private String getCachedHTML( WikiContext context, WikiDocument doc )
+        throws IOException
+    {
+        String key = context.getRealPage().getName()+VERSION_DELIMITER+
+                     context.getRealPage().getVersion()+VERSION_DELIMITER+
+                     getContextFingerprint( context );
+
+        boolean wasUpdated = false;
+
+        try
+        {
+            CachedHTML cached = (CachedHTML) m_htmlCache.getFromCache( key, m_cacheExpiryPeriod );
+
+            wasUpdated = true;
+
+            if( cached != null && cached.m_document.get() == doc )
+            {
+                if( log.isDebugEnabled() ) log.debug("Using cached HTML for "+key );
+                return cached.m_html;
+            }
+        }
+        catch( NeedsRefreshException e )
+        {
+            // Not in cache, or expired.
+        }
+        finally
+        {
+            if( !wasUpdated ) m_htmlCache.cancelUpdate( key );
+        }
+
+        String html = getHTML( context, doc );
+
+        if( html != null && isCacheable( doc ) )
+        {
+            m_htmlCache.putInCache( key, new CachedHTML( doc, html ) );
+        }
+
+        return html;
+    }
+
+    /**
+     *  Returns a string which identifies those parts of the WikiContext which
+     *  affect the rendered HTML of a cacheable document.
+     */
+    private String getContextFingerprint( WikiContext context )
+    {
+        return m_rendererConstructor.getDeclaringClass().getName()+"|"+
+               context.getPage().getName()+"|"+
+               context.getTemplate()+"|"+
+               context.getVariable( WYSIWYG_EDITOR_MODE )+"|"+
+               context.getVariable( VAR_EXECUTE_PLUGINS );
+    }
+
+    /**
+     *  Returns true, if the rendered HTML of the document does not depend on
+     *  who is looking at it, i.e. it contains no plugins and no variables
+     *  other than the {@link #CACHEABLE_VARIABLES}.
+     */
+    private boolean isCacheable( WikiDocument doc )
+    {
+        for( Iterator<Content> i = doc.getDescendants(); i.hasNext(); )
+        {
+            Content c = i.next();
+
+            if( c instanceof PluginContent )
+            {
+                return false;
+            }
+
+            if( c instanceof VariableContent &&
+                !CACHEABLE_VARIABLES.contains( ((VariableContent)c).getVariableName().toLowerCase() ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *  An HTML cache entry.  Refers weakly to the document it was rendered
+     *  from, so that the HTML cache does not keep documents alive after they
+     *  have dropped out of the document cache.
+     */
+    private static final class CachedHTML
+    {
+        private final WeakReference<WikiDocument> m_document;
+        private final String                      m_html;
+
+        private CachedHTML( WikiDocument doc, String html )
+        {
+            m_document = new WeakReference<WikiDocument>( doc );
+            m_html     = html;
+        }
+    }
+
+    /**
+     * Flushes the document and HTML caches in response to a POST_SAVE_BEGIN event.
      *
      * @see org.apache.wiki.event.WikiEventListener#actionPerformed(org.apache.wiki.event.WikiEvent)
      * @param event {@inheritDoc}
@@ -337,6 +540,7 @@ public class RenderingManager implements WikiEventListener, InternalModule
             {
                 String pageName = ((WikiPageEvent) event).getPageName();
                 m_documentCache.flushPattern( pageName );
+                if( m_htmlCache != null ) m_htmlCache.flushPattern( pageName );
                 Collection referringPages = m_engine.getReferenceManager().findReferrers( pageName );
 
                 //
@@ -351,6 +555,7 @@ public class RenderingManager implements WikiEventListener, InternalModule
                         String page = (String) i.next();
                         if( log.isDebugEnabled() ) log.debug( "Flushing " + page );
                         m_documentCache.flushPattern( page );
+                        if( m_htmlCache != null ) m_htmlCache.flushPattern( page );
                     }
                 }
             }
@@ -393,11 +393,10 @@ public class RSSGenerator
         feed.setChannelLanguage( m_channelLanguage );
         feed.setChannelDescription( m_channelDescription );
 
-        Collection changed = m_engine.getRecentChanges();
+        Collection changed = m_engine.getRecentChanges( null, 15 );
 
         WikiSession session = WikiSession.guestSession( m_engine );
-        int items = 0;
-        for( Iterator i = changed.iterator(); i.hasNext() && items < 15; items++ )
+        for( Iterator i = changed.iterator(); i.hasNext(); )
         {
             WikiPage page = (WikiPage) i.next();
 
@@ -0,0 +1,206 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.search;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.wiki.WikiPage;
+
+/**
+ *  A bounded queue of pages waiting to be indexed.  The queue is keyed by
+ *  page name: if a page is queued again before it has been indexed, the
+ *  newer text replaces the older one, and the page keeps its place in the
+ *  queue.
+ *  <p>
+ *  When the queue is full, {@link #offer(WikiPage, String, long)} waits for
+ *  the consumer to make room, and gives up after the given timeout.
+ *
+ *  @since 2.10
+ */
+class IndexUpdateQueue
+{
+    private final LinkedHashMap<String,Entry> m_entries = new LinkedHashMap<String,Entry>();
+
+    private final int m_capacity;
+
+    private long m_coalesced = 0L;
+    private long m_overflows = 0L;
+
+    /**
+     *  Creates a new queue.
+     *
+     *  @param capacity The maximum number of distinct pages in the queue.
+     */
+    IndexUpdateQueue( int capacity )
+    {
+        if( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "Queue capacity must be positive: "+capacity );
+        }
+
+        m_capacity = capacity;
+    }
+
+    /**
+     *  Queues a page for indexing.  If the page is already queued, its text
+     *  is replaced.  Otherwise, if the queue is full, waits at most
+     *  <code>timeout</code> milliseconds for room.
+     *
+     *  @param page The page.
+     *  @param text The text to index.
+     *  @param timeout How long to wait for room, in milliseconds.
+     *  @return True, if the page was queued; false, if the queue stayed full.
+     *  @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    synchronized boolean offer( WikiPage page, String text, long timeout )
+        throws InterruptedException
+    {
+        String name = page.getName();
+        Entry old = m_entries.get( name );
+
+        if( old != null )
+        {
+            // Same position, and the lag is counted from the first request.
+            m_entries.put( name, new Entry( page, text, old.m_queued ) );
+            m_coalesced++;
+            return true;
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while( m_entries.size() >= m_capacity )
+        {
+            long wait = deadline - System.currentTimeMillis();
+
+            if( wait <= 0 )
+            {
+                m_overflows++;
+                return false;
+            }
+
+            wait( wait );
+
+            // Somebody may have queued the same page while we were waiting.
+            if( m_entries.containsKey( name ) )
+            {
+                return offer( page, text, 0L );
+            }
+        }
+
+        m_entries.put( name, new Entry( page, text, System.currentTimeMillis() ) );
+        return true;
+    }
+
+    /**
+     *  Removes at most <code>max</code> entries from the head of the queue.
+     *
+     *  @param max The maximum number of entries to return.
+     *  @return The entries in the order they were queued.  Never null.
+     */
+    synchronized List<Entry> drain( int max )
+    {
+        List<Entry> batch = new ArrayList<Entry>( Math.min( max, m_entries.size() ) );
+
+        for( Iterator<Entry> i = m_entries.values().iterator(); i.hasNext() && batch.size() < max; )
+        {
+            batch.add( i.next() );
+            i.remove();
+        }
+
+        if( !batch.isEmpty() )
+        {
+            notifyAll();
+        }
+
+        return batch;
+    }
+
+    /**
+     *  Removes everything from the queue.
+     */
+    synchronized void clear()
+    {
+        m_entries.clear();
+        notifyAll();
+    }
+
+    /**
+     *  Returns the number of pages in the queue.
+     *
+     *  @return The queue depth.
+     */
+    synchronized int size()
+    {
+        return m_entries.size();
+    }
+
+    /**
+     *  Returns how long the oldest entry has been waiting.
+     *
+     *  @return The lag in milliseconds, or zero, if the queue is empty.
+     */
+    synchronized long getLag()
+    {
+        if( m_entries.isEmpty() ) return 0L;
+
+        return System.currentTimeMillis() - m_entries.values().iterator().next().m_queued;
+    }
+
+    /**
+     *  Returns the number of updates which were merged into an update already
+     *  in the queue.
+     *
+     *  @return The number of coalesced updates.
+     */
+    synchronized long getCoalesced()
+    {
+        return m_coalesced;
+    }
+
+    /**
+     *  Returns the number of times an update was refused because the queue
+     *  was full.
+     *
+     *  @return The number of overflows.
+     */
+    synchronized long getOverflows()
+    {
+        return m_overflows;
+    }
+
+    /**
+     *  A queued page, and the text that should be indexed for it.
+     */
+    static final class Entry
+    {
+        final WikiPage m_page;
+        final String   m_text;
+        final long     m_queued;
+
+        Entry( WikiPage page, String text, long queued )
+        {
+            m_page   = page;
+            m_text   = text;
+            m_queued = queued;
+        }
+    }
+}
@@ -21,6 +21,12 @@ package org.apache.wiki.search;
 import java.io.*;
 import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -35,6 +41,7 @@ import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.highlight.*;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.store.SimpleFSDirectory;
@@ -45,12 +52,29 @@ import org.apache.wiki.attachment.AttachmentManager;
 import org.apache.wiki.parser.MarkupParser;
 import org.apache.wiki.providers.ProviderException;
 import org.apache.wiki.providers.WikiPageProvider;
+import org.apache.wiki.ui.progress.ProgressItem;
 import org.apache.wiki.util.*;
 import org.apache.wiki.util.FileUtil;
 import org.apache.wiki.util.TextUtil;
 
 /**
  *  Interface for the search providers that handle searching the Wiki
+ *  <p>
+ *  The provider keeps one IndexWriter open while pages are being updated,
+ *  and searches go through a shared, near-real-time IndexSearcher which is
+ *  refreshed after each batch of updates, so new pages can be found before
+ *  the index is committed.  The index is committed at most every
+ *  <code>jspwiki.lucene.commitInterval</code> seconds, and the writer is
+ *  closed after it has been idle for
+ *  <code>jspwiki.lucene.writerIdleTimeout</code> seconds, releasing the
+ *  index lock.
+ *  <p>
+ *  Saved pages are put in a bounded update queue, where a page which is saved
+ *  again before it has been indexed only keeps its latest text.  The queue is
+ *  indexed in batches of <code>jspwiki.lucene.batchSize</code> pages.  If the
+ *  queue holds <code>jspwiki.lucene.queueSize</code> pages, saving waits for
+ *  at most <code>jspwiki.lucene.queueTimeout</code> seconds for room, after
+ *  which the queue is dropped and the whole index is rebuilt instead.
  *
  *  @since 2.2.21.
  */
@@ -68,6 +92,40 @@ public class LuceneSearchProvider implements SearchProvider
     private static final String PROP_LUCENE_INDEXDELAY   = "jspwiki.lucene.indexdelay";
     private static final String PROP_LUCENE_INITIALDELAY = "jspwiki.lucene.initialdelay";
 
+    /** How often, in seconds, the index is committed to disk while pages are being
+     *  updated.  Zero commits after every batch.  Value is {@value}. */
+    public static final String PROP_LUCENE_COMMITINTERVAL = "jspwiki.lucene.commitInterval";
+
+    /** How long, in seconds, the IndexWriter is kept open after the last update.
+     *  Value is {@value}. */
+    public static final String PROP_LUCENE_WRITERIDLETIMEOUT = "jspwiki.lucene.writerIdleTimeout";
+
+    /** The maximum number of pages waiting to be indexed.  Value is {@value}. */
+    public static final String PROP_LUCENE_QUEUESIZE = "jspwiki.lucene.queueSize";
+
+    /** How long, in seconds, saving a page waits for room in a full update queue
+     *  before the index is rebuilt instead.  Value is {@value}. */
+    public static final String PROP_LUCENE_QUEUETIMEOUT = "jspwiki.lucene.queueTimeout";
+
+    /** How many queued pages are indexed between refreshes of the searcher.
+     *  Value is {@value}. */
+    public static final String PROP_LUCENE_BATCHSIZE = "jspwiki.lucene.batchSize";
+
+    /** How many threads read and analyze pages during a full reindex.  Defaults to
+     *  the number of processors; one indexes the pages in the indexer thread.
+     *  Value is {@value}. */
+    public static final String PROP_LUCENE_REINDEXTHREADS = "jspwiki.lucene.reindexThreads";
+
+    /** The progress identifier of a full reindex in the ProgressManager.
+     *  Value is {@value}. */
+    public static final String PROGRESS_ID = "lucenesearchprovider.reindexer";
+
+    private static final int DEFAULT_COMMITINTERVAL    = 10;
+    private static final int DEFAULT_WRITERIDLETIMEOUT = 300;
+    private static final int DEFAULT_QUEUESIZE         = 10000;
+    private static final int DEFAULT_QUEUETIMEOUT      = 10;
+    private static final int DEFAULT_BATCHSIZE         = 100;
+
     private String m_analyzerClass = "org.apache.lucene.analysis.standard.ClassicAnalyzer";
 
     private static final String LUCENE_DIR             = "lucene";
@@ -84,7 +142,38 @@ public class LuceneSearchProvider implements SearchProvider
     protected static final String LUCENE_PAGE_NAME     = "name";
 
     private String           m_luceneDirectory;
-    protected Vector<Object[]> m_updates = new Vector<Object[]>(); // Vector because multi-threaded.
+    private IndexUpdateQueue m_updates = new IndexUpdateQueue( DEFAULT_QUEUESIZE );
+
+    /** True, if the update queue has overflowed and the index must be rebuilt. */
+    private volatile boolean m_rebuildPending = false;
+
+    private Directory        m_luceneDir;
+
+    /** True, if the index directory was empty on startup. */
+    private boolean          m_needsReindex = false;
+
+    /** The shared writer, or null, if it is closed.  Guarded by this object. */
+    private IndexWriter      m_writer;
+
+    /** Hands out searchers; backed by m_writer while it is open. */
+    private volatile SearcherManager m_searcherManager;
+
+    private boolean          m_uncommitted = false;
+
+    /** True while the index is being rebuilt; the half-built index must not be refreshed or committed. */
+    private boolean          m_rebuilding  = false;
+
+    /** The pages removed while the index is being rebuilt.  Guarded by this object. */
+    private final Set<String> m_rebuildRemoved = new HashSet<String>();
+
+    private long             m_lastCommit  = 0L;
+    private long             m_lastUpdate  = 0L;
+
+    private int              m_commitInterval    = DEFAULT_COMMITINTERVAL;
+    private int              m_writerIdleTimeout = DEFAULT_WRITERIDLETIMEOUT;
+    private int              m_queueTimeout      = DEFAULT_QUEUETIMEOUT;
+    private int              m_batchSize         = DEFAULT_BATCHSIZE;
+    private int              m_reindexThreads    = Runtime.getRuntime().availableProcessors();
 
     /** Maximum number of fragments from search matches. */
     private static final int MAX_FRAGMENTS = 3;
@@ -108,6 +197,14 @@ public class LuceneSearchProvider implements SearchProvider
         int indexDelay   = TextUtil.getIntegerProperty( props, PROP_LUCENE_INDEXDELAY, LuceneUpdater.INDEX_DELAY );
 
         m_analyzerClass = TextUtil.getStringProperty( props, PROP_LUCENE_ANALYZER, m_analyzerClass );
+
+        m_commitInterval    = TextUtil.getIntegerProperty( props, PROP_LUCENE_COMMITINTERVAL, DEFAULT_COMMITINTERVAL );
+        m_writerIdleTimeout = TextUtil.getIntegerProperty( props, PROP_LUCENE_WRITERIDLETIMEOUT, DEFAULT_WRITERIDLETIMEOUT );
+        m_queueTimeout      = TextUtil.getIntegerProperty( props, PROP_LUCENE_QUEUETIMEOUT, DEFAULT_QUEUETIMEOUT );
+        m_batchSize         = Math.max( 1, TextUtil.getIntegerProperty( props, PROP_LUCENE_BATCHSIZE, DEFAULT_BATCHSIZE ) );
+        m_reindexThreads    = Math.max( 1, TextUtil.getIntegerProperty( props, PROP_LUCENE_REINDEXTHREADS, m_reindexThreads ) );
+        m_updates           = new IndexUpdateQueue( Math.max( 1, TextUtil.getIntegerProperty( props, PROP_LUCENE_QUEUESIZE, DEFAULT_QUEUESIZE ) ) );
+
         // FIXME: Just to be simple for now, we will do full reindex
         // only if no files are in lucene directory.
 
@@ -134,6 +231,14 @@ public class LuceneSearchProvider implements SearchProvider
             {
                 throw new IOException( "Invalid Lucene directory: cannot produce listing: "+dir.getAbsolutePath());
             }
+
+            //
+            //  This must be decided now, as the writer creates files in the
+            //  directory as soon as a page is saved.
+            //
+            m_needsReindex = filelist.length == 0;
+
+            m_luceneDir = new SimpleFSDirectory( dir, null );
         }
         catch ( IOException e )
         {
@@ -165,72 +270,36 @@ public class LuceneSearchProvider implements SearchProvider
     protected void doFullLuceneReindex()
         throws IOException
     {
-        File dir = new File(m_luceneDirectory);
-
-        String[] filelist = dir.list();
-
-        if( filelist == null )
+        if( m_luceneDir == null )
         {
-            throw new IOException( "Invalid Lucene directory: cannot produce listing: "+dir.getAbsolutePath());
+            throw new IOException( "Invalid Lucene directory: "+m_luceneDirectory );
         }
 
         try
         {
-            if( filelist.length == 0 )
+            if( m_needsReindex )
             {
                 //
                 //  No files? Reindex!
                 //
                 Date start = new Date();
-                IndexWriter writer = null;
 
                 log.info("Starting Lucene reindexing, this can take a couple minutes...");
 
-                Directory luceneDir = new SimpleFSDirectory(dir, null);
-                
+                IndexWriter writer = getWriter();
+
                 try
                 {
-                    writer = getIndexWriter( luceneDir );
-                    Collection allPages = m_engine.getPageManager().getAllPages();
-
-                    for( Iterator iterator = allPages.iterator(); iterator.hasNext(); )
-                    {
-                        WikiPage page = (WikiPage) iterator.next();
-                        
-                        try
-                        {
-                            String text = m_engine.getPageManager().getPageText( page.getName(),
-                                                                                 WikiProvider.LATEST_VERSION );
-                            luceneIndexPage( page, text, writer );
-                        }
-                        catch( IOException e )
-                        {
-                            log.warn( "Unable to index page " + page.getName() + ", continuing to next ", e );
-                        }
-                    }
-
-                    Collection allAttachments = m_engine.getAttachmentManager().getAllAttachments();
-                    for( Iterator iterator = allAttachments.iterator(); iterator.hasNext(); )
-                    {
-                        Attachment att = (Attachment) iterator.next();
-                        
-                        try
-                        {
-                            String text = getAttachmentContent( att.getName(), WikiProvider.LATEST_VERSION );
-                            luceneIndexPage( att, text, writer );
-                        }
-                        catch( IOException e )
-                        {
-                            log.warn( "Unable to index attachment " + att.getName() + ", continuing to next", e );
-                        }
-                    }
-
+                    // The index is empty, so partial results are better than none.
+                    indexAllPages( writer, true );
                 }
                 finally
                 {
-                    close( writer );
+                    commit();
                 }
 
+                m_needsReindex = false;
+
                 Date end = new Date();
                 log.info( "Full Lucene index finished in " + (end.getTime() - start.getTime()) + " milliseconds." );
             }
@@ -259,6 +328,251 @@ public class LuceneSearchProvider implements SearchProvider
 
     }
 
+    /**
+     *  Throws away the index and indexes all pages and attachments again.
+     *  This is used when the update queue has overflowed, so updates have
+     *  been lost.  Searches see the old index until the rebuild is committed:
+     *  the searcher is not refreshed and nothing is committed while the
+     *  rebuild is running, and if it fails, the changes are rolled back.
+     *  Pages removed during the rebuild are removed again before the commit,
+     *  because the rebuild may have read them before they were removed.
+     */
+    protected void rebuildLuceneIndex()
+    {
+        // Pages saved from now on are queued again.
+        m_rebuildPending = false;
+
+        Date start = new Date();
+
+        log.info( "Rebuilding the Lucene index, this can take a couple minutes..." );
+
+        try
+        {
+            IndexWriter writer;
+
+            synchronized( this )
+            {
+                writer = getWriter();
+                m_rebuilding = true;
+                m_rebuildRemoved.clear();
+            }
+
+            writer.deleteAll();
+
+            indexAllPages( writer, false );
+
+            synchronized( this )
+            {
+                if( !m_rebuilding )
+                {
+                    throw new IOException( "The index writer was closed during the rebuild" );
+                }
+
+                // The rebuild may have read a page before it was removed.
+                for( String name : m_rebuildRemoved )
+                {
+                    writer.deleteDocuments( new Term( LUCENE_ID, name ) );
+                }
+
+                m_rebuildRemoved.clear();
+                m_rebuilding = false;
+                commit();
+            }
+
+            Date end = new Date();
+            log.info( "Lucene index rebuilt in " + (end.getTime() - start.getTime()) + " milliseconds." );
+        }
+        catch( Exception e )
+        {
+            log.error( "Unable to rebuild the Lucene index, trying again later", e );
+
+            synchronized( this )
+            {
+                if( m_rebuilding ) rollbackWriter();
+            }
+
+            m_rebuildPending = true;
+        }
+    }
+
+    /**
+     *  Adds all pages and attachments to the index.  Unless only one thread
+     *  has been configured, the pages are read and analyzed by a pool of
+     *  worker threads, and the calling thread adds the documents to the index.
+     *
+     *  @param writer The writer.
+     *  @param refresh If true, searches see the pages as they are added.
+     */
+    private void indexAllPages( IndexWriter writer, boolean refresh )
+        throws ProviderException, IOException
+    {
+        List<WikiPage> pages = new ArrayList<WikiPage>();
+
+        pages.addAll( m_engine.getPageManager().getAllPages() );
+        pages.addAll( m_engine.getAttachmentManager().getAllAttachments() );
+
+        final int total = pages.size();
+        final AtomicInteger count = new AtomicInteger();
+
+        ProgressItem pi = new ProgressItem()
+        {
+            public int getProgress()
+            {
+                return total > 0 ? 100 * count.get() / total : 100;
+            }
+        };
+
+        m_engine.getProgressManager().startProgress( pi, PROGRESS_ID );
+
+        try
+        {
+            if( m_reindexThreads == 1 )
+            {
+                for( WikiPage page : pages )
+                {
+                    Document doc = createDocument( page );
+
+                    if( doc != null ) writer.addDocument( doc );
+
+                    count.incrementAndGet();
+                    if( refresh && count.get() % m_batchSize == 0 ) refreshSearcher();
+                }
+            }
+            else
+            {
+                indexInParallel( pages, writer, count, refresh );
+            }
+        }
+        finally
+        {
+            m_engine.getProgressManager().stopProgress( PROGRESS_ID );
+        }
+    }
+
+    /**
+     *  Marks a page which could not be indexed in the document queue.
+     */
+    private static final Object NO_DOCUMENT = new Object();
+
+    private void indexInParallel( List<WikiPage> pages, IndexWriter writer, AtomicInteger count, boolean refresh )
+        throws IOException
+    {
+        int threads = Math.min( m_reindexThreads, Math.max( 1, pages.size() ) );
+
+        log.info( "Indexing " + pages.size() + " pages and attachments using " + threads + " threads" );
+
+        final BlockingQueue<Object> documents = new ArrayBlockingQueue<Object>( threads * 16 );
+
+        ExecutorService workers = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            private final AtomicInteger m_threadNumber = new AtomicInteger();
+
+            public Thread newThread( Runnable r )
+            {
+                Thread t = new Thread( r, "JSPWiki Lucene Reindexer-" + m_threadNumber.incrementAndGet() );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+
+        try
+        {
+            for( final WikiPage page : pages )
+            {
+                workers.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        Object doc = null;
+
+                        try
+                        {
+                            doc = createDocument( page );
+                        }
+                        catch( Exception e )
+                        {
+                            log.warn( "Unable to index " + page.getName() + ", continuing to next", e );
+                        }
+                        finally
+                        {
+                            try
+                            {
+                                // Every page must be accounted for, or the writer would wait forever.
+                                documents.put( doc != null ? doc : NO_DOCUMENT );
+                            }
+                            catch( InterruptedException e )
+                            {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+                } );
+            }
+
+            for( int i = 0; i < pages.size(); i++ )
+            {
+                Object doc = documents.take();
+
+                if( doc != NO_DOCUMENT )
+                {
+                    writer.addDocument( (Document) doc );
+                }
+
+                count.incrementAndGet();
+                if( refresh && count.get() % m_batchSize == 0 ) refreshSearcher();
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while indexing" );
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     *  Reads the latest version of a page or an attachment, and creates the
+     *  Lucene document for it.
+     *
+     *  @return The document, or null, if the page has no text.
+     */
+    private Document createDocument( WikiPage page )
+        throws ProviderException
+    {
+        String text;
+
+        if( page instanceof Attachment )
+        {
+            text = getAttachmentContent( page.getName(), WikiProvider.LATEST_VERSION );
+        }
+        else
+        {
+            text = m_engine.getPageManager().getPageText( page.getName(), WikiProvider.LATEST_VERSION );
+        }
+
+        return createDocument( page, text );
+    }
+
+    /**
+     *  Makes the documents added so far visible to searches.
+     */
+    private void refreshSearcher()
+    {
+        try
+        {
+            SearcherManager manager = m_searcherManager;
+
+            if( manager != null ) manager.maybeRefresh();
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to refresh the Lucene index", e );
+        }
+    }
+
     /**
      *  Fetches the attachment content from the repository.
      *  Content is flat text that can be used for indexing/searching or display
@@ -350,20 +664,21 @@ public class LuceneSearchProvider implements SearchProvider
      */
     protected synchronized void updateLuceneIndex( WikiPage page, String text )
     {
-        IndexWriter writer = null;
-
         log.debug("Updating Lucene index for page '" + page.getName() + "'...");
 
-        Directory luceneDir = null;
         try
         {
-            pageRemoved( page );
+            IndexWriter writer = getWriter();
+
+            writer.deleteDocuments( new Term( LUCENE_ID, page.getName() ) );
 
             // Now add back the new version.
-            luceneDir = new SimpleFSDirectory(new File(m_luceneDirectory), null);
-            writer = getIndexWriter( luceneDir );
-            
             luceneIndexPage( page, text, writer );
+
+            if( m_rebuilding ) m_rebuildRemoved.remove( page.getName() );
+
+            m_uncommitted = true;
+            m_lastUpdate  = System.currentTimeMillis();
         }
         catch ( IOException e )
         {
@@ -375,12 +690,204 @@ public class LuceneSearchProvider implements SearchProvider
             log.error("Unexpected Lucene exception - please check configuration!",e);
             // reindexPage( page );
         }
-        finally
+
+        log.debug("Done updating Lucene index for page '" + page.getName() + "'.");
+    }
+
+    /**
+     *  Updates the lucene index for a batch of queued pages.
+     *
+     *  @param batch The pages and their texts.
+     */
+    private synchronized void updateLuceneIndex( List<IndexUpdateQueue.Entry> batch )
+    {
+        for( IndexUpdateQueue.Entry e : batch )
         {
-            close( writer );
+            updateLuceneIndex( e.m_page, e.m_text );
         }
+    }
 
-        log.debug("Done updating Lucene index for page '" + page.getName() + "'.");
+    /**
+     *  Returns the shared IndexWriter, opening it if necessary.  When the
+     *  writer is opened, searches are switched over to near-real-time
+     *  searchers from it.
+     *
+     *  @return The writer.
+     *  @throws IOException If the writer cannot be opened, for example
+     *                      because another process holds the index lock.
+     *  @throws ProviderException If the analyzer cannot be created.
+     */
+    protected synchronized IndexWriter getWriter()
+        throws IOException, ProviderException
+    {
+        if( m_writer == null )
+        {
+            if( m_luceneDir == null )
+            {
+                throw new IOException( "Invalid Lucene directory: "+m_luceneDirectory );
+            }
+
+            m_writer = getIndexWriter( m_luceneDir );
+            m_lastCommit = m_lastUpdate = System.currentTimeMillis();
+
+            setSearcherManager( new SearcherManager( m_writer, true, new SearcherFactory() ) );
+        }
+
+        return m_writer;
+    }
+
+    /**
+     *  Called by the updater after each round.  Makes the changes visible to
+     *  searches, commits them if the commit interval has passed, and closes
+     *  the writer if it has been idle long enough.
+     *
+     *  @param updated True, if any pages were updated in this round.
+     */
+    protected synchronized void afterUpdates( boolean updated )
+    {
+        // A rebuild makes everything visible when it is done.
+        if( m_writer == null || m_rebuilding ) return;
+
+        long now = System.currentTimeMillis();
+
+        try
+        {
+            if( updated )
+            {
+                m_searcherManager.maybeRefresh();
+            }
+
+            if( m_uncommitted && now - m_lastCommit >= m_commitInterval * 1000L )
+            {
+                commit();
+            }
+
+            if( !m_uncommitted && now - m_lastUpdate >= m_writerIdleTimeout * 1000L )
+            {
+                log.debug( "Closing idle Lucene index writer" );
+                closeWriter();
+            }
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to refresh the Lucene index", e );
+        }
+    }
+
+    /**
+     *  Commits the changes made to the index, and makes them visible to searches.
+     */
+    private synchronized void commit()
+    {
+        if( m_writer == null ) return;
+
+        try
+        {
+            m_writer.commit();
+            m_searcherManager.maybeRefresh();
+
+            m_uncommitted = false;
+            m_lastCommit  = System.currentTimeMillis();
+        }
+        catch( IOException e )
+        {
+            log.error( "Unable to commit the Lucene index", e );
+        }
+    }
+
+    /**
+     *  Commits and closes the writer.  Searches go to the directory until
+     *  the writer is opened again.  If the index is being rebuilt, the
+     *  changes are rolled back instead, and the rebuild is done again later.
+     */
+    protected synchronized void closeWriter()
+    {
+        if( m_rebuilding )
+        {
+            rollbackWriter();
+        }
+        else if( m_writer != null )
+        {
+            close( m_writer );
+            m_writer = null;
+            m_uncommitted = false;
+
+            setSearcherManager( null );
+        }
+    }
+
+    /**
+     *  Throws away the uncommitted changes of an unfinished rebuild, and
+     *  closes the writer.
+     */
+    private synchronized void rollbackWriter()
+    {
+        m_rebuilding = false;
+        m_rebuildRemoved.clear();
+
+        if( m_writer != null )
+        {
+            try
+            {
+                m_writer.rollback();
+            }
+            catch( IOException e )
+            {
+                log.error( "Unable to roll back the Lucene index", e );
+            }
+
+            m_writer = null;
+            m_uncommitted = false;
+
+            setSearcherManager( null );
+        }
+    }
+
+    private synchronized void setSearcherManager( SearcherManager manager )
+    {
+        SearcherManager old = m_searcherManager;
+
+        m_searcherManager = manager;
+
+        if( old != null )
+        {
+            try
+            {
+                // Searchers which are still in use stay open until released.
+                old.close();
+            }
+            catch( IOException e )
+            {
+                log.error( e );
+            }
+        }
+    }
+
+    /**
+     *  Returns the current SearcherManager, creating one on the index directory
+     *  if the writer is not open.
+     *
+     *  @return The SearcherManager, or null, if there is no index yet.
+     */
+    private SearcherManager getSearcherManager()
+        throws IOException
+    {
+        SearcherManager manager = m_searcherManager;
+
+        if( manager == null )
+        {
+            synchronized( this )
+            {
+                if( m_searcherManager == null && m_luceneDir != null && IndexReader.indexExists( m_luceneDir ) )
+                {
+                    m_searcherManager = new SearcherManager( m_luceneDir, new SearcherFactory() );
+                }
+
+                manager = m_searcherManager;
+            }
+        }
+
+        return manager;
     }
 
 
@@ -412,14 +919,32 @@ public class LuceneSearchProvider implements SearchProvider
      */
     protected Document luceneIndexPage( WikiPage page, String text, IndexWriter writer )
         throws IOException
+    {
+        Document doc = createDocument( page, text );
+
+        if( doc == null ) return new Document();
+
+        writer.addDocument( doc );
+
+        return doc;
+    }
+
+    /**
+     *  Creates the Lucene document for a page.
+     *
+     *  @param page WikiPage
+     *  @param text Page text to index
+     *  @return The document, or null, if the text is null.
+     */
+    private Document createDocument( WikiPage page, String text )
     {
         if( log.isDebugEnabled() ) log.debug( "Indexing "+page.getName()+"..." );
         
+        if( text == null ) return null;
+
         // make a new, empty document
         Document doc = new Document();
 
-        if( text == null ) return doc;
-
         // Raw name is the keyword we'll use to refer to this document for updates.
         Field field = new Field(LUCENE_ID, page.getName(), Field.Store.YES, Field.Index.NOT_ANALYZED);
         doc.add( field );
@@ -469,7 +994,6 @@ public class LuceneSearchProvider implements SearchProvider
             // Unable to read attachments
             log.error("Failed to get attachments for page", e);
         }
-        writer.addDocument(doc);
 
         return doc;
     }
@@ -477,24 +1001,25 @@ public class LuceneSearchProvider implements SearchProvider
     /**
      *  {@inheritDoc}
      */
-    public void pageRemoved( WikiPage page )
+    public synchronized void pageRemoved( WikiPage page )
     {
-        IndexWriter writer = null;
         try
         {
-            Directory luceneDir = new SimpleFSDirectory(new File(m_luceneDirectory), null);
-            writer = getIndexWriter( luceneDir );
+            IndexWriter writer = getWriter();
             Query query = new TermQuery( new Term( LUCENE_ID, page.getName() ) );
             writer.deleteDocuments( query );
+
+            if( m_rebuilding ) m_rebuildRemoved.add( page.getName() );
+
+            m_uncommitted = true;
+            m_lastUpdate  = System.currentTimeMillis();
+
+            afterUpdates( true );
         }
         catch ( Exception e )
         {
             log.error("Unable to remove page '" + page.getName() + "' from Lucene index", e);
         }
-        finally
-        {
-            close( writer );
-        }
     }
     
     IndexWriter getIndexWriter( Directory luceneDir ) throws CorruptIndexException, 
@@ -526,7 +1051,8 @@ public class LuceneSearchProvider implements SearchProvider
 
 
     /**
-     *  Adds a page-text pair to the lucene update queue.  Safe to call always
+     *  Adds a page-text pair to the lucene update queue.  Safe to call always,
+     *  but waits for a while if the queue is full.
      *
      *  @param page WikiPage to add to the update queue.
      */
@@ -549,16 +1075,87 @@ public class LuceneSearchProvider implements SearchProvider
 
             if( text != null )
             {
-                // Add work item to m_updates queue.
-                Object[] pair = new Object[2];
-                pair[0] = page;
-                pair[1] = text;
-                m_updates.add(pair);
-                log.debug("Scheduling page " + page.getName() + " for index update");
+                enqueue( page, text );
             }
         }
     }
 
+    /**
+     *  Puts a page in the update queue, waiting for room if the queue is full.
+     *  If there is still no room, the queue is dropped and the index will be
+     *  rebuilt instead.
+     */
+    private void enqueue( WikiPage page, String text )
+    {
+        if( m_rebuildPending )
+        {
+            // The rebuild has not started yet, so it will pick up this page.
+            return;
+        }
+
+        boolean queued = false;
+
+        try
+        {
+            queued = m_updates.offer( page, text, m_queueTimeout * 1000L );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if( queued )
+        {
+            log.debug( "Scheduling page " + page.getName() + " for index update" );
+        }
+        else
+        {
+            log.warn( "Lucene update queue is full, dropping " + m_updates.size() + " updates and rebuilding the index" );
+            m_rebuildPending = true;
+            m_updates.clear();
+        }
+    }
+
+    /**
+     *  Returns the number of pages waiting to be indexed.
+     *
+     *  @return The queue depth.
+     */
+    public int getQueueDepth()
+    {
+        return m_updates.size();
+    }
+
+    /**
+     *  Returns how long the oldest page in the update queue has been waiting.
+     *
+     *  @return The lag in milliseconds.
+     */
+    public long getQueueLag()
+    {
+        return m_updates.getLag();
+    }
+
+    /**
+     *  Returns how many updates were merged with an update already in the queue.
+     *
+     *  @return The number of coalesced updates.
+     */
+    public long getCoalescedUpdates()
+    {
+        return m_updates.getCoalesced();
+    }
+
+    /**
+     *  Returns how many times the update queue has overflowed.
+     *
+     *  @return The number of overflows.
+     */
+    public long getQueueOverflows()
+    {
+        return m_updates.getOverflows();
+    }
+
     /**
      *  {@inheritDoc}
      */
@@ -585,6 +1182,7 @@ public class LuceneSearchProvider implements SearchProvider
     public Collection findPages( String query, int flags )
         throws ProviderException
     {
+        SearcherManager manager = null;
         IndexSearcher  searcher = null;
         ArrayList<SearchResult> list = null;
         Highlighter highlighter = null;
@@ -606,10 +1204,18 @@ public class LuceneSearchProvider implements SearchProvider
 
             try
             {
-                File dir = new File(m_luceneDirectory);
-                Directory luceneDir = new SimpleFSDirectory(dir, null);
-                IndexReader reader = IndexReader.open( luceneDir);
-                searcher = new IndexSearcher(reader);
+                manager = getSearcherManager();
+
+                if( manager != null )
+                {
+                    searcher = manager.acquire();
+                }
+            }
+            catch( AlreadyClosedException ex )
+            {
+                //  The writer was opened or closed just now; try once more.
+                manager  = getSearcherManager();
+                searcher = manager != null ? manager.acquire() : null;
             }
             catch( Exception ex )
             {
@@ -617,6 +1223,12 @@ public class LuceneSearchProvider implements SearchProvider
                 return null;
             }
 
+            if( searcher == null )
+            {
+                log.info("Lucene not yet ready; indexing not started");
+                return null;
+            }
+
             ScoreDoc[] hits = searcher.search(luceneQuery, MAX_SEARCH_HITS).scoreDocs;
 
             list = new ArrayList<SearchResult>(hits.length);
@@ -680,7 +1292,7 @@ public class LuceneSearchProvider implements SearchProvider
             {
                 try
                 {
-                    searcher.close();
+                    manager.release( searcher );
                 }
                 catch( IOException e )
                 {
@@ -743,22 +1355,59 @@ public class LuceneSearchProvider implements SearchProvider
 
         public void backgroundTask() throws Exception
         {
+            if( m_provider.m_rebuildPending )
+            {
+                m_watchdog.enterState( "Rebuilding index" );
+                m_provider.rebuildLuceneIndex();
+                m_watchdog.exitState();
+            }
+
             m_watchdog.enterState("Emptying index queue", 60);
 
-            synchronized ( m_provider.m_updates )
+            IndexUpdateQueue updates = m_provider.m_updates;
+
+            if( updates.size() > 0 )
             {
-                while( m_provider.m_updates.size() > 0 )
+                try
                 {
-                    Object[] pair = m_provider.m_updates.remove(0);
-                    WikiPage page = ( WikiPage ) pair[0];
-                    String text = ( String ) pair[1];
-                    m_provider.updateLuceneIndex(page, text);
+                    m_provider.getWriter();
+                }
+                catch( LockObtainFailedException e )
+                {
+                    //  Somebody else is writing to the index; keep the
+                    //  queue and try again next time.
+                    log.info( "Lucene index is locked, postponing "+updates.size()+" updates" );
+                    m_watchdog.exitState();
+                    return;
+                }
+                catch( Exception e )
+                {
+                    log.error( "Unable to open the Lucene index, postponing "+updates.size()+" updates", e );
+                    m_watchdog.exitState();
+                    return;
                 }
             }
 
+            //  Index in batches, so that searches see the changes and the
+            //  pages waiting in reindexPage() get room as we go.
+            List<IndexUpdateQueue.Entry> batch;
+
+            while( !(batch = updates.drain( m_provider.m_batchSize )).isEmpty() )
+            {
+                m_provider.updateLuceneIndex( batch );
+                m_provider.afterUpdates( true );
+            }
+
+            m_provider.afterUpdates( false );
+
             m_watchdog.exitState();
         }
 
+        public void shutdownTask() throws Exception
+        {
+            m_provider.closeWriter();
+        }
+
     }
 
     // FIXME: This class is dumb; needs to have a better implementation
@@ -26,12 +26,15 @@ import org.apache.log4j.Logger;
 import org.apache.wiki.*;
 import org.apache.wiki.api.exceptions.FilterException;
 import org.apache.wiki.api.filters.BasicPageFilter;
+import org.apache.wiki.attachment.Attachment;
 import org.apache.wiki.event.WikiEvent;
 import org.apache.wiki.event.WikiEventListener;
 import org.apache.wiki.event.WikiEventUtils;
 import org.apache.wiki.event.WikiPageEvent;
+import org.apache.wiki.event.WikiPageRenameEvent;
 import org.apache.wiki.modules.InternalModule;
 import org.apache.wiki.parser.MarkupParser;
+import org.apache.wiki.plugin.PageViewPlugin;
 import org.apache.wiki.providers.ProviderException;
 import org.apache.wiki.rpc.RPCCallable;
 import org.apache.wiki.rpc.json.JSONRPCManager;
@@ -59,8 +62,25 @@ public class SearchManager
      */
     public static final String PROP_SEARCHPROVIDER     = "jspwiki.searchProvider";
 
+    /**
+     *  Property name for listing the most viewed pages first in the page name
+     *  suggestions.  The views are counted by the PageViewPlugin.  Value is
+     *  <tt>{@value}</tt>.
+     */
+    public static final String PROP_SUGGESTIONS_BY_VIEWS = "jspwiki.searchSuggestions.rankByViews";
+
+    /** How many matching page names are ranked by views at most. */
+    private static final int MAX_RANKED_SUGGESTIONS = 1000;
+
     private SearchProvider    m_searchProvider;
 
+    /** Page and attachment names for the suggestions.  Filled on first use. */
+    private final SuggestionIndex m_suggestions = new SuggestionIndex();
+
+    private volatile boolean  m_suggestionsLoaded = false;
+
+    private boolean           m_suggestionsByViews = false;
+
     /**
      *  The name of the JSON object that manages search.
      */
@@ -81,6 +101,9 @@ public class SearchManager
         WikiEventUtils.addWikiEventListener(m_engine.getPageManager(),
                                             WikiPageEvent.PAGE_DELETE_REQUEST, this);
 
+        // Renames are announced by the engine.
+        m_engine.addWikiEventListener( this );
+
         JSONRPCManager.registerGlobalObject( JSON_SEARCH, new JSONSearch() );
     }
 
@@ -92,7 +115,9 @@ public class SearchManager
         /**
          *  Provides a list of suggestions to use for a page name.
          *  Currently the algorithm just looks into the value parameter,
-         *  and returns all page names from that.
+         *  and returns the page and attachment names which start with it,
+         *  ignoring case.  The names are kept in a sorted index, so this
+         *  does not go through all the pages.
          *
          *  @param wikiName the page name
          *  @param maxLength maximum number of suggestions
@@ -102,7 +127,7 @@ public class SearchManager
         {
             StopWatch sw = new StopWatch();
             sw.start();
-            List<String> list = new ArrayList<String>(maxLength);
+            List<String> list = new ArrayList<String>(0);
 
             if( wikiName.length() > 0 )
             {
@@ -120,18 +145,23 @@ public class SearchManager
 
                 String oldStyleName = MarkupParser.wikifyLink(wikiName).toLowerCase() + filename;
 
-                Set allPages = m_engine.getReferenceManager().findCreated();
+                String[] prefixes = { cleanWikiName, oldStyleName };
 
-                int counter = 0;
-                for( Iterator i = allPages.iterator(); i.hasNext() && counter < maxLength; )
+                SuggestionIndex index = getSuggestionIndex();
+
+                if( m_suggestionsByViews )
                 {
-                    String p = (String) i.next();
-                    String pp = p.toLowerCase();
-                    if( pp.startsWith( cleanWikiName) || pp.startsWith( oldStyleName ) )
+                    list = index.find( prefixes, maxLength, MAX_RANKED_SUGGESTIONS, new SuggestionIndex.Ranking()
                     {
-                        list.add( p );
-                        counter++;
-                    }
+                        public int getRank( String name )
+                        {
+                            return PageViewPlugin.getPageViews( name );
+                        }
+                    } );
+                }
+                else
+                {
+                    list = index.find( prefixes, maxLength );
                 }
             }
 
@@ -200,6 +230,8 @@ public class SearchManager
     {
         m_engine = engine;
 
+        m_suggestionsByViews = TextUtil.getBooleanProperty( properties, PROP_SUGGESTIONS_BY_VIEWS, false );
+
         loadSearchProvider(properties);
 
         try
@@ -305,6 +337,37 @@ public class SearchManager
     public void pageRemoved(WikiPage page)
     {
         m_searchProvider.pageRemoved(page);
+
+        if( page instanceof Attachment )
+        {
+            m_suggestions.remove( page.getName() );
+        }
+        else
+        {
+            m_suggestions.removePage( page.getName() );
+        }
+    }
+
+    /**
+     *  Returns the index of page names for the suggestions, reading the
+     *  names from the ReferenceManager on the first call.  After that, the
+     *  index is kept up to date as pages are saved, removed and renamed.
+     */
+    private SuggestionIndex getSuggestionIndex()
+    {
+        if( !m_suggestionsLoaded )
+        {
+            synchronized( m_suggestions )
+            {
+                if( !m_suggestionsLoaded )
+                {
+                    m_suggestions.addAll( m_engine.getReferenceManager().findCreated() );
+                    m_suggestionsLoaded = true;
+                }
+            }
+        }
+
+        return m_suggestions;
     }
 
     /**
@@ -332,15 +395,28 @@ public class SearchManager
     public void reindexPage(WikiPage page)
     {
         m_searchProvider.reindexPage(page);
+
+        if( page != null )
+        {
+            m_suggestions.add( page.getName() );
+        }
     }
 
     /**
-     *  If the page has been deleted, removes it from the index.
+     *  If the page has been deleted, removes it from the index.  If the page
+     *  has been renamed, removes the old name from the suggestions.
      *  
      *  @param event {@inheritDoc}
      */
     public void actionPerformed(WikiEvent event)
     {
+        if( (event instanceof WikiPageRenameEvent) && (event.getType() == WikiPageRenameEvent.PAGE_RENAMED) )
+        {
+            // The new name has been added by reindexPage().
+            m_suggestions.removePage( ((WikiPageRenameEvent) event).getOldPageName() );
+            return;
+        }
+
         if( (event instanceof WikiPageEvent) && (event.getType() == WikiPageEvent.PAGE_DELETE_REQUEST) )
         {
             String pageName = ((WikiPageEvent) event).getPageName();
@@ -0,0 +1,194 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ *  A sorted index of page and attachment names for finding the names which
+ *  start with a given prefix, ignoring case.  The index can be read and
+ *  updated concurrently.
+ *
+ *  @since 2.10
+ */
+class SuggestionIndex
+{
+    /** Separates the lowercased name from the name in the keys. */
+    private static final char SEPARATOR = '\u0000';
+
+    /** Sorts after any character which can appear in a page name. */
+    private static final char PREFIX_END = '\uffff';
+
+    /** Lowercased name, SEPARATOR, name -> name. */
+    private final ConcurrentSkipListMap<String,String> m_names = new ConcurrentSkipListMap<String,String>();
+
+    /**
+     *  Ranks the matches, for example by how often the pages are viewed.
+     */
+    interface Ranking
+    {
+        /**
+         *  Returns the rank of a page; higher ranks are listed first.
+         *
+         *  @param name The page name.
+         *  @return The rank.
+         */
+        int getRank( String name );
+    }
+
+    private static String key( String name )
+    {
+        return name.toLowerCase() + SEPARATOR + name;
+    }
+
+    /**
+     *  Adds a name.
+     *
+     *  @param name The page or attachment name.
+     */
+    void add( String name )
+    {
+        m_names.put( key( name ), name );
+    }
+
+    /**
+     *  Adds many names.
+     *
+     *  @param names The page or attachment names.
+     */
+    void addAll( Collection<String> names )
+    {
+        for( String name : names )
+        {
+            add( name );
+        }
+    }
+
+    /**
+     *  Removes a name.
+     *
+     *  @param name The page or attachment name.
+     */
+    void remove( String name )
+    {
+        m_names.remove( key( name ) );
+    }
+
+    /**
+     *  Removes a page and the attachments of the page.
+     *
+     *  @param name The page name.
+     */
+    void removePage( String name )
+    {
+        remove( name );
+
+        // Attachments are named "Page/file".
+        String prefix = name + "/";
+        for( String attachment : range( prefix.toLowerCase() ).values() )
+        {
+            if( attachment.startsWith( prefix ) )
+            {
+                remove( attachment );
+            }
+        }
+    }
+
+    /**
+     *  Returns the number of names in the index.
+     *
+     *  @return The size.
+     */
+    int size()
+    {
+        return m_names.size();
+    }
+
+    private ConcurrentNavigableMap<String,String> range( String prefix )
+    {
+        return m_names.subMap( prefix, true, prefix + PREFIX_END, false );
+    }
+
+    /**
+     *  Finds the names which start with any of the given prefixes.  The
+     *  matches for the first prefix are returned first, in alphabetical order.
+     *
+     *  @param prefixes The prefixes, in lower case.
+     *  @param max The maximum number of names to return.
+     *  @return The names.
+     */
+    List<String> find( String[] prefixes, int max )
+    {
+        Set<String> result = new LinkedHashSet<String>();
+
+        for( String prefix : prefixes )
+        {
+            for( String name : range( prefix ).values() )
+            {
+                if( result.size() >= max ) break;
+                result.add( name );
+            }
+        }
+
+        return new ArrayList<String>( result );
+    }
+
+    /**
+     *  Finds the names which start with any of the given prefixes, and
+     *  returns the highest ranked ones.  At most <code>candidates</code>
+     *  names are ranked, so that a very short prefix stays cheap.
+     *
+     *  @param prefixes The prefixes, in lower case.
+     *  @param max The maximum number of names to return.
+     *  @param candidates The maximum number of names to rank.
+     *  @param ranking Ranks the names.
+     *  @return The names, highest rank first.
+     */
+    List<String> find( String[] prefixes, int max, int candidates, final Ranking ranking )
+    {
+        List<String> names = find( prefixes, candidates );
+
+        final Map<String,Integer> ranks = new HashMap<String,Integer>();
+        for( String name : names )
+        {
+            ranks.put( name, ranking.getRank( name ) );
+        }
+
+        // The sort is stable, so equally ranked names stay in alphabetical order.
+        Collections.sort( names, new Comparator<String>()
+        {
+            public int compare( String a, String b )
+            {
+                return ranks.get( b ).compareTo( ranks.get( a ) );
+            }
+        } );
+
+        return names.size() > max ? new ArrayList<String>( names.subList( 0, max ) ) : names;
+    }
+}
@@ -104,8 +104,8 @@ public class CheckLockTag
 
             PageLock userLock = (PageLock) session.getAttribute("lock-"+page.getName());
 
-            if( (lock != null && m_mode == LockState.LOCKED && lock != userLock ) ||
-                (lock != null && m_mode == LockState.OWNED && lock == userLock ) ||
+            if( (lock != null && m_mode == LockState.LOCKED && !lock.equals( userLock ) ) ||
+                (lock != null && m_mode == LockState.OWNED && lock.equals( userLock ) ) ||
                 (lock == null && m_mode == LockState.NOTLOCKED) )
             {
                 String tid = getId();
@@ -0,0 +1,283 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.ui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  An OutputStream which looks for resource inclusion markers as the response
+ *  is being written.  Everything before the first marker is passed straight
+ *  to the underlying stream, and is flushed as soon as that marker is seen.
+ *  The rest of the response is kept as a list of segments split at the markers,
+ *  so that the requested resources can be written in between them once the
+ *  page is complete, without ever building the whole page as a String.
+ *  <p>
+ *  Like the buffering mode of {@link WikiJSPFilter}, only the first occurrence
+ *  of each marker is replaced.
+ *
+ *  @since 2.10
+ */
+class ResourceMarkerOutputStream extends OutputStream
+{
+    private static final int INIT_SEGMENT_SIZE = 4096;
+
+    private static final int NO_MATCH = -2;
+    private static final int PARTIAL  = -1;
+
+    private final OutputStream m_out;
+    private final String       m_encoding;
+
+    private final String[]  m_types;
+    private final byte[][]  m_markers;
+    private final boolean[] m_found;
+
+    /** Tells whether a byte can start a marker, so that other bytes can be passed on in bulk. */
+    private final boolean[] m_markerStart = new boolean[256];
+
+    /** Bytes which might be the beginning of a marker. */
+    private final byte[] m_hold;
+    private int          m_holdLength;
+
+    /** The marker types in the order they were found, and the content following each of them. */
+    private final List<String>                m_splices  = new ArrayList<String>();
+    private final List<ByteArrayOutputStream> m_segments = new ArrayList<ByteArrayOutputStream>();
+
+    /** The segment being written, or null while still writing the part before the first marker. */
+    private ByteArrayOutputStream m_current;
+
+    /**
+     *  Creates a new stream.
+     *
+     *  @param out The stream to which the response is written.
+     *  @param markers Maps resource types to the markers which should be looked for.
+     *  @param encoding The character encoding of the response.
+     *  @throws UnsupportedEncodingException If the encoding is not supported.
+     */
+    ResourceMarkerOutputStream( OutputStream out, Map<String,String> markers, String encoding )
+        throws UnsupportedEncodingException
+    {
+        m_out      = out;
+        m_encoding = encoding;
+        m_types    = markers.keySet().toArray( new String[markers.size()] );
+        m_markers  = new byte[m_types.length][];
+        m_found    = new boolean[m_types.length];
+
+        int longest = 1;
+
+        for( int i = 0; i < m_types.length; i++ )
+        {
+            m_markers[i] = markers.get( m_types[i] ).getBytes( encoding );
+            m_markerStart[m_markers[i][0] & 0xff] = true;
+            longest = Math.max( longest, m_markers[i].length );
+        }
+
+        m_hold = new byte[longest];
+    }
+
+    /**
+     *  Returns true, if a marker has been found, and the beginning of
+     *  the response has therefore already been sent.
+     *
+     *  @return True, if the response has been committed.
+     */
+    boolean isCommitted()
+    {
+        return m_current != null;
+    }
+
+    /** {@inheritDoc} */
+    public void write( int b ) throws IOException
+    {
+        scan( (byte) b );
+    }
+
+    /** {@inheritDoc} */
+    public void write( byte[] b, int off, int len ) throws IOException
+    {
+        int end = off + len;
+
+        while( off < end )
+        {
+            if( m_holdLength == 0 )
+            {
+                int run = off;
+
+                while( run < end && !m_markerStart[b[run] & 0xff] ) run++;
+
+                if( run > off )
+                {
+                    emit( b, off, run - off );
+                    off = run;
+                    continue;
+                }
+            }
+
+            scan( b[off++] );
+        }
+    }
+
+    /**
+     *  Flushes the underlying stream, if nothing has been held back yet.
+     *  Once a marker has been found the rest of the response must wait
+     *  for {@link #finish(Map)}.
+     *
+     *  @throws IOException If the underlying stream cannot be flushed.
+     */
+    public void flush() throws IOException
+    {
+        if( !isCommitted() )
+        {
+            m_out.flush();
+        }
+    }
+
+    /**
+     *  Writes out the rest of the response, placing the given content at
+     *  the markers which were found.  Markers for which there is no content
+     *  are written out as they were.
+     *
+     *  @param resources Maps resource types to the content which replaces their markers.
+     *  @throws IOException If writing fails.
+     */
+    void finish( Map<String,String> resources ) throws IOException
+    {
+        emit( m_hold, 0, m_holdLength );
+        m_holdLength = 0;
+
+        for( int i = 0; i < m_splices.size(); i++ )
+        {
+            String type = m_splices.get( i );
+            String content = resources.get( type );
+
+            if( content != null )
+            {
+                m_out.write( content.getBytes( m_encoding ) );
+            }
+            else
+            {
+                m_out.write( m_markers[indexOf( type )] );
+            }
+
+            m_segments.get( i ).writeTo( m_out );
+        }
+
+        m_splices.clear();
+        m_segments.clear();
+        m_out.flush();
+    }
+
+    /**
+     *  Adds one byte to the bytes held back, and passes on any of them which
+     *  can no longer be a part of a marker.
+     */
+    private void scan( byte b ) throws IOException
+    {
+        m_hold[m_holdLength++] = b;
+
+        while( m_holdLength > 0 )
+        {
+            int match = matchHold();
+
+            if( match == PARTIAL )
+            {
+                return;
+            }
+
+            if( match != NO_MATCH )
+            {
+                m_holdLength = 0;
+                startSegment( match );
+                return;
+            }
+
+            emit( m_hold, 0, 1 );
+            System.arraycopy( m_hold, 1, m_hold, 0, --m_holdLength );
+        }
+    }
+
+    /**
+     *  Returns the index of the marker which the held bytes form, PARTIAL if they are
+     *  the beginning of some marker, or NO_MATCH if they cannot start a marker.
+     */
+    private int matchHold()
+    {
+        boolean partial = false;
+
+        for( int i = 0; i < m_markers.length; i++ )
+        {
+            byte[] marker = m_markers[i];
+
+            if( m_found[i] || marker.length < m_holdLength ) continue;
+
+            int j = 0;
+
+            while( j < m_holdLength && m_hold[j] == marker[j] ) j++;
+
+            if( j == m_holdLength )
+            {
+                if( j == marker.length ) return i;
+
+                partial = true;
+            }
+        }
+
+        return partial ? PARTIAL : NO_MATCH;
+    }
+
+    private void startSegment( int marker ) throws IOException
+    {
+        if( m_current == null )
+        {
+            m_out.flush();
+        }
+
+        m_found[marker] = true;
+        m_current = new ByteArrayOutputStream( INIT_SEGMENT_SIZE );
+        m_splices.add( m_types[marker] );
+        m_segments.add( m_current );
+    }
+
+    private void emit( byte[] b, int off, int len ) throws IOException
+    {
+        if( m_current == null )
+        {
+            m_out.write( b, off, len );
+        }
+        else
+        {
+            m_current.write( b, off, len );
+        }
+    }
+
+    private int indexOf( String type )
+    {
+        for( int i = 0; i < m_types.length; i++ )
+        {
+            if( m_types[i].equals( type ) ) return i;
+        }
+
+        return -1;
+    }
+}
@@ -19,6 +19,9 @@
 package org.apache.wiki.ui;
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
@@ -61,14 +64,34 @@ import org.apache.wiki.util.WatchDog;
  * <pre>
  * TemplateManager.addResourceRequest( context, TemplateManager.RESOURCE_SCRIPT, "scripts/customresource.js" );
  * </pre>
+ * <p>
+ * By default the whole response is buffered before the markers are replaced.
+ * If {@value #PROP_STREAMING} is set to true, the markers are instead located
+ * as the response is written: everything before the first marker is sent to the
+ * client right away, and only the rest of the page is held back until the
+ * resources are known.  Since the response is then committed early, HTTP header
+ * resource requests and redirects made after the first marker has been written
+ * can no longer take effect.  The localized JavaScript strings marker
+ * ({@link TemplateManager#RESOURCE_JSLOCALIZEDSTRINGS}) is not replaced in
+ * streaming mode.
  * 
  * @see TemplateManager
  * @see org.apache.wiki.tags.RequestResourceTag
  */
 public class WikiJSPFilter extends WikiServletFilter
 {
+    /** Property which enables the streaming mode.  Value is {@value}. */
+    public static final String PROP_STREAMING = "jspwiki.jspFilter.streaming";
+
+    /** The resource types whose markers are replaced in streaming mode. */
+    private static final String[] STREAMED_TYPES = { TemplateManager.RESOURCE_STYLESHEET,
+                                                     TemplateManager.RESOURCE_INLINECSS,
+                                                     TemplateManager.RESOURCE_SCRIPT,
+                                                     TemplateManager.RESOURCE_JSFUNCTION };
+
     private Boolean m_useOutputStream;
     private String m_wiki_encoding;
+    private boolean m_streaming;
 
     /** {@inheritDoc} */
     public void init( FilterConfig config ) throws ServletException
@@ -77,6 +100,7 @@ public class WikiJSPFilter extends WikiServletFilter
         m_wiki_encoding = m_engine.getWikiProperties().getProperty(WikiEngine.PROP_ENCODING);
         ServletContext context = config.getServletContext();
         m_useOutputStream = UtilJ2eeCompat.useOutputStream( context.getServerInfo() );
+        m_streaming = TextUtil.getBooleanProperty( m_engine.getWikiProperties(), PROP_STREAMING, false );
     }
 
     public void doFilter( ServletRequest  request, ServletResponse response, FilterChain chain )
@@ -90,7 +114,12 @@ public class WikiJSPFilter extends WikiServletFilter
             w.enterState("Filtering for URL "+((HttpServletRequest)request).getRequestURI(), 90 );
             HttpServletResponseWrapper responseWrapper;
          
-            if( m_useOutputStream )
+            if( m_streaming )
+            {
+                log.debug( "Using StreamingResponseWrapper" );
+                responseWrapper = new StreamingResponseWrapper( (HttpServletResponse)response, m_wiki_encoding );
+            }
+            else if( m_useOutputStream )
             {
                 log.debug( "Using ByteArrayResponseWrapper" );
                 responseWrapper = new ByteArrayResponseWrapper( (HttpServletResponse)response, m_wiki_encoding );
@@ -117,10 +146,18 @@ public class WikiJSPFilter extends WikiServletFilter
             {
                 w.enterState( "Delivering response", 30 );
                 WikiContext wikiContext = getWikiContext( request );
-                String r = filter( wikiContext, responseWrapper );
-                
-                if (m_useOutputStream) 
+
+                if( m_streaming )
+                {
+                    StreamingResponseWrapper streamingWrapper = (StreamingResponseWrapper)responseWrapper;
+
+                    addHeaders( wikiContext, responseWrapper, streamingWrapper.isStreamCommitted() );
+                    streamingWrapper.finish( getResources( wikiContext ) );
+                }
+                else if (m_useOutputStream) 
                 {
+                    String r = filter( wikiContext, responseWrapper );
+
                     OutputStreamWriter out = new OutputStreamWriter(response.getOutputStream(), 
                                                                     response.getCharacterEncoding());
                     out.write(r);
@@ -129,6 +166,7 @@ public class WikiJSPFilter extends WikiServletFilter
                 }
                 else 
                 {
+                    String r = filter( wikiContext, responseWrapper );
                     response.getWriter().write(r);
                 }
             
@@ -174,29 +212,78 @@ public class WikiJSPFilter extends WikiServletFilter
             {
                 string = insertResources( wikiContext, string, resourceTypes[i] );
             }
-        
-            //
-            //  Add HTTP header Resource Requests
-            //
-            String[] headers = TemplateManager.getResourceRequests( wikiContext,
-                                                                    TemplateManager.RESOURCE_HTTPHEADER );
-        
-            for( int i = 0; i < headers.length; i++ )
+
+            addHeaders( wikiContext, response, false );
+        }
+
+        return string;
+    }
+
+    /**
+     *  Adds the HTTP header resource requests to the response.
+     *
+     *  @param wikiContext The usual processing context; may be null.
+     *  @param response The response to add the headers to.
+     *  @param committed True, if the response has already been committed.  The headers
+     *                   are then only logged, since they cannot be sent anymore.
+     */
+    private void addHeaders( WikiContext wikiContext, HttpServletResponse response, boolean committed )
+    {
+        if( wikiContext == null )
+        {
+            return;
+        }
+
+        String[] headers = TemplateManager.getResourceRequests( wikiContext,
+                                                                TemplateManager.RESOURCE_HTTPHEADER );
+
+        for( int i = 0; i < headers.length; i++ )
+        {
+            if( committed )
             {
-                String key = headers[i];
-                String value = "";
-                int split = headers[i].indexOf(':');
-                if( split > 0 && split < headers[i].length()-1 )
-                {
-                    key = headers[i].substring( 0, split );
-                    value = headers[i].substring( split+1 );
-                }
-            
-                response.addHeader( key.trim(), value.trim() );
+                log.warn( "Response already committed, cannot add HTTP header '" + headers[i] + "'" );
+                continue;
+            }
+
+            String key = headers[i];
+            String value = "";
+            int split = headers[i].indexOf(':');
+            if( split > 0 && split < headers[i].length()-1 )
+            {
+                key = headers[i].substring( 0, split );
+                value = headers[i].substring( split+1 );
             }
+
+            response.addHeader( key.trim(), value.trim() );
         }
+    }
 
-        return string;
+    /**
+     *  Collects the requested resources of each type into the content which
+     *  replaces the marker of that type.
+     *
+     *  @param wikiContext The usual processing context; may be null.
+     *  @return Maps resource types to their content.
+     */
+    private Map<String,String> getResources( WikiContext wikiContext )
+    {
+        Map<String,String> resources = new HashMap<String,String>();
+        String[] resourceTypes = TemplateManager.getResourceTypes( wikiContext );
+
+        for( int i = 0; i < resourceTypes.length; i++ )
+        {
+            String[] requests = TemplateManager.getResourceRequests( wikiContext, resourceTypes[i] );
+            StringBuffer concat = new StringBuffer( requests.length * 40 );
+
+            for( int j = 0; j < requests.length; j++ )
+            {
+                concat.append( requests[j] );
+            }
+
+            resources.put( resourceTypes[i], concat.toString() );
+        }
+
+        return resources;
     }
 
     /**
@@ -325,6 +412,115 @@ public class WikiJSPFilter extends WikiServletFilter
         }
     }
 
+    /**
+     *  Response wrapper which looks for the markers while the response is written,
+     *  and sends everything before the first one immediately.  The underlying
+     *  stream is only opened once the page starts writing output.
+     */
+    private static class StreamingResponseWrapper
+        extends HttpServletResponseWrapper
+    {
+        private final String m_encoding;
+
+        private ResourceMarkerOutputStream m_stream;
+        private ServletOutputStream m_servletOut;
+        private PrintWriter m_writer;
+
+        public StreamingResponseWrapper( HttpServletResponse r, final String wiki_encoding )
+        {
+            super( r );
+            m_encoding = wiki_encoding;
+        }
+
+        /**
+         *  Returns a writer for output; this wraps the marker scanning stream
+         *  into a PrintWriter.
+         */
+        public PrintWriter getWriter() throws IOException
+        {
+            if( m_writer == null )
+            {
+                m_writer = new PrintWriter( new OutputStreamWriter( getOutputStream(), m_encoding ), true );
+            }
+
+            return m_writer;
+        }
+
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            if( m_servletOut == null )
+            {
+                Map<String,String> markers = new LinkedHashMap<String,String>();
+
+                for( int i = 0; i < STREAMED_TYPES.length; i++ )
+                {
+                    markers.put( STREAMED_TYPES[i], TemplateManager.getMarker( null, STREAMED_TYPES[i] ) );
+                }
+
+                m_stream = new ResourceMarkerOutputStream( getResponse().getOutputStream(), markers, m_encoding );
+                m_servletOut = new ServletOutputStream()
+                {
+                    @Override
+                    public void write( int b ) throws IOException
+                    {
+                        m_stream.write( b );
+                    }
+
+                    @Override
+                    public void write( byte[] b, int off, int len ) throws IOException
+                    {
+                        m_stream.write( b, off, len );
+                    }
+
+                    @Override
+                    public void flush() throws IOException
+                    {
+                        m_stream.flush();
+                    }
+                };
+            }
+
+            return m_servletOut;
+        }
+
+        public void flushBuffer() throws IOException
+        {
+            if( m_writer != null )
+            {
+                m_writer.flush();
+            }
+
+            if( m_stream == null || !m_stream.isCommitted() )
+            {
+                super.flushBuffer();
+            }
+        }
+
+        /**
+         *  Returns true, if a marker has been found and the response has therefore been committed.
+         */
+        boolean isStreamCommitted()
+        {
+            return m_stream != null && m_stream.isCommitted();
+        }
+
+        /**
+         *  Writes out the rest of the response with the given resources in place.
+         */
+        void finish( Map<String,String> resources ) throws IOException
+        {
+            if( m_writer != null )
+            {
+                m_writer.flush();
+            }
+
+            if( m_stream != null )
+            {
+                m_stream.finish( resources );
+            }
+        }
+    }
+
     /**
      *  Response wrapper for application servers which do not work with CharArrayWriter
      *  Currently only OC4J
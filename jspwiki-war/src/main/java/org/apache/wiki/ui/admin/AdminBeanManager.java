@@ -34,9 +34,12 @@ import org.apache.wiki.event.WikiEngineEvent;
 import org.apache.wiki.event.WikiEvent;
 import org.apache.wiki.event.WikiEventListener;
 import org.apache.wiki.modules.WikiModuleInfo;
+import org.apache.wiki.ui.admin.beans.AuthorizationManagerBean;
 import org.apache.wiki.ui.admin.beans.CoreBean;
 import org.apache.wiki.ui.admin.beans.PluginBean;
+import org.apache.wiki.ui.admin.beans.ReferenceManagerBean;
 import org.apache.wiki.ui.admin.beans.SearchManagerBean;
+import org.apache.wiki.ui.admin.beans.SessionMonitorBean;
 import org.apache.wiki.ui.admin.beans.UserBean;
 
 /**
@@ -198,6 +201,9 @@ public class AdminBeanManager implements WikiEventListener
             registerAdminBean( new UserBean(m_engine) );
             registerAdminBean( new SearchManagerBean(m_engine) );
             registerAdminBean( new PluginBean(m_engine) );
+            registerAdminBean( new ReferenceManagerBean(m_engine) );
+            registerAdminBean( new AuthorizationManagerBean(m_engine) );
+            registerAdminBean( new SessionMonitorBean(m_engine) );
         }
         catch (NotCompliantMBeanException e)
         {
@@ -0,0 +1,136 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.ui.admin.beans;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.apache.wiki.WikiEngine;
+import org.apache.wiki.auth.AuthorizationManager;
+import org.apache.wiki.ui.admin.SimpleAdminBean;
+
+/**
+ *  An AdminBean which shows how many permission checks are made, and how
+ *  many of them are answered from the decision cache of the AuthorizationManager.
+ *
+ *  @since 2.10
+ */
+public class AuthorizationManagerBean
+    extends SimpleAdminBean
+{
+    private static final String[] ATTRIBUTES = { "checks", "checksPerSecond", "cacheHitRate", "cachedDecisions" };
+    private static final String[] METHODS = { "clearCache" };
+
+    private long m_lastChecks;
+    private long m_lastTime = System.currentTimeMillis();
+
+    public AuthorizationManagerBean( WikiEngine engine ) throws NotCompliantMBeanException
+    {
+        super();
+        initialize( engine );
+    }
+
+    private AuthorizationManager getManager()
+    {
+        return m_engine.getAuthorizationManager();
+    }
+
+    public long getChecks()
+    {
+        return getManager().getPermissionChecks();
+    }
+
+    public String getChecksDescription()
+    {
+        return "The number of permission checks since the wiki was started";
+    }
+
+    /**
+     *  Returns the rate of permission checks since this attribute was last read.
+     *
+     *  @return Checks per second.
+     */
+    public synchronized double getChecksPerSecond()
+    {
+        long checks = getManager().getPermissionChecks();
+        long now    = System.currentTimeMillis();
+        double rate = now > m_lastTime ? ( checks - m_lastChecks ) * 1000.0 / ( now - m_lastTime ) : 0.0;
+
+        m_lastChecks = checks;
+        m_lastTime   = now;
+
+        return rate;
+    }
+
+    public String getChecksPerSecondDescription()
+    {
+        return "Permission checks per second since this value was last read";
+    }
+
+    public double getCacheHitRate()
+    {
+        long checks = getManager().getPermissionChecks();
+
+        return checks > 0 ? (double) getManager().getDecisionCacheHits() / checks : 0.0;
+    }
+
+    public String getCacheHitRateDescription()
+    {
+        return "The fraction of permission checks answered from the decision cache";
+    }
+
+    public int getCachedDecisions()
+    {
+        return getManager().getDecisionCacheSize();
+    }
+
+    public String getCachedDecisionsDescription()
+    {
+        return "The number of permission decisions in the cache";
+    }
+
+    public void clearCache()
+    {
+        getManager().clearDecisionCache();
+    }
+
+    public String getTitle()
+    {
+        return "Authorization";
+    }
+
+    public int getType()
+    {
+        return CORE;
+    }
+
+    public String getId()
+    {
+        return "authorizationmanagerbean";
+    }
+
+    public String[] getAttributeNames()
+    {
+        return ATTRIBUTES;
+    }
+
+    public String[] getMethodNames()
+    {
+        return METHODS;
+    }
+}
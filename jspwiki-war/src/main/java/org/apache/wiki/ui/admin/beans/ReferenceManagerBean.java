@@ -0,0 +1,98 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.ui.admin.beans;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.apache.wiki.WikiEngine;
+import org.apache.wiki.ui.admin.SimpleAdminBean;
+
+/**
+ *  An AdminBean which shows the size of the reference lists kept by
+ *  the ReferenceManager.
+ *
+ *  @since 2.10
+ */
+public class ReferenceManagerBean
+    extends SimpleAdminBean
+{
+    private static final String[] ATTRIBUTES = { "pages", "compact", "heapEstimate" };
+    private static final String[] METHODS = { };
+
+    public ReferenceManagerBean( WikiEngine engine ) throws NotCompliantMBeanException
+    {
+        super();
+        initialize( engine );
+    }
+
+    public int getPages()
+    {
+        return m_engine.getReferenceManager().findCreated().size();
+    }
+
+    public String getPagesDescription()
+    {
+        return "The number of pages known to the reference manager";
+    }
+
+    public boolean isCompact()
+    {
+        return m_engine.getReferenceManager().isCompact();
+    }
+
+    public String getCompactDescription()
+    {
+        return "Whether the references are stored as arrays of page ids";
+    }
+
+    public long getHeapEstimate()
+    {
+        return m_engine.getReferenceManager().getHeapEstimate();
+    }
+
+    public String getHeapEstimateDescription()
+    {
+        return "Estimated heap used by the reference lists, in bytes";
+    }
+
+    public String getTitle()
+    {
+        return "References";
+    }
+
+    public int getType()
+    {
+        return CORE;
+    }
+
+    public String getId()
+    {
+        return "referencemanagerbean";
+    }
+
+    public String[] getAttributeNames()
+    {
+        return ATTRIBUTES;
+    }
+
+    public String[] getMethodNames()
+    {
+        return METHODS;
+    }
+}
@@ -25,6 +25,7 @@ import javax.management.NotCompliantMBeanException;
 import org.apache.wiki.WikiContext;
 import org.apache.wiki.WikiEngine;
 import org.apache.wiki.WikiPage;
+import org.apache.wiki.search.LuceneSearchProvider;
 import org.apache.wiki.search.SearchManager;
 import org.apache.wiki.ui.admin.SimpleAdminBean;
 import org.apache.wiki.ui.progress.ProgressItem;
@@ -32,8 +33,8 @@ import org.apache.wiki.util.WikiBackgroundThread;
 
 /**
  *  The SearchManagerBean is a simple AdminBean interface
- *  to the SearchManager.  It currently can be used to force
- *  a reload of all of the pages.
+ *  to the SearchManager.  It can be used to force a reload of
+ *  all of the pages, and shows the state of the Lucene update queue.
  *
  *  @since 2.6
  */
@@ -43,6 +44,8 @@ public class SearchManagerBean extends SimpleAdminBean
 
     private static final String[] METHODS = { "reload" };
 
+    private static final String[] ATTRIBUTES = { "queueDepth", "queueLag", "coalescedUpdates", "queueOverflows" };
+
     // private static Logger log = Logger.getLogger( SearchManagerBean.class );
 
     private WikiBackgroundThread m_updater;
@@ -55,7 +58,62 @@ public class SearchManagerBean extends SimpleAdminBean
 
     public String[] getAttributeNames()
     {
-        return new String[0];
+        return ATTRIBUTES;
+    }
+
+    private LuceneSearchProvider getLuceneProvider()
+    {
+        Object provider = m_engine.getSearchManager().getSearchEngine();
+
+        return provider instanceof LuceneSearchProvider ? (LuceneSearchProvider) provider : null;
+    }
+
+    public int getQueueDepth()
+    {
+        LuceneSearchProvider provider = getLuceneProvider();
+
+        return provider != null ? provider.getQueueDepth() : 0;
+    }
+
+    public String getQueueDepthDescription()
+    {
+        return "The number of pages waiting to be indexed";
+    }
+
+    public long getQueueLag()
+    {
+        LuceneSearchProvider provider = getLuceneProvider();
+
+        return provider != null ? provider.getQueueLag() : 0L;
+    }
+
+    public String getQueueLagDescription()
+    {
+        return "How long the oldest page has been waiting to be indexed, in milliseconds";
+    }
+
+    public long getCoalescedUpdates()
+    {
+        LuceneSearchProvider provider = getLuceneProvider();
+
+        return provider != null ? provider.getCoalescedUpdates() : 0L;
+    }
+
+    public String getCoalescedUpdatesDescription()
+    {
+        return "The number of page updates merged with an update already waiting";
+    }
+
+    public long getQueueOverflows()
+    {
+        LuceneSearchProvider provider = getLuceneProvider();
+
+        return provider != null ? provider.getQueueOverflows() : 0L;
+    }
+
+    public String getQueueOverflowsDescription()
+    {
+        return "How many times the update queue was full and the index was rebuilt";
     }
 
     public String[] getMethodNames()
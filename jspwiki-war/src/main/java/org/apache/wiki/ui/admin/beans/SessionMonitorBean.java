@@ -0,0 +1,121 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.ui.admin.beans;
+
+import java.security.Principal;
+import java.util.Map;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.apache.wiki.WikiEngine;
+import org.apache.wiki.auth.SessionMonitor;
+import org.apache.wiki.ui.admin.SimpleAdminBean;
+
+/**
+ *  An AdminBean which shows the number of wiki sessions and of the users who own them.
+ *
+ *  @since 2.10
+ */
+public class SessionMonitorBean
+    extends SimpleAdminBean
+{
+    private static final String[] ATTRIBUTES = { "sessions", "users", "userSessions" };
+    private static final String[] METHODS = { };
+
+    public SessionMonitorBean( WikiEngine engine ) throws NotCompliantMBeanException
+    {
+        super();
+        initialize( engine );
+    }
+
+    private SessionMonitor getMonitor()
+    {
+        return SessionMonitor.getInstance( m_engine );
+    }
+
+    public int getSessions()
+    {
+        return getMonitor().sessions();
+    }
+
+    public String getSessionsDescription()
+    {
+        return "The number of active wiki sessions";
+    }
+
+    public int getUsers()
+    {
+        return getMonitor().users();
+    }
+
+    public String getUsersDescription()
+    {
+        return "The number of different users with an active session";
+    }
+
+    /**
+     *  Returns the users and the number of sessions each of them has,
+     *  for example "Guest(3), Janne Jalkanen(1)".
+     *
+     *  @return The users, sorted by name.
+     */
+    public String getUserSessions()
+    {
+        StringBuffer sb = new StringBuffer();
+
+        for( Map.Entry<Principal,Integer> entry : getMonitor().userSessions().entrySet() )
+        {
+            if( sb.length() > 0 ) sb.append( ", " );
+
+            sb.append( entry.getKey().getName() ).append( "(" ).append( entry.getValue() ).append( ")" );
+        }
+
+        return sb.toString();
+    }
+
+    public String getUserSessionsDescription()
+    {
+        return "The users and the number of sessions of each";
+    }
+
+    public String getTitle()
+    {
+        return "Sessions";
+    }
+
+    public int getType()
+    {
+        return CORE;
+    }
+
+    public String getId()
+    {
+        return "sessionmonitorbean";
+    }
+
+    public String[] getAttributeNames()
+    {
+        return ATTRIBUTES;
+    }
+
+    public String[] getMethodNames()
+    {
+        return METHODS;
+    }
+}
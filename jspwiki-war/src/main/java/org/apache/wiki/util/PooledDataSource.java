@@ -0,0 +1,761 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.util;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ *  A small, bounded pool of JDBC connections, for when the servlet container
+ *  does not provide a DataSource through JNDI.  At most a given number of
+ *  connections are open at once; a thread asking for more waits until one is
+ *  returned.  Each connection keeps its most recently used prepared
+ *  statements, so that a statement which is prepared again is not sent to
+ *  the database again.
+ *  <p>
+ *  Closing a connection returns it to the pool.  Any transaction left open
+ *  is rolled back, and the connection is set back to auto-commit mode.
+ *  Statements are likewise reused when they are closed, so callers must not
+ *  keep using a statement after closing it.
+ *  <p>
+ *  The pool is configured with properties which share a common prefix,
+ *  see {@link #fromProperties(Properties, String)}.
+ *
+ *  @since 2.10
+ */
+public class PooledDataSource implements DataSource
+{
+    private static final Logger log = Logger.getLogger( PooledDataSource.class );
+
+    /** Property suffix for the JDBC driver class.  Optional for JDBC 4 drivers. */
+    public static final String PROP_DRIVER = "driver";
+
+    /** Property suffix for the JDBC URL of the database. */
+    public static final String PROP_URL = "url";
+
+    /** Property suffix for the database user. */
+    public static final String PROP_USER = "user";
+
+    /** Property suffix for the password of the database user. */
+    public static final String PROP_PASSWORD = "password";
+
+    /** Property suffix for the largest number of connections open at once. */
+    public static final String PROP_MAX_CONNECTIONS = "maxConnections";
+
+    /** Property suffix for the number of prepared statements kept for each connection. */
+    public static final String PROP_MAX_STATEMENTS = "maxStatements";
+
+    /** Property suffix for how many seconds to wait for a free connection. */
+    public static final String PROP_TIMEOUT = "timeout";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    private static final int DEFAULT_MAX_STATEMENTS = 32;
+
+    private static final int DEFAULT_TIMEOUT = 30;
+
+    private final String m_url;
+
+    private final String m_user;
+
+    private final String m_password;
+
+    private final int m_maxConnections;
+
+    private final int m_maxStatements;
+
+    private final Semaphore m_permits;
+
+    /** Connections which are not in use, most recently returned first.  Guarded by itself. */
+    private final LinkedList<PooledConnection> m_idle = new LinkedList<PooledConnection>();
+
+    private volatile boolean m_closed = false;
+
+    private volatile int m_timeout = DEFAULT_TIMEOUT;
+
+    private PrintWriter m_logWriter = null;
+
+    /**
+     *  Creates a new pool.  No connections are opened until they are needed.
+     *
+     *  @param url The JDBC URL of the database.
+     *  @param user The database user; may be null.
+     *  @param password The password of the user; may be null.
+     *  @param maxConnections The largest number of connections open at once.
+     *  @param maxStatements The number of prepared statements kept for each connection;
+     *                       zero turns statement caching off.
+     */
+    public PooledDataSource( String url, String user, String password, int maxConnections, int maxStatements )
+    {
+        if( maxConnections < 1 )
+        {
+            throw new IllegalArgumentException( "A pool needs at least one connection" );
+        }
+
+        m_url            = url;
+        m_user           = user;
+        m_password       = password;
+        m_maxConnections = maxConnections;
+        m_maxStatements  = maxStatements;
+        m_permits        = new Semaphore( maxConnections, true );
+    }
+
+    /**
+     *  Creates a pool from properties which all start with the given prefix;
+     *  for example, with the prefix <code>jspwiki.userdatabase.jdbc.</code>
+     *  the database is given by <code>jspwiki.userdatabase.jdbc.url</code>.
+     *  The suffixes are {@value #PROP_URL}, {@value #PROP_DRIVER},
+     *  {@value #PROP_USER}, {@value #PROP_PASSWORD},
+     *  {@value #PROP_MAX_CONNECTIONS}, {@value #PROP_MAX_STATEMENTS} and
+     *  {@value #PROP_TIMEOUT}.
+     *
+     *  @param props The properties.
+     *  @param prefix The common prefix of the properties.
+     *  @return A new pool, or null if no URL has been configured.
+     *  @throws SQLException If the driver class cannot be loaded.
+     */
+    public static PooledDataSource fromProperties( Properties props, String prefix ) throws SQLException
+    {
+        String url = TextUtil.getStringProperty( props, prefix + PROP_URL, null );
+
+        if( url == null )
+        {
+            return null;
+        }
+
+        String driver = TextUtil.getStringProperty( props, prefix + PROP_DRIVER, null );
+
+        if( driver != null )
+        {
+            try
+            {
+                Class.forName( driver );
+            }
+            catch( ClassNotFoundException e )
+            {
+                throw new SQLException( "JDBC driver not found: " + driver );
+            }
+        }
+
+        PooledDataSource ds = new PooledDataSource( url,
+                                                    TextUtil.getStringProperty( props, prefix + PROP_USER, null ),
+                                                    TextUtil.getStringProperty( props, prefix + PROP_PASSWORD, null ),
+                                                    TextUtil.getIntegerProperty( props, prefix + PROP_MAX_CONNECTIONS,
+                                                                                 DEFAULT_MAX_CONNECTIONS ),
+                                                    TextUtil.getIntegerProperty( props, prefix + PROP_MAX_STATEMENTS,
+                                                                                 DEFAULT_MAX_STATEMENTS ) );
+        ds.setLoginTimeout( TextUtil.getIntegerProperty( props, prefix + PROP_TIMEOUT, DEFAULT_TIMEOUT ) );
+
+        return ds;
+    }
+
+    /**
+     *  Returns a connection from the pool, opening a new one if none are free.
+     *  If the pool is at its limit, waits for a connection to be returned.
+     *
+     *  @return A connection, which must be closed to return it to the pool.
+     *  @throws SQLException If no connection could be had in time, or opening one fails.
+     */
+    public Connection getConnection() throws SQLException
+    {
+        if( m_closed )
+        {
+            throw new SQLException( "Connection pool has been closed" );
+        }
+
+        try
+        {
+            if( !m_permits.tryAcquire( m_timeout, TimeUnit.SECONDS ) )
+            {
+                throw new SQLException( "Timed out waiting for a connection to " + m_url );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException( "Interrupted while waiting for a connection to " + m_url );
+        }
+
+        boolean leased = false;
+
+        try
+        {
+            PooledConnection pc = takeIdle();
+
+            if( pc == null )
+            {
+                pc = new PooledConnection( DriverManager.getConnection( m_url, m_user, m_password ) );
+            }
+
+            Connection handle = pc.lease();
+            leased = true;
+
+            return handle;
+        }
+        finally
+        {
+            if( !leased )
+            {
+                m_permits.release();
+            }
+        }
+    }
+
+    /**
+     *  Pooled connections are always opened as the configured user, so this
+     *  only accepts the same credentials.
+     *
+     *  @param username The database user.
+     *  @param password The password.
+     *  @return A connection from the pool.
+     *  @throws SQLException If the credentials are not those of the pool.
+     */
+    public Connection getConnection( String username, String password ) throws SQLException
+    {
+        if( !isEqual( username, m_user ) || !isEqual( password, m_password ) )
+        {
+            throw new SQLException( "Pooled connections can only be opened as " + m_user );
+        }
+
+        return getConnection();
+    }
+
+    /**
+     *  Returns the number of connections which are open, but not in use.
+     *
+     *  @return The number of idle connections.
+     */
+    public int getIdleConnections()
+    {
+        synchronized( m_idle )
+        {
+            return m_idle.size();
+        }
+    }
+
+    /**
+     *  Returns the number of connections which are in use.
+     *
+     *  @return The number of connections handed out and not yet returned.
+     */
+    public int getActiveConnections()
+    {
+        return m_maxConnections - m_permits.availablePermits();
+    }
+
+    /**
+     *  Closes all idle connections, and any connection in use once it is
+     *  returned.  The pool cannot be used after this.
+     */
+    public void close()
+    {
+        m_closed = true;
+
+        synchronized( m_idle )
+        {
+            for( PooledConnection pc : m_idle )
+            {
+                pc.destroy();
+            }
+            m_idle.clear();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getLoginTimeout()
+    {
+        return m_timeout;
+    }
+
+    /**
+     *  Sets how long {@link #getConnection()} waits for a free connection.
+     *
+     *  @param seconds The time to wait, in seconds.
+     */
+    public void setLoginTimeout( int seconds )
+    {
+        m_timeout = seconds;
+    }
+
+    /** {@inheritDoc} */
+    public PrintWriter getLogWriter()
+    {
+        return m_logWriter;
+    }
+
+    /** {@inheritDoc} */
+    public void setLogWriter( PrintWriter out )
+    {
+        m_logWriter = out;
+    }
+
+    /**
+     *  This pool logs through log4j.
+     *
+     *  @return null
+     */
+    public java.util.logging.Logger getParentLogger()
+    {
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isWrapperFor( Class<?> iface )
+    {
+        return iface.isInstance( this );
+    }
+
+    /** {@inheritDoc} */
+    public <T> T unwrap( Class<T> iface ) throws SQLException
+    {
+        if( iface.isInstance( this ) )
+        {
+            return iface.cast( this );
+        }
+
+        throw new SQLException( "Not a wrapper for " + iface.getName() );
+    }
+
+    private PooledConnection takeIdle()
+    {
+        while( true )
+        {
+            PooledConnection pc;
+
+            synchronized( m_idle )
+            {
+                pc = m_idle.poll();
+            }
+
+            if( pc == null || pc.isUsable() )
+            {
+                return pc;
+            }
+
+            pc.destroy();
+        }
+    }
+
+    /**
+     *  Puts a connection back into the pool after it has been cleaned up,
+     *  or closes it if it is no longer usable.
+     */
+    private void release( PooledConnection pc )
+    {
+        try
+        {
+            boolean reusable = pc.reset() && !m_closed;
+
+            if( reusable )
+            {
+                synchronized( m_idle )
+                {
+                    m_idle.addFirst( pc );
+                }
+            }
+            else
+            {
+                pc.destroy();
+            }
+        }
+        finally
+        {
+            m_permits.release();
+        }
+    }
+
+    private static boolean isEqual( String a, String b )
+    {
+        return a == null ? b == null : a.equals( b );
+    }
+
+    private static Object invoke( Object target, Method method, Object[] args ) throws Throwable
+    {
+        try
+        {
+            return method.invoke( target, args );
+        }
+        catch( InvocationTargetException e )
+        {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     *  A physical connection and the statements prepared on it.
+     */
+    private final class PooledConnection
+    {
+        private final Connection m_conn;
+
+        /** Statements by their SQL, least recently used first. */
+        private final Map<String,CachedStatement> m_statements;
+
+        /** Statements which are not kept, and are closed when the connection is returned. */
+        private final List<CachedStatement> m_unkept = new ArrayList<CachedStatement>();
+
+        /** Set when the database has reported that the connection is broken. */
+        private boolean m_broken = false;
+
+        PooledConnection( Connection conn )
+        {
+            m_conn = conn;
+            m_statements = new LinkedHashMap<String,CachedStatement>( 16, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry( Map.Entry<String,CachedStatement> eldest )
+                {
+                    if( size() > m_maxStatements )
+                    {
+                        eldest.getValue().evict();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        Connection lease()
+        {
+            return (Connection) Proxy.newProxyInstance( Connection.class.getClassLoader(),
+                                                        new Class[] { Connection.class },
+                                                        new ConnectionHandle( this ) );
+        }
+
+        PreparedStatement prepare( String sql, Connection handle ) throws SQLException
+        {
+            CachedStatement cs = m_maxStatements > 0 ? m_statements.get( sql ) : null;
+
+            if( m_maxStatements <= 0 || ( cs != null && cs.m_inUse ) )
+            {
+                // Statements are not kept, or the same statement is already open.
+                cs = new CachedStatement( m_conn.prepareStatement( sql ) );
+                cs.m_evicted = true;
+                m_unkept.add( cs );
+
+                return cs.open( handle );
+            }
+
+            if( cs == null )
+            {
+                cs = new CachedStatement( m_conn.prepareStatement( sql ) );
+                m_statements.put( sql, cs );
+            }
+
+            return cs.open( handle );
+        }
+
+        boolean isUsable()
+        {
+            try
+            {
+                return !m_broken && !m_conn.isClosed();
+            }
+            catch( SQLException e )
+            {
+                return false;
+            }
+        }
+
+        /**
+         *  Ends any transaction left open, and frees the statements.
+         *
+         *  @return True, if the connection can be used again.
+         */
+        boolean reset()
+        {
+            if( !isUsable() )
+            {
+                return false;
+            }
+
+            try
+            {
+                if( !m_conn.getAutoCommit() )
+                {
+                    m_conn.rollback();
+                    m_conn.setAutoCommit( true );
+                }
+
+                for( CachedStatement cs : m_statements.values() )
+                {
+                    if( cs.m_inUse )
+                    {
+                        cs.free();
+                    }
+                }
+
+                closeUnkept();
+
+                return true;
+            }
+            catch( SQLException e )
+            {
+                log.info( "Discarding pooled connection to " + m_url + ": " + e.getMessage() );
+                return false;
+            }
+        }
+
+        void destroy()
+        {
+            for( Iterator<CachedStatement> i = m_statements.values().iterator(); i.hasNext(); )
+            {
+                i.next().evict();
+                i.remove();
+            }
+
+            closeUnkept();
+
+            try
+            {
+                m_conn.close();
+            }
+            catch( SQLException e )
+            {
+                log.debug( "Could not close pooled connection: " + e.getMessage() );
+            }
+        }
+
+        private void closeUnkept()
+        {
+            for( CachedStatement cs : m_unkept )
+            {
+                cs.discard();
+            }
+
+            m_unkept.clear();
+        }
+
+        void check( Throwable t )
+        {
+            //  SQL state class 08 means that the connection itself has failed.
+            if( t instanceof SQLException )
+            {
+                String state = ((SQLException) t).getSQLState();
+
+                if( state != null && state.startsWith( "08" ) )
+                {
+                    m_broken = true;
+                }
+            }
+        }
+    }
+
+    /**
+     *  The connection as seen by one user of the pool.  Closing it returns
+     *  the connection to the pool, after which it cannot be used.
+     */
+    private final class ConnectionHandle implements InvocationHandler
+    {
+        private final PooledConnection m_pc;
+
+        private boolean m_returned = false;
+
+        ConnectionHandle( PooledConnection pc )
+        {
+            m_pc = pc;
+        }
+
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+        {
+            String name = method.getName();
+
+            if( "close".equals( name ) )
+            {
+                if( !m_returned )
+                {
+                    m_returned = true;
+                    release( m_pc );
+                }
+                return null;
+            }
+            else if( "isClosed".equals( name ) )
+            {
+                return m_returned;
+            }
+            else if( "equals".equals( name ) )
+            {
+                return proxy == args[0];
+            }
+            else if( "hashCode".equals( name ) )
+            {
+                return System.identityHashCode( proxy );
+            }
+            else if( "toString".equals( name ) )
+            {
+                return "Pooled connection to " + m_url;
+            }
+
+            if( m_returned )
+            {
+                throw new SQLException( "Connection has been returned to the pool" );
+            }
+
+            try
+            {
+                if( "prepareStatement".equals( name ) && args.length == 1 )
+                {
+                    return m_pc.prepare( (String) args[0], (Connection) proxy );
+                }
+
+                return PooledDataSource.invoke( m_pc.m_conn, method, args );
+            }
+            catch( Throwable t )
+            {
+                m_pc.check( t );
+                throw t;
+            }
+        }
+    }
+
+    /**
+     *  A prepared statement handed out by the pool.  Unless it has been
+     *  evicted, it is kept open after it has been closed, so that it can be
+     *  handed out again.  Statements which are not kept are created evicted,
+     *  so that they behave the same way, but are closed for good.
+     */
+    private static final class CachedStatement implements InvocationHandler
+    {
+        private final PreparedStatement m_ps;
+
+        private boolean m_inUse = false;
+
+        private boolean m_evicted = false;
+
+        private Connection m_handle;
+
+        CachedStatement( PreparedStatement ps )
+        {
+            m_ps = ps;
+        }
+
+        PreparedStatement open( Connection handle )
+        {
+            m_inUse  = true;
+            m_handle = handle;
+
+            return (PreparedStatement) Proxy.newProxyInstance( PreparedStatement.class.getClassLoader(),
+                                                               new Class[] { PreparedStatement.class },
+                                                               this );
+        }
+
+        void free() throws SQLException
+        {
+            m_inUse  = false;
+            m_handle = null;
+            m_ps.clearParameters();
+        }
+
+        /**
+         *  Closes the statement for good, unless it is still in use; then it
+         *  is closed when the user closes it.
+         */
+        void evict()
+        {
+            m_evicted = true;
+
+            if( !m_inUse )
+            {
+                closeQuietly();
+            }
+        }
+
+        /**
+         *  Closes the statement for good, even if it is still in use.
+         */
+        void discard()
+        {
+            m_inUse = false;
+            closeQuietly();
+        }
+
+        private void closeQuietly()
+        {
+            try
+            {
+                m_ps.close();
+            }
+            catch( SQLException e )
+            {
+                log.debug( "Could not close pooled statement: " + e.getMessage() );
+            }
+        }
+
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+        {
+            String name = method.getName();
+
+            if( "close".equals( name ) )
+            {
+                if( m_inUse )
+                {
+                    if( m_evicted )
+                    {
+                        m_inUse = false;
+                        closeQuietly();
+                    }
+                    else
+                    {
+                        free();
+                    }
+                }
+                return null;
+            }
+            else if( "isClosed".equals( name ) )
+            {
+                return !m_inUse;
+            }
+            else if( "getConnection".equals( name ) )
+            {
+                return m_handle;
+            }
+            else if( "equals".equals( name ) )
+            {
+                return proxy == args[0];
+            }
+            else if( "hashCode".equals( name ) )
+            {
+                return System.identityHashCode( proxy );
+            }
+
+            return PooledDataSource.invoke( m_ps, method, args );
+        }
+    }
+}
@@ -88,11 +88,14 @@ public abstract class Decision extends AbstractStep
 
     /**
      * Appends a Fact to the list of Facts associated with this Decision.
+     * A deferred Fact value is computed here, while the objects it was
+     * created from are still valid.
      * 
      * @param fact the new fact to add
      */
     public final void addFact( Fact fact )
     {
+        fact.getValue();
         m_facts.add( fact );
     }
 
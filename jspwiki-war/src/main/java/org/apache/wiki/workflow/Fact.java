@@ -18,7 +18,10 @@
  */
 package org.apache.wiki.workflow;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.concurrent.Callable;
 
 /**
  * Represents a contextual artifact, which can be any serializable object, useful for making
@@ -26,6 +29,10 @@ import java.io.Serializable;
  * key) and the value is an arbitrary object. Generally, the supplied object's
  * {@link #toString()} method should return a human-readable String. Facts are
  * immutable objects.
+ * <p>
+ * A value which is expensive to compute, such as the diff of a page save, can be
+ * supplied as a {@link Callable}. It is computed the first time the value is asked
+ * for, which normally happens only when the Fact is added to a {@link Decision}.
  * 
  * @since 2.5
  */
@@ -35,7 +42,9 @@ public final class Fact implements Serializable
 
     private final String m_key;
 
-    private final Serializable m_obj;
+    private Serializable m_obj;
+
+    private transient Callable<? extends Serializable> m_deferred;
 
     /**
      * Constructs a new Fact with a supplied message key and value.
@@ -55,6 +64,25 @@ public final class Fact implements Serializable
         m_obj = value;
     }
 
+    /**
+     * Constructs a new Fact whose value is computed when it is first needed.
+     * 
+     * @param messageKey
+     *            the "name" of this fact, which should be an i18n message key
+     * @param value
+     *            computes the object to associate with the name; it must not return null
+     * @since 2.10
+     */
+    public Fact(String messageKey, Callable<? extends Serializable> value)
+    {
+        if ( messageKey == null || value == null )
+        {
+            throw new IllegalArgumentException( "Fact message key or value parameters must not be null." );
+        }
+        m_key = messageKey;
+        m_deferred = value;
+    }
+
     /**
      * Returns this Fact's name, as represented an i18n message key.
      * @return the message key
@@ -65,11 +93,31 @@ public final class Fact implements Serializable
     }
 
     /**
-     * Returns this Fact's value.
+     * Returns this Fact's value.  If the value was supplied as a {@link Callable},
+     * it is computed on the first call.
      * @return the value object
+     * @throws IllegalStateException if a deferred value cannot be computed
      */
-    public Serializable getValue()
+    public synchronized Serializable getValue()
     {
+        if ( m_deferred != null )
+        {
+            Serializable value;
+            try
+            {
+                value = m_deferred.call();
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( "Could not compute the value of Fact " + m_key, e );
+            }
+            if ( value == null )
+            {
+                throw new IllegalStateException( "Fact " + m_key + " has no value." );
+            }
+            m_obj = value;
+            m_deferred = null;
+        }
         return m_obj;
     }
     
@@ -86,7 +134,7 @@ public final class Fact implements Serializable
         }
         
         Fact f = (Fact)obj;
-        return m_key.equals( f.m_key) && m_obj.equals( f.m_obj );
+        return m_key.equals( f.m_key) && getValue().equals( f.getValue() );
     }
     
     /**
@@ -94,7 +142,7 @@ public final class Fact implements Serializable
      */
     public int hashCode()
     {
-        return m_key.hashCode() + 41 * m_obj.hashCode();
+        return m_key.hashCode() + 41 * getValue().hashCode();
     }
 
     /**
@@ -103,6 +151,15 @@ public final class Fact implements Serializable
      */
     public String toString()
     {
-        return "[Fact:" + m_obj.toString() + "]";
+        return "[Fact:" + getValue().toString() + "]";
+    }
+
+    /**
+     * Computes a deferred value before writing, so that it is never lost.
+     */
+    private void writeObject( ObjectOutputStream out ) throws IOException
+    {
+        getValue();
+        out.defaultWriteObject();
     }
 }
@@ -78,7 +78,6 @@ public abstract class AbstractRPCHandler
     public Vector getRecentChanges( Date since )
     {
         checkPermission( PagePermission.VIEW );
-        Collection pages = m_engine.getRecentChanges();
         Vector<Hashtable<?, ?>> result    = new Vector<Hashtable<?, ?>>();
 
         // Transform UTC into local time.
@@ -87,6 +86,8 @@ public abstract class AbstractRPCHandler
         cal.add( Calendar.MILLISECOND, cal.get( Calendar.ZONE_OFFSET ) + 
                   (cal.getTimeZone().inDaylightTime( since ) ? cal.get( Calendar.DST_OFFSET ) : 0 ) );
 
+        Collection pages = m_engine.getRecentChanges( cal.getTime(), -1 );
+
         for( Iterator i = pages.iterator(); i.hasNext(); )
         {
             WikiPage page = (WikiPage)i.next();
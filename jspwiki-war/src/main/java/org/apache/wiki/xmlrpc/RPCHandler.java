@@ -151,7 +151,6 @@ public class RPCHandler
     public Vector getRecentChanges( Date since )
     {
         checkPermission( PagePermission.VIEW );
-        Collection pages = m_engine.getRecentChanges();
         Vector<Hashtable<String, Object>> result = new Vector<Hashtable<String, Object>>();
 
         Calendar cal = Calendar.getInstance();
@@ -165,6 +164,8 @@ public class RPCHandler
                   (cal.getTimeZone().inDaylightTime(since) ? cal.get( Calendar.DST_OFFSET ) : 0 ) ) );
         since = cal.getTime();
 
+        Collection pages = m_engine.getRecentChanges( since, -1 );
+
         for( Iterator i = pages.iterator(); i.hasNext(); )
         {
             WikiPage page = (WikiPage)i.next();
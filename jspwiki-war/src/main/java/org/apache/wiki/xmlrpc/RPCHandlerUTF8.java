@@ -106,7 +106,6 @@ public class RPCHandlerUTF8
     {
         checkPermission( PagePermission.VIEW );
         
-        Collection pages = m_engine.getRecentChanges();
         Vector<Hashtable<String, Object>> result = new Vector<Hashtable<String, Object>>();
 
         Calendar cal = Calendar.getInstance();
@@ -120,6 +119,8 @@ public class RPCHandlerUTF8
                   (cal.getTimeZone().inDaylightTime(since) ? cal.get( Calendar.DST_OFFSET ) : 0 ) ) );
         since = cal.getTime();
 
+        Collection pages = m_engine.getRecentChanges( since, -1 );
+
         for( Iterator i = pages.iterator(); i.hasNext(); )
         {
             WikiPage page = (WikiPage)i.next();
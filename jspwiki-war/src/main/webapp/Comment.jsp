@@ -293,10 +293,15 @@
     // pageContext.setAttribute( "comment", Boolean.TRUE, PageContext.REQUEST_SCOPE );
 
     //
-    //  Attempt to lock the page.
+    //  Attempt to lock the page, or keep the lock we already have.
     //
-    PageLock lock = wiki.getPageManager().lockPage( wikipage,
-                                                    storedUser );
+    PageLock lock = wiki.getPageManager().renewLock( (PageLock) session.getAttribute( "lock-"+pagereq ) );
+
+    if( lock == null )
+    {
+        lock = wiki.getPageManager().lockPage( wikipage,
+                                               storedUser );
+    }
 
     if( lock != null )
     {
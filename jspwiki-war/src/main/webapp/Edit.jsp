@@ -274,10 +274,15 @@
                               PageContext.REQUEST_SCOPE );
 
     //
-    //  Attempt to lock the page.
+    //  Attempt to lock the page, or keep the lock we already have.
     //
-    PageLock lock = wiki.getPageManager().lockPage( wikipage,
-                                                    user );
+    PageLock lock = wiki.getPageManager().renewLock( (PageLock) session.getAttribute( "lock-"+pagereq ) );
+
+    if( lock == null )
+    {
+        lock = wiki.getPageManager().lockPage( wikipage,
+                                               user );
+    }
 
     if( lock != null )
     {
@@ -62,8 +62,11 @@ public class AllTests extends TestCase
     {
         TestSuite suite = new TestSuite("JSPWiki Unit Tests");
 
+        suite.addTest( CompactReferenceManagerTest.suite() );
+        suite.addTest( CompactReferenceMapTest.suite() );
         suite.addTest( PageManagerTest.suite() );
         suite.addTest( PropertyReaderTest.suite() );
+        suite.addTest( RecentChangesIndexTest.suite() );
         suite.addTest( ReferenceManagerTest.suite() );
         suite.addTest( ReleaseTest.suite() );
         suite.addTest( VariableManagerTest.suite() );
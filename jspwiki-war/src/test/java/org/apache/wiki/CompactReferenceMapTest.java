@@ -0,0 +1,178 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class CompactReferenceMapTest extends TestCase
+{
+    private static final Set<String> MARKER = Collections.unmodifiableSet( new TreeSet<String>() );
+
+    PageNameDictionary  dict;
+    CompactReferenceMap map;
+
+    public CompactReferenceMapTest( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+    {
+        dict = new PageNameDictionary();
+        map  = new CompactReferenceMap( dict, MARKER );
+    }
+
+    private static Set<String> set( String... names )
+    {
+        return new TreeSet<String>( Arrays.asList( names ) );
+    }
+
+    public void testPutAndGet()
+    {
+        map.put( "Main", set( "Foo", "Bar" ) );
+        map.put( "Empty", set() );
+        map.put( "Unscanned", MARKER );
+
+        assertEquals( "size", 3, map.size() );
+        assertEquals( "value", set( "Foo", "Bar" ), map.get( "Main" ) );
+        assertTrue( "contains", map.get( "Main" ).contains( "Bar" ) );
+        assertFalse( "not contains", map.get( "Main" ).contains( "Main" ) );
+        assertTrue( "empty", map.get( "Empty" ).isEmpty() );
+        assertSame( "marker", MARKER, map.get( "Unscanned" ) );
+
+        // Referenced names are interned, but are not keys
+        assertNull( "not a key", map.get( "Foo" ) );
+        assertFalse( "containsKey", map.containsKey( "Foo" ) );
+        assertNull( "unknown", map.get( "Nothing" ) );
+    }
+
+    public void testReplaceAndRemove()
+    {
+        map.put( "Main", set( "Foo" ) );
+        map.put( "Main", set( "Bar" ) );
+
+        assertEquals( "size", 1, map.size() );
+        assertEquals( "replaced", set( "Bar" ), map.get( "Main" ) );
+
+        map.remove( "Main" );
+
+        assertEquals( "size after", 0, map.size() );
+        assertNull( "removed", map.get( "Main" ) );
+    }
+
+    public void testIteration()
+    {
+        for( int i = 0; i < 1000; i++ )
+        {
+            map.put( "Page"+i, set( "Page"+(i+1) ) );
+        }
+
+        map.remove( "Page500" );
+
+        assertEquals( "size", 999, map.size() );
+        assertEquals( "keys", 999, map.keySet().size() );
+        assertFalse( "removed key", map.keySet().contains( "Page500" ) );
+
+        Map<String,Set<String>> copy = new HashMap<String,Set<String>>( map );
+        assertEquals( "copy", set( "Page2" ), copy.get( "Page1" ) );
+        assertEquals( "equals", copy, map );
+    }
+
+    /**
+     *  The referrers are listed alphabetically, whatever order the names
+     *  got their ids in.
+     */
+    public void testOrder()
+    {
+        map.put( "First", set( "Zebra", "Yak" ) );
+        map.put( "Second", set( "Yak", "Aardvark", "Zebra", "Moose" ) );
+
+        Iterator<String> i = map.get( "Second" ).iterator();
+        assertEquals( "Aardvark", i.next() );
+        assertEquals( "Moose", i.next() );
+        assertEquals( "Yak", i.next() );
+        assertEquals( "Zebra", i.next() );
+
+        assertTrue( "contains", map.get( "Second" ).contains( "Moose" ) );
+        assertFalse( "not contains", map.get( "Second" ).contains( "Second" ) );
+        assertFalse( "unknown", map.get( "Second" ).contains( "Nothing" ) );
+    }
+
+    public void testDictionary()
+    {
+        for( int i = 0; i < 5000; i++ )
+        {
+            assertEquals( "id", i, dict.intern( "Page"+i ) );
+        }
+
+        assertEquals( "size", 5000, dict.size() );
+        assertEquals( "again", 1234, dict.intern( "Page1234" ) );
+
+        for( int i = 0; i < 5000; i++ )
+        {
+            assertEquals( "lookup", i, dict.lookup( "Page"+i ) );
+            assertEquals( "name", "Page"+i, dict.name( i ) );
+        }
+
+        assertEquals( "missing", -1, dict.lookup( "Page5000" ) );
+
+        // Different strings with the same hash code
+        int aa = dict.intern( "Aa" );
+        int bb = dict.intern( "BB" );
+
+        assertTrue( "distinct", aa != bb );
+        assertEquals( "Aa", aa, dict.lookup( "Aa" ) );
+        assertEquals( "BB", bb, dict.lookup( "BB" ) );
+    }
+
+    public void testSerialization() throws Exception
+    {
+        map.put( "Main", set( "Foo", "Bar" ) );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( bytes );
+        out.writeObject( new HashMap<String,Set<String>>( map ) );
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+        Map read = (Map) in.readObject();
+
+        assertEquals( "class", TreeSet.class, read.get( "Main" ).getClass() );
+        assertEquals( "value", set( "Foo", "Bar" ), read.get( "Main" ) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CompactReferenceMapTest.class );
+    }
+}
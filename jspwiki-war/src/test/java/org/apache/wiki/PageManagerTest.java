@@ -71,6 +71,54 @@ public class PageManagerTest extends TestCase
         assertTrue( !(m.getProvider() instanceof CachingProvider) );
     }
 
+    public void testLocks()
+        throws Exception
+    {
+        PageManager m = new PageManager( engine, props );
+        WikiPage page = new WikiPage( engine, "LockedPage" );
+
+        PageLock lock = m.lockPage( page, "Alice" );
+        assertNotNull( "locked", lock );
+        assertNull( "locked twice", m.lockPage( page, "Bob" ) );
+        assertEquals( lock, m.getCurrentLock( page ) );
+        assertEquals( 1, m.getActiveLocks().size() );
+
+        Thread.sleep( 10 );
+        PageLock renewed = m.renewLock( lock );
+        assertNotNull( "renewed", renewed );
+        assertEquals( "Alice", renewed.getLocker() );
+        assertEquals( lock.getAcquisitionTime(), renewed.getAcquisitionTime() );
+        assertTrue( renewed.getExpiryTime().after( lock.getExpiryTime() ) );
+        assertNull( "old lock renewed", m.renewLock( lock ) );
+
+        m.unlockPage( lock );
+        assertEquals( "replaced lock unlocked", renewed, m.getCurrentLock( page ) );
+
+        m.unlockPage( renewed );
+        assertNull( m.getCurrentLock( page ) );
+        assertEquals( 0, m.getActiveLocks().size() );
+        assertNotNull( "locked after unlock", m.lockPage( page, "Bob" ) );
+    }
+
+    public void testExpiredLock()
+        throws Exception
+    {
+        props.setProperty( PageManager.PROP_LOCKEXPIRY, "0" );
+        PageManager m = new PageManager( engine, props );
+        WikiPage page = new WikiPage( engine, "LockedPage" );
+
+        PageLock lock = m.lockPage( page, "Alice" );
+        assertNotNull( "locked", lock );
+        assertTrue( lock.isExpired() );
+        assertNull( "expired lock", m.getCurrentLock( page ) );
+        assertEquals( 0, m.getActiveLocks().size() );
+        assertNull( "expired lock renewed", m.renewLock( lock ) );
+
+        PageLock other = m.lockPage( page, "Bob" );
+        assertNotNull( "expired lock replaced", other );
+        assertEquals( "Bob", other.getLocker() );
+    }
+
     public static Test suite()
     {
         return new TestSuite( PageManagerTest.class );
@@ -0,0 +1,135 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.attachment.Attachment;
+
+public class RecentChangesIndexTest extends TestCase
+{
+    TestEngine m_engine;
+
+    public void setUp()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        TestEngine.emptyWorkDir();
+        m_engine = new TestEngine( props );
+    }
+
+    public void tearDown()
+    {
+        m_engine.deleteTestPage( "RecentOne" );
+        m_engine.deleteTestPage( "RecentTwo" );
+        m_engine.deleteTestPage( "RecentThree" );
+        TestEngine.emptyWorkDir();
+    }
+
+    private List<WikiPage> changesSince( Date since )
+    {
+        return m_engine.getRecentChanges( since, -1 );
+    }
+
+    private void assertNames( String[] expected, List<WikiPage> pages )
+    {
+        assertEquals( "count", expected.length, pages.size() );
+
+        for( int i = 0; i < expected.length; i++ )
+        {
+            assertEquals( "page " + i, expected[i], pages.get( i ).getName() );
+        }
+    }
+
+    public void testOrder()
+        throws Exception
+    {
+        Date start = new Date( System.currentTimeMillis() - 2000L );
+
+        m_engine.saveText( "RecentOne", "one" );
+        Thread.sleep( 1100L );
+        m_engine.saveText( "RecentTwo", "two" );
+        Thread.sleep( 1100L );
+        m_engine.saveText( "RecentThree", "three" );
+
+        assertNames( new String[] { "RecentThree", "RecentTwo", "RecentOne" }, changesSince( start ) );
+        assertNames( new String[] { "RecentThree", "RecentTwo" }, m_engine.getRecentChanges( start, 2 ) );
+
+        Date middle = m_engine.getPage( "RecentTwo" ).getLastModified();
+        assertNames( new String[] { "RecentThree", "RecentTwo" }, changesSince( middle ) );
+
+        Thread.sleep( 1100L );
+        m_engine.saveText( "RecentOne", "one again" );
+
+        assertNames( new String[] { "RecentOne", "RecentThree", "RecentTwo" }, changesSince( start ) );
+        assertEquals( m_engine.getRecentChanges().size(), m_engine.getRecentChangesIndex().size() );
+    }
+
+    public void testDelete()
+        throws Exception
+    {
+        Date start = new Date( System.currentTimeMillis() - 2000L );
+
+        m_engine.saveText( "RecentOne", "one" );
+        m_engine.addAttachment( "RecentOne", "test.txt", "data".getBytes() );
+
+        List<WikiPage> changes = changesSince( start );
+        assertEquals( 2, changes.size() );
+        assertTrue( "attachment", changes.get( 0 ) instanceof Attachment || changes.get( 1 ) instanceof Attachment );
+
+        m_engine.deletePage( "RecentOne/test.txt" );
+        assertNames( new String[] { "RecentOne" }, changesSince( start ) );
+
+        m_engine.addAttachment( "RecentOne", "test.txt", "data".getBytes() );
+        m_engine.deletePage( "RecentOne" );
+        assertEquals( 0, changesSince( start ).size() );
+    }
+
+    public void testRename()
+        throws Exception
+    {
+        Date start = new Date( System.currentTimeMillis() - 2000L );
+
+        m_engine.saveText( "RecentOne", "one" );
+        m_engine.addAttachment( "RecentOne", "test.txt", "data".getBytes() );
+
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( "RecentOne" ) );
+        m_engine.renamePage( context, "RecentOne", "RecentTwo", false );
+
+        List<WikiPage> changes = changesSince( start );
+        assertEquals( 2, changes.size() );
+        for( WikiPage page : changes )
+        {
+            assertTrue( page.getName(), page.getName().startsWith( "RecentTwo" ) );
+        }
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RecentChangesIndexTest.class );
+    }
+}
@@ -14,10 +14,12 @@
 package org.apache.wiki;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -359,6 +361,86 @@ public class ReferenceManagerTest extends TestCase
         assertEquals("ref", "BugOne", ref.iterator().next());
     }
     
+    /**
+     *  Checks that a change which is only in the change log survives a restart.
+     *  Foobar is older than the log record, so it is not rescanned on startup.
+     */
+    public void testChangeLogReplay() throws Exception
+    {
+        mgr.updateReferences( "Foobar", Arrays.asList( new String[] { "LoggedPage" } ) );
+
+        File changeLog = new File( props.getProperty( "jspwiki.workDir" ), "refmgr.log" );
+        assertTrue( "no change log", changeLog.length() > 0 );
+
+        TestEngine engine2 = new TestEngine( props );
+        ReferenceManager mgr2 = engine2.getReferenceManager();
+
+        Collection c = mgr2.findReferrers( "LoggedPage" );
+        assertTrue( "replayed", c != null && c.size() == 1 && c.contains( "Foobar" ) );
+        assertNull( "old reference", mgr2.findReferrers( "Foobar2" ) );
+    }
+
+    public void testCompact() throws Exception
+    {
+        mgr.updateReferences( "Foobar", Arrays.asList( new String[] { "LoggedPage" } ) );
+
+        mgr.compact();
+
+        File workDir = new File( props.getProperty( "jspwiki.workDir" ) );
+        assertFalse( "change log left", new File( workDir, "refmgr.log" ).exists() );
+        assertFalse( "old change log left", new File( workDir, "refmgr.log.old" ).exists() );
+
+        TestEngine engine2 = new TestEngine( props );
+        Collection c = engine2.getReferenceManager().findReferrers( "LoggedPage" );
+        assertTrue( "in snapshot", c != null && c.size() == 1 && c.contains( "Foobar" ) );
+    }
+
+    /**
+     *  Readers must never see a Set which is being modified.
+     */
+    public void testConcurrentReaders() throws Exception
+    {
+        final Throwable[] error = new Throwable[1];
+        final AtomicBoolean done = new AtomicBoolean();
+
+        Thread reader = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    while( !done.get() )
+                    {
+                        Collection c = mgr.findReferrers( "Foobar2" );
+                        if( c != null )
+                        {
+                            for( Iterator i = c.iterator(); i.hasNext(); ) i.next();
+                        }
+                        mgr.findUnreferenced();
+                        mgr.findUncreated();
+                    }
+                }
+                catch( Throwable t )
+                {
+                    error[0] = t;
+                }
+            }
+        };
+
+        reader.start();
+
+        for( int i = 0; i < 200; i++ )
+        {
+            mgr.updateReferences( "Referrer"+(i % 20), Arrays.asList( new String[] { "Foobar2", "Page"+i } ) );
+        }
+
+        done.set( true );
+        reader.join();
+
+        assertNull( "reader failed: "+error[0], error[0] );
+        assertEquals( "referrers", 21, mgr.findReferrers( "Foobar2" ).size() );
+    }
+
     public static Test suite()
     {
         return new TestSuite( ReferenceManagerTest.class );
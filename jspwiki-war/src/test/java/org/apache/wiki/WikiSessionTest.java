@@ -36,6 +36,7 @@ import net.sourceforge.stripes.mock.*;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.wiki.api.exceptions.WikiException;
 import org.apache.wiki.auth.AuthenticationManager;
+import org.apache.wiki.auth.SessionMonitor;
 import org.apache.wiki.auth.Users;
 import org.apache.wiki.auth.WikiPrincipal;
 import org.apache.wiki.auth.authorize.Role;
@@ -149,6 +150,41 @@ public class WikiSessionTest extends TestCase
         assertEquals( "Fred Flintstone", wikiSession.getUserPrincipal().getName() );
     }
         
+    public void testUserSessions() throws Exception
+    {
+        SessionMonitor monitor = SessionMonitor.getInstance( m_engine );
+        WikiSession anonymous = anonymousSession( m_engine );
+        Principal guest = anonymous.getUserPrincipal();
+        assertEquals( 1, monitor.sessions() );
+        assertEquals( 1, monitor.userSessions().get( guest ).intValue() );
+
+        // A second anonymous session, which then logs in
+        MockHttpServletRequest request = m_engine.newHttpRequest();
+        runSecurityFilter( m_engine, request );
+        WikiSession wikiSession = WikiSession.getWikiSession( m_engine, request );
+        assertEquals( 2, monitor.sessions() );
+        assertEquals( 1, monitor.users() );
+        assertEquals( 2, monitor.userSessions().get( guest ).intValue() );
+
+        m_engine.getAuthenticationManager().login( wikiSession, request, Users.JANNE, Users.JANNE_PASS );
+        authenticatedSession( m_engine, Users.JANNE, Users.JANNE_PASS );
+        Principal janne = wikiSession.getUserPrincipal();
+        assertEquals( "Janne Jalkanen", janne.getName() );
+        assertEquals( 3, monitor.sessions() );
+        assertEquals( 2, monitor.users() );
+        assertEquals( 1, monitor.userSessions().get( guest ).intValue() );
+        assertEquals( 2, monitor.userSessions().get( janne ).intValue() );
+
+        Principal[] principals = monitor.userPrincipals();
+        assertEquals( 3, principals.length );
+        assertEquals( "sorted", janne, principals[principals[0].equals( guest ) ? 1 : 0] );
+        assertEquals( "sorted", janne, principals[principals[0].equals( guest ) ? 2 : 1] );
+
+        m_engine.getAuthenticationManager().logout( request );
+        assertEquals( 2, monitor.sessions() );
+        assertEquals( 1, monitor.userSessions().get( janne ).intValue() );
+    }
+
     public void testAssertionCookie() throws ServletException, IOException
     {
         MockHttpServletRequest request;
@@ -33,6 +33,8 @@ public class AllTests extends TestCase
         TestSuite suite = new TestSuite("Attachment package");
 
         suite.addTest( AttachmentManagerTest.suite() );
+        suite.addTest( AttachmentServletTest.suite() );
+        suite.addTest( ByteRangeTest.suite() );
 
         return suite;
     }
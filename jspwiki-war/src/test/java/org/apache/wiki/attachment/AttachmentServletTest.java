@@ -0,0 +1,220 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.attachment;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.mock.MockHttpSession;
+import net.sourceforge.stripes.mock.MockServletConfig;
+
+import org.apache.wiki.TestEngine;
+import org.apache.wiki.util.FileUtil;
+
+public class AttachmentServletTest extends TestCase
+{
+    private static final String NAME1    = "TestPage";
+    private static final String CONTENTS = "ABCDEFGHIJKLMNOPQRSTUVWxyz";
+
+    TestEngine m_engine;
+    AttachmentServlet m_servlet;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        m_engine = new TestEngine( props );
+        m_engine.saveText( NAME1, "Foobar" );
+
+        File tmpFile = File.createTempFile( "test", "txt" );
+        tmpFile.deleteOnExit();
+
+        FileWriter out = new FileWriter( tmpFile );
+        FileUtil.copyContents( new StringReader( CONTENTS ), out );
+        out.close();
+
+        Attachment att = new Attachment( m_engine, NAME1, "test1.txt" );
+        att.setAuthor( "FirstPost" );
+        m_engine.getAttachmentManager().storeAttachment( att, tmpFile );
+
+        MockServletConfig config = new MockServletConfig();
+        config.setServletContext( m_engine.getServletContext() );
+
+        m_servlet = new AttachmentServlet();
+        m_servlet.init( config );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+
+        m_engine.deleteTestPage( NAME1 );
+        TestEngine.deleteAttachments( NAME1 );
+    }
+
+    private MockHttpServletResponse get( String[] headers ) throws Exception
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "/JSPWiki", "/attach" )
+        {
+            // The mock fails on date headers which have not been set.
+            public long getDateHeader( String name )
+            {
+                return getHeader( name ) != null ? super.getDateHeader( name ) : -1L;
+            }
+        };
+        request.setSession( new MockHttpSession( m_engine.getServletContext() ) );
+        request.addLocale( new Locale( "" ) );
+        request.setPathInfo( "/" + NAME1 + "/test1.txt" );
+
+        for( int i = 0; i < headers.length; i += 2 )
+        {
+            request.addHeader( headers[i], headers[i + 1] );
+        }
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        m_servlet.doGet( request, response );
+
+        return response;
+    }
+
+    private static String header( MockHttpServletResponse response, String name )
+    {
+        List<Object> values = response.getHeaderMap().get( name );
+
+        return values != null && !values.isEmpty() ? values.get( 0 ).toString() : null;
+    }
+
+    public void testDownload() throws Exception
+    {
+        MockHttpServletResponse res = get( new String[0] );
+
+        assertEquals( CONTENTS, res.getOutputString() );
+        assertEquals( "length", CONTENTS.length(), res.getContentLength() );
+        assertEquals( "bytes", header( res, "Accept-Ranges" ) );
+        assertNotNull( "etag", header( res, "ETag" ) );
+    }
+
+    public void testSingleRange() throws Exception
+    {
+        MockHttpServletResponse res = get( new String[] { "Range", "bytes=2-5" } );
+
+        assertEquals( HttpServletResponse.SC_PARTIAL_CONTENT, res.getStatus() );
+        assertEquals( "CDEF", res.getOutputString() );
+        assertEquals( "bytes 2-5/26", header( res, "Content-Range" ) );
+        assertEquals( 4, res.getContentLength() );
+    }
+
+    public void testSuffixRange() throws Exception
+    {
+        MockHttpServletResponse res = get( new String[] { "Range", "bytes=-3" } );
+
+        assertEquals( HttpServletResponse.SC_PARTIAL_CONTENT, res.getStatus() );
+        assertEquals( "xyz", res.getOutputString() );
+    }
+
+    public void testMultipleRanges() throws Exception
+    {
+        MockHttpServletResponse res = get( new String[] { "Range", "bytes=24-,0-1" } );
+
+        assertEquals( HttpServletResponse.SC_PARTIAL_CONTENT, res.getStatus() );
+        assertTrue( res.getContentType(), res.getContentType().startsWith( "multipart/byteranges; boundary=" ) );
+
+        String body = res.getOutputString();
+        String boundary = res.getContentType().substring( res.getContentType().indexOf( '=' ) + 1 );
+
+        assertEquals( "length", body.length(), res.getContentLength() );
+
+        int first  = body.indexOf( "Content-Range: bytes 24-25/26\r\n\r\nyz\r\n--" + boundary );
+        int second = body.indexOf( "Content-Range: bytes 0-1/26\r\n\r\nAB\r\n--" + boundary + "--" );
+
+        assertTrue( body, first > 0 );
+        assertTrue( "order", second > first );
+    }
+
+    public void testUnsatisfiableRange() throws Exception
+    {
+        MockHttpServletResponse res = get( new String[] { "Range", "bytes=100-" } );
+
+        assertEquals( HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, res.getStatus() );
+        assertEquals( "bytes */26", header( res, "Content-Range" ) );
+    }
+
+    public void testOverlappingRanges() throws Exception
+    {
+        MockHttpServletResponse res = get( new String[] { "Range", "bytes=0-,0-,2-4" } );
+
+        assertEquals( HttpServletResponse.SC_PARTIAL_CONTENT, res.getStatus() );
+        assertEquals( CONTENTS, res.getOutputString() );
+        assertEquals( "bytes 0-25/26", header( res, "Content-Range" ) );
+    }
+
+    public void testInvalidRange() throws Exception
+    {
+        MockHttpServletResponse res = get( new String[] { "Range", "bytes=" } );
+
+        assertEquals( HttpServletResponse.SC_OK, res.getStatus() );
+        assertEquals( CONTENTS, res.getOutputString() );
+    }
+
+    public void testIfNoneMatch() throws Exception
+    {
+        String etag = header( get( new String[0] ), "ETag" );
+
+        MockHttpServletResponse res = get( new String[] { "If-None-Match", etag } );
+
+        assertEquals( HttpServletResponse.SC_NOT_MODIFIED, res.getStatus() );
+
+        res = get( new String[] { "If-None-Match", "\"somethingelse\"" } );
+
+        assertEquals( CONTENTS, res.getOutputString() );
+    }
+
+    public void testIfRange() throws Exception
+    {
+        String etag = header( get( new String[0] ), "ETag" );
+
+        MockHttpServletResponse res = get( new String[] { "Range", "bytes=0-2", "If-Range", etag } );
+
+        assertEquals( "ABC", res.getOutputString() );
+
+        // The client has an older version, so it gets everything.
+        res = get( new String[] { "Range", "bytes=0-2", "If-Range", "\"somethingelse\"" } );
+
+        assertEquals( CONTENTS, res.getOutputString() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( AttachmentServletTest.class );
+    }
+}
@@ -0,0 +1,130 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.attachment;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ByteRangeTest extends TestCase
+{
+    private static void assertRange( ByteRange range, long start, long end )
+    {
+        assertEquals( "start", start, range.getStart() );
+        assertEquals( "end", end, range.getEnd() );
+    }
+
+    public void testSimple()
+    {
+        List<ByteRange> ranges = ByteRange.parse( "bytes=0-499", 1000 );
+
+        assertEquals( 1, ranges.size() );
+        assertRange( ranges.get( 0 ), 0, 499 );
+        assertEquals( 500, ranges.get( 0 ).getLength() );
+        assertEquals( "bytes 0-499/1000", ranges.get( 0 ).getContentRange( 1000 ) );
+    }
+
+    public void testOpenEnded()
+    {
+        assertRange( ByteRange.parse( "bytes=900-", 1000 ).get( 0 ), 900, 999 );
+    }
+
+    public void testSuffix()
+    {
+        assertRange( ByteRange.parse( "bytes=-100", 1000 ).get( 0 ), 900, 999 );
+        assertRange( ByteRange.parse( "bytes=-5000", 1000 ).get( 0 ), 0, 999 );
+    }
+
+    public void testEndPastSize()
+    {
+        assertRange( ByteRange.parse( "bytes=500-5000", 1000 ).get( 0 ), 500, 999 );
+    }
+
+    public void testLargeFile()
+    {
+        long size = 5L * 1024 * 1024 * 1024;
+
+        assertRange( ByteRange.parse( "bytes=4294967296-", size ).get( 0 ), 4294967296L, size - 1 );
+    }
+
+    public void testSeveral()
+    {
+        List<ByteRange> ranges = ByteRange.parse( "Bytes=0-0, -1 ,, 5-9", 1000 );
+
+        assertEquals( 3, ranges.size() );
+        assertRange( ranges.get( 0 ), 0, 0 );
+        assertRange( ranges.get( 1 ), 999, 999 );
+        assertRange( ranges.get( 2 ), 5, 9 );
+    }
+
+    public void testOverlapping()
+    {
+        List<ByteRange> ranges = ByteRange.parse( "bytes=0-,0-,0-", 1000 );
+
+        assertEquals( 1, ranges.size() );
+        assertRange( ranges.get( 0 ), 0, 999 );
+
+        ranges = ByteRange.parse( "bytes=500-599,10-19,20-29,550-", 1000 );
+
+        assertEquals( "sorted and merged", 2, ranges.size() );
+        assertRange( ranges.get( 0 ), 10, 29 );
+        assertRange( ranges.get( 1 ), 500, 999 );
+    }
+
+    public void testUnsatisfiable()
+    {
+        assertTrue( ByteRange.parse( "bytes=1000-", 1000 ).isEmpty() );
+        assertTrue( ByteRange.parse( "bytes=-0", 1000 ).isEmpty() );
+        assertTrue( ByteRange.parse( "bytes=0-", 0 ).isEmpty() );
+
+        assertEquals( "satisfiable ones are kept", 1, ByteRange.parse( "bytes=2000-,1-2", 1000 ).size() );
+    }
+
+    public void testInvalid()
+    {
+        assertNull( ByteRange.parse( null, 1000 ) );
+        assertNull( ByteRange.parse( "items=0-1", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=5-1", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=a-b", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=-", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=+1-2", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=12", 1000 ) );
+        assertNull( ByteRange.parse( "bytes=", 1000 ) );
+        assertNull( ByteRange.parse( "bytes= , ", 1000 ) );
+    }
+
+    public void testTooMany()
+    {
+        StringBuilder header = new StringBuilder( "bytes=0-0" );
+
+        for( int i = 1; i <= ByteRange.MAX_RANGES; i++ )
+        {
+            header.append( "," ).append( i ).append( "-" ).append( i );
+        }
+
+        assertNull( ByteRange.parse( header.toString(), 1000 ) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ByteRangeTest.class );
+    }
+}
@@ -481,6 +481,41 @@ public class AuthorizationManagerTest extends TestCase
         }
     }
 
+    public void testDecisionCache() throws Exception
+    {
+        m_engine.saveText( "CachedAcl", "[{ALLOW view Alice}] " );
+
+        WikiPage p = m_engine.getPage( "CachedAcl" );
+        Permission view = PermissionFactory.getPagePermission( p, "view" );
+        WikiSession bob = WikiSessionTest.authenticatedSession( m_engine, Users.BOB, Users.BOB_PASS );
+
+        long checks = m_auth.getPermissionChecks();
+        long hits = m_auth.getDecisionCacheHits();
+        assertFalse( "Bob !view CachedAcl", m_auth.checkPermission( bob, view ) );
+        assertFalse( "Bob !view CachedAcl, cached", m_auth.checkPermission( bob, view ) );
+        assertEquals( "checks", checks + 2, m_auth.getPermissionChecks() );
+        assertEquals( "hits", hits + 1, m_auth.getDecisionCacheHits() );
+
+        // Another session with the same principals shares the decision
+        WikiSession bob2 = WikiSessionTest.authenticatedSession( m_engine, Users.BOB, Users.BOB_PASS );
+        assertFalse( "Bob !view CachedAcl, other session", m_auth.checkPermission( bob2, view ) );
+        assertEquals( "shared", hits + 2, m_auth.getDecisionCacheHits() );
+
+        // A changed ACL is seen at once
+        m_engine.saveText( "CachedAcl", "[{ALLOW view Alice,Bob}] " );
+        assertTrue( "Bob view CachedAcl", m_auth.checkPermission( bob, view ) );
+
+        // Changing a group clears the cache
+        assertTrue( m_auth.getDecisionCacheSize() > 0 );
+        Group group = m_groupMgr.parseGroup( "CacheGroup", "Bob", true );
+        m_groupMgr.setGroup( m_session, group );
+        assertEquals( 0, m_auth.getDecisionCacheSize() );
+
+        // Cleanup
+        m_groupMgr.removeGroup( "CacheGroup" );
+        m_engine.deletePage( "CachedAcl" );
+    }
+
     /**
      * Any principal strings that have same names as built-in roles should
      * resolve as built-in roles!
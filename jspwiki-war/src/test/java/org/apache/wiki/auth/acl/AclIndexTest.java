@@ -0,0 +1,80 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.auth.acl;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class AclIndexTest extends TestCase
+{
+    private static String rules( String text )
+    {
+        return Arrays.asList( AclIndex.findRules( text ) ).toString();
+    }
+
+    public void testFindRules()
+    {
+        assertEquals( "[]", rules( "No rules here. [Link] [{Plugin}]" ) );
+        assertEquals( "[ALLOW view Alice, Bob]", rules( "Text [{ALLOW view Alice, Bob}] text" ) );
+        assertEquals( "[ALLOW edit Charlie, DENY view Herman]",
+                      rules( "[{ALLOW edit Charlie}]\n[Link]\n[{DENY view Herman}]" ) );
+    }
+
+    public void testSkipped()
+    {
+        assertEquals( "escaped", "[]", rules( "~[{ALLOW view Alice}]" ) );
+        assertEquals( "double bracket", "[]", rules( "[[{ALLOW view Alice}]" ) );
+        assertEquals( "preformatted", "[ALLOW edit Bob]",
+                      rules( "{{{\n[{ALLOW view Alice}]\n}}}\n[{ALLOW edit Bob}]" ) );
+        assertEquals( "escaped end of preformatted", "[ALLOW edit Bob]",
+                      rules( "{{{\nEnd with ~}}}\n[{ALLOW view Alice}]\n}}}\n[{ALLOW edit Bob}]" ) );
+        assertEquals( "inside plugin", "[]", rules( "[{Plugin body='[{ALLOW view Alice}]'}]" ) );
+        assertEquals( "unterminated", "[]", rules( "[{ALLOW view Alice" ) );
+    }
+
+    public void testSaveAndLoad() throws Exception
+    {
+        AclIndex index = new AclIndex();
+        index.put( "Page1", new AclIndex.Entry( 3, 1000L, new String[] { "ALLOW view Alice" } ) );
+        index.put( "Page2", new AclIndex.Entry( 1, 2000L, new String[0] ) );
+
+        File file = File.createTempFile( "aclindex", ".ser" );
+        file.deleteOnExit();
+        index.save( file );
+
+        AclIndex copy = new AclIndex();
+        copy.load( file );
+
+        assertEquals( 2, copy.size() );
+        assertTrue( copy.get( "Page1" ).isCurrent( 3, 1000L ) );
+        assertFalse( "other version", copy.get( "Page1" ).isCurrent( 4, 1000L ) );
+        assertFalse( "modified", copy.get( "Page1" ).isCurrent( 3, 1001L ) );
+        assertEquals( "ALLOW view Alice", copy.get( "Page1" ).getRules()[0] );
+        assertEquals( 0, copy.get( "Page2" ).getRules().length );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( AclIndexTest.class );
+    }
+}
@@ -35,6 +35,7 @@ public class AllTests extends TestCase
 
         suite.addTest( AclEntryImplTest.suite() );
         suite.addTest( AclImplTest.suite() );
+        suite.addTest( AclIndexTest.suite() );
         suite.addTest( DefaultAclManagerTest.suite() );
 
         return suite;
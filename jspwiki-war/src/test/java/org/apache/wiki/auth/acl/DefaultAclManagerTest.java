@@ -113,6 +113,26 @@ public class DefaultAclManagerTest
         assertEquals( 0, p.length );
     }
 
+    public void testGetPermissionsAfterSave() throws Exception
+    {
+        WikiPage page = m_engine.getPage( "TestAclPage" );
+        assertFalse( m_engine.getAclManager().getPermissions( page ).isEmpty() );
+
+        // A new version without access rules; a fresh page object has no cached ACL
+        m_engine.saveText( "TestAclPage", "Bar, no rules." );
+        page = m_engine.getPage( "TestAclPage" );
+        page.setAcl( null );
+        assertTrue( m_engine.getAclManager().getPermissions( page ).isEmpty() );
+
+        m_engine.saveText( "TestAclPage", "Bar. {{{[{ALLOW edit Charlie}]}}} [{ALLOW view Herman}]" );
+        page = m_engine.getPage( "TestAclPage" );
+        page.setAcl( null );
+        Acl acl = m_engine.getAclManager().getPermissions( page );
+        Principal[] p = acl.findPrincipals( PermissionFactory.getPagePermission( page, "view" ) );
+        assertEquals( 1, p.length );
+        assertEquals( new UnresolvedPrincipal( "Herman" ), p[0] );
+    }
+
     public void testAclRegex()
     {
         String acl;
@@ -19,7 +19,12 @@
 package org.apache.wiki.auth.user;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.security.Principal;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -36,11 +41,16 @@ import javax.sql.DataSource;
 import junit.framework.TestCase;
 
 import org.apache.wiki.HsqlDbUtils;
+import org.apache.wiki.NoRequiredPropertyException;
 import org.apache.wiki.TestJDBCDataSource;
+import org.apache.wiki.TestEngine;
 import org.apache.wiki.TestJNDIContext;
+import org.apache.wiki.WikiEngine;
 import org.apache.wiki.auth.NoSuchPrincipalException;
 import org.apache.wiki.auth.WikiSecurityException;
+import org.apache.wiki.event.WikiEngineEvent;
 import org.apache.wiki.util.CryptoUtil;
+import org.apache.wiki.util.PooledDataSource;
 
 /**
  */
@@ -49,6 +59,8 @@ public class JDBCUserDatabaseTest extends TestCase
     private HsqlDbUtils      m_hu   = new HsqlDbUtils();
     
     private JDBCUserDatabase m_db   = null;
+
+    private DataSource       m_ds   = null;
     
     private static final String TEST_ATTRIBUTES = "rO0ABXNyABFqYXZhLnV0aWwuSGFzaE1hcAUH2sHDFmDRAwACRgAKbG9hZEZhY3RvckkACXRocmVzaG9sZHhwP0AAAAAAAAx3CAAAABAAAAACdAAKYXR0cmlidXRlMXQAEXNvbWUgcmFuZG9tIHZhbHVldAAKYXR0cmlidXRlMnQADWFub3RoZXIgdmFsdWV4";
 
@@ -99,6 +111,7 @@ public class JDBCUserDatabaseTest extends TestCase
         Context ctx = (Context) initCtx.lookup( "java:comp/env" );
         DataSource ds = new TestJDBCDataSource( new File( "target/test-classes/jdbc.properties" ) );
         ctx.bind( JDBCUserDatabase.DEFAULT_DB_JNDI_NAME, ds );
+        m_ds = ds;
 
         // Get the JDBC connection and init tables
         try
@@ -464,6 +477,140 @@ public class JDBCUserDatabaseTest extends TestCase
         }
     }
 
+    public void testCache() throws Exception
+    {
+        UserProfile profile = m_db.findByLoginName( "janne" );
+        assertEquals( "janne@ecyrd.com", profile.getEmail() );
+
+        // Changes to a returned profile must not reach the cache
+        profile.setEmail( "changed@ecyrd.com" );
+        assertEquals( "janne@ecyrd.com", m_db.findByLoginName( "janne" ).getEmail() );
+        assertEquals( "janne@ecyrd.com", m_db.findByUid( "-7739839977499061014" ).getEmail() );
+
+        // Changes made behind our back are not seen until the cache is cleared...
+        Connection conn = m_ds.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate( "UPDATE users SET email='other@ecyrd.com' WHERE login_name='janne'" );
+        stmt.close();
+        conn.close();
+        assertEquals( "janne@ecyrd.com", m_db.findByLoginName( "janne" ).getEmail() );
+        assertEquals( "janne@ecyrd.com", m_db.findByUid( "-7739839977499061014" ).getEmail() );
+
+        // ...which saving any profile does
+        UserProfile user = m_db.findByLoginName( "user" );
+        user.setFullname( "Cached User" );
+        m_db.save( user );
+        assertEquals( "other@ecyrd.com", m_db.findByLoginName( "janne" ).getEmail() );
+        assertEquals( "Cached User", m_db.findByLoginName( "user" ).getFullname() );
+        assertEquals( 2, m_db.getWikiNames().length );
+
+        // A database without the cache always reads the table
+        Properties props = new Properties();
+        props.put( JDBCUserDatabase.PROP_DB_CACHE_SIZE, "0" );
+        JDBCUserDatabase db = new JDBCUserDatabase();
+        db.initialize( null, props );
+        assertEquals( "other@ecyrd.com", db.findByLoginName( "janne" ).getEmail() );
+    }
+
+    public void testCacheHitsDoNotQuery() throws Exception
+    {
+        // Counts the connections taken from the test DataSource
+        final int[] connections = new int[1];
+        InvocationHandler counter = new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+            {
+                if( method.getName().equals( "getConnection" ) )
+                {
+                    connections[0]++;
+                }
+                try
+                {
+                    return method.invoke( m_ds, args );
+                }
+                catch( InvocationTargetException e )
+                {
+                    throw e.getCause();
+                }
+            }
+        };
+        DataSource ds = (DataSource) Proxy.newProxyInstance( getClass().getClassLoader(), new Class[] { DataSource.class }, counter );
+        Context ctx = (Context) new InitialContext().lookup( "java:comp/env" );
+        ctx.bind( "jdbc/CountingDatabase", ds );
+
+        Properties props = new Properties();
+        props.put( JDBCUserDatabase.PROP_DB_DATASOURCE, "jdbc/CountingDatabase" );
+        JDBCUserDatabase db = new JDBCUserDatabase();
+        db.initialize( null, props );
+
+        // The first check upgrades the old password hash, and saves the profile
+        assertTrue( db.validatePassword( "janne", "myP@5sw0rd" ) );
+
+        // The first lookup after that reads the row, and nothing else
+        connections[0] = 0;
+        UserProfile profile = db.findByLoginName( "janne" );
+        assertEquals( 1, connections[0] );
+        assertEquals( "-7739839977499061014", profile.getUid() );
+
+        // Repeated lookups and password checks come from the cache
+        for( int i = 0; i < 5; i++ )
+        {
+            assertEquals( "-7739839977499061014", db.findByLoginName( "janne" ).getUid() );
+            assertTrue( db.validatePassword( "janne", "myP@5sw0rd" ) );
+        }
+        assertEquals( 1, connections[0] );
+    }
+
+    public void testConnectionPool() throws Exception
+    {
+        Properties jdbc = new Properties();
+        FileInputStream in = new FileInputStream( "target/test-classes/jdbc.properties" );
+        jdbc.load( in );
+        in.close();
+
+        // No such DataSource in JNDI, so the pool is used
+        Properties props = new Properties();
+        props.put( JDBCUserDatabase.PROP_DB_DATASOURCE, "jdbc/NoSuchDatabase" );
+        props.put( JDBCUserDatabase.PROP_DB_JDBC + PooledDataSource.PROP_DRIVER, jdbc.getProperty( "jdbc.driver.class" ) );
+        props.put( JDBCUserDatabase.PROP_DB_JDBC + PooledDataSource.PROP_URL, jdbc.getProperty( "jdbc.driver.url" ) );
+        props.put( JDBCUserDatabase.PROP_DB_JDBC + PooledDataSource.PROP_USER, jdbc.getProperty( "jdbc.user.id" ) );
+        props.put( JDBCUserDatabase.PROP_DB_JDBC + PooledDataSource.PROP_PASSWORD, jdbc.getProperty( "jdbc.user.password" ) );
+        props.put( JDBCUserDatabase.PROP_DB_JDBC + PooledDataSource.PROP_MAX_CONNECTIONS, "1" );
+        props.put( JDBCUserDatabase.PROP_DB_CACHE_SIZE, "0" );
+        Properties engineProps = new Properties();
+        engineProps.load( TestEngine.findTestProperties() );
+        WikiEngine engine = new TestEngine( engineProps );
+        JDBCUserDatabase db = new JDBCUserDatabase();
+        db.initialize( engine, props );
+
+        try
+        {
+            assertEquals( "janne@ecyrd.com", db.findByLoginName( "janne" ).getEmail() );
+            assertTrue( db.validatePassword( "user", "password" ) );
+            db.rename( "user", "pooleduser" );
+            assertEquals( "pooleduser", db.findByEmail( "jspwiki.tests@mailinator.com" ).getLoginName() );
+            db.deleteByLoginName( "pooleduser" );
+            assertEquals( 1, db.getWikiNames().length );
+        }
+        finally
+        {
+            // Closes the pool
+            db.actionPerformed( new WikiEngineEvent( engine, WikiEngineEvent.SHUTDOWN ) );
+        }
+
+        // Without a DataSource or a pool, initialization fails
+        props.remove( JDBCUserDatabase.PROP_DB_JDBC + PooledDataSource.PROP_URL );
+        try
+        {
+            new JDBCUserDatabase().initialize( null, props );
+            fail( "Initialized without a database" );
+        }
+        catch( NoRequiredPropertyException e )
+        {
+            // Good
+        }
+    }
+
     public void testValidatePassword()
     {
         assertFalse( m_db.validatePassword( "janne", "test" ) );
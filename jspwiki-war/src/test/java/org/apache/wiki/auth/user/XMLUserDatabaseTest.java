@@ -43,18 +43,22 @@ public class XMLUserDatabaseTest extends TestCase
 
   private XMLUserDatabase m_db;
 
+  private WikiEngine m_engine;
+
+  private Properties m_props;
+
   /**
    * @see junit.framework.TestCase#setUp()
    */
   protected void setUp() throws Exception
   {
       super.setUp();
-      Properties props = new Properties();
-      props.load( TestEngine.findTestProperties() );
-      props.put(XMLUserDatabase.PROP_USERDATABASE, "target/test-classes/userdatabase.xml" );
-      WikiEngine engine  = new TestEngine(props);
+      m_props = new Properties();
+      m_props.load( TestEngine.findTestProperties() );
+      m_props.put(XMLUserDatabase.PROP_USERDATABASE, "target/test-classes/userdatabase.xml" );
+      m_engine  = new TestEngine(m_props);
       m_db = new XMLUserDatabase();
-      m_db.initialize(engine, props);
+      m_db.initialize(m_engine, m_props);
   }
 
   public void testDeleteByLoginName() throws WikiSecurityException
@@ -359,6 +363,74 @@ public class XMLUserDatabaseTest extends TestCase
       }
   }
 
+  public void testIndexes() throws Exception
+  {
+      UserProfile profile = m_db.newProfile();
+      profile.setEmail( "indexed@mailinator.com" );
+      profile.setLoginName( "indexeduser" );
+      profile.setFullname( "Indexed User" );
+      profile.setPassword( "password" );
+      m_db.save( profile );
+      String uid = m_db.findByLoginName( "indexeduser" ).getUid();
+
+      // Change the indexed attributes; the old values must no longer be found
+      profile = m_db.findByUid( uid );
+      profile.setEmail( "reindexed@mailinator.com" );
+      profile.setFullname( "Reindexed User" );
+      m_db.save( profile );
+      assertEquals( uid, m_db.findByEmail( "reindexed@mailinator.com" ).getUid() );
+      assertEquals( uid, m_db.findByFullName( "Reindexed User" ).getUid() );
+      assertEquals( uid, m_db.findByWikiName( "ReindexedUser" ).getUid() );
+      try
+      {
+          m_db.findByEmail( "indexed@mailinator.com" );
+          fail( "Found old e-mail address" );
+      }
+      catch( NoSuchPrincipalException e )
+      {
+          // Good
+      }
+      try
+      {
+          m_db.findByFullName( "Indexed User" );
+          fail( "Found old full name" );
+      }
+      catch( NoSuchPrincipalException e )
+      {
+          // Good
+      }
+
+      m_db.rename( "indexeduser", "renamedindexeduser" );
+      assertEquals( uid, m_db.findByLoginName( "renamedindexeduser" ).getUid() );
+      try
+      {
+          m_db.findByLoginName( "indexeduser" );
+          fail( "Found old login name" );
+      }
+      catch( NoSuchPrincipalException e )
+      {
+          // Good
+      }
+
+      // A fresh database reads the changes back from the file
+      XMLUserDatabase db = new XMLUserDatabase();
+      db.initialize( m_engine, m_props );
+      profile = db.findByUid( uid );
+      assertEquals( "renamedindexeduser", profile.getLoginName() );
+      assertEquals( "reindexed@mailinator.com", profile.getEmail() );
+
+      m_db.deleteByLoginName( "renamedindexeduser" );
+      try
+      {
+          m_db.findByUid( uid );
+          fail( "Found deleted user" );
+      }
+      catch( NoSuchPrincipalException e )
+      {
+          // Good
+      }
+  }
+
   public void testValidatePassword()
   {
       assertFalse(m_db.validatePassword("janne", "test"));
@@ -34,6 +34,9 @@ public class AllTests extends TestCase
         TestSuite suite = new TestSuite("DIFF tests");
 
         suite.addTest( ContextualDiffProviderTest.suite() );
+        suite.addTest( DifferenceManagerTest.suite() );
+        suite.addTest( LinearDiffTest.suite() );
+        suite.addTest( LinearDiffProviderTest.suite() );
 
         return suite;
     }
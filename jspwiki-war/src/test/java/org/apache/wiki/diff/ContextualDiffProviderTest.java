@@ -185,10 +185,15 @@ public class ContextualDiffProviderTest extends TestCase
     }
      */
     
-    private void diffTest(String contextLimit, String oldText, String newText, String expectedDiff)
+    protected ContextualDiffProvider createProvider()
+    {
+        return new ContextualDiffProvider();
+    }
+
+    protected void diffTest(String contextLimit, String oldText, String newText, String expectedDiff)
         throws IOException, WikiException
     {
-        ContextualDiffProvider diff = new ContextualDiffProvider();
+        ContextualDiffProvider diff = createProvider();
 
         specializedNotation(diff);
 
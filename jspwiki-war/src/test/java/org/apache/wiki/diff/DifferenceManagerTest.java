@@ -0,0 +1,106 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.diff;
+
+import java.io.File;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.TestEngine;
+import org.apache.wiki.WikiContext;
+import org.apache.wiki.WikiPage;
+import org.apache.wiki.providers.FileSystemProvider;
+import org.apache.wiki.providers.WikiPageProvider;
+
+public class DifferenceManagerTest extends TestCase
+{
+    private static final String NAME1 = "DiffCacheTest";
+
+    TestEngine m_engine;
+
+    Properties props = new Properties();
+
+    public void setUp()
+        throws Exception
+    {
+        props.load( TestEngine.findTestProperties() );
+        props.setProperty( "jspwiki.pageProvider", "VersioningFileProvider" );
+
+        TestEngine.emptyWorkDir();
+        m_engine = new TestEngine( props );
+    }
+
+    public void tearDown()
+    {
+        TestEngine.deleteAll( new File( props.getProperty( FileSystemProvider.PROP_PAGEDIR ) ) );
+        TestEngine.emptyWorkDir();
+    }
+
+    private String diff( int version1, int version2 )
+    {
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( NAME1 ) );
+
+        return m_engine.getDiff( context, version1, version2 );
+    }
+
+    public void testCached()
+        throws Exception
+    {
+        m_engine.saveText( NAME1, "Alpha\n" );
+        m_engine.saveText( NAME1, "Beta\n" );
+
+        String diff = diff( 1, 2 );
+
+        assertTrue( diff, diff.indexOf( "Beta" ) >= 0 );
+        assertSame( "cached", diff, diff( 1, 2 ) );
+        assertSame( "latest", diff, diff( 1, WikiPageProvider.LATEST_VERSION ) );
+
+        m_engine.saveText( NAME1, "Gamma\n" );
+
+        String latest = diff( 1, WikiPageProvider.LATEST_VERSION );
+        assertTrue( latest, latest.indexOf( "Gamma" ) >= 0 );
+        assertSame( "old diff", diff, diff( 1, 2 ) );
+    }
+
+    public void testDeleteVersion()
+        throws Exception
+    {
+        m_engine.saveText( NAME1, "Alpha\n" );
+        m_engine.saveText( NAME1, "Beta\n" );
+
+        String diff = diff( 1, 2 );
+        assertTrue( diff, diff.indexOf( "Beta" ) >= 0 );
+
+        WikiPage page = m_engine.getPage( NAME1, 2 );
+        m_engine.deleteVersion( page );
+        m_engine.saveText( NAME1, "Gamma\n" );
+
+        diff = diff( 1, 2 );
+        assertTrue( diff, diff.indexOf( "Gamma" ) >= 0 );
+        assertTrue( diff, diff.indexOf( "Beta" ) < 0 );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DifferenceManagerTest.class );
+    }
+}
@@ -0,0 +1,158 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.suigeneris.jrcs.diff.Diff;
+import org.suigeneris.jrcs.diff.Revision;
+import org.suigeneris.jrcs.diff.delta.Delta;
+import org.suigeneris.jrcs.diff.myers.MyersDiff;
+
+public class LinearDiffTest extends TestCase
+{
+    /** The number of elements deleted and added by a revision. */
+    private static int editSize( Revision rev )
+    {
+        int size = 0;
+
+        for( int i = 0; i < rev.size(); i++ )
+        {
+            Delta d = rev.getDelta( i );
+            size += d.getOriginal().size() + d.getRevised().size();
+        }
+
+        return size;
+    }
+
+    private static Object[] split( String s )
+    {
+        List<String> result = new ArrayList<String>();
+
+        for( int i = 0; i < s.length(); i++ )
+        {
+            result.add( s.substring( i, i + 1 ) );
+        }
+
+        return result.toArray();
+    }
+
+    private void check( Object[] a, Object[] b )
+        throws Exception
+    {
+        Revision rev = new LinearDiff().diff( a, b );
+
+        assertTrue( "patch " + Arrays.asList( a ) + " -> " + Arrays.asList( b ), Arrays.equals( b, rev.patch( a ) ) );
+
+        Revision myers = Diff.diff( a, b, new MyersDiff() );
+        assertEquals( "minimal " + Arrays.asList( a ) + " -> " + Arrays.asList( b ), editSize( myers ), editSize( rev ) );
+    }
+
+    public void testSimple()
+        throws Exception
+    {
+        check( split( "" ), split( "" ) );
+        check( split( "" ), split( "abc" ) );
+        check( split( "abc" ), split( "" ) );
+        check( split( "abc" ), split( "abc" ) );
+        check( split( "a" ), split( "b" ) );
+        check( split( "abc" ), split( "axc" ) );
+        check( split( "abcabba" ), split( "cbabac" ) );
+        check( split( "the quick brown fox" ), split( "a quick brown dog" ) );
+    }
+
+    public void testDeltas()
+        throws Exception
+    {
+        Revision rev = new LinearDiff().diff( split( "abcdef" ), split( "abXdefY" ) );
+
+        assertEquals( 2, rev.size() );
+        assertEquals( 2, rev.getDelta( 0 ).getOriginal().first() );
+        assertEquals( 1, rev.getDelta( 0 ).getOriginal().size() );
+        assertEquals( 0, rev.getDelta( 1 ).getOriginal().size() );
+        assertEquals( 6, rev.getDelta( 1 ).getOriginal().anchor() );
+    }
+
+    public void testRandom()
+        throws Exception
+    {
+        Random random = new Random( 42 );
+
+        for( int round = 0; round < 500; round++ )
+        {
+            Object[] a = randomText( random, random.nextInt( 60 ) );
+            List<Object> b = new ArrayList<Object>( Arrays.asList( a ) );
+
+            int edits = random.nextInt( 10 );
+            for( int i = 0; i < edits; i++ )
+            {
+                int pos = b.isEmpty() ? 0 : random.nextInt( b.size() );
+
+                if( random.nextBoolean() && !b.isEmpty() )
+                {
+                    b.remove( pos );
+                }
+                else
+                {
+                    b.add( pos, randomText( random, 1 )[0] );
+                }
+            }
+
+            check( a, b.toArray() );
+        }
+    }
+
+    private static Object[] randomText( Random random, int length )
+    {
+        Object[] result = new Object[length];
+
+        for( int i = 0; i < length; i++ )
+        {
+            result[i] = String.valueOf( (char)('a' + random.nextInt( 4 )) );
+        }
+
+        return result;
+    }
+
+    public void testTimeLimit()
+        throws Exception
+    {
+        Random random = new Random( 42 );
+        Object[] a = randomText( random, 20000 );
+        Object[] b = randomText( random, 20000 );
+
+        LinearDiff diff = new LinearDiff( 1 );
+        Revision rev = diff.diff( a, b );
+
+        assertTrue( "patch", Arrays.equals( b, rev.patch( a ) ) );
+        assertTrue( "timed out", diff.isTimedOut() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LinearDiffTest.class );
+    }
+}
@@ -2405,6 +2405,41 @@ public class JSPWikiMarkupParserTest extends TestCase
         }
     }
 
+    /**
+     *  The link only scan must find exactly the links that a full parse finds.
+     */
+    public void testScanLinks()
+    throws Exception
+    {
+        String src = "[Foobar] [link text|Target] [Sect#section] [1] [#1] [[NotALink] ~[Escaped]\n"+
+                     "{{{ [Preformatted] ~}}} [StillPreformatted] }}} [{$pagename}] [{INSERT Counter}]\n"+
+                     "%%(color:red) [Styled] %% [http://www.example.com/] [Foobar/attachment.txt]\n"+
+                     "__CamelCase__ ~NotCamelCase [Unterminated";
+
+        WikiPage page = new WikiPage( testEngine, PAGE_NAME );
+        page.setAttribute( JSPWikiMarkupParser.PROP_CAMELCASELINKS, "true" );
+
+        LinkCollector parsed = new LinkCollector();
+        MarkupParser p = new JSPWikiMarkupParser( new WikiContext( testEngine, page ),
+                                                  new BufferedReader( new StringReader(src)) );
+        p.addLocalLinkHook( parsed );
+        p.addExternalLinkHook( parsed );
+        p.addAttachmentLinkHook( parsed );
+        p.parse();
+
+        LinkCollector scanned = new LinkCollector();
+        p = new JSPWikiMarkupParser( new WikiContext( testEngine, page ),
+                                     new BufferedReader( new StringReader(src)) );
+        p.addLocalLinkHook( scanned );
+        p.addExternalLinkHook( scanned );
+        p.addAttachmentLinkHook( scanned );
+        p.scanLinks();
+
+        assertEquals( "[Foobar, Target, Sect, Styled, http://www.example.com/, Foobar/attachment.txt, CamelCase]",
+                      scanned.getLinks().toString() );
+        assertEquals( parsed.getLinks().toString(), scanned.getLinks().toString() );
+    }
+
     public void testDivStyle1()
     throws Exception
     {
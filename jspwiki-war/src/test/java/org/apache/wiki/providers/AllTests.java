@@ -34,8 +34,12 @@ public class AllTests extends TestCase
 
         suite.addTest( BasicAttachmentProviderTest.suite() );
         suite.addTest( CachingProviderTest.suite() );
+        suite.addTest( ChangeJournalTest.suite() );
         suite.addTest( FileSystemProviderTest.suite() );
+        suite.addTest( JavaRCSFileProviderTest.suite() );
         suite.addTest( RCSFileProviderTest.suite() );
+        suite.addTest( RCSArchiveTest.suite() );
+        suite.addTest( StripedLRUCacheTest.suite() );
         suite.addTest( VersioningFileProviderTest.suite() );
 
         return suite;
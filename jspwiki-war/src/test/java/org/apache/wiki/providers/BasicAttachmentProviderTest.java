@@ -209,6 +209,39 @@ public class BasicAttachmentProviderTest extends TestCase
     }
 
 
+    public void testListChangedSince()
+        throws Exception
+    {
+        File in = makeAttachmentFile();
+        Date start = new Date();
+        Thread.sleep( 1000L ); // File times may have a granularity of one second
+
+        Attachment att = new Attachment( m_engine, NAME1, "test1.txt" );
+        m_provider.putAttachmentData( att, new FileInputStream(in) );
+
+        Thread.sleep( 1000L );
+
+        Attachment att2 = new Attachment( m_engine, NAME2, "test2.txt" );
+        m_provider.putAttachmentData( att2, new FileInputStream(in) );
+
+        List res = m_provider.listAllChanged( start );
+
+        assertEquals( "list size", 2, res.size() );
+        assertEquals( "most recent", att2.getName(), ((Attachment) res.get(0)).getName() );
+        assertEquals( "least recent", att.getName(), ((Attachment) res.get(1)).getName() );
+
+        m_provider.deleteAttachment( att2 );
+        m_provider.moveAttachmentsForPage( NAME1, "TestPageMoved" );
+
+        res = m_provider.listAllChanged( start );
+
+        assertEquals( "list size after move", 1, res.size() );
+        assertEquals( "moved", "TestPageMoved/test1.txt", ((Attachment) res.get(0)).getName() );
+
+        TestEngine.deleteAll( new File( props.getProperty( BasicAttachmentProvider.PROP_STORAGEDIR ),
+                                        "TestPageMoved" + BasicAttachmentProvider.DIR_EXTENSION ) );
+    }
+
     /**
      *  Check that the system does not fail if there are extra files in the directory.
      */
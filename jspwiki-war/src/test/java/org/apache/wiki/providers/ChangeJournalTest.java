@@ -0,0 +1,134 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.TestEngine;
+
+public class ChangeJournalTest extends TestCase
+{
+    private File m_dir;
+
+    private File m_file;
+
+    private long m_now;
+
+    public void setUp()
+    {
+        m_dir = new File( System.getProperty( "java.io.tmpdir" ), "jspwiki.test.journal" );
+        TestEngine.deleteAll( m_dir );
+        m_dir.mkdirs();
+        m_file = new File( m_dir, "test.journal" );
+    }
+
+    /** Opens a journal; all changes after m_now are covered by it. */
+    private ChangeJournal open()
+        throws Exception
+    {
+        ChangeJournal journal = new ChangeJournal( m_file );
+        m_now = System.currentTimeMillis();
+        return journal;
+    }
+
+    public void tearDown()
+    {
+        TestEngine.deleteAll( m_dir );
+    }
+
+    public void testChangedSince()
+        throws Exception
+    {
+        ChangeJournal journal = open();
+
+        journal.changed( "Foo", m_now + 1000 );
+        journal.changed( "Bar", m_now + 2000 );
+        journal.changed( "\u00c5\u00e4 Test", m_now + 3000 );
+        journal.changed( "Foo", m_now + 4000 );
+
+        assertEquals( Arrays.asList( "Foo", "\u00c5\u00e4 Test", "Bar" ), journal.getChangedSince( new Date( m_now ) ) );
+        assertEquals( Arrays.asList( "Foo", "\u00c5\u00e4 Test" ), journal.getChangedSince( new Date( m_now + 3000 ) ) );
+
+        journal.removed( "Foo" );
+        assertEquals( Arrays.asList( "\u00c5\u00e4 Test", "Bar" ), journal.getChangedSince( new Date( m_now ) ) );
+
+        assertNull( "before the journal", journal.getChangedSince( new Date( 0L ) ) );
+    }
+
+    public void testReopen()
+        throws Exception
+    {
+        ChangeJournal journal = open();
+        journal.changed( "Foo", m_now + 1000 );
+
+        ChangeJournal other = new ChangeJournal( m_file );
+        assertEquals( Arrays.asList( "Foo" ), other.getChangedSince( new Date( m_now ) ) );
+
+        other.changed( "Bar", m_now + 2000 );
+        assertEquals( Arrays.asList( "Bar", "Foo" ), journal.getChangedSince( new Date( m_now ) ) );
+    }
+
+    public void testCompact()
+        throws Exception
+    {
+        ChangeJournal journal = open();
+        ChangeJournal other = new ChangeJournal( m_file );
+
+        journal.changed( "Bar", m_now + 1 );
+        long length = 0;
+        for( int i = 0; i < 2000; i++ )
+        {
+            journal.changed( "Foo", m_now + i );
+            length = Math.max( length, m_file.length() );
+        }
+
+        assertTrue( "compacted", m_file.length() < length );
+
+        List<String> changed = journal.getChangedSince( new Date( m_now ) );
+        assertEquals( Arrays.asList( "Foo", "Bar" ), changed );
+        assertEquals( "read again", changed, other.getChangedSince( new Date( m_now ) ) );
+        assertEquals( "start kept", changed, new ChangeJournal( m_file ).getChangedSince( new Date( m_now ) ) );
+    }
+
+    public void testRestart()
+        throws Exception
+    {
+        ChangeJournal journal = open();
+        journal.changed( "Foo", m_now + 1000 );
+
+        Thread.sleep( 10L );
+        m_file.delete();
+
+        journal.changed( "Bar", m_now + 2000 );
+        assertNull( "restarted", journal.getChangedSince( new Date( m_now ) ) );
+        assertEquals( Arrays.asList( "Bar" ), journal.getChangedSince( new Date( m_now + 1000 ) ) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ChangeJournalTest.class );
+    }
+}
@@ -22,6 +22,9 @@ package org.apache.wiki.providers;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.Properties;
 
 import junit.framework.Test;
@@ -291,6 +294,33 @@ public class FileSystemProviderTest extends TestCase
         assertFalse( "properties exist", f.exists() );
     }
 
+    public void testGetAllChangedSince()
+        throws Exception
+    {
+        Date start = new Date();
+        Thread.sleep( 1000L ); // File times may have a granularity of one second
+
+        m_provider.putPageText( new WikiPage( m_engine, "Foo" ), "foo" );
+        m_provider.putPageText( new WikiPage( m_engine, "Bar" ), "bar" );
+        m_provider.putPageText( new WikiPage( m_engine, "Gone" ), "gone" );
+
+        assertEquals( 3, m_provider.getAllChangedSince( start ).size() );
+
+        m_provider.deletePage( "Gone" );
+        m_providerUTF8.movePage( "Bar", "Baz" );
+
+        Collection changed = m_provider.getAllChangedSince( start );
+        assertEquals( 2, changed.size() );
+        for( Iterator i = changed.iterator(); i.hasNext(); )
+        {
+            String name = ((WikiPage) i.next()).getName();
+            assertTrue( name, name.equals( "Foo" ) || name.equals( "Baz" ) );
+        }
+
+        assertEquals( "before the journal", 2, m_provider.getAllChangedSince( new Date( 0L ) ).size() );
+        assertEquals( 0, m_provider.getAllChangedSince( new Date( System.currentTimeMillis() + 10000L ) ).size() );
+    }
+
     public static Test suite()
     {
         return new TestSuite( FileSystemProviderTest.class );
@@ -0,0 +1,296 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.io.*;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.*;
+import org.apache.wiki.util.FileUtil;
+
+/**
+ *  Tests the JavaRCSFileProvider.  Unlike the RCSFileProviderTest, these
+ *  do not need RCS to be installed.
+ */
+public class JavaRCSFileProviderTest extends TestCase
+{
+    public static final String NAME1 = "Test1";
+
+    Properties props = new Properties();
+
+    TestEngine engine;
+
+    String m_pageDir;
+
+    public JavaRCSFileProviderTest( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+        throws Exception
+    {
+        props.load( TestEngine.findTestProperties("/jspwiki_rcs.properties") );
+        props.setProperty( PageManager.PROP_PAGEPROVIDER, "JavaRCSFileProvider" );
+        props.setProperty( PageManager.PROP_USECACHE, "false" );
+
+        m_pageDir = props.getProperty( FileSystemProvider.PROP_PAGEDIR );
+        TestEngine.deleteAll( new File( m_pageDir ) );
+
+        engine = new TestEngine(props);
+    }
+
+    public void tearDown()
+    {
+        TestEngine.deleteAll( new File( m_pageDir ) );
+    }
+
+    private File archiveFile( String name )
+    {
+        return new File( m_pageDir + File.separator + "RCS", name + FileSystemProvider.FILE_EXT + ",v" );
+    }
+
+    private WikiPageProvider getProvider()
+    {
+        return engine.getPageManager().getProvider();
+    }
+
+    public void testVersions()
+        throws Exception
+    {
+        engine.saveText( NAME1, "v1\r\n" );
+        engine.saveText( NAME1, "v2\r\n" );
+        engine.saveText( NAME1, "v3\r\n" );
+
+        assertTrue( "no archive", archiveFile( NAME1 ).exists() );
+
+        WikiPage page = engine.getPage( NAME1 );
+        assertEquals( "version", 3, page.getVersion() );
+
+        assertEquals( "v1", "v1\r\n", engine.getText( NAME1, 1 ) );
+        assertEquals( "v2", "v2\r\n", engine.getText( NAME1, 2 ) );
+        assertEquals( "v3", "v3\r\n", engine.getText( NAME1, 3 ) );
+
+        List l = getProvider().getVersionHistory( NAME1 );
+        assertEquals( "history", 3, l.size() );
+        assertEquals( "newest first", 3, ((WikiPage)l.get( 0 )).getVersion() );
+
+        page = engine.getPage( NAME1, 1 );
+        assertEquals( "size", 4, page.getSize() );
+    }
+
+    public void testMillionChanges()
+        throws Exception
+    {
+        String text = "";
+        int    maxver = 100;
+
+        for( int i = 0; i < maxver; i++ )
+        {
+            text = text + ".";
+            engine.saveText( NAME1, text );
+        }
+
+        WikiPage pageinfo = engine.getPage( NAME1 );
+
+        assertEquals( "wrong version", maxver, pageinfo.getVersion() );
+        // +2 comes from \r\n at the end of each file.
+        assertEquals( "wrong text", maxver+2, engine.getText( NAME1 ).length() );
+        assertEquals( "first", ".\r\n", engine.getText( NAME1, 1 ) );
+    }
+
+    /**
+     *  Checks that a page saved by the FileSystemProvider is its first version.
+     */
+    public void testMigration()
+        throws IOException
+    {
+        File f = new File( m_pageDir, NAME1+FileSystemProvider.FILE_EXT );
+
+        Writer out = new FileWriter( f );
+        FileUtil.copyContents( new StringReader("foobar"), out );
+        out.close();
+
+        assertEquals( "latest did not work", "foobar", engine.getText( NAME1 ) );
+        assertEquals( "fetch by direct version did not work", "foobar", engine.getText( NAME1, 1 ) );
+        assertEquals( "version", 1, engine.getPage( NAME1 ).getVersion() );
+    }
+
+    /**
+     *  Checks that an archive written by RCS can be read.
+     */
+    public void testExistingArchive()
+        throws Exception
+    {
+        new File( m_pageDir, "RCS" ).mkdirs();
+        RCSArchiveTest.writeFile( new File( m_pageDir, NAME1+FileSystemProvider.FILE_EXT ), RCSArchiveTest.TEXT3 );
+        RCSArchiveTest.writeFile( archiveFile( NAME1 ), RCSArchiveTest.SAMPLE );
+
+        WikiPage page = engine.getPage( NAME1 );
+        assertEquals( "version", 3, page.getVersion() );
+        assertEquals( "author", "Janne", page.getAuthor() );
+        assertEquals( "changenote", "Fixed typo", page.getAttribute( WikiPage.CHANGENOTE ) );
+
+        assertEquals( "v1", RCSArchiveTest.TEXT1, engine.getText( NAME1, 1 ) );
+        assertEquals( "v2", RCSArchiveTest.TEXT2, engine.getText( NAME1, 2 ) );
+
+        engine.saveText( NAME1, "New text\r\n" );
+
+        assertEquals( "new version", 4, engine.getPage( NAME1 ).getVersion() );
+        assertEquals( "v4", "New text\r\n", engine.getText( NAME1, 4 ) );
+        assertEquals( "v3", RCSArchiveTest.TEXT3, engine.getText( NAME1, 3 ) );
+    }
+
+    /**
+     *  The cached metadata must not hide changes made by someone else.
+     */
+    public void testExternalChange()
+        throws Exception
+    {
+        engine.saveText( NAME1, "v1\r\n" );
+        engine.saveText( NAME1, "v2\r\n" );
+
+        assertEquals( "version", 2, engine.getPage( NAME1 ).getVersion() );
+
+        File archive = archiveFile( NAME1 );
+        RCSArchive rcs = RCSArchive.read( archive, true );
+        rcs.addRevision( "v3\r\n", new Date(), "someone", "author=Other;changenote=" );
+        rcs.write( archive );
+
+        WikiPage page = engine.getPage( NAME1, 3 );
+        assertNotNull( "new version not seen", page );
+        assertEquals( "author", "Other", page.getAuthor() );
+        assertEquals( "history", 3, getProvider().getVersionHistory( NAME1 ).size() );
+    }
+
+    public void testGetByLatestVersion()
+        throws Exception
+    {
+        engine.saveText( NAME1, "diddo\r\n" );
+
+        WikiPage page = engine.getPage( NAME1, WikiProvider.LATEST_VERSION );
+
+        assertEquals( "name", NAME1, page.getName() );
+        assertEquals( "version", 1, page.getVersion() );
+        assertNull( "no such version", engine.getPage( NAME1, 2 ) );
+    }
+
+    public void testDelete()
+        throws Exception
+    {
+        engine.saveText( NAME1, "v1" );
+        engine.saveText( NAME1, "v2" );
+
+        getProvider().deletePage( NAME1 );
+
+        assertFalse( "file exists", new File( m_pageDir, NAME1+FileSystemProvider.FILE_EXT ).exists() );
+        assertFalse( "RCS file exists", archiveFile( NAME1 ).exists() );
+        assertFalse( "page exists", engine.pageExists( NAME1 ) );
+    }
+
+    public void testDeleteVersion()
+        throws Exception
+    {
+        engine.saveText( NAME1, "v1\r\n" );
+        engine.saveText( NAME1, "v2\r\n" );
+        engine.saveText( NAME1, "v3\r\n" );
+
+        WikiPageProvider provider = getProvider();
+
+        provider.deleteVersion( NAME1, 2 );
+
+        List l = provider.getVersionHistory( NAME1 );
+
+        assertEquals( "wrong # of versions", 2, l.size() );
+
+        assertEquals( "v1", "v1\r\n", provider.getPageText( NAME1, 1 ) );
+        assertEquals( "v3", "v3\r\n", provider.getPageText( NAME1, 3 ) );
+
+        try
+        {
+            provider.getPageText( NAME1, 2 );
+            fail( "v2" );
+        }
+        catch( NoSuchVersionException e )
+        {
+            // This is expected
+        }
+    }
+
+    public void testDeleteLatestVersion()
+        throws Exception
+    {
+        engine.saveText( NAME1, "v1\r\n" );
+        engine.saveText( NAME1, "v2\r\n" );
+
+        WikiPageProvider provider = getProvider();
+
+        provider.deleteVersion( NAME1, WikiProvider.LATEST_VERSION );
+
+        assertEquals( "versions", 1, provider.getVersionHistory( NAME1 ).size() );
+        assertEquals( "version", 1, provider.getPageInfo( NAME1, WikiProvider.LATEST_VERSION ).getVersion() );
+        assertEquals( "latest", "v1\r\n", provider.getPageText( NAME1, WikiProvider.LATEST_VERSION ) );
+
+        provider.deleteVersion( NAME1, 1 );
+
+        assertFalse( "page exists", provider.pageExists( NAME1 ) );
+        assertFalse( "RCS file exists", archiveFile( NAME1 ).exists() );
+    }
+
+    public void testMovePage()
+        throws Exception
+    {
+        engine.saveText( NAME1, "v1\r\n" );
+        engine.saveText( NAME1, "v2\r\n" );
+
+        getProvider().movePage( NAME1, "Test2" );
+
+        assertFalse( "old page exists", getProvider().pageExists( NAME1 ) );
+        assertFalse( "old RCS file exists", archiveFile( NAME1 ).exists() );
+        assertEquals( "version", 2, getProvider().getPageInfo( "Test2", WikiProvider.LATEST_VERSION ).getVersion() );
+        assertEquals( "v1", "v1\r\n", getProvider().getPageText( "Test2", 1 ) );
+    }
+
+    public void testChangeNoteOldVersion()
+        throws Exception
+    {
+        WikiPage p = new WikiPage( engine, NAME1 );
+        WikiContext context = new WikiContext(engine,p);
+
+        context.getPage().setAttribute(WikiPage.CHANGENOTE, "Test change" );
+        engine.saveText( context, "test" );
+
+        context.getPage().setAttribute(WikiPage.CHANGENOTE, "Change 2; with = signs" );
+        engine.saveText( context, "test2" );
+
+        assertEquals( "Test change", engine.getPage( NAME1, 1 ).getAttribute(WikiPage.CHANGENOTE) );
+        assertEquals( "Change 2; with = signs", engine.getPage( NAME1, 2 ).getAttribute(WikiPage.CHANGENOTE) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( JavaRCSFileProviderTest.class );
+    }
+}
@@ -0,0 +1,302 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.providers;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.TestEngine;
+import org.apache.wiki.util.FileUtil;
+
+public class RCSArchiveTest extends TestCase
+{
+    /** An archive in the format written by GNU RCS. */
+    static final String SAMPLE =
+        "head\t1.3;\n" +
+        "access;\n" +
+        "symbols;\n" +
+        "locks\n" +
+        "\tjalkanen:1.3; strict;\n" +
+        "comment\t@# @;\n" +
+        "\n" +
+        "\n" +
+        "1.3\n" +
+        "date\t2013.05.01.10.00.00;\tauthor jalkanen;\tstate Exp;\n" +
+        "branches;\n" +
+        "next\t1.2;\n" +
+        "\n" +
+        "1.2\n" +
+        "date\t2013.04.30.09.00.00;\tauthor jalkanen;\tstate Exp;\n" +
+        "branches;\n" +
+        "next\t1.1;\n" +
+        "\n" +
+        "1.1\n" +
+        "date\t99.04.30.08.00.00;\tauthor jalkanen;\tstate Exp;\n" +
+        "branches;\n" +
+        "next\t;\n" +
+        "\n" +
+        "\n" +
+        "desc\n" +
+        "@none\n" +
+        "@\n" +
+        "\n" +
+        "\n" +
+        "1.3\n" +
+        "log\n" +
+        "@\"author=Janne;changenote=Fixed+typo\"\n" +
+        "@\n" +
+        "text\n" +
+        "@First line\n" +
+        "Second line with an @@ sign\n" +
+        "Third line\n" +
+        "@\n" +
+        "\n" +
+        "\n" +
+        "1.2\n" +
+        "log\n" +
+        "@\"author=Bob;changenote=\"\n" +
+        "@\n" +
+        "text\n" +
+        "@d2 1\n" +
+        "a2 1\n" +
+        "Second line\n" +
+        "@\n" +
+        "\n" +
+        "\n" +
+        "1.1\n" +
+        "log\n" +
+        "@\"author=Bob;changenote=\"\n" +
+        "@\n" +
+        "text\n" +
+        "@d3 1\n" +
+        "@\n";
+
+    static final String TEXT3 = "First line\nSecond line with an @ sign\nThird line\n";
+    static final String TEXT2 = "First line\nSecond line\nThird line\n";
+    static final String TEXT1 = "First line\nSecond line\n";
+
+    private File m_dir;
+
+    private File m_file;
+
+    public void setUp()
+    {
+        m_dir = new File( System.getProperty( "java.io.tmpdir" ), "jspwiki.test.rcs" );
+        TestEngine.deleteAll( m_dir );
+        m_dir.mkdirs();
+        m_file = new File( m_dir, "Test.txt,v" );
+    }
+
+    public void tearDown()
+    {
+        TestEngine.deleteAll( m_dir );
+    }
+
+    static void writeFile( File file, String content )
+        throws IOException
+    {
+        Writer out = new OutputStreamWriter( new FileOutputStream( file ), "ISO-8859-1" );
+        out.write( content );
+        out.close();
+    }
+
+    private String readFile()
+        throws IOException
+    {
+        InputStream in = new FileInputStream( m_file );
+
+        try
+        {
+            return FileUtil.readContents( in, "ISO-8859-1" );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public void testRead()
+        throws Exception
+    {
+        writeFile( m_file, SAMPLE );
+
+        RCSArchive archive = RCSArchive.read( m_file, true );
+
+        List<RCSArchive.Revision> revs = archive.getRevisions();
+        assertEquals( 3, revs.size() );
+        assertEquals( 3, archive.getHead().getVersion() );
+        assertEquals( "1.2", revs.get( 1 ).getNumber() );
+
+        assertEquals( TEXT3, archive.getText( 3 ) );
+        assertEquals( TEXT2, archive.getText( 2 ) );
+        assertEquals( TEXT1, archive.getText( 1 ) );
+        assertNull( archive.getText( 4 ) );
+
+        assertEquals( TEXT3.length(), revs.get( 0 ).getSize() );
+        assertEquals( TEXT1.length(), revs.get( 2 ).getSize() );
+
+        assertEquals( "\"author=Janne;changenote=Fixed+typo\"\n", revs.get( 0 ).getLog() );
+        assertEquals( "jalkanen", revs.get( 0 ).getAuthor() );
+
+        Calendar cal = Calendar.getInstance( TimeZone.getTimeZone( "UTC" ) );
+        cal.setTime( revs.get( 2 ).getDate() );
+        assertEquals( 1999, cal.get( Calendar.YEAR ) );
+        assertEquals( 8, cal.get( Calendar.HOUR_OF_DAY ) );
+    }
+
+    public void testMetadataOnly()
+        throws Exception
+    {
+        writeFile( m_file, SAMPLE );
+
+        RCSArchive archive = RCSArchive.read( m_file, false );
+
+        assertEquals( 3, archive.getRevisions().size() );
+        assertEquals( TEXT2.length(), archive.getRevision( 2 ).getSize() );
+
+        try
+        {
+            archive.getText( 2 );
+            fail( "texts were kept" );
+        }
+        catch( IllegalStateException e )
+        {
+            // This is expected
+        }
+    }
+
+    public void testAddToExisting()
+        throws Exception
+    {
+        writeFile( m_file, SAMPLE );
+
+        RCSArchive archive = RCSArchive.read( m_file, true );
+        archive.addRevision( "First line\nThird line", new Date(), "jspwiki", "author=Foo;changenote=" );
+        archive.write( m_file );
+
+        String content = readFile();
+        assertTrue( content, content.startsWith( "head\t1.4;\n" ) );
+        assertTrue( "lock moved", content.indexOf( "jalkanen:1.4; strict;" ) > 0 );
+
+        archive = RCSArchive.read( m_file, true );
+        assertEquals( 4, archive.getRevisions().size() );
+        assertEquals( "First line\nThird line", archive.getText( 4 ) );
+        assertEquals( TEXT3, archive.getText( 3 ) );
+        assertEquals( TEXT2, archive.getText( 2 ) );
+        assertEquals( TEXT1, archive.getText( 1 ) );
+    }
+
+    public void testRemoveRevision()
+        throws Exception
+    {
+        writeFile( m_file, SAMPLE );
+
+        RCSArchive archive = RCSArchive.read( m_file, true );
+        assertTrue( archive.removeRevision( 2 ) );
+        assertFalse( archive.removeRevision( 2 ) );
+        archive.write( m_file );
+
+        archive = RCSArchive.read( m_file, true );
+        assertEquals( 2, archive.getRevisions().size() );
+        assertEquals( TEXT3, archive.getText( 3 ) );
+        assertEquals( TEXT1, archive.getText( 1 ) );
+
+        assertTrue( archive.removeRevision( 3 ) );
+        archive.write( m_file );
+
+        archive = RCSArchive.read( m_file, true );
+        assertEquals( 1, archive.getHead().getVersion() );
+        assertEquals( TEXT1, archive.getText( 1 ) );
+        assertTrue( "lock removed", readFile().indexOf( "jalkanen" + ":" ) < 0 );
+    }
+
+    public void testManyRevisions()
+        throws Exception
+    {
+        Random random = new Random( 42 );
+        List<String> texts = new ArrayList<String>();
+        List<String> lines = new ArrayList<String>();
+
+        RCSArchive archive = new RCSArchive();
+
+        for( int v = 1; v <= 50; v++ )
+        {
+            int edits = random.nextInt( 5 );
+            for( int i = 0; i < edits; i++ )
+            {
+                int pos = lines.isEmpty() ? 0 : random.nextInt( lines.size() );
+
+                if( random.nextBoolean() && !lines.isEmpty() )
+                {
+                    lines.remove( pos );
+                }
+                else
+                {
+                    lines.add( pos, "line " + random.nextInt( 10 ) + (random.nextInt( 5 ) == 0 ? " @ " : "") + "\r\n" );
+                }
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for( String line : lines ) sb.append( line );
+
+            // Sometimes without the last line feed.
+            String text = random.nextInt( 3 ) == 0 ? sb.toString().trim() : sb.toString();
+            texts.add( text );
+
+            archive.addRevision( text, new Date(), "jspwiki", "v" + v );
+
+            if( v % 10 == 0 )
+            {
+                archive.write( m_file );
+                archive = RCSArchive.read( m_file, true );
+            }
+        }
+
+        for( int v = 1; v <= 50; v++ )
+        {
+            assertEquals( "version " + v, texts.get( v - 1 ), archive.getText( v ) );
+            assertEquals( "size " + v, texts.get( v - 1 ).length(), archive.getRevision( v ).getSize() );
+        }
+    }
+
+    public void testBroken()
+        throws Exception
+    {
+        writeFile( m_file, SAMPLE.substring( 0, SAMPLE.length() - 10 ) );
+
+        try
+        {
+            RCSArchive.read( m_file, true );
+            fail( "read a broken file" );
+        }
+        catch( IOException e )
+        {
+            // This is expected
+        }
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RCSArchiveTest.class );
+    }
+}
@@ -0,0 +1,373 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+
+package org.apache.wiki.providers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class StripedLRUCacheTest extends TestCase
+{
+    private static final ProviderCache.Weigher<String> LENGTH = new ProviderCache.Weigher<String>()
+    {
+        public long weigh( String value )
+        {
+            return value.length();
+        }
+    };
+
+    public StripedLRUCacheTest( String s )
+    {
+        super( s );
+    }
+
+    public void testPutAndGet()
+    {
+        StripedLRUCache<String,String> cache = new StripedLRUCache<String,String>();
+        cache.initialize( "test", 0, 0, null );
+
+        assertNull( "empty", cache.getEntry( "Foo" ) );
+
+        cache.put( "Foo", "bar" );
+        cache.put( "Missing", null );
+
+        assertEquals( "value", "bar", cache.getEntry( "Foo" ).getValue() );
+        assertNotNull( "null entry", cache.getEntry( "Missing" ) );
+        assertNull( "null value", cache.getEntry( "Missing" ).getValue() );
+        assertEquals( "size", 2, cache.size() );
+        assertEquals( "values", 1, cache.values().size() );
+
+        assertEquals( "hits", 3, cache.getHits() );
+        assertEquals( "misses", 1, cache.getMisses() );
+
+        cache.remove( "Foo" );
+        assertNull( "removed", cache.getEntry( "Foo" ) );
+    }
+
+    public void testCapacity()
+    {
+        StripedLRUCache<String,String> cache = new StripedLRUCache<String,String>();
+        cache.initialize( "test", 2, 0, null );
+
+        cache.put( "A", "a" );
+        cache.put( "B", "b" );
+        cache.getEntry( "A" );
+        cache.put( "C", "c" );
+
+        assertEquals( "size", 2, cache.size() );
+        assertNotNull( "recently used", cache.getEntry( "A" ) );
+        assertNull( "evicted", cache.getEntry( "B" ) );
+        assertEquals( "evictions", 1, cache.getEvictions() );
+    }
+
+    public void testWeight()
+    {
+        StripedLRUCache<String,String> cache = new StripedLRUCache<String,String>();
+        cache.initialize( "test", 4, 10, LENGTH );
+
+        cache.put( "A", "12345" );
+        cache.put( "B", "12345" );
+        assertEquals( "weight", 10, cache.getWeight() );
+
+        cache.put( "C", "123" );
+        assertEquals( "size", 2, cache.size() );
+        assertEquals( "weight after", 8, cache.getWeight() );
+        assertNull( "evicted", cache.getEntry( "A" ) );
+
+        cache.put( "D", "123456789012" );
+        assertEquals( "too heavy is still kept", 1, cache.size() );
+        assertNotNull( "heavy", cache.getEntry( "D" ) );
+    }
+
+    public void testExpiry()
+        throws Exception
+    {
+        StripedLRUCache<String,String> cache = new StripedLRUCache<String,String>();
+        cache.initialize( "test", 0, 0, null );
+
+        final AtomicInteger loads = new AtomicInteger();
+        ProviderCache.Loader<String,String> loader = new ProviderCache.Loader<String,String>()
+        {
+            public String load( String key )
+            {
+                return key + loads.incrementAndGet();
+            }
+        };
+
+        assertEquals( "first", "Foo1", cache.get( "Foo", -1, loader ) );
+        assertEquals( "cached", "Foo1", cache.get( "Foo", -1, loader ) );
+        assertEquals( "expired", "Foo2", cache.get( "Foo", 0, loader ) );
+        assertEquals( "loads", 2, loads.get() );
+    }
+
+    public void testLoaderFailure()
+    {
+        StripedLRUCache<String,String> cache = new StripedLRUCache<String,String>();
+        cache.initialize( "test", 0, 0, null );
+
+        try
+        {
+            cache.get( "Foo", -1, new ProviderCache.Loader<String,String>()
+            {
+                public String load( String key ) throws ProviderException
+                {
+                    throw new ProviderException( "fail" );
+                }
+            } );
+            fail( "no exception" );
+        }
+        catch( ProviderException e )
+        {
+            // Expected
+        }
+
+        assertNull( "nothing cached", cache.getEntry( "Foo" ) );
+    }
+
+    /**
+     *  Checks that concurrent loads of the same key call the loader only once.
+     */
+    public void testSingleLoad()
+        throws Exception
+    {
+        final StripedLRUCache<String,String> cache = new StripedLRUCache<String,String>();
+        cache.initialize( "test", 0, 0, null );
+
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final ProviderCache.Loader<String,String> loader = new ProviderCache.Loader<String,String>()
+        {
+            public String load( String key ) throws ProviderException
+            {
+                loads.incrementAndGet();
+                loading.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch( InterruptedException e )
+                {
+                    throw new ProviderException( "interrupted" );
+                }
+                return "value";
+            }
+        };
+
+        final String[] results = new String[4];
+        Thread[] threads = new Thread[results.length];
+
+        for( int i = 0; i < threads.length; i++ )
+        {
+            final int idx = i;
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        results[idx] = cache.get( "Foo", -1, loader );
+                    }
+                    catch( ProviderException e )
+                    {
+                        // Checked below
+                    }
+                }
+            };
+        }
+
+        threads[0].start();
+        loading.await();
+
+        for( int i = 1; i < threads.length; i++ )
+        {
+            threads[i].start();
+        }
+
+        Thread.sleep( 100L );
+        release.countDown();
+
+        for( Thread t : threads )
+        {
+            t.join();
+        }
+
+        assertEquals( "loads", 1, loads.get() );
+
+        for( String r : results )
+        {
+            assertEquals( "result", "value", r );
+        }
+    }
+
+    /**
+     *  A load which was started before the key was removed must not put its
+     *  stale value in the cache, and later readers must not wait for it.
+     */
+    public void testRemoveDuringLoad()
+        throws Exception
+    {
+        final StripedLRUCache<String,String> cache = new StripedLRUCache<String,String>();
+        cache.initialize( "test", 0, 0, null );
+
+        final CountDownLatch loading = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final ProviderCache.Loader<String,String> slowLoader = new ProviderCache.Loader<String,String>()
+        {
+            public String load( String key ) throws ProviderException
+            {
+                loading.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch( InterruptedException e )
+                {
+                    throw new ProviderException( "interrupted" );
+                }
+                return "old";
+            }
+        };
+
+        final String[] result = new String[1];
+        Thread reader = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    result[0] = cache.get( "Foo", -1, slowLoader );
+                }
+                catch( ProviderException e )
+                {
+                    // Checked below
+                }
+            }
+        };
+
+        reader.start();
+        loading.await();
+
+        // The page is saved while the old text is being read.
+        cache.remove( "Foo" );
+
+        final ProviderCache.Loader<String,String> loader = new ProviderCache.Loader<String,String>()
+        {
+            public String load( String key )
+            {
+                return "new";
+            }
+        };
+
+        final String[] fresh = new String[1];
+        Thread freshReader = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    fresh[0] = cache.get( "Foo", -1, loader );
+                }
+                catch( ProviderException e )
+                {
+                    // Checked below
+                }
+            }
+        };
+
+        freshReader.start();
+        freshReader.join( 5000L );
+
+        assertEquals( "waited for the stale load", "new", fresh[0] );
+
+        cache.remove( "Foo" );
+        release.countDown();
+        freshReader.join();
+        reader.join();
+
+        assertEquals( "reader", "old", result[0] );
+        assertNull( "stale value cached", cache.getEntry( "Foo" ) );
+        assertEquals( "reloaded", "new", cache.get( "Foo", -1, loader ) );
+    }
+
+    /**
+     *  A value put while a load is running wins over the loaded one.
+     */
+    public void testPutDuringLoad()
+        throws Exception
+    {
+        final StripedLRUCache<String,String> cache = new StripedLRUCache<String,String>();
+        cache.initialize( "test", 0, 0, null );
+
+        final CountDownLatch loading = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final ProviderCache.Loader<String,String> slowLoader = new ProviderCache.Loader<String,String>()
+        {
+            public String load( String key ) throws ProviderException
+            {
+                loading.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch( InterruptedException e )
+                {
+                    throw new ProviderException( "interrupted" );
+                }
+                return "old";
+            }
+        };
+
+        Thread reader = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    cache.get( "Foo", -1, slowLoader );
+                }
+                catch( ProviderException e )
+                {
+                    // Not expected; the assert below fails
+                }
+            }
+        };
+
+        reader.start();
+        loading.await();
+
+        cache.put( "Foo", "new" );
+        release.countDown();
+        reader.join();
+
+        assertEquals( "overwritten", "new", cache.getEntry( "Foo" ).getValue() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( StripedLRUCacheTest.class );
+    }
+}
@@ -110,6 +110,89 @@ public class RenderingManagerTest extends TestCase
         System.out.println("  Approx speedup: "+speedup+"x");
     }
 
+    /**
+     *  Checks that the document cache notices when the page data changes
+     *  without the page version changing, e.g. because of a filter.
+     */
+    public void testChangedPageData()
+        throws Exception
+    {
+        m_engine.saveText( "TestPage", "Original text" );
+
+        WikiPage page = m_engine.getPage( "TestPage" );
+
+        String html1 = m_manager.getHTML( new WikiContext( m_engine, page ), "Original text" );
+        String html2 = m_manager.getHTML( new WikiContext( m_engine, page ), "Filtered text" );
+
+        assertTrue( "original", html1.indexOf( "Original" ) != -1 );
+        assertTrue( "filtered", html2.indexOf( "Filtered" ) != -1 );
+    }
+
+    /**
+     *  Checks that the cached document is found both for the very same page
+     *  data and for an equal copy of it, and that it does not hold on to the
+     *  page data by itself.
+     */
+    public void testCachedDocument()
+        throws Exception
+    {
+        m_engine.saveText( "TestPage", "Some text" );
+
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( "TestPage" ) );
+
+        String text = new String( "Some text" );
+        WikiDocument doc = m_manager.getRenderedDocument( context, text );
+
+        assertNotNull( "digest", doc.getPageDataDigest() );
+        assertSame( "page data", text, doc.getPageData() );
+        assertSame( "same text", doc, m_manager.getRenderedDocument( context, text ) );
+
+        String copy = new String( text );
+        assertSame( "equal text", doc, m_manager.getRenderedDocument( context, copy ) );
+        assertSame( "new page data", copy, doc.getPageData() );
+
+        assertNotSame( "changed text", doc, m_manager.getRenderedDocument( context, "Other text" ) );
+    }
+
+    /**
+     *  Checks that the final HTML is cached for plain pages, but not for
+     *  pages with plugins or user-dependent variables.
+     */
+    public void testHTMLCache()
+        throws Exception
+    {
+        m_engine.saveText( "TestPage", "Plain [link] on [{$applicationname}]." );
+
+        WikiPage page = m_engine.getPage( "TestPage" );
+        String pagedata = m_engine.getPureText( page );
+
+        String html1 = m_manager.getHTML( new WikiContext( m_engine, page ), pagedata );
+        String html2 = m_manager.getHTML( new WikiContext( m_engine, page ), pagedata );
+
+        assertSame( "plain page not cached", html1, html2 );
+
+        m_engine.saveText( "TestPage", "Hello, [{$username}]." );
+
+        page = m_engine.getPage( "TestPage" );
+        pagedata = m_engine.getPureText( page );
+
+        html1 = m_manager.getHTML( new WikiContext( m_engine, page ), pagedata );
+        html2 = m_manager.getHTML( new WikiContext( m_engine, page ), pagedata );
+
+        assertEquals( "variable", html1, html2 );
+        assertNotSame( "user variable cached", html1, html2 );
+
+        m_engine.saveText( "TestPage", "[{CurrentTimePlugin}]" );
+
+        page = m_engine.getPage( "TestPage" );
+        pagedata = m_engine.getPureText( page );
+
+        html1 = m_manager.getHTML( new WikiContext( m_engine, page ), pagedata );
+        html2 = m_manager.getHTML( new WikiContext( m_engine, page ), pagedata );
+
+        assertNotSame( "plugin cached", html1, html2 );
+    }
+
     public static Test suite()
     {
         TestSuite suite = new TestSuite( RenderingManagerTest.class );
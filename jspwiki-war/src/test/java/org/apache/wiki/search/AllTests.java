@@ -33,7 +33,9 @@ public class AllTests extends TestCase
     {
         TestSuite suite = new TestSuite("Search engines");
 
+        suite.addTest( IndexUpdateQueueTest.suite() );
         suite.addTest( SearchManagerTest.suite() );
+        suite.addTest( SuggestionIndexTest.suite() );
 
         return suite;
     }
@@ -0,0 +1,147 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.search;
+
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.TestEngine;
+import org.apache.wiki.WikiPage;
+
+public class IndexUpdateQueueTest extends TestCase
+{
+    private TestEngine m_engine;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        m_engine = new TestEngine( props );
+    }
+
+    private WikiPage page( String name )
+    {
+        return new WikiPage( m_engine, name );
+    }
+
+    public void testCoalesce() throws Exception
+    {
+        IndexUpdateQueue queue = new IndexUpdateQueue( 10 );
+
+        assertTrue( queue.offer( page( "A" ), "a1", 0L ) );
+        assertTrue( queue.offer( page( "B" ), "b1", 0L ) );
+        assertTrue( queue.offer( page( "A" ), "a2", 0L ) );
+
+        assertEquals( "depth", 2, queue.size() );
+        assertEquals( "coalesced", 1, queue.getCoalesced() );
+
+        List<IndexUpdateQueue.Entry> batch = queue.drain( 10 );
+
+        assertEquals( 2, batch.size() );
+        assertEquals( "first", "A", batch.get( 0 ).m_page.getName() );
+        assertEquals( "latest text", "a2", batch.get( 0 ).m_text );
+        assertEquals( "second", "B", batch.get( 1 ).m_page.getName() );
+        assertEquals( 0, queue.size() );
+    }
+
+    public void testBatches() throws Exception
+    {
+        IndexUpdateQueue queue = new IndexUpdateQueue( 10 );
+
+        for( int i = 0; i < 5; i++ )
+        {
+            queue.offer( page( "P" + i ), "text", 0L );
+        }
+
+        assertEquals( 2, queue.drain( 2 ).size() );
+        assertEquals( 2, queue.drain( 2 ).size() );
+        assertEquals( 1, queue.drain( 2 ).size() );
+        assertTrue( queue.drain( 2 ).isEmpty() );
+    }
+
+    public void testOverflow() throws Exception
+    {
+        IndexUpdateQueue queue = new IndexUpdateQueue( 2 );
+
+        assertTrue( queue.offer( page( "A" ), "a", 0L ) );
+        assertTrue( queue.offer( page( "B" ), "b", 0L ) );
+
+        assertFalse( "full", queue.offer( page( "C" ), "c", 10L ) );
+        assertEquals( 1, queue.getOverflows() );
+
+        // A page which is already queued can always be updated.
+        assertTrue( queue.offer( page( "A" ), "a2", 0L ) );
+        assertEquals( 2, queue.size() );
+    }
+
+    public void testBackpressure() throws Exception
+    {
+        final IndexUpdateQueue queue = new IndexUpdateQueue( 1 );
+
+        queue.offer( page( "A" ), "a", 0L );
+
+        Thread consumer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 100L );
+                }
+                catch( InterruptedException e ) {}
+
+                queue.drain( 1 );
+            }
+        };
+        consumer.start();
+
+        assertTrue( "waited for room", queue.offer( page( "B" ), "b", 10000L ) );
+        consumer.join();
+
+        assertEquals( 1, queue.size() );
+        assertEquals( 0, queue.getOverflows() );
+    }
+
+    public void testLag() throws Exception
+    {
+        IndexUpdateQueue queue = new IndexUpdateQueue( 10 );
+
+        assertEquals( 0L, queue.getLag() );
+
+        queue.offer( page( "A" ), "a", 0L );
+        Thread.sleep( 20L );
+
+        assertTrue( "lag", queue.getLag() >= 20L );
+
+        queue.clear();
+        assertEquals( 0L, queue.getLag() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( IndexUpdateQueueTest.class );
+    }
+}
@@ -18,14 +18,22 @@
  */
 package org.apache.wiki.search;
 
+import java.io.File;
 import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 
 import net.sourceforge.stripes.mock.MockHttpServletRequest;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.SimpleFSDirectory;
 import org.apache.wiki.SearchResult;
 import org.apache.wiki.TestEngine;
 import org.apache.wiki.WikiContext;
@@ -185,6 +193,344 @@ public class SearchManagerTest extends TestCase
         m_engine.deleteTestPage("TestPage");
     }
 
+    /**
+     *  Pages must be found through the shared searcher before the index
+     *  is committed.
+     */
+    public void testNearRealTime()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( SearchManager.PROP_SEARCHPROVIDER, "LuceneSearchProvider" );
+        props.setProperty( "jspwiki.lucene.initialdelay", "1" );
+
+        // An index of its own, so that the engine made in setUp() cannot commit to it
+        File workDir = new File( System.getProperty( "java.io.tmpdir" ), "nrt-workdir" );
+        TestEngine.deleteAll( workDir );
+        props.setProperty( "jspwiki.workDir", workDir.getAbsolutePath() );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_COMMITINTERVAL, "3600" );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_WRITERIDLETIMEOUT, "3600" );
+
+        TestEngine engine = new TestEngine( props );
+        m_mgr = engine.getSearchManager();
+        LuceneSearchProvider provider = (LuceneSearchProvider) m_mgr.getSearchEngine();
+
+        try
+        {
+            // The full reindex at startup commits, and would pick up the page too
+            for( int i = 0; i < 50 && !IndexReader.indexExists( luceneDir( workDir ) ); i++ )
+            {
+                Thread.sleep( SLEEP_TIME );
+            }
+
+            engine.saveText( "NrtTestPage", "Zathras was a member of the Zathras family" );
+
+            Collection res = waitForIndex( "Zathras" );
+
+            assertNotNull( "null result", res );
+            assertEquals( "no pages", 1, res.size() );
+            assertEquals( "committed", 0, committedDocs( workDir, "NrtTestPage" ) );
+        }
+        finally
+        {
+            provider.closeWriter();
+        }
+
+        assertEquals( "committed on close", 1, committedDocs( workDir, "NrtTestPage" ) );
+
+        engine.deleteTestPage( "NrtTestPage" );
+        TestEngine.deleteAll( workDir );
+    }
+
+    /**
+     *  Pages which do not fit in the update queue must be found after the
+     *  index has been rebuilt.
+     */
+    public void testQueueOverflow()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( SearchManager.PROP_SEARCHPROVIDER, "LuceneSearchProvider" );
+        props.setProperty( "jspwiki.lucene.initialdelay", "1" );
+        props.setProperty( "jspwiki.workDir", System.getProperty( "java.io.tmpdir" ) );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_QUEUESIZE, "1" );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_QUEUETIMEOUT, "0" );
+
+        TestEngine engine = new TestEngine( props );
+        m_mgr = engine.getSearchManager();
+        LuceneSearchProvider provider = (LuceneSearchProvider) m_mgr.getSearchEngine();
+
+        engine.saveText( "OverflowTestPage1", "Vir Cotto was ambassador of the Centauri Republic" );
+        engine.saveText( "OverflowTestPage2", "Londo Mollari was ambassador of the Centauri Republic" );
+        engine.saveText( "OverflowTestPage3", "G'Kar was ambassador of the Narn Regime" );
+
+        assertTrue( "overflowed", provider.getQueueOverflows() > 0 );
+
+        Collection res = waitForIndex( "ambassador" );
+        for( int i = 0; i < 50 && res.size() < 3; i++ )
+        {
+            Thread.sleep( SLEEP_TIME );
+            res = m_mgr.findPages( "ambassador" );
+        }
+
+        assertEquals( "all pages", 3, res.size() );
+        assertEquals( "queue", 0, provider.getQueueDepth() );
+
+        engine.deleteTestPage( "OverflowTestPage1" );
+        engine.deleteTestPage( "OverflowTestPage2" );
+        engine.deleteTestPage( "OverflowTestPage3" );
+    }
+
+    /**
+     *  Searches must see the old index while it is being rebuilt, even if
+     *  other changes are made to the index in the meantime.
+     */
+    public void testRebuildIsInvisible()
+        throws Exception
+    {
+        File workDir = new File( System.getProperty( "java.io.tmpdir" ), "rebuildtest" );
+        TestEngine.deleteAll( workDir );
+
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( SearchManager.PROP_SEARCHPROVIDER, SlowRebuildProvider.class.getName() );
+        props.setProperty( "jspwiki.lucene.initialdelay", "1" );
+        props.setProperty( "jspwiki.workDir", workDir.getAbsolutePath() );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_REINDEXTHREADS, "1" );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_COMMITINTERVAL, "0" );
+
+        TestEngine engine = new TestEngine( props );
+        m_mgr = engine.getSearchManager();
+        final SlowRebuildProvider provider = (SlowRebuildProvider) m_mgr.getSearchEngine();
+
+        engine.saveText( "RebuildPage", "Ivanova is God" );
+        engine.addAttachment( "RebuildPage", "notes.txt", "Kosh was a Vorlon".getBytes( "UTF-8" ) );
+
+        assertEquals( "attachment indexed", 1, waitForIndex( "Vorlon" ).size() );
+
+        provider.m_block = true;
+
+        Thread rebuild = new Thread()
+        {
+            public void run()
+            {
+                provider.rebuildLuceneIndex();
+            }
+        };
+
+        try
+        {
+            rebuild.start();
+
+            // The pages have been added to the empty index, the attachments not yet.
+            provider.m_reading.await();
+
+            engine.saveText( "RebuildOther", "Talia Winters" );
+            provider.pageRemoved( engine.getPage( "RebuildOther" ) );
+
+            assertEquals( "old index", 1, m_mgr.findPages( "Vorlon" ).size() );
+        }
+        finally
+        {
+            provider.m_release.countDown();
+            rebuild.join();
+        }
+
+        assertEquals( "rebuilt index", 1, m_mgr.findPages( "Vorlon" ).size() );
+
+        engine.deleteTestPage( "RebuildOther" );
+        engine.deleteTestPage( "RebuildPage" );
+        TestEngine.deleteAttachments( "RebuildPage" );
+        TestEngine.deleteAll( workDir );
+    }
+
+    /**
+     *  A page which is removed while the index is being rebuilt must not be
+     *  added back by the rebuild, even if the rebuild read it before.
+     */
+    public void testRemovedDuringRebuild()
+        throws Exception
+    {
+        File workDir = new File( System.getProperty( "java.io.tmpdir" ), "rebuildtest" );
+        TestEngine.deleteAll( workDir );
+
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( SearchManager.PROP_SEARCHPROVIDER, SlowRebuildProvider.class.getName() );
+        props.setProperty( "jspwiki.lucene.initialdelay", "1" );
+        props.setProperty( "jspwiki.workDir", workDir.getAbsolutePath() );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_REINDEXTHREADS, "1" );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_COMMITINTERVAL, "0" );
+
+        TestEngine engine = new TestEngine( props );
+        m_mgr = engine.getSearchManager();
+        final SlowRebuildProvider provider = (SlowRebuildProvider) m_mgr.getSearchEngine();
+
+        engine.saveText( "RebuildPage", "Ivanova is God" );
+        engine.addAttachment( "RebuildPage", "notes.txt", "Kosh was a Vorlon".getBytes( "UTF-8" ) );
+
+        assertEquals( "attachment indexed", 1, waitForIndex( "Vorlon" ).size() );
+
+        provider.m_block = true;
+
+        Thread rebuild = new Thread()
+        {
+            public void run()
+            {
+                provider.rebuildLuceneIndex();
+            }
+        };
+
+        try
+        {
+            rebuild.start();
+
+            // The rebuild is reading the attachment when it is removed.
+            provider.m_reading.await();
+
+            provider.pageRemoved( engine.getAttachmentManager().getAttachmentInfo( "RebuildPage/notes.txt" ) );
+        }
+        finally
+        {
+            provider.m_release.countDown();
+            rebuild.join();
+        }
+
+        assertEquals( "removed", 0, m_mgr.findPages( "Vorlon" ).size() );
+        assertEquals( "rebuilt index", 1, m_mgr.findPages( "Ivanova" ).size() );
+
+        engine.deleteTestPage( "RebuildPage" );
+        TestEngine.deleteAttachments( "RebuildPage" );
+        TestEngine.deleteAll( workDir );
+    }
+
+    /**
+     *  Stops the rebuild of the index when it reads an attachment.
+     */
+    public static class SlowRebuildProvider extends LuceneSearchProvider
+    {
+        volatile boolean     m_block   = false;
+        final CountDownLatch m_reading = new CountDownLatch( 1 );
+        final CountDownLatch m_release = new CountDownLatch( 1 );
+
+        protected String getAttachmentContent( String attachmentName, int version )
+        {
+            if( m_block )
+            {
+                m_reading.countDown();
+
+                try
+                {
+                    m_release.await();
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return super.getAttachmentContent( attachmentName, version );
+        }
+    }
+
+    /**
+     *  An empty index is built from all the pages using several threads.
+     */
+    public void testParallelReindex()
+        throws Exception
+    {
+        m_engine.saveText( "ReindexTestPage1", "Lennier served Delenn of the Minbari" );
+        m_engine.saveText( "ReindexTestPage2", "Delenn was one of the Minbari" );
+        m_engine.saveText( "ReindexTestPage3", "Neroon was a Minbari warrior" );
+
+        File workDir = new File( System.getProperty( "java.io.tmpdir" ), "reindextest" );
+        TestEngine.deleteAll( workDir );
+
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( SearchManager.PROP_SEARCHPROVIDER, "LuceneSearchProvider" );
+        props.setProperty( "jspwiki.lucene.initialdelay", "1" );
+        props.setProperty( "jspwiki.workDir", workDir.getAbsolutePath() );
+        props.setProperty( LuceneSearchProvider.PROP_LUCENE_REINDEXTHREADS, "3" );
+
+        TestEngine engine = new TestEngine( props );
+        m_mgr = engine.getSearchManager();
+
+        Collection res = waitForIndex( "Minbari" );
+        for( int i = 0; i < 50 && res.size() < 3; i++ )
+        {
+            Thread.sleep( SLEEP_TIME );
+            res = m_mgr.findPages( "Minbari" );
+        }
+
+        assertEquals( "all pages", 3, res.size() );
+
+        try
+        {
+            engine.getProgressManager().getProgress( LuceneSearchProvider.PROGRESS_ID );
+            fail( "progress still tracked" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // Expected
+        }
+
+        m_engine.deleteTestPage( "ReindexTestPage1" );
+        m_engine.deleteTestPage( "ReindexTestPage2" );
+        m_engine.deleteTestPage( "ReindexTestPage3" );
+    }
+
+    public void testSuggestions()
+        throws Exception
+    {
+        SearchManager.JSONSearch search = m_mgr.new JSONSearch();
+
+        m_engine.saveText( "SuggestionPage", "Kosh" );
+
+        List res = search.getSuggestions( "suggestionp", 10 );
+        assertEquals( "saved", 1, res.size() );
+        assertEquals( "SuggestionPage", res.get( 0 ) );
+
+        res = search.getSuggestions( "Suggestion p", 10 );
+        assertEquals( "clean name", 1, res.size() );
+
+        m_engine.deletePage( "SuggestionPage" );
+
+        assertEquals( "deleted", 0, search.getSuggestions( "suggestionp", 10 ).size() );
+
+        m_engine.deleteTestPage( "SuggestionPage" );
+    }
+
+    private Directory luceneDir( File workDir ) throws Exception
+    {
+        return new SimpleFSDirectory( new File( workDir, "lucene" ), null );
+    }
+
+    private int committedDocs( File workDir, String pageName ) throws Exception
+    {
+        Directory dir = luceneDir( workDir );
+
+        if( !IndexReader.indexExists( dir ) ) return 0;
+
+        IndexReader reader = IndexReader.open( dir );
+
+        try
+        {
+            return reader.docFreq( new Term( LuceneSearchProvider.LUCENE_ID, pageName ) );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
     public static Test suite()
     {
         return new TestSuite( SearchManagerTest.class );
@@ -0,0 +1,107 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class SuggestionIndexTest extends TestCase
+{
+    private SuggestionIndex m_index;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        m_index = new SuggestionIndex();
+        m_index.addAll( Arrays.asList( "Main", "MainPage", "mainframe", "Main/logo.png",
+                                       "Other", "OtherMain", "Mai" ) );
+    }
+
+    public void testPrefix()
+    {
+        List<String> names = m_index.find( new String[] { "main" }, 10 );
+
+        assertEquals( Arrays.asList( "Main", "Main/logo.png", "mainframe", "MainPage" ), names );
+    }
+
+    public void testMax()
+    {
+        assertEquals( Arrays.asList( "Main", "Main/logo.png" ),
+                      m_index.find( new String[] { "main" }, 2 ) );
+    }
+
+    public void testSeveralPrefixes()
+    {
+        List<String> names = m_index.find( new String[] { "oth", "mai" }, 4 );
+
+        assertEquals( Arrays.asList( "Other", "OtherMain", "Mai", "Main" ), names );
+    }
+
+    public void testNoMatch()
+    {
+        assertTrue( m_index.find( new String[] { "xyz" }, 10 ).isEmpty() );
+    }
+
+    public void testAttachment()
+    {
+        assertEquals( Arrays.asList( "Main/logo.png" ),
+                      m_index.find( new String[] { "main/lo" }, 10 ) );
+    }
+
+    public void testRemovePage()
+    {
+        m_index.removePage( "Main" );
+
+        assertEquals( Arrays.asList( "mainframe", "MainPage" ),
+                      m_index.find( new String[] { "main" }, 10 ) );
+        assertEquals( 5, m_index.size() );
+    }
+
+    public void testRemoveAttachment()
+    {
+        m_index.remove( "Main/logo.png" );
+
+        assertEquals( Arrays.asList( "Main", "mainframe", "MainPage" ),
+                      m_index.find( new String[] { "main" }, 10 ) );
+    }
+
+    public void testRanking()
+    {
+        SuggestionIndex.Ranking ranking = new SuggestionIndex.Ranking()
+        {
+            public int getRank( String name )
+            {
+                return name.equals( "MainPage" ) ? 10 : name.equals( "mainframe" ) ? 5 : 0;
+            }
+        };
+
+        assertEquals( Arrays.asList( "MainPage", "mainframe", "Main" ),
+                      m_index.find( new String[] { "main" }, 3, 100, ranking ) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SuggestionIndexTest.class );
+    }
+}
@@ -0,0 +1,162 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.stress;
+
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.TestEngine;
+import org.apache.wiki.WikiContext;
+import org.apache.wiki.WikiPage;
+import org.apache.wiki.diff.ContextualDiffProvider;
+import org.apache.wiki.diff.DiffProvider;
+import org.apache.wiki.diff.LinearDiffProvider;
+import org.apache.wiki.diff.TraditionalDiffProvider;
+
+/**
+ *  Compares the speed of the diff providers on large generated pages.
+ */
+public class StressTestDiff extends TestCase
+{
+    private static final int LINES = 20000;
+
+    private static final int ITERATIONS = 3;
+
+    Properties props = new Properties();
+
+    TestEngine engine;
+
+    WikiContext context;
+
+    public StressTestDiff( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+        throws Exception
+    {
+        props.load( TestEngine.findTestProperties() );
+        engine = new TestEngine( props );
+        context = new WikiContext( engine, new WikiPage( engine, "Dummy" ) );
+    }
+
+    /**
+     *  Makes a table of the given number of lines.
+     */
+    private static String makePage( Random random, int lines )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for( int i = 0; i < lines; i++ )
+        {
+            sb.append( "| row " ).append( i ).append( " | " ).append( random.nextInt( 1000000 ) )
+              .append( " | some text in the last column |\n" );
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     *  Changes a word on every hundredth line, and removes and adds a few lines.
+     */
+    private static String edit( Random random, String page )
+    {
+        String[] lines = page.split( "\n" );
+        StringBuilder sb = new StringBuilder();
+
+        for( int i = 0; i < lines.length; i++ )
+        {
+            if( i % 100 == 50 )
+            {
+                sb.append( lines[i].replace( "some", "other" ) ).append( "\n" );
+            }
+            else if( i % 1000 == 500 )
+            {
+                sb.append( "| new row | " ).append( random.nextInt() ).append( " |\n" );
+            }
+            else if( i % 1000 != 700 )
+            {
+                sb.append( lines[i] ).append( "\n" );
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private void run( DiffProvider provider, String p1, String p2 )
+        throws Exception
+    {
+        provider.initialize( engine, props );
+
+        Benchmark mark = new Benchmark();
+        String diff = null;
+
+        mark.start();
+
+        for( int i = 0; i < ITERATIONS; i++ )
+        {
+            diff = provider.makeDiffHtml( context, p1, p2 );
+        }
+
+        mark.stop();
+
+        assertTrue( provider.getProviderInfo(), diff.length() > 0 );
+
+        System.out.println( provider.getProviderInfo() + ": " + ITERATIONS + " diffs of " + p1.split( "\n" ).length + " lines took "
+                            + mark + " (=" + mark.getTime() / ITERATIONS + " ms/diff, " + diff.length() + " chars)" );
+    }
+
+    public void testSpeed()
+        throws Exception
+    {
+        Random random = new Random( 42 );
+        String p1 = makePage( random, LINES );
+        String p2 = edit( random, p1 );
+
+        run( new LinearDiffProvider(), p1, p2 );
+        run( new ContextualDiffProvider(), p1, p2 );
+        run( new TraditionalDiffProvider(), p1, p2 );
+    }
+
+    public void testUnrelated()
+        throws Exception
+    {
+        Random random = new Random( 42 );
+        String p1 = makePage( random, LINES / 2 );
+        String p2 = makePage( random, LINES / 2 );
+
+        run( new LinearDiffProvider(), p1, p2 );
+        run( new ContextualDiffProvider(), p1, p2 );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( StressTestDiff.class );
+    }
+
+    public static void main( String[] argv )
+    {
+        junit.textui.TestRunner.run( suite() );
+    }
+}
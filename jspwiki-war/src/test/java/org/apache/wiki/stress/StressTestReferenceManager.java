@@ -0,0 +1,151 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.stress;
+
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.ReferenceManager;
+import org.apache.wiki.TestEngine;
+
+/**
+ *  Measures how many findReferrers() calls per second the ReferenceManager
+ *  serves while other threads keep updating references.
+ */
+public final class StressTestReferenceManager extends TestCase
+{
+    private static int PAGES   = 5000;
+    private static int READERS = 4;
+    private static int WRITERS = 2;
+    private static long DURATION = 5000L;
+
+    Properties props = new Properties();
+
+    TestEngine engine;
+
+    public StressTestReferenceManager( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+        throws Exception
+    {
+        props.load( TestEngine.findTestProperties() );
+
+        engine = new TestEngine(props);
+    }
+
+    public void tearDown()
+    {
+        TestEngine.emptyWorkDir();
+    }
+
+    public void testReadThroughput()
+        throws Exception
+    {
+        final ReferenceManager mgr = engine.getReferenceManager();
+
+        for( int i = 0; i < PAGES; i++ )
+        {
+            mgr.updateReferences( "Page"+i, references( i ) );
+        }
+
+        final AtomicLong reads  = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicBoolean done   = new AtomicBoolean();
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+
+        for( int t = 0; t < READERS; t++ )
+        {
+            threads.add( new Thread()
+            {
+                public void run()
+                {
+                    for( int i = 0; !done.get(); i++ )
+                    {
+                        mgr.findReferrers( "Page"+(i % PAGES) );
+                        reads.incrementAndGet();
+                    }
+                }
+            } );
+        }
+
+        for( int t = 0; t < WRITERS; t++ )
+        {
+            final int offset = t;
+            threads.add( new Thread()
+            {
+                public void run()
+                {
+                    for( int i = offset; !done.get(); i += WRITERS )
+                    {
+                        mgr.updateReferences( "Page"+(i % PAGES), references( i+1 ) );
+                        writes.incrementAndGet();
+                    }
+                }
+            } );
+        }
+
+        Benchmark mark = new Benchmark();
+        mark.start();
+
+        for( Thread t : threads ) t.start();
+
+        Thread.sleep( DURATION );
+        done.set( true );
+
+        for( Thread t : threads ) t.join();
+
+        mark.stop();
+
+        System.out.println( READERS+" readers, "+WRITERS+" writers: "+
+                            reads.get()+" reads ("+mark.toString( (int)reads.get() )+"/s), "+
+                            writes.get()+" writes ("+mark.toString( (int)writes.get() )+"/s)" );
+    }
+
+    private static ArrayList<String> references( int page )
+    {
+        ArrayList<String> refs = new ArrayList<String>();
+
+        for( int i = 1; i <= 10; i++ )
+        {
+            refs.add( "Page"+((page * 7 + i * 13) % PAGES) );
+        }
+
+        return refs;
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( StressTestReferenceManager.class );
+    }
+
+    public static void main( String[] argv )
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+}
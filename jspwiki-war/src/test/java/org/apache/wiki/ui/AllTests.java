@@ -36,6 +36,7 @@ public class AllTests extends TestCase
         suite.addTest( InputValidatorTest.suite() );
         suite.addTest( PageCommandTest.suite() );
         suite.addTest( RedirectCommandTest.suite() );
+        suite.addTest( ResourceMarkerOutputStreamTest.suite() );
         suite.addTest( WikiCommandTest.suite() );
         return suite;
     }
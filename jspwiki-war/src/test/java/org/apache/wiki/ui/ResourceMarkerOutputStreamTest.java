@@ -0,0 +1,137 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.ui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ResourceMarkerOutputStreamTest extends TestCase
+{
+    private static final String SCRIPT = TemplateManager.getMarker( null, TemplateManager.RESOURCE_SCRIPT );
+    private static final String STYLE  = TemplateManager.getMarker( null, TemplateManager.RESOURCE_STYLESHEET );
+
+    private ByteArrayOutputStream m_out;
+    private ResourceMarkerOutputStream m_stream;
+    private Map<String,String> m_resources;
+
+    protected void setUp() throws Exception
+    {
+        Map<String,String> markers = new LinkedHashMap<String,String>();
+        markers.put( TemplateManager.RESOURCE_SCRIPT, SCRIPT );
+        markers.put( TemplateManager.RESOURCE_STYLESHEET, STYLE );
+
+        m_out = new ByteArrayOutputStream();
+        m_stream = new ResourceMarkerOutputStream( m_out, markers, "UTF-8" );
+
+        m_resources = new HashMap<String,String>();
+        m_resources.put( TemplateManager.RESOURCE_SCRIPT, "<script/>" );
+        m_resources.put( TemplateManager.RESOURCE_STYLESHEET, "<link/>" );
+    }
+
+    private void write( String s ) throws IOException
+    {
+        byte[] b = s.getBytes( "UTF-8" );
+        m_stream.write( b, 0, b.length );
+    }
+
+    private String output() throws IOException
+    {
+        return m_out.toString( "UTF-8" );
+    }
+
+    public void testNoMarkers() throws Exception
+    {
+        write( "<html><body>åäö &lt; <!-- comment --></body></html>" );
+
+        assertFalse( m_stream.isCommitted() );
+        assertEquals( "passed through", "<html><body>åäö &lt; <!-- comment --></body></html>", output() );
+
+        m_stream.finish( m_resources );
+
+        assertEquals( "<html><body>åäö &lt; <!-- comment --></body></html>", output() );
+    }
+
+    public void testSplice() throws Exception
+    {
+        write( "<head>" + STYLE + "\n" + SCRIPT + "</head>" );
+
+        assertTrue( m_stream.isCommitted() );
+        assertEquals( "prefix sent early", "<head>", output() );
+
+        write( "<body>text</body>" );
+
+        assertEquals( "rest held back", "<head>", output() );
+
+        m_stream.finish( m_resources );
+
+        assertEquals( "<head><link/>\n<script/></head><body>text</body>", output() );
+    }
+
+    public void testMarkerAcrossWrites() throws Exception
+    {
+        String page = "a<" + SCRIPT + "b";
+
+        for( int i = 0; i < page.length(); i++ )
+        {
+            m_stream.write( page.charAt( i ) );
+        }
+
+        m_stream.finish( m_resources );
+
+        assertEquals( "a<<script/>b", output() );
+    }
+
+    public void testPartialMarker() throws Exception
+    {
+        String partial = SCRIPT.substring( 0, SCRIPT.length() - 4 );
+
+        write( partial + "x" + SCRIPT );
+        m_stream.finish( m_resources );
+
+        assertEquals( partial + "x<script/>", output() );
+    }
+
+    public void testNoResources() throws Exception
+    {
+        write( "a" + SCRIPT + "b" + STYLE + "c" );
+        m_stream.finish( new HashMap<String,String>() );
+
+        assertEquals( "markers are kept", "a" + SCRIPT + "b" + STYLE + "c", output() );
+    }
+
+    public void testFirstOccurrenceOnly() throws Exception
+    {
+        write( SCRIPT + "a" + SCRIPT );
+        m_stream.finish( m_resources );
+
+        assertEquals( "<script/>a" + SCRIPT, output() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ResourceMarkerOutputStreamTest.class );
+    }
+}
@@ -0,0 +1,63 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.ui.admin.beans;
+
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.TestEngine;
+
+public class ReferenceManagerBeanTest extends TestCase
+{
+    TestEngine m_engine;
+
+    protected void setUp() throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+        m_engine = new TestEngine( props );
+        m_engine.saveText( "TestPage", "Links to [OtherPage]." );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        m_engine.deletePage( "TestPage" );
+    }
+
+    public void testGetAttributes() throws Exception
+    {
+        ReferenceManagerBean bean = new ReferenceManagerBean( m_engine );
+
+        String[] names = bean.getAttributeNames();
+        for( int i = 0; i < names.length; i++ )
+        {
+            assertNotNull( names[i], bean.getAttribute( names[i] ) );
+        }
+
+        assertEquals( Boolean.valueOf( m_engine.getReferenceManager().isCompact() ), bean.getAttribute( "compact" ) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ReferenceManagerBeanTest.class );
+    }
+}
@@ -42,6 +42,7 @@ public class AllTests extends TestCase
         suite.addTest( org.apache.wiki.util.comparators.AllTests.suite() );
         suite.addTest( MailUtilTest.suite() );
         suite.addTest( PageSorterTest.suite() );
+        suite.addTest( PooledDataSourceTest.suite() );
         suite.addTest( PriorityListTest.suite() );
         suite.addTest( SerializerTest.suite() );
         suite.addTest( TextUtilTest.suite() );
@@ -0,0 +1,181 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one
+    or more contributor license agreements.  See the NOTICE file
+    distributed with this work for additional information
+    regarding copyright ownership.  The ASF licenses this file
+    to you under the Apache License, Version 2.0 (the
+    "License"); you may not use this file except in compliance
+    with the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+ */
+package org.apache.wiki.util;
+
+import java.io.FileInputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.wiki.HsqlDbUtils;
+
+public class PooledDataSourceTest extends TestCase
+{
+    private static final String PREFIX = "test.jdbc.";
+
+    private HsqlDbUtils      m_hu = new HsqlDbUtils();
+
+    private PooledDataSource m_pool;
+
+    protected void setUp() throws Exception
+    {
+        m_hu.setUp();
+
+        Properties jdbc = new Properties();
+        FileInputStream in = new FileInputStream( "target/test-classes/jdbc.properties" );
+        jdbc.load( in );
+        in.close();
+
+        Properties props = new Properties();
+        props.put( PREFIX + PooledDataSource.PROP_DRIVER, jdbc.getProperty( "jdbc.driver.class" ) );
+        props.put( PREFIX + PooledDataSource.PROP_URL, jdbc.getProperty( "jdbc.driver.url" ) );
+        props.put( PREFIX + PooledDataSource.PROP_USER, jdbc.getProperty( "jdbc.user.id" ) );
+        props.put( PREFIX + PooledDataSource.PROP_PASSWORD, jdbc.getProperty( "jdbc.user.password" ) );
+        props.put( PREFIX + PooledDataSource.PROP_MAX_CONNECTIONS, "2" );
+        props.put( PREFIX + PooledDataSource.PROP_TIMEOUT, "1" );
+
+        m_pool = PooledDataSource.fromProperties( props, PREFIX );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        m_pool.close();
+        m_hu.tearDown();
+    }
+
+    public void testNotConfigured() throws Exception
+    {
+        assertNull( PooledDataSource.fromProperties( new Properties(), PREFIX ) );
+    }
+
+    public void testReuse() throws Exception
+    {
+        Connection conn = m_pool.getConnection();
+        assertEquals( 1, m_pool.getActiveConnections() );
+        conn.close();
+        conn.close();
+
+        assertTrue( conn.isClosed() );
+        assertEquals( 0, m_pool.getActiveConnections() );
+        assertEquals( 1, m_pool.getIdleConnections() );
+
+        try
+        {
+            conn.createStatement();
+            fail( "Used a connection after returning it" );
+        }
+        catch( SQLException e )
+        {
+            // Good
+        }
+
+        conn = m_pool.getConnection();
+        assertEquals( "idle connection reused", 0, m_pool.getIdleConnections() );
+        conn.close();
+    }
+
+    public void testBounded() throws Exception
+    {
+        Connection first = m_pool.getConnection();
+        Connection second = m_pool.getConnection();
+
+        try
+        {
+            m_pool.getConnection();
+            fail( "Got more connections than the pool allows" );
+        }
+        catch( SQLException e )
+        {
+            // Good
+        }
+
+        second.close();
+        m_pool.getConnection().close();
+        first.close();
+    }
+
+    public void testStatements() throws Exception
+    {
+        String sql = "SELECT * FROM users WHERE login_name=?";
+
+        Connection conn = m_pool.getConnection();
+        PreparedStatement ps = conn.prepareStatement( sql );
+        assertSame( conn, ps.getConnection() );
+
+        // The same statement may be open twice; the second one is not kept,
+        // but is handed out the same way
+        PreparedStatement other = conn.prepareStatement( sql );
+        assertNotSame( ps, other );
+        assertSame( conn, other.getConnection() );
+        other.close();
+        assertTrue( other.isClosed() );
+
+        // A statement which is not kept is closed with the connection
+        PreparedStatement unclosed = conn.prepareStatement( sql );
+
+        ps.setString( 1, "janne" );
+        ps.executeQuery().close();
+        ps.close();
+        assertTrue( ps.isClosed() );
+        conn.close();
+        assertTrue( unclosed.isClosed() );
+
+        conn = m_pool.getConnection();
+        ps = conn.prepareStatement( sql );
+        ps.setString( 1, "nosuchuser" );
+        ResultSet rs = ps.executeQuery();
+        assertFalse( rs.next() );
+        ps.close();
+        conn.close();
+    }
+
+    public void testRollback() throws Exception
+    {
+        Connection conn = m_pool.getConnection();
+        conn.setAutoCommit( false );
+        PreparedStatement ps = conn.prepareStatement( "INSERT INTO roles (login_name, role) VALUES (?,?)" );
+        ps.setString( 1, "pooltest" );
+        ps.setString( 2, "Tester" );
+        ps.execute();
+        ps.close();
+
+        // Returned without a commit
+        conn.close();
+
+        conn = m_pool.getConnection();
+        assertTrue( conn.getAutoCommit() );
+        ps = conn.prepareStatement( "SELECT * FROM roles WHERE login_name=?" );
+        ps.setString( 1, "pooltest" );
+        ResultSet rs = ps.executeQuery();
+        assertFalse( "rolled back", rs.next() );
+        ps.close();
+        conn.close();
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PooledDataSourceTest.class );
+    }
+}
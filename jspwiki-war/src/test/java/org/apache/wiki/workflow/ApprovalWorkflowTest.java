@@ -199,8 +199,13 @@ public class ApprovalWorkflowTest extends TestCase
         Collection decisions = m_dq.getActorDecisions( m_engine.adminSession() );
         assertEquals(1, decisions.size());
 
-        // Now, approve the decision and it should go away, and page should appear.
+        // The approver should see the diff
         Decision decision = (Decision)decisions.iterator().next();
+        Fact diff = (Fact)decision.getFacts().get( 1 );
+        assertEquals( PageManager.FACT_DIFF_TEXT, diff.getMessageKey() );
+        assertTrue( diff.getValue().toString().indexOf( "This is a test!" ) != -1 );
+
+        // Now, approve the decision and it should go away, and page should appear.
         decision.decide(Outcome.DECISION_APPROVE);
         assertTrue( m_engine.pageExists(pageName));
         decisions = m_dq.getActorDecisions( m_engine.adminSession() );
@@ -18,6 +18,12 @@
  */
 package org.apache.wiki.workflow;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.Callable;
+
 import junit.framework.TestCase;
 
 public class FactTest extends TestCase
@@ -38,4 +44,44 @@ public class FactTest extends TestCase
         assertEquals(Outcome.DECISION_ACKNOWLEDGE, f3.getValue());
     }
 
+    public void testDeferred() throws Exception
+    {
+        final int[] calls = new int[1];
+        Fact f = new Fact( "fact1", new Callable<String>()
+        {
+            public String call()
+            {
+                calls[0]++;
+                return "computed";
+            }
+        } );
+
+        assertEquals( "not computed yet", 0, calls[0] );
+        assertEquals( "computed", f.getValue() );
+        assertEquals( "computed", f.getValue() );
+        assertEquals( "computed once", 1, calls[0] );
+        assertEquals( new Fact( "fact1", "computed" ), f );
+    }
+
+    public void testDeferredSerialization() throws Exception
+    {
+        Fact f = new Fact( "fact1", new Callable<String>()
+        {
+            public String call()
+            {
+                return "computed";
+            }
+        } );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( bytes );
+        out.writeObject( f );
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+        Fact copy = (Fact)in.readObject();
+
+        assertEquals( "computed", copy.getValue() );
+    }
+
 }